@@ -3,10 +3,15 @@ package gov.nasa.arc.dert;
 import gov.nasa.arc.dert.action.edit.BackgroundColorDialog;
 import gov.nasa.arc.dert.ephemeris.Ephemeris;
 import gov.nasa.arc.dert.landscape.DerivativeLayer;
+import gov.nasa.arc.dert.landscape.ElevationRaster;
 import gov.nasa.arc.dert.landscape.FieldLayer;
 import gov.nasa.arc.dert.landscape.Landscape;
 import gov.nasa.arc.dert.landscape.QuadTree;
 import gov.nasa.arc.dert.landscape.QuadTreeCache;
+import gov.nasa.arc.dert.landscape.QuadTreeLoader;
+import gov.nasa.arc.dert.landscape.QuadTreePrefetcher;
+import gov.nasa.arc.dert.landscape.RegionSampler;
+import gov.nasa.arc.dert.landscape.TileBufferPool;
 import gov.nasa.arc.dert.lighting.Lighting;
 import gov.nasa.arc.dert.raster.proj.Proj4;
 import gov.nasa.arc.dert.render.BasicScene;
@@ -298,11 +303,25 @@ public class Dert {
 			FieldLayer.defaultColorMapName = DerivativeLayer.defaultColorMapName;
 			QuadTree.CELL_SIZE = StringUtil.getIntegerValue(dertProperties, "MeshCellSize", true, QuadTree.CELL_SIZE,
 				false);
+			TileBufferPool.MAX_POOL_MEMORY = StringUtil.getLongValue(dertProperties, "QuadTree.MaxBufferPoolSize", true,
+				TileBufferPool.MAX_POOL_MEMORY, false);
+			QuadTreeLoader.IO_THREADS = StringUtil.getIntegerValue(dertProperties, "QuadTree.IOThreads", false,
+				QuadTreeLoader.IO_THREADS, false);
+			QuadTreeLoader.MESH_THREADS = StringUtil.getIntegerValue(dertProperties, "QuadTree.MeshThreads", false,
+				QuadTreeLoader.MESH_THREADS, false);
+			QuadTreePrefetcher.LOOKAHEAD_FRAMES = StringUtil.getIntegerValue(dertProperties, "Prefetch.LookaheadFrames",
+				false, QuadTreePrefetcher.LOOKAHEAD_FRAMES, false);
+			QuadTreePrefetcher.MAX_PENDING_LOADS = StringUtil.getIntegerValue(dertProperties, "Prefetch.MaxPendingLoads",
+				true, QuadTreePrefetcher.MAX_PENDING_LOADS, false);
 			ViewpointController.mouseScrollDirection = StringUtil.getIntegerValue(dertProperties,
 				"MouseScrollDirection", false, -1, false);
 			BackgroundColorDialog.setPredefinedBackgroundColors(dertProperties);
 			Landscape.MAX_LEVELS = StringUtil.getIntegerValue(dertProperties, "Landscape.MaximumLevels", true,
 				Landscape.MAX_LEVELS, false);
+			RegionSampler.THREADS = StringUtil.getIntegerValue(dertProperties, "Landscape.AnalysisThreads", false,
+				RegionSampler.THREADS, false);
+			ElevationRaster.MAX_CACHE_MEMORY = StringUtil.getLongValue(dertProperties, "ElevationRaster.MaxCacheSize",
+				true, ElevationRaster.MAX_CACHE_MEMORY, false);
 			Axes.TIC_PIXELS = StringUtil.getIntegerValue(dertProperties, "Profile.tickInterval", true, 60, false);
 
 			// Get map element preferences.
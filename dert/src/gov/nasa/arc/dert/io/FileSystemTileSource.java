@@ -1,5 +1,6 @@
 package gov.nasa.arc.dert.io;
 
+import gov.nasa.arc.dert.landscape.QuadKey;
 import gov.nasa.arc.dert.landscape.QuadTreeTile;
 import gov.nasa.arc.dert.raster.RasterFile.DataType;
 import gov.nasa.arc.dert.util.ImageUtil;
@@ -9,9 +10,6 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,8 +27,14 @@ import com.ardor3d.image.Image;
  */
 public class FileSystemTileSource implements TileSource {
 
-	// Quad tree structure of existing tile ids
-	private DepthTree depthTree;
+	// Name of the layer that defines the landscape quad tree
+	public static final String BASE_LAYER = "elevation";
+
+	// Tile availability by layer name (null for a layer with no tiles)
+	private HashMap<String, TileIndex> indexMap;
+
+	// Tile availability for the base layer
+	private volatile TileIndex baseIndex;
 
 	// Landscape directory
 	private String dirName;
@@ -45,6 +49,7 @@ public class FileSystemTileSource implements TileSource {
 	 */
 	public FileSystemTileSource(String dirName) {
 		this.dirName = dirName;
+		indexMap = new HashMap<String, TileIndex>();
 	}
 
 	/**
@@ -102,8 +107,6 @@ public class FileSystemTileSource implements TileSource {
 				String type = prop.getProperty("LayerType");
 				if (type != null) {
 					layers.add(new String[] { filename, type, null });
-					if (type.equals("elevation"))
-						getDepthTree();
 				}
 			}
 		}
@@ -142,11 +145,30 @@ public class FileSystemTileSource implements TileSource {
 		return (dirName);
 	}
 
-	private boolean tileExists(String layerName, String id) {
-		if (depthTree != null) {
-			return (tileExists(id, depthTree));
+	/**
+	 * Determine if a tile exists in a layer.
+	 * 
+	 * @param layerName
+	 * @param key
+	 *            the tile QuadKey
+	 */
+	protected boolean tileExists(String layerName, long key) {
+		TileIndex index = getTileIndex(layerName);
+		if (index == null) {
+			return (tileFileExists(layerName, key));
 		}
-		String fileName = layerPath(layerName) + id + "/0.png";
+		return (index.contains(key));
+	}
+
+	/**
+	 * Determine if a tile exists in a layer by looking for it in storage.
+	 * 
+	 * @param layerName
+	 * @param key
+	 *            the tile QuadKey
+	 */
+	protected boolean tileFileExists(String layerName, long key) {
+		String fileName = layerPath(layerName) + QuadKey.toPath(key) + "/0.png";
 		File file = new File(fileName);
 		try {
 			if (file.getCanonicalFile().exists()) {
@@ -159,46 +181,33 @@ public class FileSystemTileSource implements TileSource {
 	}
 
 	/**
-	 * Determine if a tile exists.
+	 * Determine if a tile exists in the base layer.
 	 * 
-	 * @param id
-	 *            the tile id
+	 * @param key
+	 *            the tile QuadKey
 	 */
 	@Override
-	public boolean tileExists(String id) {
-		return (tileExists(id, depthTree));
-	}
-
-	private boolean tileExists(String id, DepthTree dTree) {
-		if (id.equals(dTree.id)) {
-			return (true);
-		}
-		if (!id.startsWith(dTree.id)) {
-			return (false);
-		}
-		if (dTree.child == null) {
+	public boolean tileExists(long key) {
+		TileIndex index = getBaseIndex();
+		if (index == null) {
 			return (false);
 		}
-		for (int i = 0; i < dTree.child.length; ++i) {
-			if (tileExists(id, dTree.child[i])) {
-				return (true);
-			}
-		}
-		return (false);
+		return (index.contains(key));
 	}
 
 	@Override
-	public QuadTreeTile getTile(String layerName, String id, DataType dataType) {
-		if (tileExists(layerName, id)) {
-			return (getTilePng(layerName, id, dataType));
+	public QuadTreeTile getTile(String layerName, long key, DataType dataType) {
+		if (tileExists(layerName, key)) {
+			return (getTilePng(layerName, key, dataType));
 		}
 		return (null);
 	}
 
 	/**
-	 * Given a layer and an id, load the contents of the tile.
+	 * Given a layer and a key, load the contents of the tile.
 	 */
-	public QuadTreeTile getTilePng(String layerName, String id, DataType dataType) {
+	public QuadTreeTile getTilePng(String layerName, long key, DataType dataType) {
+		String id = QuadKey.toPath(key);
 		try {
 			String fileName = layerPath(layerName) + id + "/0.png";
 			File file = new File(fileName).getCanonicalFile();
@@ -210,7 +219,7 @@ public class FileSystemTileSource implements TileSource {
 					DataBufferByte dBuf = (DataBufferByte) bImage.getData().getDataBuffer();
 					byte[] bytes = dBuf.getData();
 					ByteBuffer bBuf = ByteBuffer.wrap(bytes);
-					QuadTreeTile tile = new QuadTreeTile(bBuf, id, bImage.getWidth(), bImage.getHeight(), dataType,
+					QuadTreeTile tile = new QuadTreeTile(bBuf, key, bImage.getWidth(), bImage.getHeight(), dataType,
 						numBands);
 					return (tile);
 				}
@@ -221,7 +230,7 @@ public class FileSystemTileSource implements TileSource {
 					dataType = DataType.UnsignedInteger;
 				}
 				Image image = ImageUtil.convertToArdor3DImage(bImage, false);
-				QuadTreeTile tile = new QuadTreeTile(image, id, dataType);
+				QuadTreeTile tile = new QuadTreeTile(image, key, dataType);
 				return (tile);
 			}
 		} catch (Exception e) {
@@ -231,33 +240,19 @@ public class FileSystemTileSource implements TileSource {
 		return (null);
 	}
 
-	protected synchronized void fillDepthTree(DepthTree dTree, String path, String layerName) {
-		String id = path + "/";
-		if (tileExists(layerName, id + "1")) {
-			// if one child exists they should all exist
-			dTree.child = new DepthTree[] { new DepthTree(), new DepthTree(), new DepthTree(), new DepthTree() };
-			for (int i = 0; i < dTree.child.length; ++i) {
-				dTree.child[i].id = id + (i + 1);
-				fillDepthTree(dTree.child[i], id + (i + 1), layerName);
-			}
-		}
-	}
-
-	public synchronized String getMaxLevel(String id) {
-		String[] token = id.split("/");
-		DepthTree dTree = depthTree;
-		String newId = "";
-		for (int i = 0; i < token.length; ++i) {
-			if (!token[i].isEmpty()) {
-				if (dTree.child == null) {
-					return (newId);
-				}
-				int index = Integer.valueOf(token[i]) - 1;
-				dTree = dTree.child[index];
-				newId += "/" + token[i];
-			}
+	/**
+	 * Given a key, find the highest level tile on the path to the key that
+	 * exists.
+	 * 
+	 * @param key
+	 * @return the key or -1 if there are no tiles
+	 */
+	public long getMaxLevel(long key) {
+		TileIndex index = getBaseIndex();
+		if (index == null) {
+			return (-1);
 		}
-		return (newId);
+		return (index.getDeepest(key));
 	}
 
 	/**
@@ -268,88 +263,84 @@ public class FileSystemTileSource implements TileSource {
 	 *            , y the coordinate
 	 * @param worldWidth
 	 *            , worldHeight the physical dimensions of the source
-	 * @return the key string
+	 * @return the QuadKey, -1 if there are no tiles
 	 */
 	@Override
-	public synchronized String getKey(double x, double y, double worldWidth, double worldLength) {
-		String key = "";
-		return (getKey(depthTree, x, y, key, worldWidth / 2, worldLength / 2));
-	}
-
-	private String getKey(DepthTree depthTree, double x, double y, String key, double width, double length) {
-		if (depthTree.child == null) {
-			return (key);
-		}
-		double w = width / 2;
-		double l = length / 2;
-		if (x < 0) {
-			if (y >= 0) {
-				depthTree = depthTree.child[0];
-				return (getKey(depthTree, x + w, y - l, key + "/" + 1, w, l));
-			} else {
-				depthTree = depthTree.child[2];
-				return (getKey(depthTree, x + w, y + l, key + "/" + 3, w, l));
-			}
-		} else {
-			if (y >= 0) {
-				depthTree = depthTree.child[1];
-				return (getKey(depthTree, x - w, y - l, key + "/" + 2, w, l));
-			} else {
-				depthTree = depthTree.child[3];
-				return (getKey(depthTree, x - w, y + l, key + "/" + 4, w, l));
-			}
+	public long getKey(double x, double y, double worldWidth, double worldLength) {
+		TileIndex index = getBaseIndex();
+		if (index == null) {
+			return (-1);
 		}
+		return (index.getKey(x, y, worldWidth, worldLength));
 	}
 
 	protected final String layerPath(String layerName) {
 		return (dirName + "/" + layerName);
 	}
 
-	protected DepthTree getDepthTree() {
-		if (depthTree != null) {
-			return (depthTree);
+	/**
+	 * Get what the index builder uses to find the tiles of a layer. The index
+	 * may be built on several threads while this tile source is locked, so the
+	 * tile existence test must not lock it.
+	 * 
+	 * @param layerName
+	 * @return
+	 */
+	protected TileIndex.Source getIndexSource(final String layerName) {
+		return (new TileIndex.Source() {
+			@Override
+			public boolean tileExists(long key) {
+				return (tileFileExists(layerName, key));
+			}
+		});
+	}
+
+	private TileIndex getBaseIndex() {
+		TileIndex index = baseIndex;
+		if (index == null) {
+			index = getTileIndex(BASE_LAYER);
+			baseIndex = index;
 		}
-		String depthFileName = dirName + "/dert/depth.obj";
-		final File depthFile = new File(depthFileName);
-		if (depthFile.exists()) {
+		return (index);
+	}
+
+	/**
+	 * Get the tile availability index for a layer. The index is read from the
+	 * landscape dert directory. If it is missing or out of date it is built
+	 * and saved.
+	 * 
+	 * @param layerName
+	 * @return null if the layer has no tiles
+	 */
+	protected synchronized TileIndex getTileIndex(String layerName) {
+		if (indexMap.containsKey(layerName)) {
+			return (indexMap.get(layerName));
+		}
+		File propFile = new File(layerPath(layerName), "layer.properties");
+		if (!propFile.exists()) {
+			indexMap.put(layerName, null);
+			return (null);
+		}
+		long stamp = propFile.lastModified();
+		File indexFile = new File(dirName + "/dert", layerName + ".idx");
+		TileIndex index = TileIndex.read(indexFile, stamp);
+		if (index == null) {
+			Console.print("Building tile index for " + layerName + ". This may take a bit for large landscapes . . .");
+			index = TileIndex.build(getIndexSource(layerName), stamp);
+			Console.println("complete.");
 			try {
-				ObjectInputStream inStream = new ObjectInputStream(new FileInputStream(depthFile));
-				depthTree = (DepthTree) inStream.readObject();
-				inStream.close();
+				indexFile.getParentFile().mkdirs();
+				index.write(indexFile);
 			} catch (Exception e) {
 				e.printStackTrace();
-				System.out.println("Error reading depth tree file.");
-				depthTree = null;
+				Console.println("Error writing tile index file.");
 			}
 		}
-		if (depthTree == null) {
-			// assign after filling so tileExists method will work
-			if (tileExists("elevation", "")) {
-				Console.print("Filling depth tree. This may take a bit for large landscapes . . .");
-				DepthTree dTree = new DepthTree();
-				dTree.id = "";
-				fillDepthTree(dTree, "", "elevation");
-				depthTree = dTree;
-				Console.println("complete.");
-				Thread thread = new Thread(new Runnable() {
-					@Override
-					public void run() {
-						Thread.yield();
-						try {
-							ObjectOutputStream outStream = new ObjectOutputStream(new FileOutputStream(depthFile));
-							outStream.writeObject(depthTree);
-							outStream.close();
-						} catch (Exception e) {
-							e.printStackTrace();
-							Console.println("Error writing depth tree file.");
-							depthTree = null;
-						}
-					}
-				});
-				thread.start();
-			}
+		if (index.getNumberOfLevels() == 0) {
+			index = null;
 		}
-		return (depthTree);
+		indexMap.put(layerName, index);
+		return (index);
 	}
 
 }
@@ -0,0 +1,303 @@
+package gov.nasa.arc.dert.io;
+
+import gov.nasa.arc.dert.landscape.QuadKey;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Provides read access to a packed tile file. A packed tile file holds all of
+ * the tiles for one layer in a single file. The file starts with a fixed size
+ * header, followed by the tile payloads and then an index of the tiles.
+ *
+ * Header: magic (8 bytes), version (int), codec (int), index offset (long),
+ * number of tiles (int), padding to HEADER_SIZE.
+ *
+ * Index entry: tile id (UTF), payload offset (long), stored length (int),
+ * raw length (int), tile width (int), tile length (int).
+ *
+ * The index is held as the QuadKeys of the tile paths in sorted order with
+ * the location of each tile in parallel arrays. A lookup is a binary search
+ * that neither builds a path string nor allocates.
+ *
+ * The file is memory mapped in segments. The writer guarantees that a tile
+ * payload never crosses a segment boundary, so uncompressed tiles are returned
+ * as a slice of the mapped buffer without copying.
+ *
+ */
+public class PackedTileFile {
+
+	// Name of the packed tile file in the layer directory
+	public static final String FILE_NAME = "tiles.dat";
+
+	// File identifier
+	public static final byte[] MAGIC = { 'D', 'E', 'R', 'T', 'P', 'A', 'C', 'K' };
+
+	// File format version
+	public static final int VERSION = 1;
+
+	// Payload codecs
+	public static final int CODEC_NONE = 0;
+	public static final int CODEC_DEFLATE = 1;
+
+	// Size of the header in bytes
+	public static final int HEADER_SIZE = 64;
+
+	// Size of a mapped segment in bytes
+	public static final long SEGMENT_SIZE = 1l << 30;
+
+	/**
+	 * Location of a tile in the file
+	 */
+	public static class Entry {
+		public long offset;
+		public int storedLength;
+		public int rawLength;
+		public int width, length;
+	}
+
+	// The file
+	private File file;
+
+	// Payload codec
+	private int codec;
+
+	// Tile index, QuadKeys in ascending order and the location of each tile
+	private long[] keys;
+	private long[] offset;
+	private int[] storedLength, rawLength, width, length;
+
+	// Mapped segments
+	private MappedByteBuffer[] segment;
+
+	/**
+	 * Constructor. Open the packed tile file and load its index.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public PackedTileFile(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			channel.read(header, 0);
+			header.flip();
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			for (int i = 0; i < MAGIC.length; ++i) {
+				if (magic[i] != MAGIC[i]) {
+					throw new IOException(file + " is not a packed tile file.");
+				}
+			}
+			int version = header.getInt();
+			if (version > VERSION) {
+				throw new IOException(file + " has unsupported version " + version + ".");
+			}
+			codec = header.getInt();
+			long indexOffset = header.getLong();
+			int tileCount = header.getInt();
+
+			// read the index
+			channel.position(indexOffset);
+			DataInputStream iStream = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(channel)));
+			long[] fileKeys = new long[tileCount];
+			Entry[] entry = new Entry[tileCount];
+			for (int i = 0; i < tileCount; ++i) {
+				String id = iStream.readUTF();
+				entry[i] = new Entry();
+				entry[i].offset = iStream.readLong();
+				entry[i].storedLength = iStream.readInt();
+				entry[i].rawLength = iStream.readInt();
+				entry[i].width = iStream.readInt();
+				entry[i].length = iStream.readInt();
+				try {
+					fileKeys[i] = QuadKey.fromPath(id);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(file + " has invalid tile id " + id + ".");
+				}
+			}
+
+			// sort the index by key
+			keys = fileKeys.clone();
+			Arrays.sort(keys);
+			for (int i = 1; i < tileCount; ++i) {
+				if (keys[i] == keys[i - 1]) {
+					throw new IOException(file + " has duplicate tile id " + QuadKey.toPath(keys[i]) + ".");
+				}
+			}
+			offset = new long[tileCount];
+			storedLength = new int[tileCount];
+			rawLength = new int[tileCount];
+			width = new int[tileCount];
+			length = new int[tileCount];
+			for (int i = 0; i < tileCount; ++i) {
+				int k = Arrays.binarySearch(keys, fileKeys[i]);
+				offset[k] = entry[i].offset;
+				storedLength[k] = entry[i].storedLength;
+				rawLength[k] = entry[i].rawLength;
+				width[k] = entry[i].width;
+				length[k] = entry[i].length;
+			}
+
+			// map the payload in segments
+			int numSegments = (int) ((indexOffset + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			segment = new MappedByteBuffer[numSegments];
+			for (int i = 0; i < numSegments; ++i) {
+				long start = i * SEGMENT_SIZE;
+				long size = Math.min(SEGMENT_SIZE, indexOffset - start);
+				segment[i] = channel.map(MapMode.READ_ONLY, start, size);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the file
+	 *
+	 * @return
+	 */
+	public File getFile() {
+		return (file);
+	}
+
+	/**
+	 * Get the payload codec
+	 *
+	 * @return
+	 */
+	public int getCodec() {
+		return (codec);
+	}
+
+	/**
+	 * Get the number of tiles in the file
+	 *
+	 * @return
+	 */
+	public int getTileCount() {
+		return (keys.length);
+	}
+
+	/**
+	 * Determine if a tile is in the file
+	 *
+	 * @param key
+	 *            the tile QuadKey
+	 * @return
+	 */
+	public boolean contains(long key) {
+		return (getIndex(key) >= 0);
+	}
+
+	/**
+	 * Get the position of a tile in the index
+	 *
+	 * @param key
+	 *            the tile QuadKey
+	 * @return -1 if the tile is not in the file
+	 */
+	public int getIndex(long key) {
+		int i = Arrays.binarySearch(keys, key);
+		return ((i < 0) ? -1 : i);
+	}
+
+	/**
+	 * Get the width of a tile in pixels
+	 *
+	 * @param index
+	 *            the tile position in the index (see getIndex)
+	 * @return
+	 */
+	public int getTileWidth(int index) {
+		return (width[index]);
+	}
+
+	/**
+	 * Get the length of a tile in pixels
+	 *
+	 * @param index
+	 *            the tile position in the index (see getIndex)
+	 * @return
+	 */
+	public int getTileLength(int index) {
+		return (length[index]);
+	}
+
+	/**
+	 * Get the contents of a tile. Uncompressed tiles are a read-only slice of
+	 * the mapped file.
+	 *
+	 * @param key
+	 *            the tile QuadKey
+	 * @return null if the tile is not in the file or is empty
+	 */
+	public ByteBuffer getTile(long key) {
+		int i = getIndex(key);
+		if ((i < 0) || (rawLength[i] == 0)) {
+			return (null);
+		}
+		int s = (int) (offset[i] / SEGMENT_SIZE);
+		int p = (int) (offset[i] - s * SEGMENT_SIZE);
+		ByteBuffer buf = segment[s].duplicate();
+		buf.limit(p + storedLength[i]);
+		buf.position(p);
+		buf = buf.slice();
+		if (codec == CODEC_NONE) {
+			return (buf);
+		}
+		return (inflate(key, buf, rawLength[i]));
+	}
+
+	private ByteBuffer inflate(long key, ByteBuffer buf, int rawLength) {
+		byte[] in = new byte[buf.remaining()];
+		buf.get(in);
+		byte[] out = new byte[rawLength];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in);
+			int n = 0;
+			while ((n < rawLength) && !inflater.finished()) {
+				int k = inflater.inflate(out, n, rawLength - n);
+				if ((k == 0) && inflater.needsInput()) {
+					break;
+				}
+				n += k;
+			}
+			if (n != rawLength) {
+				throw new IllegalStateException("Tile " + QuadKey.toPath(key) + " in " + file + " is truncated.");
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Tile " + QuadKey.toPath(key) + " in " + file + " is corrupt.", e);
+		} finally {
+			inflater.end();
+		}
+		ByteBuffer result = ByteBuffer.allocateDirect(rawLength);
+		result.put(out);
+		result.flip();
+		return (result);
+	}
+
+	/**
+	 * Release the mapped segments
+	 */
+	public void dispose() {
+		segment = new MappedByteBuffer[0];
+		keys = new long[0];
+	}
+
+}
@@ -0,0 +1,166 @@
+package gov.nasa.arc.dert.io;
+
+import gov.nasa.arc.dert.landscape.QuadKey;
+import gov.nasa.arc.dert.landscape.QuadTreeTile;
+import gov.nasa.arc.dert.raster.RasterFile.DataType;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Properties;
+
+import com.ardor3d.image.Image;
+import com.ardor3d.image.ImageDataFormat;
+import com.ardor3d.image.PixelDataType;
+
+/**
+ * Provides an implementation of the TileSource interface for landscapes on the
+ * local file system where layers may be stored in a packed tile file (see
+ * PackedTileFile) instead of one PNG file per tile. A layer is packed if the
+ * TileFormat property in its layer.properties file is "Packed". Other layers
+ * are read as PNG files.
+ *
+ * Packed tiles are not decoded. Uncompressed tiles are handed to the landscape
+ * as a slice of the memory mapped file.
+ *
+ */
+public class PackedTileSource extends FileSystemTileSource {
+
+	// Value of the TileFormat property for packed layers
+	public static final String TILE_FORMAT = "Packed";
+
+	// Open packed tile files by layer name
+	private HashMap<String, PackedTileFile> packedFileMap;
+
+	// Layers that are not packed
+	private ArrayList<String> pngLayerList;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dirName
+	 */
+	public PackedTileSource(String dirName) {
+		super(dirName);
+		packedFileMap = new HashMap<String, PackedTileFile>();
+		pngLayerList = new ArrayList<String>();
+	}
+
+	/**
+	 * Determine if a layer is stored in a packed tile file.
+	 *
+	 * @param properties
+	 *            the layer properties
+	 * @return
+	 */
+	public static boolean isPacked(Properties properties) {
+		if (properties == null) {
+			return (false);
+		}
+		return (TILE_FORMAT.equalsIgnoreCase(properties.getProperty("TileFormat")));
+	}
+
+	/**
+	 * Get the packed tile file for a layer.
+	 *
+	 * @param layerName
+	 * @return null if the layer is not packed
+	 */
+	public synchronized PackedTileFile getPackedFile(String layerName) {
+		PackedTileFile packedFile = packedFileMap.get(layerName);
+		if (packedFile != null) {
+			return (packedFile);
+		}
+		if (pngLayerList.contains(layerName)) {
+			return (null);
+		}
+		File file = new File(layerPath(layerName), PackedTileFile.FILE_NAME);
+		if (isPacked(getProperties(layerName)) && file.exists()) {
+			try {
+				packedFile = new PackedTileFile(file);
+				packedFileMap.put(layerName, packedFile);
+				return (packedFile);
+			} catch (Exception e) {
+				System.out.println("Unable to open " + file + ", using PNG tiles.");
+				e.printStackTrace();
+			}
+		}
+		pngLayerList.add(layerName);
+		return (null);
+	}
+
+	@Override
+	protected boolean tileFileExists(String layerName, long key) {
+		PackedTileFile packedFile = getPackedFile(layerName);
+		if (packedFile == null) {
+			return (super.tileFileExists(layerName, key));
+		}
+		return (packedFile.contains(key));
+	}
+
+	@Override
+	protected TileIndex.Source getIndexSource(final String layerName) {
+		// look up the packed file once, getPackedFile locks this tile source
+		final PackedTileFile packedFile = getPackedFile(layerName);
+		if (packedFile == null) {
+			return (new TileIndex.Source() {
+				@Override
+				public boolean tileExists(long key) {
+					return (PackedTileSource.super.tileFileExists(layerName, key));
+				}
+			});
+		}
+		return (new TileIndex.Source() {
+			@Override
+			public boolean tileExists(long key) {
+				return (packedFile.contains(key));
+			}
+		});
+	}
+
+	@Override
+	public QuadTreeTile getTile(String layerName, long key, DataType dataType) {
+		PackedTileFile packedFile = getPackedFile(layerName);
+		if (packedFile == null) {
+			return (super.getTile(layerName, key, dataType));
+		}
+		return (getTilePacked(packedFile, key, dataType));
+	}
+
+	/**
+	 * Given a packed tile file and a key, get the contents of the tile.
+	 */
+	public QuadTreeTile getTilePacked(PackedTileFile packedFile, long key, DataType dataType) {
+		try {
+			ByteBuffer bBuf = packedFile.getTile(key);
+			if (bBuf == null) {
+				return (null);
+			}
+			int index = packedFile.getIndex(key);
+			int width = packedFile.getTileWidth(index);
+			int length = packedFile.getTileLength(index);
+			int bytesPerPixel = bBuf.remaining() / (width * length);
+			if (dataType == DataType.Float) {
+				return (new QuadTreeTile(bBuf, key, width, length, dataType, bytesPerPixel));
+			}
+			// Spurious gray tile in the midst of a color landscape.
+			ImageDataFormat format = ImageDataFormat.BGRA;
+			if (bytesPerPixel == 1) {
+				format = ImageDataFormat.Luminance;
+				dataType = DataType.UnsignedByte;
+			} else {
+				dataType = DataType.UnsignedInteger;
+			}
+			ArrayList<ByteBuffer> list = new ArrayList<ByteBuffer>(1);
+			list.add(bBuf);
+			Image image = new Image(format, PixelDataType.UnsignedByte, width, length, list, null);
+			return (new QuadTreeTile(image, key, dataType));
+		} catch (Exception e) {
+			System.out.println("Unable to read tile " + QuadKey.toPath(key) + ", see log.");
+			e.printStackTrace();
+		}
+		return (null);
+	}
+
+}
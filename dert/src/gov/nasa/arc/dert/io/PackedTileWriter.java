@@ -0,0 +1,191 @@
+package gov.nasa.arc.dert.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a packed tile file (see PackedTileFile). Tiles are appended in the
+ * order they are written and the index is written when the file is closed.
+ *
+ */
+public class PackedTileWriter {
+
+	// The file
+	private File file;
+
+	// File access
+	private RandomAccessFile raf;
+	private FileChannel channel;
+
+	// Payload codec
+	private int codec;
+
+	// Current end of the payload
+	private long position;
+
+	// Tile ids and index entries in the order written
+	private ArrayList<String> idList;
+	private ArrayList<PackedTileFile.Entry> entryList;
+
+	// Compressor
+	private Deflater deflater;
+	private byte[] deflateBuffer;
+
+	/**
+	 * Constructor. Create a new packed tile file, replacing any existing file.
+	 *
+	 * @param file
+	 * @param compress
+	 *            compress tile payloads
+	 * @throws IOException
+	 */
+	public PackedTileWriter(File file, boolean compress) throws IOException {
+		this.file = file;
+		codec = compress ? PackedTileFile.CODEC_DEFLATE : PackedTileFile.CODEC_NONE;
+		if (file.exists()) {
+			file.delete();
+		}
+		file.getParentFile().mkdirs();
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		position = PackedTileFile.HEADER_SIZE;
+		idList = new ArrayList<String>();
+		entryList = new ArrayList<PackedTileFile.Entry>();
+		if (compress) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			deflateBuffer = new byte[0];
+		}
+	}
+
+	/**
+	 * Get the file
+	 *
+	 * @return
+	 */
+	public File getFile() {
+		return (file);
+	}
+
+	/**
+	 * Append a tile.
+	 *
+	 * @param id
+	 *            the tile id
+	 * @param bytes
+	 *            the tile contents
+	 * @param len
+	 *            the number of bytes in the tile, 0 for an empty tile
+	 * @param width
+	 *            the tile width in pixels
+	 * @param length
+	 *            the tile length in pixels
+	 * @throws IOException
+	 */
+	public synchronized void writeTile(String id, byte[] bytes, int len, int width, int length) throws IOException {
+		PackedTileFile.Entry entry = new PackedTileFile.Entry();
+		entry.rawLength = len;
+		entry.width = width;
+		entry.length = length;
+
+		byte[] payload = bytes;
+		int payloadLength = len;
+		if ((deflater != null) && (len > 0)) {
+			if (deflateBuffer.length < len + 64) {
+				deflateBuffer = new byte[len + len / 8 + 64];
+			}
+			deflater.reset();
+			deflater.setInput(bytes, 0, len);
+			deflater.finish();
+			payloadLength = 0;
+			while (!deflater.finished()) {
+				if (payloadLength == deflateBuffer.length) {
+					byte[] tmp = new byte[deflateBuffer.length * 2];
+					System.arraycopy(deflateBuffer, 0, tmp, 0, payloadLength);
+					deflateBuffer = tmp;
+				}
+				payloadLength += deflater.deflate(deflateBuffer, payloadLength, deflateBuffer.length - payloadLength);
+			}
+			payload = deflateBuffer;
+		}
+		if (payloadLength > PackedTileFile.SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Tile " + id + " is too large for a packed tile file.");
+		}
+
+		// don't let a tile cross a mapped segment boundary
+		if ((payloadLength > 0)
+			&& ((position / PackedTileFile.SEGMENT_SIZE) != ((position + payloadLength - 1) / PackedTileFile.SEGMENT_SIZE))) {
+			position = ((position / PackedTileFile.SEGMENT_SIZE) + 1) * PackedTileFile.SEGMENT_SIZE;
+		}
+		entry.offset = position;
+		entry.storedLength = payloadLength;
+		if (payloadLength > 0) {
+			ByteBuffer bbuf = ByteBuffer.wrap(payload, 0, payloadLength);
+			long p = position;
+			while (bbuf.hasRemaining()) {
+				p += channel.write(bbuf, p);
+			}
+			position += payloadLength;
+		}
+		idList.add(id);
+		entryList.add(entry);
+	}
+
+	/**
+	 * Write the index and header and close the file.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (raf == null) {
+			return;
+		}
+		try {
+			// index
+			ByteArrayOutputStream bStream = new ByteArrayOutputStream(idList.size() * 40);
+			DataOutputStream oStream = new DataOutputStream(new BufferedOutputStream(bStream));
+			for (int i = 0; i < idList.size(); ++i) {
+				PackedTileFile.Entry entry = entryList.get(i);
+				oStream.writeUTF(idList.get(i));
+				oStream.writeLong(entry.offset);
+				oStream.writeInt(entry.storedLength);
+				oStream.writeInt(entry.rawLength);
+				oStream.writeInt(entry.width);
+				oStream.writeInt(entry.length);
+			}
+			oStream.flush();
+			ByteBuffer bbuf = ByteBuffer.wrap(bStream.toByteArray());
+			long p = position;
+			while (bbuf.hasRemaining()) {
+				p += channel.write(bbuf, p);
+			}
+
+			// header
+			bbuf = ByteBuffer.allocate(PackedTileFile.HEADER_SIZE);
+			bbuf.put(PackedTileFile.MAGIC);
+			bbuf.putInt(PackedTileFile.VERSION);
+			bbuf.putInt(codec);
+			bbuf.putLong(position);
+			bbuf.putInt(idList.size());
+			bbuf.rewind();
+			channel.write(bbuf, 0);
+			channel.force(false);
+		} finally {
+			raf.close();
+			raf = null;
+			channel = null;
+			if (deflater != null) {
+				deflater.end();
+				deflater = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,392 @@
+package gov.nasa.arc.dert.io;
+
+import gov.nasa.arc.dert.landscape.QuadKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Records which tiles exist in a layer pyramid. There is one bit for every
+ * possible tile at each level, in Morton order (see QuadKey). Levels are
+ * stored one after the other in a flat array of longs, level L starting at bit
+ * (4^L-1)/3. Looking up a tile is a single bit test.
+ *
+ * The index is built by checking for the first child of each existing tile,
+ * one level at a time. The tiles of a level are divided among several threads.
+ * It is saved in the landscape dert directory and memory mapped when read.
+ *
+ * File: magic (8 bytes), version (int), number of levels (int), time stamp
+ * (long), padding to HEADER_SIZE, bits (longs).
+ *
+ */
+public class TileIndex {
+
+	// File identifier
+	public static final byte[] MAGIC = { 'D', 'E', 'R', 'T', 'T', 'I', 'D', 'X' };
+
+	// File format version
+	public static final int VERSION = 1;
+
+	// Size of the header in bytes
+	public static final int HEADER_SIZE = 32;
+
+	// Number of threads for building an index (0 = number of processors)
+	public static int BUILD_THREADS = 0;
+
+	/**
+	 * Tells the index builder if a tile exists
+	 */
+	public static interface Source {
+		public boolean tileExists(long key);
+	}
+
+	// Bits for all levels
+	private LongBuffer bits;
+
+	// Number of levels with tiles (0 if there are no tiles)
+	private int numLevels;
+
+	// Time stamp of the layer when the index was built
+	private long stamp;
+
+	/**
+	 * Constructor
+	 *
+	 * @param bits
+	 * @param numLevels
+	 * @param stamp
+	 */
+	protected TileIndex(LongBuffer bits, int numLevels, long stamp) {
+		this.bits = bits;
+		this.numLevels = numLevels;
+		this.stamp = stamp;
+	}
+
+	/**
+	 * Get the index of the first bit of a level
+	 *
+	 * @param level
+	 * @return
+	 */
+	public static long getLevelOffset(int level) {
+		return (((1L << (2 * level)) - 1) / 3);
+	}
+
+	/**
+	 * Build an index.
+	 *
+	 * @param source
+	 *            checks for the existence of tiles
+	 * @param stamp
+	 *            the time stamp of the layer
+	 * @return
+	 */
+	public static TileIndex build(final Source source, long stamp) {
+		if (!source.tileExists(QuadKey.ROOT)) {
+			return (new TileIndex(LongBuffer.wrap(new long[0]), 0, stamp));
+		}
+		int threads = BUILD_THREADS;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		ExecutorService executor = null;
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads);
+		}
+		try {
+			ArrayList<long[]> levelList = new ArrayList<long[]>();
+			long[] level = new long[] { 1 };
+			levelList.add(level);
+			int numLevels = 1;
+			while (true) {
+				long[] next = buildLevel(source, level, numLevels - 1, executor, threads);
+				if (next == null) {
+					break;
+				}
+				if (numLevels == QuadKey.MAX_LEVEL) {
+					throw new IllegalStateException("Tile pyramid has too many levels.");
+				}
+				levelList.add(next);
+				level = next;
+				numLevels++;
+			}
+
+			// pack the levels into one array
+			long size = (getLevelOffset(numLevels) + 63) / 64;
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Tile pyramid has too many levels.");
+			}
+			long[] words = new long[(int) size];
+			for (int i = 0; i < numLevels; ++i) {
+				long[] levelBits = levelList.get(i);
+				long offset = getLevelOffset(i);
+				long n = 1L << (2 * i);
+				for (long j = 0; j < n; ++j) {
+					if ((levelBits[(int) (j >>> 6)] & (1L << j)) != 0) {
+						long b = offset + j;
+						words[(int) (b >>> 6)] |= 1L << b;
+					}
+				}
+			}
+			return (new TileIndex(LongBuffer.wrap(words), numLevels, stamp));
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Build the bits for the children of the tiles at a level.
+	 *
+	 * @return the bits or null if no tile at the level has children
+	 */
+	private static long[] buildLevel(final Source source, final long[] parentBits, final int parentLevel,
+		ExecutorService executor, int threads) {
+		final long numParents = 1L << (2 * parentLevel);
+		final long[] childBits = new long[(int) Math.max(1, (numParents * 4) >>> 6)];
+
+		// each task works on a range of 16 parents at a time so tasks never
+		// share a word of the child bits
+		long chunk = Math.max(16, ((numParents / threads) + 15) & ~15L);
+		ArrayList<Runnable> taskList = new ArrayList<Runnable>();
+		for (long start = 0; start < numParents; start += chunk) {
+			final long first = start;
+			final long last = Math.min(numParents, start + chunk);
+			taskList.add(new Runnable() {
+				@Override
+				public void run() {
+					for (long p = first; p < last; ++p) {
+						if ((parentBits[(int) (p >>> 6)] & (1L << p)) == 0) {
+							continue;
+						}
+						long parent = QuadKey.fromMorton(parentLevel, p);
+						// if one child exists they should all exist
+						if (source.tileExists(QuadKey.getChild(parent, 0))) {
+							long c = p * 4;
+							childBits[(int) (c >>> 6)] |= 0xfL << c;
+						}
+					}
+				}
+			});
+		}
+		if ((executor == null) || (taskList.size() == 1)) {
+			for (int i = 0; i < taskList.size(); ++i) {
+				taskList.get(i).run();
+			}
+		} else {
+			ArrayList<Future<?>> futureList = new ArrayList<Future<?>>();
+			for (int i = 0; i < taskList.size(); ++i) {
+				futureList.add(executor.submit(taskList.get(i)));
+			}
+			try {
+				for (int i = 0; i < futureList.size(); ++i) {
+					futureList.get(i).get();
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		for (int i = 0; i < childBits.length; ++i) {
+			if (childBits[i] != 0) {
+				return (childBits);
+			}
+		}
+		return (null);
+	}
+
+	/**
+	 * Read an index file.
+	 *
+	 * @param file
+	 * @param stamp
+	 *            the current time stamp of the layer
+	 * @return null if the file does not exist, is an older version, or was
+	 *         built for a different time stamp
+	 */
+	public static TileIndex read(File file, long stamp) {
+		if (!file.exists()) {
+			return (null);
+		}
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					return (null);
+				}
+			}
+			header.rewind();
+			for (int i = 0; i < MAGIC.length; ++i) {
+				if (header.get() != MAGIC[i]) {
+					return (null);
+				}
+			}
+			if (header.getInt() != VERSION) {
+				return (null);
+			}
+			int numLevels = header.getInt();
+			if (header.getLong() != stamp) {
+				return (null);
+			}
+			long size = channel.size() - HEADER_SIZE;
+			if (size != ((getLevelOffset(numLevels) + 63) / 64) * 8) {
+				return (null);
+			}
+			LongBuffer bits = channel.map(MapMode.READ_ONLY, HEADER_SIZE, size).asLongBuffer();
+			return (new TileIndex(bits, numLevels, stamp));
+		} catch (Exception e) {
+			System.out.println("Unable to read tile index " + file + ", see log.");
+			e.printStackTrace();
+			return (null);
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (Exception e) {
+					// nothing here
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write this index to a file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		ByteBuffer bbuf = ByteBuffer.allocate(HEADER_SIZE + bits.limit() * 8);
+		bbuf.put(MAGIC);
+		bbuf.putInt(VERSION);
+		bbuf.putInt(numLevels);
+		bbuf.putLong(stamp);
+		bbuf.position(HEADER_SIZE);
+		for (int i = 0; i < bits.limit(); ++i) {
+			bbuf.putLong(bits.get(i));
+		}
+		bbuf.flip();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (bbuf.hasRemaining()) {
+				channel.write(bbuf);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Determine if a tile exists
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean contains(long key) {
+		int level = QuadKey.getLevel(key);
+		if (level >= numLevels) {
+			return (false);
+		}
+		long b = getLevelOffset(level) + QuadKey.getMorton(key);
+		return ((bits.get((int) (b >>> 6)) & (1L << b)) != 0);
+	}
+
+	/**
+	 * Find the highest level tile that exists on the path from the root to the
+	 * given tile.
+	 *
+	 * @param key
+	 * @return the key of the tile or -1 if there are no tiles
+	 */
+	public long getDeepest(long key) {
+		if (numLevels == 0) {
+			return (-1);
+		}
+		// ancestors of an existing tile always exist
+		int lo = 0;
+		int hi = Math.min(QuadKey.getLevel(key), numLevels - 1);
+		while (lo < hi) {
+			int mid = (lo + hi + 1) / 2;
+			if (contains(QuadKey.getAncestor(key, mid))) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return (QuadKey.getAncestor(key, lo));
+	}
+
+	/**
+	 * Find the highest level tile that contains a coordinate.
+	 *
+	 * @param x
+	 *            , y the coordinate relative to the center of the landscape
+	 * @param worldWidth
+	 *            , worldLength the physical dimensions of the landscape
+	 * @return the key of the tile or -1 if there are no tiles
+	 */
+	public long getKey(double x, double y, double worldWidth, double worldLength) {
+		if (numLevels == 0) {
+			return (-1);
+		}
+		int maxLevel = numLevels - 1;
+		int n = 1 << maxLevel;
+		// columns are closed on the left, rows are closed on the top
+		int column = (int) Math.floor((x + worldWidth / 2) * n / worldWidth);
+		int row = (int) Math.ceil((worldLength / 2 - y) * n / worldLength) - 1;
+		column = Math.max(0, Math.min(n - 1, column));
+		row = Math.max(0, Math.min(n - 1, row));
+		return (getDeepest(QuadKey.getKey(maxLevel, column, row)));
+	}
+
+	/**
+	 * Get the number of levels that have tiles
+	 *
+	 * @return
+	 */
+	public int getNumberOfLevels() {
+		return (numLevels);
+	}
+
+	/**
+	 * Get the time stamp of the layer when this index was built
+	 *
+	 * @return
+	 */
+	public long getStamp() {
+		return (stamp);
+	}
+
+	/**
+	 * Get the number of tiles in the index
+	 *
+	 * @return
+	 */
+	public long getTileCount() {
+		long count = 0;
+		long n = (getLevelOffset(numLevels) + 63) / 64;
+		for (int i = 0; i < n; ++i) {
+			count += Long.bitCount(bits.get(i));
+		}
+		return (count);
+	}
+
+	@Override
+	public String toString() {
+		return ("TileIndex[levels=" + numLevels + ",tiles=" + getTileCount() + "]");
+	}
+}
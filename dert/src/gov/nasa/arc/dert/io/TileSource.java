@@ -30,22 +30,24 @@ public interface TileSource {
 	public Properties getProperties(String layerName);
 
 	/**
-	 * Given the tile id, return if it exists.
+	 * Given the tile key, return if it exists.
 	 * 
-	 * @param id
+	 * @param key
+	 *            the QuadKey of the tile
 	 * @return
 	 */
-	public boolean tileExists(String id);
+	public boolean tileExists(long key);
 
 	/**
 	 * Get a tile.
 	 * 
 	 * @param layerName
-	 * @param id
+	 * @param key
+	 *            the QuadKey of the tile
 	 * @param dataType
 	 * @return the tile
 	 */
-	public QuadTreeTile getTile(String layerName, String id, DataType dataType);
+	public QuadTreeTile getTile(String layerName, long key, DataType dataType);
 
 	// public byte[] getTileBytes(String layerName, String id, byte[] bytes);
 
@@ -63,9 +65,9 @@ public interface TileSource {
 	 *            , y the coordinate
 	 * @param worldWidth
 	 *            , worldLength the physical dimensions of the raster
-	 * @return
+	 * @return the QuadKey of the tile or -1 if there are no tiles
 	 */
-	public String getKey(double x, double y, double worldWidth, double worldLength);
+	public long getKey(double x, double y, double worldWidth, double worldLength);
 
 	// public String getMaxLevel(String id);
 
@@ -61,7 +61,7 @@ public class DerivativeLayer extends Layer implements ColorMapListener {
 	}
 
 	@Override
-	public QuadTreeTile getTile(String key) {
+	public QuadTreeTile getTile(long key) {
 		return (dataSource.getTile(key));
 	}
 
@@ -71,7 +71,7 @@ public class DerivativeLayer extends Layer implements ColorMapListener {
 	}
 
 	@Override
-	public Texture getTexture(String key, Texture store) {
+	public Texture getTexture(long key, Texture store) {
 		if (colorMapTexture == null) {
 			initColormap();
 		}
@@ -153,7 +153,8 @@ public class DerivativeLayer extends Layer implements ColorMapListener {
 		FloatBuffer normals = mesh.getMeshData().getNormalBuffer();
 		FloatBuffer colors = mesh.getMeshData().getColorBuffer();
 		FloatBuffer texCoords = mesh.getMeshData().getTextureBuffer(textureUnit);
-		if (texCoords == null) {
+		// the base texture coordinates are shared by all tiles
+		if ((texCoords == null) || texCoords.isReadOnly()) {
 			texCoords = BufferUtils.createFloatBuffer(colors.limit() / 2);
 		}
 		int dataSize = colors.limit() / 4;
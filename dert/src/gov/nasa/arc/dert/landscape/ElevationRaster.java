@@ -0,0 +1,809 @@
+package gov.nasa.arc.dert.landscape;
+
+import gov.nasa.arc.dert.io.TileSource;
+import gov.nasa.arc.dert.util.LongLinkedMap;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+
+import com.ardor3d.math.MathUtils;
+import com.ardor3d.math.Vector3;
+
+/**
+ * Provides read-only access to the elevation of the base layer at the highest
+ * level of detail, independent of the tiles being rendered. Tiles are read
+ * from the tile source as raw elevation values and kept in a small cache of
+ * their own, so analyses do not build meshes or textures and do not evict
+ * tiles from the QuadTreeCache. Missing values are NaN.
+ *
+ * Coordinates are relative to the center of the landscape, as for the
+ * QuadTree tiles. The interpolation and the normals are the same as for the
+ * tile meshes.
+ *
+ */
+public class ElevationRaster {
+
+	// The maximum amount of memory for the cache (in bytes)
+	public static long MAX_CACHE_MEMORY = 32000000l;
+
+	// Coordinates this close to the edge of a tile (in pixels) are on the edge
+	private static final double EDGE_TOLERANCE = 0.000001;
+
+	/**
+	 * The elevation of a tile. Row 0 is the top row.
+	 */
+	public static class Tile {
+
+		// The tile key (see QuadKey)
+		private long key;
+
+		// Elevation values scaled to the landscape
+		private float[] data;
+
+		// Number of columns and rows of posts (one more than the number of
+		// pixels)
+		private int columns, rows;
+
+		// Lower left corner
+		private double x0, y0;
+
+		// Pixel dimensions
+		private double pixelWidth, pixelLength;
+
+		// The tile is at the highest level
+		private boolean highestLevel;
+
+		// Summed-area tables, created when first needed
+		private SummedAreaTable table;
+
+		// Min/max pyramid, created when first needed
+		private MinMaxPyramid pyramid;
+
+		private Tile(long key, float[] data, int columns, int rows, double x0, double y0, double pixelWidth,
+			double pixelLength, boolean highestLevel) {
+			this.key = key;
+			this.highestLevel = highestLevel;
+			this.data = data;
+			this.columns = columns;
+			this.rows = rows;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.pixelWidth = pixelWidth;
+			this.pixelLength = pixelLength;
+		}
+
+		/**
+		 * Get the key of this tile
+		 *
+		 * @return
+		 */
+		public long getKey() {
+			return (key);
+		}
+
+		/**
+		 * Determine if this tile contains the given coordinates
+		 *
+		 * @param x
+		 * @param y
+		 * @return
+		 */
+		public boolean contains(double x, double y) {
+			return ((x >= x0) && (y >= y0) && (x <= x0 + (columns - 1) * pixelWidth)
+				&& (y <= y0 + (rows - 1) * pixelLength));
+		}
+
+		/**
+		 * Determine if this tile is at the highest level, so its posts are
+		 * the posts of the original raster
+		 *
+		 * @return
+		 */
+		public boolean isHighestLevel() {
+			return (highestLevel);
+		}
+
+		/**
+		 * Get the X coordinate of the left column of posts
+		 *
+		 * @return
+		 */
+		public double getX() {
+			return (x0);
+		}
+
+		/**
+		 * Get the Y coordinate of the bottom row of posts
+		 *
+		 * @return
+		 */
+		public double getY() {
+			return (y0);
+		}
+
+		/**
+		 * Get the pixel width of this tile
+		 *
+		 * @return
+		 */
+		public double getPixelWidth() {
+			return (pixelWidth);
+		}
+
+		/**
+		 * Get the pixel length of this tile
+		 *
+		 * @return
+		 */
+		public double getPixelLength() {
+			return (pixelLength);
+		}
+
+		/**
+		 * Get the number of columns of posts
+		 *
+		 * @return
+		 */
+		public int getColumns() {
+			return (columns);
+		}
+
+		/**
+		 * Get the number of rows of posts
+		 *
+		 * @return
+		 */
+		public int getRows() {
+			return (rows);
+		}
+
+		/**
+		 * Get the column of the post nearest the given X coordinate
+		 *
+		 * @param x
+		 * @return
+		 */
+		public int getColumn(double x) {
+			return ((int) Math.round((x - x0) / pixelWidth));
+		}
+
+		/**
+		 * Get the row of the post nearest the given Y coordinate (row 0 is the
+		 * top row)
+		 *
+		 * @param y
+		 * @return
+		 */
+		public int getRow(double y) {
+			return (rows - 1 - (int) Math.round((y - y0) / pixelLength));
+		}
+
+		/**
+		 * Get the elevation at a column and row of this tile
+		 *
+		 * @param c
+		 * @param r
+		 * @return
+		 */
+		public float getElevation(int c, int r) {
+			return (data[r * columns + c]);
+		}
+
+		/**
+		 * Get the elevation at the given coordinates using bilinear
+		 * interpolation.
+		 *
+		 * @param x
+		 * @param y
+		 * @return NaN if outside this tile
+		 */
+		public float getElevation(double x, double y) {
+			int tileWidth = columns - 1;
+			int tileLength = rows - 1;
+			x = toPixel(x - x0, pixelWidth, tileWidth);
+			y = toPixel(y - y0, pixelLength, tileLength);
+			// get 4 corner posts
+			int c0 = (int) Math.floor(x);
+			int c1 = (int) Math.min(Math.ceil(x), tileWidth);
+			int r0 = (int) Math.floor(y);
+			int r1 = (int) Math.min(Math.ceil(y), tileLength);
+			if ((c0 < 0) || (c0 > tileWidth) || (r0 < 0) || (r0 > tileLength)) {
+				return (Float.NaN);
+			}
+			// get 4 corner coordinates
+			double x1 = c0;
+			double x2 = c1;
+			double y1 = r0;
+			double y2 = r1;
+			// flip rows (this is like an image)
+			r0 = tileLength - r0;
+			r1 = tileLength - r1;
+			// linear interpolation in X direction
+			double xIn1 = 0;
+			double xIn2 = 0;
+			if (c0 == c1) {
+				xIn1 = getElevation(c0, r1);
+				xIn2 = getElevation(c0, r0);
+			} else {
+				xIn1 = (x2 - x) / (x2 - x1) * getElevation(c0, r0) + (x - x1) / (x2 - x1) * getElevation(c1, r0);
+				xIn2 = (x2 - x) / (x2 - x1) * getElevation(c0, r1) + (x - x1) / (x2 - x1) * getElevation(c1, r1);
+			}
+			// linear interpolation in Y direction
+			double elev = 0;
+			if (r0 == r1) {
+				elev = xIn1;
+			} else {
+				elev = (y2 - y) / (y2 - y1) * xIn1 + (y - y1) / (y2 - y1) * xIn2;
+			}
+			return ((float) elev);
+		}
+
+		/**
+		 * Get the elevation at the given coordinates using nearest neighbor
+		 * interpolation.
+		 *
+		 * @param x
+		 * @param y
+		 * @return NaN if outside this tile
+		 */
+		public float getElevationNearestNeighbor(double x, double y) {
+			int c = (int) Math.round((x - x0) / pixelWidth);
+			c = Math.min(c, columns - 1);
+			int r = (int) Math.round((y - y0) / pixelLength);
+			r = Math.min(r, rows - 1);
+			if ((c < 0) || (r < 0)) {
+				return (Float.NaN);
+			}
+			return (getElevation(c, rows - 1 - r));
+		}
+
+		/**
+		 * Get the surface normal of the post at or below and to the left of
+		 * the given coordinates. This is the average of the normals of the
+		 * triangles in the tile that share the post.
+		 *
+		 * @param x
+		 * @param y
+		 * @param store
+		 *            set to NaN if no triangle around the post has data
+		 * @return false if outside this tile or the post has no normal
+		 */
+		public boolean getNormal(double x, double y, Vector3 store) {
+			int tileWidth = columns - 1;
+			int tileLength = rows - 1;
+			int c = (int) Math.floor(toPixel(x - x0, pixelWidth, tileWidth));
+			int r = tileLength - (int) Math.floor(toPixel(y - y0, pixelLength, tileLength));
+			if ((c < 0) || (c > tileWidth) || (r < 0) || (r > tileLength) || Float.isNaN(getElevation(c, r))) {
+				store.set(0, 0, 0);
+				return (false);
+			}
+			float[] n = new float[3];
+			int count = 0;
+			if (r < tileLength) {
+				if (c < tileWidth) {
+					count += addFaceNormal(c, r, true, n);
+				}
+				if (c > 0) {
+					count += addFaceNormal(c - 1, r, true, n);
+					count += addFaceNormal(c - 1, r, false, n);
+				}
+			}
+			if (r > 0) {
+				if (c < tileWidth) {
+					count += addFaceNormal(c, r - 1, true, n);
+					count += addFaceNormal(c, r - 1, false, n);
+				}
+				if (c > 0) {
+					count += addFaceNormal(c - 1, r - 1, false, n);
+				}
+			}
+			if (count == 0) {
+				store.set(Double.NaN, Double.NaN, Double.NaN);
+				return (false);
+			}
+			store.set(n[0] / count, n[1] / count, n[2] / count);
+			return (true);
+		}
+
+		// Convert a distance from the tile corner to pixels, moving
+		// coordinates that are just outside of the tile due to rounding onto
+		// its edge
+		private double toPixel(double d, double pixelSize, int size) {
+			d /= pixelSize;
+			if ((d < 0) && (d > -EDGE_TOLERANCE)) {
+				return (0);
+			}
+			if ((d > size) && (d < size + EDGE_TOLERANCE)) {
+				return (size);
+			}
+			return (d);
+		}
+
+		// Add the normal of the top or bottom triangle of the cell whose upper
+		// left post is at c, r. Triangles with missing values add nothing.
+		// Returns the number of normals added.
+		private int addFaceNormal(int c, int r, boolean top, float[] n) {
+			double dx = pixelWidth;
+			double dy = -pixelLength;
+			double dxdy = -dx * dy;
+			float z = getElevation(c, r);
+			float z1 = getElevation(c, r + 1);
+			float z2 = getElevation(c + 1, r);
+			double nx, ny;
+			if (top) {
+				// edges are (0, dy, az) and (dx, 0, bz)
+				double az = (double) z1 - z;
+				double bz = (double) z2 - z;
+				nx = dy * bz;
+				ny = az * dx;
+			} else {
+				// edges are (-dx, dy, az) and (0, dy, bz)
+				z = getElevation(c + 1, r + 1);
+				double az = (double) z1 - z2;
+				double bz = (double) z - z2;
+				nx = dy * bz - az * dy;
+				ny = dx * bz;
+			}
+			double lsq = nx * nx + ny * ny + dxdy * dxdy;
+			if (Float.isNaN(z) || Float.isNaN(z1) || Float.isNaN(z2) || (Math.abs(lsq) <= MathUtils.EPSILON)) {
+				return (0);
+			}
+			double s = 1.0 / Math.sqrt(lsq);
+			n[0] += (float) (nx * s);
+			n[1] += (float) (ny * s);
+			n[2] += (float) (dxdy * s);
+			return (1);
+		}
+
+		/**
+		 * Get the number of bytes held by this tile
+		 *
+		 * @return
+		 */
+		public long getMemorySize() {
+			return (data.length * 4l + ((table == null) ? 0 : table.getMemorySize())
+				+ ((pyramid == null) ? 0 : pyramid.getMemorySize()));
+		}
+	}
+
+	// The source of the tiles and the base layer
+	private TileSource source;
+	private RasterLayer baseLayer;
+
+	// Physical dimensions of the landscape
+	private double worldWidth, worldLength;
+
+	// Dimensions of a pixel at the highest level
+	private double pixelWidth, pixelLength;
+
+	// Tile dimensions in pixels
+	private int tileWidth, tileLength;
+
+	// The highest level of the pyramid
+	private int maxLevel;
+
+	// Scale factor for elevation values
+	private double pixelScale;
+
+	// Kept in the cache in place of a tile that has no data
+	private static final Tile NO_DATA = new Tile(-1, new float[0], 0, 0, 0, 0, 0, 0, false);
+
+	// The cache of tiles in access order, keyed without boxing
+	private LongLinkedMap<Tile> cache;
+
+	// The tile found by the last request, checked before the cache
+	private Tile lastTile;
+
+	// The number of bytes held by the cache and the maximum
+	private long cacheSize, maxCacheSize;
+
+	// Statistics
+	private long hitCount, missCount, evictionCount;
+
+	// Statistics of the highest level tiles written when the layer was built
+	private TileStatistics statistics;
+	private boolean statisticsChecked;
+
+	/**
+	 * Constructor
+	 *
+	 * @param source
+	 *            the tile source
+	 * @param baseLayer
+	 *            the elevation layer
+	 * @param worldWidth
+	 *            physical width of the landscape
+	 * @param worldLength
+	 *            physical length of the landscape
+	 * @param pixelScale
+	 *            scale factor for elevation values
+	 */
+	public ElevationRaster(TileSource source, RasterLayer baseLayer, double worldWidth, double worldLength,
+		double pixelScale) {
+		this.source = source;
+		this.baseLayer = baseLayer;
+		this.worldWidth = worldWidth;
+		this.worldLength = worldLength;
+		this.pixelScale = pixelScale;
+		tileWidth = baseLayer.getTileWidth();
+		tileLength = baseLayer.getTileLength();
+		maxLevel = baseLayer.getNumberOfLevels() - 1;
+		double n = Math.pow(2, maxLevel);
+		pixelWidth = worldWidth / tileWidth / n;
+		pixelLength = worldLength / tileLength / n;
+		maxCacheSize = MAX_CACHE_MEMORY;
+		cache = new LongLinkedMap<Tile>(64, true);
+	}
+
+	/**
+	 * Get the key of the highest level tile that contains the given X,Y
+	 * coordinate.
+	 *
+	 * @param x
+	 * @param y
+	 * @return -1 if there is no tile
+	 */
+	public long getKey(double x, double y) {
+		return (source.getKey(x, y, worldWidth, worldLength));
+	}
+
+	/**
+	 * Get a tile
+	 *
+	 * @param key
+	 * @return null if the tile has no data
+	 */
+	public Tile getTile(long key) {
+		synchronized (this) {
+			Tile tile = lastTile;
+			if ((tile == null) || (tile.key != key)) {
+				tile = cache.get(key);
+			}
+			if (tile != null) {
+				hitCount++;
+				lastTile = tile;
+				return ((tile == NO_DATA) ? null : tile);
+			}
+			missCount++;
+		}
+
+		// read outside the lock so several threads can read at once
+		Tile tile = readTile(key);
+		if (tile == null) {
+			// remember the hole so it is not read again
+			tile = NO_DATA;
+		}
+		synchronized (this) {
+			Tile cached = cache.get(key);
+			if (cached != null) {
+				return ((cached == NO_DATA) ? null : cached);
+			}
+			cache.put(key, tile);
+			cacheSize += tile.getMemorySize();
+			trimCache();
+			// the newest tile is never trimmed
+			lastTile = tile;
+		}
+		return ((tile == NO_DATA) ? null : tile);
+	}
+
+	private void trimCache() {
+		while ((cacheSize > maxCacheSize) && (cache.size() > 1)) {
+			Tile eldest = cache.removeEldest();
+			if (eldest == lastTile) {
+				lastTile = null;
+			}
+			cacheSize -= eldest.getMemorySize();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Get the summed-area tables of a tile. The tables are computed from the
+	 * tile when first needed and kept with the tile in the cache.
+	 *
+	 * @param tile
+	 * @return
+	 */
+	public SummedAreaTable getSummedAreaTable(Tile tile) {
+		synchronized (this) {
+			if (tile.table != null) {
+				return (tile.table);
+			}
+		}
+		SummedAreaTable table = SummedAreaTable.create(tile.data, tile.columns, tile.rows);
+		synchronized (this) {
+			if (tile.table != null) {
+				return (tile.table);
+			}
+			tile.table = table;
+			addMemory(tile, table.getMemorySize());
+		}
+		return (table);
+	}
+
+	/**
+	 * Get the min/max pyramid of a tile. The pyramid is computed from the
+	 * tile when first needed and kept with the tile in the cache.
+	 *
+	 * @param tile
+	 * @return
+	 */
+	public MinMaxPyramid getMinMaxPyramid(Tile tile) {
+		synchronized (this) {
+			if (tile.pyramid != null) {
+				return (tile.pyramid);
+			}
+		}
+		MinMaxPyramid pyramid = new MinMaxPyramid(tile.data, tile.columns, tile.rows);
+		synchronized (this) {
+			if (tile.pyramid != null) {
+				return (tile.pyramid);
+			}
+			tile.pyramid = pyramid;
+			addMemory(tile, pyramid.getMemorySize());
+		}
+		return (pyramid);
+	}
+
+	// Count memory added to a tile, if the tile is still in the cache
+	private void addMemory(Tile tile, long size) {
+		if (cache.get(tile.key) == tile) {
+			cacheSize += size;
+			trimCache();
+		}
+	}
+
+	/**
+	 * Get the statistics of the highest level tiles that were written when
+	 * the layer was built. They are read when first needed.
+	 *
+	 * @return null if the layer has no statistics
+	 */
+	public TileStatistics getTileStatistics() {
+		synchronized (this) {
+			if (statisticsChecked) {
+				return (statistics);
+			}
+		}
+		TileStatistics stats = null;
+		File f = new File(source.getPath() + "/" + baseLayer.getLayerName(), TileStatistics.FILE_NAME);
+		if (f.exists()) {
+			try {
+				stats = TileStatistics.read(f, pixelScale);
+				if ((stats.getLevel() != maxLevel) || (stats.getTileWidth() != tileWidth)
+					|| (stats.getTileLength() != tileLength)) {
+					System.out.println(f + " does not match the layer, reading tiles instead.");
+					stats = null;
+				}
+			} catch (Exception e) {
+				System.out.println("Unable to read " + f + ", reading tiles instead.");
+				e.printStackTrace();
+				stats = null;
+			}
+		}
+		synchronized (this) {
+			if (!statisticsChecked) {
+				statistics = stats;
+				statisticsChecked = true;
+			}
+			return (statistics);
+		}
+	}
+
+	private Tile readTile(long key) {
+		QuadTreeTile qtTile = baseLayer.getTile(key);
+		if ((qtTile == null) || (qtTile.raster == null)) {
+			return (null);
+		}
+		FloatBuffer buffer = qtTile.raster.asFloatBuffer();
+		float[] data = new float[qtTile.width * qtTile.length];
+		buffer.get(data);
+		for (int i = 0; i < data.length; ++i) {
+			data[i] = (float) (data[i] * pixelScale);
+		}
+		int level = QuadKey.getLevel(key);
+		double n = Math.pow(2, level);
+		double w = worldWidth / n;
+		double l = worldLength / n;
+		double x0 = QuadKey.getColumn(key) * w - worldWidth / 2;
+		double y0 = worldLength / 2 - (QuadKey.getRow(key) + 1) * l;
+		return (new Tile(key, data, qtTile.width, qtTile.length, x0, y0, w / tileWidth, l / tileLength,
+			level == maxLevel));
+	}
+
+	/**
+	 * Get the highest level tile that contains the given X,Y coordinate.
+	 *
+	 * @param x
+	 * @param y
+	 * @return null if there is no tile
+	 */
+	public Tile getTile(double x, double y) {
+		long key = getKey(x, y);
+		if (key < 0) {
+			return (null);
+		}
+		return (getTile(key));
+	}
+
+	/**
+	 * Get the elevation at the given X,Y coordinate using bilinear
+	 * interpolation.
+	 *
+	 * @param x
+	 * @param y
+	 * @return NaN if there is no data
+	 */
+	public float getElevation(double x, double y) {
+		Tile tile = getTile(x, y);
+		if (tile == null) {
+			return (Float.NaN);
+		}
+		return (tile.getElevation(x, y));
+	}
+
+	/**
+	 * Get the elevation at the given X,Y coordinate using nearest neighbor
+	 * interpolation.
+	 *
+	 * @param x
+	 * @param y
+	 * @return NaN if there is no data
+	 */
+	public float getElevationNearestNeighbor(double x, double y) {
+		Tile tile = getTile(x, y);
+		if (tile == null) {
+			return (Float.NaN);
+		}
+		return (tile.getElevationNearestNeighbor(x, y));
+	}
+
+	/**
+	 * Get the surface normal at the given X,Y coordinate.
+	 *
+	 * @param x
+	 * @param y
+	 * @param store
+	 * @return false if there is no data
+	 */
+	public boolean getNormal(double x, double y, Vector3 store) {
+		Tile tile = getTile(x, y);
+		if (tile == null) {
+			store.set(0, 0, 0);
+			return (false);
+		}
+		return (tile.getNormal(x, y, store));
+	}
+
+	/**
+	 * Read a window of posts at the highest level. Post column 0, row 0 is the
+	 * upper left corner of the landscape. Posts in tiles that are not at the
+	 * highest level are interpolated.
+	 *
+	 * @param column
+	 *            the first column of the window
+	 * @param row
+	 *            the first row of the window
+	 * @param width
+	 *            the number of columns
+	 * @param length
+	 *            the number of rows
+	 * @param store
+	 *            the array for the window, in row order starting at the top
+	 * @return the number of posts that have data
+	 */
+	public int read(int column, int row, int width, int length, float[] store) {
+		int count = 0;
+		Tile tile = null;
+		for (int r = 0; r < length; ++r) {
+			double y = worldLength / 2 - (row + r) * pixelLength;
+			int k = r * width;
+			int c = 0;
+			while (c < width) {
+				double x = (column + c) * pixelWidth - worldWidth / 2;
+				long key = getKey(x, y);
+				if ((tile == null) || (tile.key != key)) {
+					tile = (key < 0) ? null : getTile(key);
+				}
+				int n = 1;
+				if (tile == null) {
+					store[k + c] = Float.NaN;
+				} else if (QuadKey.getLevel(key) == maxLevel) {
+					// copy the rest of the row in this tile
+					int tc = (int) Math.round((x - tile.x0) / tile.pixelWidth);
+					int tr = tile.rows - 1 - (int) Math.round((y - tile.y0) / tile.pixelLength);
+					n = Math.max(1, Math.min(width - c, tile.columns - tc));
+					System.arraycopy(tile.data, tr * tile.columns + tc, store, k + c, n);
+				} else {
+					store[k + c] = tile.getElevation(x, y);
+				}
+				for (int i = 0; i < n; ++i) {
+					if (!Float.isNaN(store[k + c + i])) {
+						count++;
+					}
+				}
+				c += n;
+			}
+		}
+		return (count);
+	}
+
+	/**
+	 * Get the physical width of the landscape
+	 *
+	 * @return
+	 */
+	public double getWidth() {
+		return (worldWidth);
+	}
+
+	/**
+	 * Get the physical length of the landscape
+	 *
+	 * @return
+	 */
+	public double getLength() {
+		return (worldLength);
+	}
+
+	/**
+	 * Get the width of a pixel at the highest level
+	 *
+	 * @return
+	 */
+	public double getPixelWidth() {
+		return (pixelWidth);
+	}
+
+	/**
+	 * Get the length of a pixel at the highest level
+	 *
+	 * @return
+	 */
+	public double getPixelLength() {
+		return (pixelLength);
+	}
+
+	/**
+	 * Get the width of a tile in pixels
+	 *
+	 * @return
+	 */
+	public int getTileWidth() {
+		return (tileWidth);
+	}
+
+	/**
+	 * Get the length of a tile in pixels
+	 *
+	 * @return
+	 */
+	public int getTileLength() {
+		return (tileLength);
+	}
+
+	/**
+	 * Remove all tiles from the cache
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		lastTile = null;
+		cacheSize = 0;
+	}
+
+	/**
+	 * Get the number of tile requests that were not in the cache
+	 *
+	 * @return
+	 */
+	public synchronized long getMissCount() {
+		return (missCount);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return ("ElevationRaster[tiles=" + cache.size() + ",bytes=" + cacheSize + ",max=" + maxCacheSize + ",hits="
+			+ hitCount + ",misses=" + missCount + ",evictions=" + evictionCount + "]");
+	}
+}
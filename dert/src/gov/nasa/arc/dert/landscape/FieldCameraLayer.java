@@ -105,7 +105,7 @@ public class FieldCameraLayer extends Layer {
 	}
 
 	@Override
-	public QuadTreeTile getTile(String key) {
+	public QuadTreeTile getTile(long key) {
 		return (null);
 	}
 
@@ -115,7 +115,7 @@ public class FieldCameraLayer extends Layer {
 	}
 
 	@Override
-	public Texture getTexture(String key, Texture store) {
+	public Texture getTexture(long key, Texture store) {
 		return (null);
 	}
 
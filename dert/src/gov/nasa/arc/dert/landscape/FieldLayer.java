@@ -67,7 +67,7 @@ public class FieldLayer extends Layer implements ColorMapListener {
 	}
 
 	@Override
-	public QuadTreeTile getTile(String key) {
+	public QuadTreeTile getTile(long key) {
 		return (dataSource.getTile(key));
 	}
 
@@ -77,7 +77,7 @@ public class FieldLayer extends Layer implements ColorMapListener {
 	}
 
 	@Override
-	public Texture getTexture(String key, Texture store) {
+	public Texture getTexture(long key, Texture store) {
 		if (colorMapTexture == null) {
 			initColormap();
 		}
@@ -125,13 +125,13 @@ public class FieldLayer extends Layer implements ColorMapListener {
 		Landscape.getInstance().markDirty(DirtyType.RenderState);
 	}
 	
-	public void createColorMapTextureCoords(String key, Mesh mesh, int tUnit) {
+	public void createColorMapTextureCoords(long key, Mesh mesh, int tUnit) {
 		FloatBuffer texCoords = getFloatTexCoords(key);
 		if (texCoords != null)
 			mesh.getMeshData().setTextureBuffer(texCoords, tUnit);
 	}
 	
-	private FloatBuffer getFloatTexCoords(String key) {
+	private FloatBuffer getFloatTexCoords(long key) {
 		Vector2 coord = new Vector2();
 		QuadTreeTile tile = dataSource.getTile(key);
 		FloatBuffer data = tile.raster.asFloatBuffer();
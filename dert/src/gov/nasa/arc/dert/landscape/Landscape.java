@@ -9,10 +9,12 @@ import gov.nasa.arc.dert.scene.tool.RadialGrid;
 import gov.nasa.arc.dert.scene.tool.ScaleBar;
 import gov.nasa.arc.dert.scene.tool.fieldcamera.FieldCamera;
 import gov.nasa.arc.dert.util.MathUtil;
+import gov.nasa.arc.dert.util.UIUtil;
 import gov.nasa.arc.dert.view.Console;
 import gov.nasa.arc.dert.viewpoint.BasicCamera;
 
 import java.awt.Color;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 
 import com.ardor3d.intersection.IntersectionRecord;
@@ -21,6 +23,7 @@ import com.ardor3d.intersection.PickingUtil;
 import com.ardor3d.intersection.PrimitivePickResults;
 import com.ardor3d.math.Ray3;
 import com.ardor3d.math.Vector3;
+import com.ardor3d.math.type.ReadOnlyTransform;
 import com.ardor3d.math.type.ReadOnlyVector3;
 import com.ardor3d.renderer.state.MaterialState;
 import com.ardor3d.renderer.state.MaterialState.MaterialFace;
@@ -74,6 +77,12 @@ public class Landscape extends Node {
 	// factory to create quad trees (tiles)
 	private QuadTreeFactory factory;
 
+	// full resolution elevation for analysis
+	private ElevationRaster elevationRaster;
+
+	// ray caster for the full resolution surface
+	private TerrainRayCaster rayCaster;
+
 	// the landscape vertical exaggeration
 	private double vertExaggeration = 1;
 
@@ -239,6 +248,9 @@ public class Landscape extends Node {
 		quadTree = null;
 		factory.dispose();
 		factory = null;
+		elevationRaster.clear();
+		elevationRaster = null;
+		rayCaster = null;
 		System.gc();
 		// get the new layer configuration
 		if (!layerManager.initialize(source)) {
@@ -253,11 +265,12 @@ public class Landscape extends Node {
 	 */
 	public void initialize() {
 		factory = new QuadTreeFactory(source, baseLayer, layerList, pixelScale);
-		factory.setSurfaceColor(surfaceColor);
+		elevationRaster = new ElevationRaster(source, baseLayer, worldWidth, worldLength, pixelScale);
+		rayCaster = new TerrainRayCaster(elevationRaster, minZ * pixelScale, maxZ * pixelScale);
 //		factory.enableLayers(layerManager.layersEnabled);
 
 		// create the top level quad tree tile
-		quadTree = factory.getQuadTree("", null, new Vector3(0, 0, 0), worldWidth / tileWidth,
+		quadTree = factory.getQuadTree(QuadKey.ROOT, null, new Vector3(0, 0, 0), worldWidth / tileWidth,
 			worldLength / tileLength, 0, -1, false);
 		if (quadTree == null) {
 			throw new IllegalStateException("Root quadTree is empty or invalid.");
@@ -277,8 +290,9 @@ public class Landscape extends Node {
 			quadTree.getSceneHints().setLightCombineMode(LightCombineMode.Off);
 		}
 
-		// layer effects shader
+		// layer effects shader, also applies the surface color
 		LayerEffects layerEffects = layerManager.getLayerEffects();
+		layerManager.setSurfaceColor(UIUtil.colorToFloatArray(surfaceColor));
 		quadTree.setRenderState(layerEffects);
 
 		// make sure changes are realized
@@ -333,6 +347,7 @@ public class Landscape extends Node {
 	public void dispose() {
 		quadTree = null;
 		factory.dispose();
+		elevationRaster.clear();
 		for (int i = 0; i < layerList.length; ++i) {
 			if (layerList[i] != null) {
 				layerList[i].dispose();
@@ -347,7 +362,8 @@ public class Landscape extends Node {
 	 */
 	public void setSurfaceColor(Color surfaceColor) {
 		this.surfaceColor = surfaceColor;
-		factory.setSurfaceColor(surfaceColor);
+		layerManager.setSurfaceColor(UIUtil.colorToFloatArray(surfaceColor));
+		quadTree.markDirty(DirtyType.RenderState);
 	}
 
 	/**
@@ -577,24 +593,71 @@ public class Landscape extends Node {
 	}
 
 	/**
-	 * Get the elevation at the given X,Y coordinate from the highest level tile
-	 * that can be found.
+	 * Set the Z coordinate in the contents object frame of the vertices in a
+	 * buffer that are inside the given quad tree. This is a single pass over
+	 * the buffer, use it instead of getZ for each vertex to drape lines.
+	 * 
+	 * @param vertex
+	 *            X,Y,Z coordinates
+	 * @param qTree
+	 * @param zOffset
+	 *            added to the Z coordinate
+	 * @return the number of vertices set
+	 */
+	public int getZ(FloatBuffer vertex, QuadTree qTree, double zOffset) {
+		return (qTree.getElevation(vertex, zOffset - minZ * pixelScale));
+	}
+
+	/**
+	 * Set the Z coordinate in the contents object frame of the vertices with
+	 * the given indices that are inside the given quad tree.
+	 * 
+	 * @param vertex
+	 *            X,Y,Z coordinates
+	 * @param index
+	 *            vertex indices, this array is reordered
+	 * @param n
+	 *            the number of indices
+	 * @param qTree
+	 * @param zOffset
+	 *            added to the Z coordinate
+	 * @return the number of vertices set
+	 */
+	public int getZ(FloatBuffer vertex, int[] index, int n, QuadTree qTree, double zOffset) {
+		return (qTree.getElevation(vertex, index, n, zOffset - minZ * pixelScale));
+	}
+
+	/**
+	 * Get the key of the highest level tile that contains the given X,Y
+	 * coordinate.
 	 * 
 	 * @param x
 	 * @param y
+	 * @return -1 if there is no tile
+	 */
+	public long getHighestLevelKey(double x, double y) {
+		return (source.getKey(x, y, worldWidth, worldLength));
+	}
+
+	/**
+	 * Get the full resolution elevation used for analysis.
+	 * 
 	 * @return
 	 */
+	public ElevationRaster getElevationRaster() {
+		return (elevationRaster);
+	}
+
+	/**
+	 * Get the elevation at the given X,Y coordinate from the highest level tile
+	 * that can be found. This does not create any rendered tiles.
+	 * 
+	 * @param x
+	 * @param y
+	 * @return NaN if there is no data
+	 */
 	public double getElevationAtHighestLevel(double x, double y) {
-		String key = source.getKey(x, y, worldWidth, worldLength);
-		if (key == null) {
-			return (Double.NaN);
-		}
-		QuadTree qt = factory.getQuadTree(key);
-		if (qt == null) {
-			return (Double.NaN);
-		}
-//		return (qt.getElevationNearestNeighbor(x, y));
-		return (qt.getElevation(x, y));
+		return (elevationRaster.getElevation(x, y));
 	}
 
 	/**
@@ -607,15 +670,79 @@ public class Landscape extends Node {
 	 * @return
 	 */
 	public boolean getNormalAtHighestLevel(double x, double y, Vector3 store) {
-		String key = source.getKey(x, y, worldWidth, worldLength);
-		if (key == null) {
-			return (false);
-		}
-		QuadTree qt = factory.getQuadTree(key);
-		if (qt == null) {
-			return (false);
+		return (elevationRaster.getNormal(x, y, store));
+	}
+
+	/**
+	 * Get the ray caster for the full resolution surface. It uses the
+	 * coordinates of the elevation raster, the Z coordinate is not translated
+	 * by the minimum elevation.
+	 * 
+	 * @return
+	 */
+	public TerrainRayCaster getRayCaster() {
+		return (rayCaster);
+	}
+
+	/**
+	 * Find where a ray in world coordinates first meets the full resolution
+	 * surface. Vertical exaggeration is included.
+	 * 
+	 * @param ray
+	 * @param position
+	 *            the intersection point in world coordinates
+	 * @param normal
+	 *            the surface normal in world coordinates
+	 * @return the distance along the ray, NaN if the ray does not meet the
+	 *         surface
+	 */
+	public double pickSurface(Ray3 ray, Vector3 position, Vector3 normal) {
+		ReadOnlyTransform transform = contents.getWorldTransform();
+		Vector3 origin = transform.applyInverse(ray.getOrigin(), new Vector3());
+		Vector3 direction = transform.applyInverseVector(ray.getDirection(), new Vector3());
+		double t = rayCaster.intersect(origin, direction, Double.MAX_VALUE, position, normal);
+		if (Double.isNaN(t)) {
+			return (t);
 		}
-		return (qt.getNormal(x, y, store));
+		transform.applyForward(position);
+		// normals are scaled by the inverse of the scale
+		ReadOnlyVector3 scale = transform.getScale();
+		normal.set(normal.getX() / scale.getX(), normal.getY() / scale.getY(), normal.getZ() / scale.getZ());
+		transform.getMatrix().applyPost(normal, normal);
+		normal.normalizeLocal();
+		return (t * ray.getDirection().length());
+	}
+
+	/**
+	 * Determine if the full resolution surface does not block the line
+	 * between two points in contents object frame.
+	 * 
+	 * @param p0
+	 * @param p1
+	 * @return
+	 */
+	public boolean isLineOfSight(ReadOnlyVector3 p0, ReadOnlyVector3 p1) {
+		double zOffset = minZ * pixelScale;
+		return (rayCaster.isVisible(new Vector3(p0.getX(), p0.getY(), p0.getZ() + zOffset),
+			new Vector3(p1.getX(), p1.getY(), p1.getZ() + zOffset)));
+	}
+
+	/**
+	 * Get the elevation angle of the horizon of the full resolution surface
+	 * seen from a point in contents object frame.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param azimuth
+	 *            the direction in radians clockwise from north
+	 * @param maxDistance
+	 *            the largest horizontal distance to search
+	 * @return the angle in radians, NaN if there is no surface in the
+	 *         direction
+	 */
+	public double getHorizonAngle(double x, double y, double z, double azimuth, double maxDistance) {
+		return (rayCaster.getHorizonAngle(x, y, z + minZ * pixelScale, azimuth, maxDistance));
 	}
 
 	/**
@@ -624,7 +751,9 @@ public class Landscape extends Node {
 	public boolean update(BasicCamera camera) {
 		boolean qtChanged = false;
 		if (quadTree != null) {
+			factory.setViewpoint(camera.getLocation());
 			qtChanged = quadTree.update(camera);
+			factory.getPrefetcher().prefetchAlongVelocity(camera);
 			for (int i = 0; i <= baseMapLevel; ++i) {
 				quadTree.stitch(i);
 			}
@@ -767,7 +896,9 @@ public class Landscape extends Node {
 
 	/**
 	 * Given a region, return the mean elevation sampled from the landscape.
-	 * Sample size is the same as the original raster pixel dimensions.
+	 * There is a sample at each post of the original raster inside the
+	 * region. A tile inside the region is added from its statistics without
+	 * reading it, other tiles are summed from their summed-area tables.
 	 * 
 	 * @param vertex
 	 *            array of vertices defining the region
@@ -779,29 +910,47 @@ public class Landscape extends Node {
 	 */
 	public double getSampledMeanElevationOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound,
 		ReadOnlyVector3 upperBound) {
-		double xMin = lowerBound.getX();
-		double yMin = lowerBound.getY();
-		int cSampleSize = (int) ((upperBound.getX() - lowerBound.getX()) / pixelWidth);
-		int rSampleSize = (int) ((upperBound.getY() - lowerBound.getY()) / pixelLength);
-		Vector3 vert = new Vector3();
-		double meanElevation = 0;
-		int count = 0;
-		for (int i = 0; i < rSampleSize; ++i) {
-			for (int j = 0; j < cSampleSize; ++j) {
-				if (Thread.currentThread().isInterrupted())
-					return(Double.NaN);
-				vert.set(xMin + j * pixelWidth, yMin + i * pixelLength, 0);
-				if (MathUtil.isInsidePolygon(vert, vertex)) {
-					double el = getElevationAtHighestLevel(vert.getX(), vert.getY());
+		RegionSampler sampler = getPostSampler(vertex, lowerBound, upperBound);
+		// sum and count
+		double[] sum = sampler.sample(this, new PostSumReduction(2) {
+			@Override
+			protected boolean visitTile(double[] result, TileStatistics stats, int index) {
+				result[0] += stats.getSum(index);
+				result[1] += stats.getCount(index);
+				return (true);
+			}
+
+			@Override
+			protected boolean visitRectangle(double[] result, SummedAreaTable table, int c0, int r0, int c1, int r1) {
+				result[0] += table.getSum(c0, r0, c1, r1);
+				result[1] += table.getCount(c0, r0, c1, r1);
+				return (true);
+			}
+
+			@Override
+			public void visitRun(double[] result, ElevationRaster.Tile tile, double[] xCoord, double y, int row,
+				int first, int last) {
+				if (tile.isHighestLevel()) {
+					SummedAreaTable table = elevationRaster.getSummedAreaTable(tile);
+					int c = tile.getColumn(xCoord[first]);
+					int r = tile.getRow(y);
+					result[0] += table.getSum(c, r, c + last - first, r + 1);
+					result[1] += table.getCount(c, r, c + last - first, r + 1);
+					return;
+				}
+				for (int i = first; i < last; ++i) {
+					double el = tile.getElevation(xCoord[i], y);
 					if (!Double.isNaN(el)) {
-						meanElevation += el;
-						count++;
+						result[0] += el;
+						result[1]++;
 					}
 				}
 			}
+		}, true, null);
+		if (sum == null) {
+			return (Double.NaN);
 		}
-		meanElevation /= count;
-		return (meanElevation);
+		return (sum[0] / sum[1]);
 	}
 
 	/**
@@ -813,31 +962,17 @@ public class Landscape extends Node {
 	 * @return
 	 */
 	public double getSampledMeanSlopeOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound) {
-		double xMin = lowerBound.getX();
-		double yMin = lowerBound.getY();
-		int cSampleSize = (int) ((upperBound.getX() - lowerBound.getX()) / pixelWidth);
-		int rSampleSize = (int) ((upperBound.getY() - lowerBound.getY()) / pixelLength);
-		Vector3 vert = new Vector3();
-		Vector3 meanNormal = new Vector3();
-		Vector3 store = new Vector3();
-		int count = 0;
-		for (int i = 0; i < rSampleSize; ++i) {
-			for (int j = 0; j < cSampleSize; ++j) {
-				if (Thread.currentThread().isInterrupted())
-					return(Double.NaN);
-				vert.set((float) (xMin + j * pixelWidth), (float) (yMin + i * pixelLength), 0);
-				if (MathUtil.isInsidePolygon(vert, vertex)) {
-					boolean success = getNormalAtHighestLevel(vert.getX(), vert.getY(), store);
-					if (success) {
-						meanNormal.addLocal(store);
-						count++;
-					}
-				}
+		RegionSampler sampler = getRegionSampler(vertex, lowerBound, upperBound, pixelWidth, pixelLength, 0, true);
+		RegionStatistics stats = sampler.sample(this, new StatisticsReduction(false) {
+			@Override
+			public void visit(RegionStatistics result, ElevationRaster.Tile tile, double x, double y, int row, int column) {
+				result.addNormal(tile, x, y);
 			}
+		}, true, null);
+		if (stats == null) {
+			return (Double.NaN);
 		}
-		vert.set(meanNormal);
-		vert.multiplyLocal(1.0 / count);
-		return (MathUtil.getSlopeFromNormal(vert));
+		return (stats.getMeanSlope());
 	}
 
 	/**
@@ -886,63 +1021,126 @@ public class Landscape extends Node {
 //		return (volume);
 //	}
 
-	public double[] getSampledVolumeOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound, Spatial polygon) {
-		int cSampleSize = (int) ((upperBound.getX() - lowerBound.getX()) / pixelWidth);
-		int rSampleSize = (int) ((upperBound.getY() - lowerBound.getY()) / pixelLength);
-		Vector3 vert = new Vector3();
-		double volumeAbove = 0;
-		double volumeBelow = 0;
-		// sample the landscape for elevation
-		for (int i = 0; i < rSampleSize; ++i) {
-			for (int j = 0; j < cSampleSize; ++j) {
-				if (Thread.currentThread().isInterrupted())
-					return(null);
-				vert.set((float) (lowerBound.getX() + j * pixelWidth), (float) (lowerBound.getY() + i * pixelLength), 0);
-				if (MathUtil.isInsidePolygon(vert, vertex)) {
-					double el = getElevationAtHighestLevel(vert.getX(), vert.getY())-minZ * pixelScale;
-					if (!Double.isNaN(el)) {
-						vert.setZ(upperBound.getZ()+1);
-						double pZ = sampleSpatial(vert, Vector3.NEG_UNIT_Z, polygon);
-//							System.err.println("Landscape.getSampledVolumeOfRegion "+el+" "+maxZ+" "+minZ+" "+pZ+" "+vert);
-						if (!Double.isNaN(pZ)) {
-							if (el < pZ) {
-								volumeBelow += (pZ-el);
-							}
-							else {
-								volumeAbove += (el-pZ);
-							}
+	public double[] getSampledVolumeOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound, final Spatial polygon) {
+		RegionSampler sampler = getRegionSampler(vertex, lowerBound, upperBound, pixelWidth, pixelLength, 0, true);
+		final double top = upperBound.getZ() + 1;
+		final double zOffset = minZ * pixelScale;
+		final Vector3 vert = new Vector3();
+		// volume above and below, picking the polygon is done on one thread
+		double[] volume = sampler.sample(this, new SumReduction(2) {
+			@Override
+			public void visit(double[] result, ElevationRaster.Tile tile, double x, double y, int row, int column) {
+				double el = tile.getElevation(x, y) - zOffset;
+				if (!Double.isNaN(el)) {
+					vert.set(x, y, top);
+					double pZ = sampleSpatial(vert, Vector3.NEG_UNIT_Z, polygon);
+					if (!Double.isNaN(pZ)) {
+						if (el < pZ) {
+							result[1] += (pZ - el);
+						} else {
+							result[0] += (el - pZ);
 						}
 					}
 				}
 			}
+		}, false, null);
+		if (volume == null) {
+			return (null);
 		}
-		return (new double[] {volumeAbove*pixelWidth*pixelLength, volumeBelow*pixelWidth*pixelLength});
-	}
-
-	public double[] getSampledVolumeOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound, double elev) {
-		int cSampleSize = (int) ((upperBound.getX() - lowerBound.getX()) / pixelWidth);
-		int rSampleSize = (int) ((upperBound.getY() - lowerBound.getY()) / pixelLength);
-		Vector3 vert = new Vector3();
-		double volumeAbove = 0;
-		double volumeBelow = 0;
-		// sample the landscape for elevation
-		for (int i = 0; i < rSampleSize; ++i) {
-			for (int j = 0; j < cSampleSize; ++j) {
-				if (Thread.currentThread().isInterrupted())
-					return(null);
-				vert.set((float) (lowerBound.getX() + j * pixelWidth), (float) (lowerBound.getY() + i * pixelLength), 0);
-				if (MathUtil.isInsidePolygon(vert, vertex)) {
-					double el = getElevationAtHighestLevel(vert.getX(), vert.getY());
-					if (!Double.isNaN(el)) {
-						if (el < elev)
-							volumeBelow += (elev-el);
-						else
-							volumeAbove += (el-elev);
+		return (new double[] { volume[0] * pixelWidth * pixelLength, volume[1] * pixelWidth * pixelLength });
+	}
+
+	/**
+	 * Compute the volume of the landscape above and below an elevation inside
+	 * a region. There is a sample at each post of the original raster inside
+	 * the region. A tile inside the region that is entirely above or below the
+	 * elevation is added from its statistics without reading it, other tiles
+	 * entirely above or below are summed from their summed-area tables.
+	 * 
+	 * @param vertex
+	 *            array of vertices defining the region
+	 * @param lowerBound
+	 *            the lower bound of the region
+	 * @param upperBound
+	 *            the upper bound of the region
+	 * @param elev
+	 *            the elevation
+	 * @return the volume above and below
+	 */
+	public double[] getSampledVolumeOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound, final double elev) {
+		RegionSampler sampler = getPostSampler(vertex, lowerBound, upperBound);
+		// volume above and below
+		double[] volume = sampler.sample(this, new PostSumReduction(2) {
+			@Override
+			protected boolean visitTile(double[] result, TileStatistics stats, int index) {
+				int count = stats.getCount(index);
+				if (count == 0) {
+					return (true);
+				}
+				return (addVolume(result, stats.getMinimum(index), stats.getMaximum(index), count,
+					stats.getSum(index), elev));
+			}
+
+			@Override
+			protected boolean visitRectangle(double[] result, SummedAreaTable table, int c0, int r0, int c1, int r1) {
+				return (addVolume(result, table.getMinimum(), table.getMaximum(), table.getCount(c0, r0, c1, r1),
+					table.getSum(c0, r0, c1, r1), elev));
+			}
+
+			@Override
+			public void visitRun(double[] result, ElevationRaster.Tile tile, double[] xCoord, double y, int row,
+				int first, int last) {
+				if (tile.isHighestLevel()) {
+					SummedAreaTable table = elevationRaster.getSummedAreaTable(tile);
+					int c = tile.getColumn(xCoord[first]);
+					int r = tile.getRow(y);
+					if (table.getMinimum() >= elev) {
+						result[0] += table.getSum(c, r, c + last - first, r + 1) - table.getCount(c, r, c + last - first, r + 1) * elev;
+						return;
+					}
+					if (table.getMaximum() < elev) {
+						result[1] += table.getCount(c, r, c + last - first, r + 1) * elev - table.getSum(c, r, c + last - first, r + 1);
+						return;
+					}
+					// the tile crosses the elevation, visit the posts
+					for (int i = 0; i < last - first; ++i) {
+						addVolume(result, tile.getElevation(c + i, r), elev);
 					}
+					return;
 				}
+				for (int i = first; i < last; ++i) {
+					addVolume(result, tile.getElevation(xCoord[i], y), elev);
+				}
+			}
+		}, true, null);
+		if (volume == null) {
+			return (null);
+		}
+		return (new double[] { volume[0] * pixelWidth * pixelLength, volume[1] * pixelWidth * pixelLength });
+	}
+
+	// Add the volume of posts that are all above or all below the elevation
+	// given their range, number and sum. Returns false if they are not.
+	private boolean addVolume(double[] result, float min, float max, int count, double sum, double elev) {
+		if (min >= elev) {
+			result[0] += sum - count * elev;
+			return (true);
+		}
+		if (max < elev) {
+			result[1] += count * elev - sum;
+			return (true);
+		}
+		return (false);
+	}
+
+	private void addVolume(double[] result, double el, double elev) {
+		if (!Double.isNaN(el)) {
+			if (el < elev) {
+				result[1] += (elev - el);
+			} else {
+				result[0] += (el - elev);
 			}
 		}
-		return (new double[] {volumeAbove*pixelWidth*pixelLength, volumeBelow*pixelWidth*pixelLength});
 	}
 
 	private double sampleSpatial(Vector3 p0, ReadOnlyVector3 dir, Spatial node) {
@@ -970,48 +1168,84 @@ public class Landscape extends Node {
 	}
 
 	/**
-	 * Estimate the elevation difference of the landscape with the given polygon
-	 * by sampling.
+	 * Estimate the elevation difference of the landscape with the given plane
+	 * by sampling. The differences are stored in a flat array, row by row, so
+	 * the array can be reused while the plane is moved. The plane is
+	 * evaluated once for each span of samples in a row and then stepped by a
+	 * constant for each column.
 	 * 
 	 * @param vertex
 	 *            the vertices of the polygon
-	 * @param samples
-	 *            the number of samples on a side of the rectangular region
-	 *            defined by the polygon bounds
-	 * @return an array of elevation difference
+	 * @param planeEq
+	 *            the plane equation
+	 * @param sampleSize
+	 *            the distance between samples
+	 * @param result
+	 *            the elevation differences, sample (row, column) is stored at
+	 *            row*stride+column, NaN if outside the polygon or there is no
+	 *            data
+	 * @param stride
+	 *            the number of values stored for each row, at least the
+	 *            number of columns
+	 * @param minMaxElev
+	 *            the minimum and maximum difference
+	 * @return the number of rows and columns sampled
 	 */
 	public int[] getSampledDifferenceOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound,
-		double[] planeEq, double sampleSize, float[][] result, float[] minMaxElev) {
+		final double[] planeEq, double sampleSize, final float[] result, final int stride, final float[] minMaxElev) {
 		int columns = (int) ((upperBound.getX() - lowerBound.getX()) / sampleSize);
 		int rows = (int) ((upperBound.getY() - lowerBound.getY()) / sampleSize);
-		Vector3 vert = new Vector3();
-		minMaxElev[0] = Float.MAX_VALUE;
-		minMaxElev[1] = -Float.MAX_VALUE;
-		// sample the landscape for elevation
-		for (int i = 0; i < rows; ++i) {
-			for (int j = 0; j < columns; ++j) {
-				vert.set((float) (lowerBound.getX() + j * sampleSize), (float) (lowerBound.getY() + i * sampleSize), 0);
-				if (MathUtil.isInsidePolygon(vert, vertex)) {
-					double el = getElevationAtHighestLevel(vert.getX(), vert.getY())-minZ;
-					double elPoly = MathUtil.getPlaneZ(vert.getX(), vert.getY(), planeEq);
-//					System.err.println("Landscape.getSampledDifferenceOfRegion "+el+" "+elPoly);
-					result[i][j] = (float) (el - elPoly);
-					if (result[i][j] < minMaxElev[0]) {
-						minMaxElev[0] = result[i][j];
+		if ((columns > stride) || (rows * stride > result.length)) {
+			throw new IllegalArgumentException("Difference array is too small for " + rows + "x" + columns
+				+ " samples.");
+		}
+		RegionSampler sampler = getRegionSampler(vertex, lowerBound, upperBound, sampleSize, sampleSize, 0, true);
+		Arrays.fill(result, 0, rows * stride, Float.NaN);
+		// change in the plane elevation from one column to the next
+		final double planeStep = -planeEq[0] * sampleSize / planeEq[2];
+		// sample the landscape for elevation, each tile fills its own samples
+		float[] range = sampler.sample(this, new RegionSampler.RunReduction<float[]>() {
+			@Override
+			public float[] create() {
+				return (new float[] { Float.MAX_VALUE, -Float.MAX_VALUE });
+			}
+
+			@Override
+			public void visit(float[] minMax, ElevationRaster.Tile tile, double x, double y, int row, int column) {
+				// not used
+			}
+
+			@Override
+			public void visitRun(float[] minMax, ElevationRaster.Tile tile, double[] xCoord, double y, int row,
+				int first, int last) {
+				float min = minMax[0];
+				float max = minMax[1];
+				double elPlane = MathUtil.getPlaneZ(xCoord[first], y, planeEq) + minZ;
+				int k = row * stride + first;
+				for (int c = first; c < last; ++c) {
+					float d = (float) (tile.getElevation(xCoord[c], y) - elPlane);
+					result[k++] = d;
+					if (d < min) {
+						min = d;
 					}
-					if (result[i][j] > minMaxElev[1]) {
-						minMaxElev[1] = result[i][j];
+					if (d > max) {
+						max = d;
 					}
-				} else {
-					result[i][j] = Float.NaN;
+					elPlane += planeStep;
 				}
+				minMax[0] = min;
+				minMax[1] = max;
 			}
-			for (int j = columns; j < result[0].length; ++j) {
-				result[i][j] = Float.NaN;
+
+			@Override
+			public void combine(float[] minMax, float[] other) {
+				minMax[0] = Math.min(minMax[0], other[0]);
+				minMax[1] = Math.max(minMax[1], other[1]);
 			}
-		}
-		for (int i = rows; i < result.length; ++i) {
-			Arrays.fill(result[i], Float.NaN);
+		}, true, null);
+		if (range != null) {
+			minMaxElev[0] = range[0];
+			minMaxElev[1] = range[1];
 		}
 		return (new int[] { rows, columns });
 	}
@@ -1048,58 +1282,277 @@ public class Landscape extends Node {
 	 * @return
 	 */
 	public double getSampledSurfaceAreaOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound) {
-		Vector3 vert = new Vector3();
-		int cSampleSize = (int) ((upperBound.getX() - lowerBound.getX()) / pixelWidth);
-		int rSampleSize = (int) ((upperBound.getY() - lowerBound.getY()) / pixelLength);
-		double surfaceArea = 0;
-		for (int i = 0; i < rSampleSize; ++i) {
-			for (int j = 0; j < cSampleSize; ++j) {
-				if (Thread.currentThread().isInterrupted())
-					return(Double.NaN);
-				vert.set((float) (lowerBound.getX() + (j+0.5) * pixelWidth), (float) (lowerBound.getY() + (i+0.5) * pixelLength), 0);
-				if (MathUtil.isInsidePolygon(vert, vertex)) {
-					double sa = getSurfaceArea(vert);
-					if (!Double.isNaN(sa)) {
-						surfaceArea += sa;
-					}
+		final RegionSampler sampler = getRegionSampler(vertex, lowerBound, upperBound, pixelWidth, pixelLength, 0.5,
+			true);
+		double[] surfaceArea = sampler.sample(this, new SumReduction(1) {
+			@Override
+			public void visit(double[] result, ElevationRaster.Tile tile, double x, double y, int row, int column) {
+				double z = tile.getElevation(x, y);
+				if (!Double.isNaN(z)) {
+					result[0] += getSurfaceArea(sampler, tile, x, y, z);
 				}
 			}
+		}, true, null);
+		if (surfaceArea == null) {
+			return (Double.NaN);
 		}
-		return (surfaceArea);
+		return (surfaceArea[0]);
 	}
 
-	private double getSurfaceArea(ReadOnlyVector3 point) {
+	/**
+	 * Given a region, compute the elevation statistics, mean slope, surface
+	 * area, and optionally the volume in a single pass over the samples. There
+	 * is a sample at the center of each pixel of the original raster.
+	 * 
+	 * @param vertex
+	 *            array of vertices defining the region
+	 * @param lowerBound
+	 *            the lower bound of the region
+	 * @param upperBound
+	 *            the upper bound of the region
+	 * @param volElev
+	 *            compute the volume above and below this elevation (NaN if
+	 *            not used)
+	 * @param polygon
+	 *            compute the volume above and below this surface (null if not
+	 *            used)
+	 * @param listener
+	 *            receives the progress on the calling thread (may be null)
+	 * @return the statistics or null if the thread was interrupted
+	 */
+	public RegionStatistics getSampledStatisticsOfRegion(Vector3[] vertex, ReadOnlyVector3 lowerBound,
+		ReadOnlyVector3 upperBound, final double volElev, final Spatial polygon,
+		RegionSampler.Listener listener) {
+		final RegionSampler sampler = getRegionSampler(vertex, lowerBound, upperBound, pixelWidth, pixelLength, 0.5,
+			true);
+		final double top = upperBound.getZ() + 1;
+		final double zOffset = minZ * pixelScale;
+		final Vector3 vert = new Vector3();
+		// picking the polygon is done on one thread
+		return (sampler.sample(this, new StatisticsReduction((polygon != null) || !Double.isNaN(volElev)) {
+			@Override
+			public void visit(RegionStatistics result, ElevationRaster.Tile tile, double x, double y, int row, int column) {
+				double z = tile.getElevation(x, y);
+				if (!Double.isNaN(z)) {
+					result.addElevation(z);
+					result.addSurfaceArea(getSurfaceArea(sampler, tile, x, y, z));
+					result.addNormal(tile, x, y);
+					if (polygon != null) {
+						vert.set(x, y, top);
+						double pZ = sampleSpatial(vert, Vector3.NEG_UNIT_Z, polygon);
+						if (!Double.isNaN(pZ)) {
+							result.addVolume(z - zOffset, pZ);
+						}
+					} else if (!Double.isNaN(volElev)) {
+						result.addVolume(z, volElev);
+					}
+				}
+			}
+		}, polygon == null, listener));
+	}
+
+	private double getSurfaceArea(RegionSampler sampler, ElevationRaster.Tile tile, double x, double y, double z) {
 		double xd = pixelWidth / 2;
 		double yd = pixelLength / 2;
-		double x = point.getX();
-		double y = point.getY();
+		// elevations of the corners and edge centers of the pixel
+		double zUL = sampler.getElevation(tile, x - xd, y + yd);
+		double zU = sampler.getElevation(tile, x, y + yd);
+		double zUR = sampler.getElevation(tile, x + xd, y + yd);
+		double zL = sampler.getElevation(tile, x - xd, y);
+		double zR = sampler.getElevation(tile, x + xd, y);
+		double zLL = sampler.getElevation(tile, x - xd, y - yd);
+		double zD = sampler.getElevation(tile, x, y - yd);
+		double zLR = sampler.getElevation(tile, x + xd, y - yd);
 		double surfaceArea = 0;
-		surfaceArea += getAreaOfTriangle(x, y, x - xd, y + yd, x, y + yd);
-		surfaceArea += getAreaOfTriangle(x, y, x + xd, y + yd, x, y + yd);
-		surfaceArea += getAreaOfTriangle(x, y, x - xd, y, x - xd, y + yd);
-		surfaceArea += getAreaOfTriangle(x, y, x + xd, y, x + xd, y + yd);
-		surfaceArea += getAreaOfTriangle(x, y, x - xd, y, x - xd, y - yd);
-		surfaceArea += getAreaOfTriangle(x, y, x + xd, y, x + xd, y - yd);
-		surfaceArea += getAreaOfTriangle(x, y, x - xd, y - yd, x, y - yd);
-		surfaceArea += getAreaOfTriangle(x, y, x + xd, y - yd, x, y - yd);
+		surfaceArea += getAreaOfTriangle(x, y, z, x - xd, y + yd, zUL, x, y + yd, zU);
+		surfaceArea += getAreaOfTriangle(x, y, z, x + xd, y + yd, zUR, x, y + yd, zU);
+		surfaceArea += getAreaOfTriangle(x, y, z, x - xd, y, zL, x - xd, y + yd, zUL);
+		surfaceArea += getAreaOfTriangle(x, y, z, x + xd, y, zR, x + xd, y + yd, zUR);
+		surfaceArea += getAreaOfTriangle(x, y, z, x - xd, y, zL, x - xd, y - yd, zLL);
+		surfaceArea += getAreaOfTriangle(x, y, z, x + xd, y, zR, x + xd, y - yd, zLR);
+		surfaceArea += getAreaOfTriangle(x, y, z, x - xd, y - yd, zLL, x, y - yd, zD);
+		surfaceArea += getAreaOfTriangle(x, y, z, x + xd, y - yd, zLR, x, y - yd, zD);
 		return (surfaceArea);
 	}
 
-	private double getAreaOfTriangle(double x0, double y0, double x1, double y1, double x2, double y2) {
-		double z0 = getElevationAtHighestLevel(x0, y0);
-		if (Double.isNaN(z0)) {
+	private double getAreaOfTriangle(double x0, double y0, double z0, double x1, double y1, double z1, double x2,
+		double y2, double z2) {
+		if (Double.isNaN(z1) || Double.isNaN(z2)) {
 			return (0);
 		}
-		double z1 = getElevationAtHighestLevel(x1, y1);
-		if (Double.isNaN(z1)) {
-			return (0);
+		return (MathUtil.getAreaOfTriangle(x0, y0, z0, x1, y1, z1, x2, y2, z2));
+	}
+
+	/**
+	 * Sums the samples of a region into an array
+	 */
+	private abstract class SumReduction implements RegionSampler.Reduction<double[]> {
+
+		private int n;
+
+		public SumReduction(int n) {
+			this.n = n;
 		}
-		double z2 = getElevationAtHighestLevel(x2, y2);
-		if (Double.isNaN(z2)) {
-			return (0);
+
+		@Override
+		public double[] create() {
+			return (new double[n]);
 		}
-		double area = MathUtil.getAreaOfTriangle(x0, y0, z0, x1, y1, z1, x2, y2, z2);
-		return(area);
+
+		@Override
+		public void combine(double[] result, double[] other) {
+			for (int i = 0; i < n; ++i) {
+				result[i] += other[i];
+			}
+		}
+	}
+
+	/**
+	 * Sums the row spans of samples of a region into an array
+	 */
+	private abstract class RunSumReduction extends SumReduction implements RegionSampler.RunReduction<double[]> {
+
+		public RunSumReduction(int n) {
+			super(n);
+		}
+
+		@Override
+		public void visit(double[] result, ElevationRaster.Tile tile, double x, double y, int row, int column) {
+			// not used
+		}
+	}
+
+	/**
+	 * Sums the samples of a region at the posts of the original raster. The
+	 * samples of a tile that form a rectangle are added at once: from the
+	 * tile statistics if they are the whole tile, so the tile is not read,
+	 * otherwise from the four corners of the tile's summed-area tables. Tiles
+	 * on the boundary of the region are visited by row span.
+	 */
+	private abstract class PostSumReduction extends RunSumReduction implements
+		RegionSampler.TileReduction<double[]> {
+
+		public PostSumReduction(int n) {
+			super(n);
+		}
+
+		@Override
+		public boolean visitTile(double[] result, long key, double[] xCoord, double[] yCoord, int[][] run) {
+			int first = run[0][1];
+			int last = run[0][2];
+			for (int i = 1; i < run.length; ++i) {
+				if ((run[i][0] != run[0][0] + i) || (run[i][1] != first) || (run[i][2] != last)) {
+					return (false);
+				}
+			}
+			// the top row of the rectangle is the last run
+			double y = yCoord[run[run.length - 1][0]];
+			TileStatistics stats = elevationRaster.getTileStatistics();
+			if (stats != null) {
+				int c0 = (int) Math.round((xCoord[first] + worldWidth / 2) / pixelWidth);
+				int r0 = (int) Math.round((worldLength / 2 - y) / pixelLength);
+				if (stats.isTile(key, c0, r0, c0 + last - first, r0 + run.length)
+					&& visitTile(result, stats, stats.getIndex(key))) {
+					return (true);
+				}
+			}
+			ElevationRaster.Tile tile = elevationRaster.getTile(key);
+			if ((tile == null) || !tile.isHighestLevel()) {
+				return (false);
+			}
+			int c = tile.getColumn(xCoord[first]);
+			int r = tile.getRow(y);
+			return (visitRectangle(result, elevationRaster.getSummedAreaTable(tile), c, r, c + last - first, r
+				+ run.length));
+		}
+
+		/**
+		 * Add all of the posts of a tile from its statistics
+		 * 
+		 * @return false if the posts must be visited instead
+		 */
+		protected abstract boolean visitTile(double[] result, TileStatistics stats, int index);
+
+		/**
+		 * Add a rectangle of posts from the summed-area tables of its tile
+		 * 
+		 * @return false if the posts must be visited instead
+		 */
+		protected abstract boolean visitRectangle(double[] result, SummedAreaTable table, int c0, int r0, int c1,
+			int r1);
+	}
+
+	/**
+	 * Accumulates the statistics of the samples of a region
+	 */
+	private abstract class StatisticsReduction implements RegionSampler.Reduction<RegionStatistics> {
+
+		private boolean hasVolume;
+
+		public StatisticsReduction(boolean hasVolume) {
+			this.hasVolume = hasVolume;
+		}
+
+		@Override
+		public RegionStatistics create() {
+			return (new RegionStatistics(pixelWidth * pixelLength, hasVolume));
+		}
+
+		@Override
+		public void combine(RegionStatistics result, RegionStatistics other) {
+			result.add(other);
+		}
+	}
+
+	/**
+	 * Get a sampler for the samples of a region that are inside a polygon
+	 * 
+	 * @param vertex
+	 *            the polygon
+	 * @param lowerBound
+	 *            the lower bound of the region
+	 * @param upperBound
+	 *            the upper bound of the region
+	 * @param sampleWidth
+	 *            the distance between samples in X
+	 * @param sampleLength
+	 *            the distance between samples in Y
+	 * @param offset
+	 *            the offset of the first sample from the lower bound in
+	 *            samples
+	 * @param singlePrecision
+	 *            round the sample coordinates to float
+	 * @return
+	 */
+	private RegionSampler getRegionSampler(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound,
+		double sampleWidth, double sampleLength, double offset, boolean singlePrecision) {
+		int columns = (int) ((upperBound.getX() - lowerBound.getX()) / sampleWidth);
+		int rows = (int) ((upperBound.getY() - lowerBound.getY()) / sampleLength);
+		return (new RegionSampler(vertex, RegionSampler.getCoordinates(lowerBound.getX(), sampleWidth, columns, offset,
+			singlePrecision), RegionSampler.getCoordinates(lowerBound.getY(), sampleLength, rows, offset,
+			singlePrecision)));
+	}
+
+	/**
+	 * Get a sampler for the posts of the original raster that are inside a
+	 * polygon. The first sample in each direction is the first post at or
+	 * after the lower bound.
+	 * 
+	 * @param vertex
+	 *            the polygon
+	 * @param lowerBound
+	 * @param upperBound
+	 * @return
+	 */
+	private RegionSampler getPostSampler(Vector3[] vertex, ReadOnlyVector3 lowerBound, ReadOnlyVector3 upperBound) {
+		double left = -worldWidth / 2;
+		double bottom = -worldLength / 2;
+		double x0 = left + Math.ceil((lowerBound.getX() - left) / pixelWidth - 0.000001) * pixelWidth;
+		double y0 = bottom + Math.ceil((lowerBound.getY() - bottom) / pixelLength - 0.000001) * pixelLength;
+		int columns = (int) ((upperBound.getX() - x0) / pixelWidth);
+		int rows = (int) ((upperBound.getY() - y0) / pixelLength);
+		return (new RegionSampler(vertex, RegionSampler.getCoordinates(x0, pixelWidth, columns, 0, false),
+			RegionSampler.getCoordinates(y0, pixelLength, rows, 0, false)));
 	}
 
 	/**
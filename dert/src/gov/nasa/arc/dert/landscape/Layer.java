@@ -63,12 +63,13 @@ public abstract class Layer {
 	}
 
 	/**
-	 * Given its id, get a tile.
+	 * Given its key, get a tile.
 	 * 
-	 * @param id
+	 * @param key
+	 *            the tile QuadKey
 	 * @return
 	 */
-	public abstract QuadTreeTile getTile(String id);
+	public abstract QuadTreeTile getTile(long key);
 
 	/**
 	 * Get the properties for this layer
@@ -84,7 +85,7 @@ public abstract class Layer {
 	 * @param store
 	 * @return
 	 */
-	public abstract Texture getTexture(String key, Texture store);
+	public abstract Texture getTexture(long key, Texture store);
 
 	/**
 	 * Get number of tiles
@@ -505,6 +505,16 @@ public class LayerManager {
 		layerEffects.gridColor = color.toArray(null);
 	}
 
+	/**
+	 * Set the surface color. It is applied by the layer effects shader so
+	 * tile meshes are not changed.
+	 * 
+	 * @param rgba
+	 */
+	public void setSurfaceColor(float[] rgba) {
+		System.arraycopy(rgba, 0, layerEffects.surfaceColor, 0, layerEffects.surfaceColor.length);
+	}
+
 	/**
 	 * Get the surface grid color
 	 * 
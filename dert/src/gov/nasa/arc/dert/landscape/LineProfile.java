@@ -0,0 +1,263 @@
+package gov.nasa.arc.dert.landscape;
+
+import java.util.Arrays;
+
+import com.ardor3d.math.type.ReadOnlyVector3;
+
+/**
+ * Samples the elevation along a line segment at the full resolution of the
+ * landscape. The line is walked through the grid of elevation posts (a DDA
+ * walk) and a sample is taken at each endpoint and where the line crosses a
+ * row or column of posts, so no detail between samples is lost. The samples
+ * are kept until the endpoints change. A simplified set of samples, within a
+ * given elevation error of the full resolution samples, can be selected for
+ * display.
+ *
+ */
+public class LineProfile {
+
+	// Endpoints of the last line sampled
+	private double x0 = Double.NaN, y0 = Double.NaN, x1 = Double.NaN, y1 = Double.NaN;
+
+	// Samples, coordinates are relative to the center of the landscape
+	private double[] x, y, distance;
+	private float[] z;
+	private int count;
+
+	// Raster that was sampled
+	private ElevationRaster raster;
+
+	/**
+	 * Constructor
+	 */
+	public LineProfile() {
+		x = new double[1024];
+		y = new double[1024];
+		z = new float[1024];
+		distance = new double[1024];
+	}
+
+	/**
+	 * Sample the line between two points. Nothing is done if the line is the
+	 * same as the last one sampled.
+	 *
+	 * @param raster
+	 * @param p0
+	 * @param p1
+	 * @return true if the line was sampled
+	 */
+	public synchronized boolean sample(ElevationRaster raster, ReadOnlyVector3 p0, ReadOnlyVector3 p1) {
+		if ((raster == this.raster) && (p0.getX() == x0) && (p0.getY() == y0) && (p1.getX() == x1)
+			&& (p1.getY() == y1)) {
+			return (false);
+		}
+		this.raster = raster;
+		x0 = p0.getX();
+		y0 = p0.getY();
+		x1 = p1.getX();
+		y1 = p1.getY();
+		count = 0;
+
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		double pixelWidth = raster.getPixelWidth();
+		double pixelLength = raster.getPixelLength();
+		// the posts are on lines at multiples of the pixel size from the
+		// lower left corner
+		double left = -raster.getWidth() / 2;
+		double bottom = -raster.getLength() / 2;
+
+		// parameter of the next column and row crossed and the step between
+		// them
+		double tx = Double.POSITIVE_INFINITY;
+		double ty = Double.POSITIVE_INFINITY;
+		double tDeltaX = Double.POSITIVE_INFINITY;
+		double tDeltaY = Double.POSITIVE_INFINITY;
+		if (dx != 0) {
+			double c = (x0 - left) / pixelWidth;
+			double next = (dx > 0) ? Math.floor(c) + 1 : Math.ceil(c) - 1;
+			tx = (left + next * pixelWidth - x0) / dx;
+			tDeltaX = pixelWidth / Math.abs(dx);
+		}
+		if (dy != 0) {
+			double r = (y0 - bottom) / pixelLength;
+			double next = (dy > 0) ? Math.floor(r) + 1 : Math.ceil(r) - 1;
+			ty = (bottom + next * pixelLength - y0) / dy;
+			tDeltaY = pixelLength / Math.abs(dy);
+		}
+
+		double length = Math.sqrt(dx * dx + dy * dy);
+		ElevationRaster.Tile tile = null;
+		tile = addSample(0, dx, dy, length, tile);
+		while (true) {
+			double t = Math.min(tx, ty);
+			if (t >= 1) {
+				break;
+			}
+			tile = addSample(t, dx, dy, length, tile);
+			// a corner crosses both
+			if (tx <= t) {
+				tx += tDeltaX;
+			}
+			if (ty <= t) {
+				ty += tDeltaY;
+			}
+		}
+		if (length > 0) {
+			addSample(1, dx, dy, length, tile);
+		}
+		return (true);
+	}
+
+	private ElevationRaster.Tile addSample(double t, double dx, double dy, double length, ElevationRaster.Tile tile) {
+		if (count == x.length) {
+			int n = x.length * 2;
+			x = Arrays.copyOf(x, n);
+			y = Arrays.copyOf(y, n);
+			z = Arrays.copyOf(z, n);
+			distance = Arrays.copyOf(distance, n);
+		}
+		double xt = (t == 1) ? x1 : x0 + t * dx;
+		double yt = (t == 1) ? y1 : y0 + t * dy;
+		if ((tile == null) || !tile.contains(xt, yt)) {
+			tile = raster.getTile(xt, yt);
+		}
+		x[count] = xt;
+		y[count] = yt;
+		z[count] = (tile == null) ? Float.NaN : tile.getElevation(xt, yt);
+		distance[count] = t * length;
+		count++;
+		return (tile);
+	}
+
+	/**
+	 * Select the samples to display. Samples are removed where the elevation
+	 * differs from the line between the remaining samples by no more than the
+	 * tolerance (Douglas-Peucker). The first and last samples and the samples
+	 * next to missing values are kept.
+	 *
+	 * @param tolerance
+	 *            the maximum elevation error, 0 keeps all samples that are
+	 *            not on a straight line
+	 * @param store
+	 *            the indices of the selected samples, at least as long as
+	 *            the number of samples
+	 * @return the number of samples selected
+	 */
+	public synchronized int simplify(double tolerance, int[] store) {
+		if (count == 0) {
+			return (0);
+		}
+		boolean[] keep = new boolean[count];
+		keep[0] = true;
+		keep[count - 1] = true;
+		for (int i = 0; i < count; ++i) {
+			if (Float.isNaN(z[i])) {
+				keep[i] = true;
+				if (i > 0) {
+					keep[i - 1] = true;
+				}
+				if (i < count - 1) {
+					keep[i + 1] = true;
+				}
+			}
+		}
+
+		// simplify each run between kept samples
+		int[] stack = new int[64];
+		int first = 0;
+		for (int last = 1; last < count; ++last) {
+			if (!keep[last]) {
+				continue;
+			}
+			if (!Float.isNaN(z[first]) && !Float.isNaN(z[last])) {
+				int top = 0;
+				stack[top++] = first;
+				stack[top++] = last;
+				while (top > 0) {
+					int j = stack[--top];
+					int i = stack[--top];
+					double d = distance[j] - distance[i];
+					double maxError = tolerance;
+					int index = -1;
+					for (int k = i + 1; k < j; ++k) {
+						double zk = z[i] + (z[j] - z[i]) * (distance[k] - distance[i]) / d;
+						double error = Math.abs(z[k] - zk);
+						if (error > maxError) {
+							maxError = error;
+							index = k;
+						}
+					}
+					if (index >= 0) {
+						keep[index] = true;
+						if (top + 4 > stack.length) {
+							stack = Arrays.copyOf(stack, stack.length * 2);
+						}
+						stack[top++] = i;
+						stack[top++] = index;
+						stack[top++] = index;
+						stack[top++] = j;
+					}
+				}
+			}
+			first = last;
+		}
+
+		int n = 0;
+		for (int i = 0; i < count; ++i) {
+			if (keep[i]) {
+				store[n++] = i;
+			}
+		}
+		return (n);
+	}
+
+	/**
+	 * Get the number of samples
+	 *
+	 * @return
+	 */
+	public synchronized int getCount() {
+		return (count);
+	}
+
+	/**
+	 * Get the X coordinate of a sample
+	 *
+	 * @param i
+	 * @return
+	 */
+	public synchronized double getX(int i) {
+		return (x[i]);
+	}
+
+	/**
+	 * Get the Y coordinate of a sample
+	 *
+	 * @param i
+	 * @return
+	 */
+	public synchronized double getY(int i) {
+		return (y[i]);
+	}
+
+	/**
+	 * Get the elevation of a sample
+	 *
+	 * @param i
+	 * @return NaN if there is no data
+	 */
+	public synchronized float getZ(int i) {
+		return (z[i]);
+	}
+
+	/**
+	 * Get the distance of a sample from the start of the line
+	 *
+	 * @param i
+	 * @return
+	 */
+	public synchronized double getDistance(int i) {
+		return (distance[i]);
+	}
+}
@@ -0,0 +1,188 @@
+package gov.nasa.arc.dert.landscape;
+
+/**
+ * A pyramid of elevation bounds for the cells of a tile. A cell is the square
+ * between 4 neighboring posts. Level 0 holds the minimum and maximum of the
+ * posts of each cell, and each level above holds the bounds of 2x2 blocks of
+ * the level below, up to a single node for the whole tile. A ray or line of
+ * sight can skip any node whose bounds it passes above or below. Missing
+ * values (NaN) are not included, a node with no data has a minimum of
+ * +infinity and a maximum of -infinity.
+ *
+ */
+public class MinMaxPyramid {
+
+	// Bounds of each level, in row order starting at the top
+	private float[][] minimum, maximum;
+
+	// Dimensions of each level
+	private int[] columns, rows;
+
+	/**
+	 * Constructor
+	 *
+	 * @param data
+	 *            the elevation posts of the tile in row order starting at the
+	 *            top
+	 * @param postColumns
+	 *            the number of columns of posts
+	 * @param postRows
+	 *            the number of rows of posts
+	 */
+	public MinMaxPyramid(float[] data, int postColumns, int postRows) {
+		int w = Math.max(postColumns - 1, 1);
+		int l = Math.max(postRows - 1, 1);
+		int levels = 1;
+		while ((w > 1) || (l > 1)) {
+			w = (w + 1) / 2;
+			l = (l + 1) / 2;
+			levels++;
+		}
+		minimum = new float[levels][];
+		maximum = new float[levels][];
+		columns = new int[levels];
+		rows = new int[levels];
+
+		// cells
+		w = Math.max(postColumns - 1, 1);
+		l = Math.max(postRows - 1, 1);
+		columns[0] = w;
+		rows[0] = l;
+		minimum[0] = new float[w * l];
+		maximum[0] = new float[w * l];
+		for (int r = 0; r < l; ++r) {
+			int r1 = Math.min(r + 1, postRows - 1);
+			for (int c = 0; c < w; ++c) {
+				int c1 = Math.min(c + 1, postColumns - 1);
+				float min = Float.POSITIVE_INFINITY;
+				float max = Float.NEGATIVE_INFINITY;
+				float z = data[r * postColumns + c];
+				if (z < min) {
+					min = z;
+				}
+				if (z > max) {
+					max = z;
+				}
+				z = data[r * postColumns + c1];
+				if (z < min) {
+					min = z;
+				}
+				if (z > max) {
+					max = z;
+				}
+				z = data[r1 * postColumns + c];
+				if (z < min) {
+					min = z;
+				}
+				if (z > max) {
+					max = z;
+				}
+				z = data[r1 * postColumns + c1];
+				if (z < min) {
+					min = z;
+				}
+				if (z > max) {
+					max = z;
+				}
+				minimum[0][r * w + c] = min;
+				maximum[0][r * w + c] = max;
+			}
+		}
+
+		// blocks of the level below
+		for (int level = 1; level < levels; ++level) {
+			int cw = columns[level - 1];
+			int cl = rows[level - 1];
+			float[] cMin = minimum[level - 1];
+			float[] cMax = maximum[level - 1];
+			w = (cw + 1) / 2;
+			l = (cl + 1) / 2;
+			columns[level] = w;
+			rows[level] = l;
+			minimum[level] = new float[w * l];
+			maximum[level] = new float[w * l];
+			for (int r = 0; r < l; ++r) {
+				for (int c = 0; c < w; ++c) {
+					float min = Float.POSITIVE_INFINITY;
+					float max = Float.NEGATIVE_INFINITY;
+					for (int rr = r * 2; rr < Math.min(r * 2 + 2, cl); ++rr) {
+						for (int cc = c * 2; cc < Math.min(c * 2 + 2, cw); ++cc) {
+							min = Math.min(min, cMin[rr * cw + cc]);
+							max = Math.max(max, cMax[rr * cw + cc]);
+						}
+					}
+					minimum[level][r * w + c] = min;
+					maximum[level][r * w + c] = max;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the number of levels
+	 *
+	 * @return
+	 */
+	public int getNumberOfLevels() {
+		return (columns.length);
+	}
+
+	/**
+	 * Get the number of columns of nodes in a level
+	 *
+	 * @param level
+	 * @return
+	 */
+	public int getColumns(int level) {
+		return (columns[level]);
+	}
+
+	/**
+	 * Get the number of rows of nodes in a level
+	 *
+	 * @param level
+	 * @return
+	 */
+	public int getRows(int level) {
+		return (rows[level]);
+	}
+
+	/**
+	 * Get the minimum elevation of a node
+	 *
+	 * @param level
+	 * @param column
+	 * @param row
+	 *            (row 0 is the top)
+	 * @return
+	 */
+	public float getMinimum(int level, int column, int row) {
+		return (minimum[level][row * columns[level] + column]);
+	}
+
+	/**
+	 * Get the maximum elevation of a node
+	 *
+	 * @param level
+	 * @param column
+	 * @param row
+	 *            (row 0 is the top)
+	 * @return
+	 */
+	public float getMaximum(int level, int column, int row) {
+		return (maximum[level][row * columns[level] + column]);
+	}
+
+	/**
+	 * Get the number of bytes held by the pyramid
+	 *
+	 * @return
+	 */
+	public long getMemorySize() {
+		long size = 0;
+		for (int i = 0; i < minimum.length; ++i) {
+			size += minimum[i].length * 8l;
+		}
+		return (size);
+	}
+}
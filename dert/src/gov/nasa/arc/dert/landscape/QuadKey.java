@@ -0,0 +1,240 @@
+package gov.nasa.arc.dert.landscape;
+
+/**
+ * Compact 64-bit identifiers for landscape tiles. A key holds the level of the
+ * tile in the pyramid in the upper 6 bits and the path from the root tile to
+ * the tile as a Morton (Z-order) code in the lower 58 bits. Each level adds two
+ * bits to the code for the quadrant of the tile in its parent:
+ *
+ * <pre>
+ * 0 = upper left    1 = upper right
+ * 2 = lower left    3 = lower right
+ * </pre>
+ *
+ * The low bit of each quadrant is the column and the high bit is the row, so
+ * the code interleaves the column and row of the tile at its level (row 0 is
+ * at the top). The root tile has key 0.
+ *
+ * The string form of a key is the tile path used in the landscape directory
+ * ("/1/3/4" where each digit is the quadrant plus one). Paths should only be
+ * created when a tile is read from storage.
+ *
+ */
+public final class QuadKey {
+
+	// The key of the root tile
+	public static final long ROOT = 0;
+
+	// The highest level that fits in a key
+	public static final int MAX_LEVEL = 29;
+
+	// Bit positions
+	private static final int LEVEL_SHIFT = 58;
+	private static final long MORTON_MASK = (1L << LEVEL_SHIFT) - 1;
+
+	private QuadKey() {
+		// static methods only
+	}
+
+	/**
+	 * Get the level of a tile (0 is the root)
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static int getLevel(long key) {
+		return ((int) (key >>> LEVEL_SHIFT));
+	}
+
+	/**
+	 * Get the Morton code of a tile
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static long getMorton(long key) {
+		return (key & MORTON_MASK);
+	}
+
+	/**
+	 * Get the quadrant of a tile in its parent
+	 *
+	 * @param key
+	 * @return the quadrant (0-3) or -1 for the root tile
+	 */
+	public static int getQuadrant(long key) {
+		if (key == ROOT) {
+			return (-1);
+		}
+		return ((int) (key & 3));
+	}
+
+	/**
+	 * Get the quadrant of the ancestor (or the tile itself) at the given level
+	 *
+	 * @param key
+	 * @param level
+	 *            the level of the ancestor (1 to the level of the tile)
+	 * @return
+	 */
+	public static int getQuadrant(long key, int level) {
+		return ((int) ((key >>> (2 * (getLevel(key) - level))) & 3));
+	}
+
+	/**
+	 * Get the key of a child tile
+	 *
+	 * @param key
+	 * @param quadrant
+	 *            the quadrant of the child (0-3)
+	 * @return
+	 */
+	public static long getChild(long key, int quadrant) {
+		int level = getLevel(key) + 1;
+		if (level > MAX_LEVEL) {
+			throw new IllegalArgumentException("Quad tree level " + level + " exceeds maximum of " + MAX_LEVEL + ".");
+		}
+		return (((long) level << LEVEL_SHIFT) | (getMorton(key) << 2) | quadrant);
+	}
+
+	/**
+	 * Get the key of the parent tile
+	 *
+	 * @param key
+	 * @return the parent key or -1 for the root tile
+	 */
+	public static long getParent(long key) {
+		if (key == ROOT) {
+			return (-1);
+		}
+		return (((long) (getLevel(key) - 1) << LEVEL_SHIFT) | (getMorton(key) >>> 2));
+	}
+
+	/**
+	 * Get the key of the ancestor (or the tile itself) at the given level
+	 *
+	 * @param key
+	 * @param level
+	 *            the level of the ancestor (0 to the level of the tile)
+	 * @return
+	 */
+	public static long getAncestor(long key, int level) {
+		return (((long) level << LEVEL_SHIFT) | (getMorton(key) >>> (2 * (getLevel(key) - level))));
+	}
+
+	/**
+	 * Determine if a tile is a descendant of another tile.
+	 *
+	 * @param ancestor
+	 * @param key
+	 * @return true if key is below ancestor in the quad tree
+	 */
+	public static boolean isDescendant(long ancestor, long key) {
+		int n = getLevel(key) - getLevel(ancestor);
+		if (n <= 0) {
+			return (false);
+		}
+		return ((getMorton(key) >>> (2 * n)) == getMorton(ancestor));
+	}
+
+	/**
+	 * Get the column of a tile at its level
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static int getColumn(long key) {
+		return (compact(getMorton(key)));
+	}
+
+	/**
+	 * Get the row of a tile at its level, row 0 is at the top
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static int getRow(long key) {
+		return (compact(getMorton(key) >>> 1));
+	}
+
+	/**
+	 * Get the key of the tile at the given level, column, and row.
+	 *
+	 * @param level
+	 * @param column
+	 * @param row
+	 *            row 0 is at the top
+	 * @return
+	 */
+	public static long getKey(int level, int column, int row) {
+		return (((long) level << LEVEL_SHIFT) | spread(column) | (spread(row) << 1));
+	}
+
+	/**
+	 * Get the key of the tile at the given level with the given Morton code.
+	 *
+	 * @param level
+	 * @param morton
+	 * @return
+	 */
+	public static long fromMorton(int level, long morton) {
+		return (((long) level << LEVEL_SHIFT) | morton);
+	}
+
+	/**
+	 * Convert a key to a tile path
+	 *
+	 * @param key
+	 * @return
+	 */
+	public static String toPath(long key) {
+		int level = getLevel(key);
+		StringBuilder buf = new StringBuilder(level * 2);
+		for (int i = 1; i <= level; ++i) {
+			buf.append('/');
+			buf.append((char) ('1' + getQuadrant(key, i)));
+		}
+		return (buf.toString());
+	}
+
+	/**
+	 * Convert a tile path to a key
+	 *
+	 * @param path
+	 * @return
+	 */
+	public static long fromPath(String path) {
+		long key = ROOT;
+		for (int i = 0; i < path.length(); ++i) {
+			char c = path.charAt(i);
+			if ((c >= '1') && (c <= '4')) {
+				key = getChild(key, c - '1');
+			} else if ((c != '/') && (c != '\\')) {
+				throw new IllegalArgumentException("Invalid tile path " + path + ".");
+			}
+		}
+		return (key);
+	}
+
+	// spread the bits of an int to the even bits of a long
+	private static long spread(int value) {
+		long x = value & 0x1fffffffL;
+		x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+		x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return (x);
+	}
+
+	// gather the even bits of a long into an int
+	private static int compact(long value) {
+		long x = value & 0x5555555555555555L;
+		x = (x | (x >>> 1)) & 0x3333333333333333L;
+		x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+		x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+		x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+		x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+		return ((int) x);
+	}
+}
@@ -13,8 +13,8 @@ import com.ardor3d.scenegraph.Node;
  * A tile in the quad tree structure representing the landscape. This object
  * contains a mesh that is displayed in the landscape, and a pointer to 4
  * children QuadTrees. If the children are in use, the mesh is not displayed. It
- * maintains copies of the edge vertices of the mesh to use for stitching, and a
- * timestamp. A set of test points is used to determine if a split or merge is
+ * maintains copies of the edge vertices of the mesh to use for stitching. A set
+ * of test points is used to determine if a split or merge is
  * needed. It also keeps track of it neighbors for stitching purposes.
  *
  */
@@ -32,18 +32,21 @@ public class QuadTree extends Node {
 	// This quad tree is in use
 	protected boolean inUse;
 
-	// Last time this quad tree was pulled from the cache
-	protected long timestamp;
-
 	// The mesh that will be rendered
 	protected QuadTreeMesh mesh;
 
+	// The tile key (see QuadKey)
+	protected long key;
+
 	// The level in the pyramid and the quadrant in the parent quad tree
 	protected int level, quadrant;
 
 	// This quad tree is at the highest resolution
 	protected boolean highestLevel;
 
+	// Children of this quad tree are being loaded
+	protected boolean loading;
+
 	// The next level of quad trees
 	protected QuadTree[] child;
 
@@ -75,7 +78,8 @@ public class QuadTree extends Node {
 	/**
 	 * Constructor
 	 * 
-	 * @param name
+	 * @param key
+	 *            the tile QuadKey
 	 * @param p
 	 *            Translation point relative to the parent quad tree
 	 * @param pixelWidth
@@ -85,8 +89,9 @@ public class QuadTree extends Node {
 	 * @param level
 	 * @param quadrant
 	 */
-	public QuadTree(String name, ReadOnlyVector3 p, int level, int quadrant, double pixelWidth, double pixelLength) {
-		super(name);
+	public QuadTree(long key, ReadOnlyVector3 p, int level, int quadrant, double pixelWidth, double pixelLength) {
+		super(QuadKey.toPath(key));
+		this.key = key;
 		tmpVec = new Vector3();
 		camLoc = new Vector3();
 		lookAt = new Vector3();
@@ -375,11 +380,14 @@ public class QuadTree extends Node {
 			final QuadTree[] qt = new QuadTree[4];
 			QuadTreeFactory factory = Landscape.getInstance().getFactory();
 			// get the children
-			int count = factory.loadQuadTrees(getName(), this, qt, false);
+			int count = factory.loadQuadTrees(key, this, qt, false);
 			// we are at the highest resolution already?
 			if (count < 0) {
 				highestLevel = true;
-			} else if (count == 4) {
+			} else if (count < 4) {
+				loading = true;
+			} else {
+				loading = false;
 				setChildren(qt);
 				for (int i = 0; i < 4; ++i) {
 					World.getInstance().getMarble().landscapeChanged(child[i]);
@@ -415,6 +423,8 @@ public class QuadTree extends Node {
 			child[i].clearChildren();
 			detachChild(child[i]);
 			child[i].inUse = false;
+			Landscape.getInstance().getFactory().quadTreeReleased(child[i]);
+			child[i].loading = false;
 			child[i].leftDirty = false;
 			child[i].rightDirty = false;
 			child[i].bottomDirty = false;
@@ -489,8 +499,20 @@ public class QuadTree extends Node {
 		return (true);
 	}
 
+	/**
+	 * Cancel loading of children that are no longer needed.
+	 */
+	private void cancelLoading() {
+		if (loading) {
+			Landscape.getInstance().getFactory().cancelQuadTrees(key);
+			loading = false;
+		}
+	}
+
 	private void merge() {
 		clearChildren();
+		// cancel loads for the discarded subtree
+		Landscape.getInstance().getFactory().cancelQuadTrees(key);
 		World.getInstance().getMarble().landscapeChanged(this);
 		World.getInstance().getLandmarks().landscapeChanged(this);
 		World.getInstance().getFeatureSets().landscapeChanged(this);
@@ -570,6 +592,8 @@ public class QuadTree extends Node {
 			if (child != null) {
 				merge();
 				changed = true;
+			} else {
+				cancelLoading();
 			}
 		}
 
@@ -592,6 +616,8 @@ public class QuadTree extends Node {
 			for (int i = 0; i < child.length; ++i) {
 				changed |= child[i].update(camera);
 			}
+		} else {
+			cancelLoading();
 		}
 		return(changed);
 	}
@@ -703,6 +729,18 @@ public class QuadTree extends Node {
 		mesh = null;
 	}
 
+	/**
+	 * Get the number of bytes of memory used by the contents of this QuadTree
+	 * 
+	 * @return
+	 */
+	public synchronized long getMemorySize() {
+		if (mesh == null) {
+			return (0);
+		}
+		return (mesh.getMemorySize());
+	}
+
 	/**
 	 * Get the center of the QuadTree
 	 * 
@@ -712,6 +750,15 @@ public class QuadTree extends Node {
 		return (getWorldTranslation());
 	}
 
+	/**
+	 * Get the tile key (see QuadKey)
+	 * 
+	 * @return
+	 */
+	public long getKey() {
+		return (key);
+	}
+
 	/**
 	 * Get the test points
 	 * 
@@ -741,6 +788,95 @@ public class QuadTree extends Node {
 		return (Float.NaN);
 	}
 
+	/**
+	 * Set the Z coordinate of the vertices in a buffer that are inside this
+	 * QuadTree using bilinear interpolation. The vertices are bucketed by
+	 * child tile, so each is located with one pass per level and each tile is
+	 * locked once. Vertices outside this QuadTree or where the elevation is
+	 * NaN are not changed.
+	 * 
+	 * @param vertex
+	 *            X,Y,Z coordinates
+	 * @param zOffset
+	 *            added to the elevation
+	 * @return the number of vertices set
+	 */
+	public int getElevation(FloatBuffer vertex, double zOffset) {
+		int n = vertex.limit() / 3;
+		int[] index = new int[n];
+		for (int i = 0; i < n; ++i) {
+			index[i] = i;
+		}
+		return (getElevation(vertex, index, n, zOffset));
+	}
+
+	/**
+	 * Set the Z coordinate of some of the vertices in a buffer that are
+	 * inside this QuadTree using bilinear interpolation.
+	 * 
+	 * @param vertex
+	 *            X,Y,Z coordinates
+	 * @param index
+	 *            the indices of the vertices to set, this array is reordered
+	 * @param n
+	 *            the number of indices
+	 * @param zOffset
+	 *            added to the elevation
+	 * @return the number of vertices set
+	 */
+	public synchronized int getElevation(FloatBuffer vertex, int[] index, int n, double zOffset) {
+		int count = 0;
+		for (int i = 0; i < n; ++i) {
+			int k = index[i] * 3;
+			if (contains(vertex.get(k), vertex.get(k + 1))) {
+				index[count++] = index[i];
+			}
+		}
+		if (count == 0) {
+			return (0);
+		}
+		return (getElevation(vertex, index, 0, count, zOffset));
+	}
+
+	private synchronized int getElevation(FloatBuffer vertex, int[] index, int first, int last, double zOffset) {
+		if (child != null) {
+			int count = 0;
+			for (int i = 0; i < child.length; ++i) {
+				// move the vertices in this child to the front of the range
+				int mid = first;
+				for (int j = first; j < last; ++j) {
+					int k = index[j] * 3;
+					if (child[i].contains(vertex.get(k), vertex.get(k + 1))) {
+						int t = index[mid];
+						index[mid++] = index[j];
+						index[j] = t;
+					}
+				}
+				if (mid > first) {
+					count += child[i].getElevation(vertex, index, first, mid, zOffset);
+				}
+				first = mid;
+			}
+			return (count);
+		}
+		// this tile was discarded after the change was reported
+		if (mesh == null) {
+			return (0);
+		}
+		int count = 0;
+		double x0 = testPoint[0].getX();
+		double y0 = testPoint[0].getY();
+		for (int j = first; j < last; ++j) {
+			int k = index[j] * 3;
+			float z = mesh.getElevationBilinear(vertex.get(k) - x0, vertex.get(k + 1) - y0);
+			if (!Float.isNaN(z)) {
+				vertex.put(k + 2, (float) (z + zOffset));
+				count++;
+			}
+		}
+		return (count);
+	}
+
 	/**
 	 * Get the elevation using nearest neighbor interpolation.
 	 * 
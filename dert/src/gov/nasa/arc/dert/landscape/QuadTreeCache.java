@@ -1,100 +1,208 @@
 package gov.nasa.arc.dert.landscape;
 
-import java.util.HashMap;
-
+/**
+ * Cache of QuadTree tiles. Tiles are kept in access order so the least
+ * recently used tile is always at the head of the list and can be found in
+ * constant time. Tiles that are in use (part of the displayed landscape) are
+ * pinned and never evicted. A pinned tile found by an eviction pass is set
+ * aside on a second list until it is released, so later passes do not examine
+ * it again. The cache is bounded by the actual number of bytes held by the
+ * tile meshes and textures rather than by a tile count.
+ *
+ * Tiles are hashed by their QuadKey in an open addressed table. Lookups do not
+ * allocate.
+ *
+ */
 public class QuadTreeCache {
 
 	// The maximum amount of memory for the cache (in bytes)
 	public static long MAX_CACHE_MEMORY = 400000000l;
-	public static int MAX_CLEANUP_COUNT = 100;
 
-	// A hash map to keep track of QuadTree tiles
-	protected HashMap<String, QuadTree> quadTreeMap;
+	// Open addressed hash table of keys and their entries, a null entry is an
+	// empty slot
+	protected long[] keys;
+	protected Entry[] entries;
+
+	// Number of entries in the table
+	protected int count;
+
+	// Sentinel of the access order list, head.after is least recently used
+	protected Entry head;
+
+	// Sentinel of the list of tiles that were in use when an eviction pass
+	// reached them
+	protected Entry pinnedHead;
 
-	// The number of cache cleanups since the last garbage collection
-	protected int cleanupCount;
+	// The number of bytes currently held by tiles in the cache
+	protected long cacheSize;
 
-	// The maximum cache size (in quad trees)
+	// The maximum cache size (in bytes)
 	protected long maxCacheSize;
 
+	// Statistics
+	protected long hitCount, missCount, evictionCount;
+
+	/**
+	 * A cache entry. Keeps the number of bytes that were charged to the cache
+	 * for the tile so the same amount is released on eviction.
+	 */
+	protected static class Entry {
+		protected long key;
+		protected QuadTree quadTree;
+		protected long size;
+
+		// on the pinned list rather than the access order list
+		protected boolean pinned;
+
+		// list links
+		protected Entry before, after;
+
+		protected Entry(long key, QuadTree quadTree) {
+			this.key = key;
+			this.quadTree = quadTree;
+		}
+	}
+
 	/**
 	 * Constructor
-	 * 
-	 * @param bytesPerTile
 	 */
-	public QuadTreeCache(int bytesPerTile) {
-		quadTreeMap = new HashMap<String, QuadTree>();
-		maxCacheSize = MAX_CACHE_MEMORY / bytesPerTile;
+	public QuadTreeCache() {
+		this(MAX_CACHE_MEMORY);
 	}
 
 	/**
-	 * Given a key, return the associated QuadTree Update the timestamp.
-	 * 
+	 * Constructor
+	 *
+	 * @param maxCacheSize
+	 *            the maximum number of bytes for the cache
+	 */
+	public QuadTreeCache(long maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+		keys = new long[1024];
+		entries = new Entry[1024];
+		head = createList();
+		pinnedHead = createList();
+	}
+
+	/**
+	 * Given a key, return the associated QuadTree. The QuadTree becomes the
+	 * most recently used tile.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized QuadTree getQuadTree(long key) {
+		Entry entry = getEntry(key);
+		if (entry == null) {
+			missCount++;
+			return (null);
+		}
+		hitCount++;
+		return (entry.quadTree);
+	}
+
+	/**
+	 * Given a key, return the associated QuadTree without counting it in the
+	 * statistics. The QuadTree becomes the most recently used tile.
+	 *
 	 * @param key
 	 * @return
 	 */
-	public synchronized QuadTree getQuadTree(String key) {
-//		System.err.println("QuadTreeCache.getQuadTree ."+key+".");
-		QuadTree quadTree = quadTreeMap.get(key);
-		if (quadTree != null) {
-			quadTree.timestamp = System.currentTimeMillis();
+	public synchronized QuadTree peekQuadTree(long key) {
+		Entry entry = getEntry(key);
+		if (entry == null) {
+			return (null);
 		}
-		return (quadTree);
+		return (entry.quadTree);
 	}
 
 	/**
-	 * Place a QuadTree in the cache Update the timestamp
-	 * 
+	 * Place a QuadTree in the cache. The QuadTree becomes the most recently
+	 * used tile. Its size is charged to the cache when its contents are loaded
+	 * (see quadTreeLoaded).
+	 *
 	 * @param key
 	 * @param quadTree
 	 */
-	public synchronized void putQuadTree(String key, QuadTree quadTree) {
-//		System.err.println("QuadTreeCache.putQuadTree ."+key+".");
-		quadTree.timestamp = System.currentTimeMillis();
-		quadTreeMap.put(key, quadTree);
+	public synchronized void putQuadTree(long key, QuadTree quadTree) {
+		Entry entry = removeEntry(key);
+		if (entry != null) {
+			cacheSize -= entry.size;
+		}
+		addEntry(new Entry(key, quadTree));
 		cleanUpCache();
 	}
 
-	protected void cleanUpCache() {
-		// not full yet
-		if (quadTreeMap.size() < maxCacheSize) {
+	/**
+	 * The contents of a QuadTree have been loaded. Charge the memory used by
+	 * its mesh and textures to the cache and evict tiles if necessary.
+	 *
+	 * @param key
+	 * @param quadTree
+	 */
+	public synchronized void quadTreeLoaded(long key, QuadTree quadTree) {
+		Entry entry = getEntry(key);
+		// evicted while loading
+		if ((entry == null) || (entry.quadTree != quadTree)) {
 			return;
 		}
-		// get the oldest QuadTree not in use
-		Object[] key = new Object[quadTreeMap.size()];
-		key = quadTreeMap.keySet().toArray(key);
-		Object oldestKey = null;
-		QuadTree oldestItem = null;
-		int k = 1;
-		for (int i=0; i<key.length; ++i) {
-			oldestKey = key[i];
-			oldestItem = quadTreeMap.get(oldestKey);
-			if (!oldestItem.inUse) {
-				k = i+1;
-				break;
-			}
+		long size = quadTree.getMemorySize();
+		cacheSize += size - entry.size;
+		entry.size = size;
+		cleanUpCache();
+	}
+
+	/**
+	 * A QuadTree is no longer in use. If an eviction pass set it aside it may
+	 * be evicted again, as the most recently used tile.
+	 *
+	 * @param key
+	 * @param quadTree
+	 */
+	public synchronized void releaseQuadTree(long key, QuadTree quadTree) {
+		Entry entry = findEntry(key);
+		if ((entry == null) || !entry.pinned || (entry.quadTree != quadTree)) {
+			return;
 		}
-		if (oldestItem == null)
-			throw new IllegalStateException("Unable to clean up quad tree cache.  All tiles are in use. Increase maximum cache size.");
-		for (int i = k; i < key.length; ++i) {
-			QuadTree item = quadTreeMap.get(key[i]);
-			if (!item.inUse) {
-				if (item.timestamp < oldestItem.timestamp) {
-					oldestKey = key[i];
-					oldestItem = item;
-				}
-			}
+		unlink(entry);
+		entry.pinned = false;
+		append(head, entry);
+	}
+
+	/**
+	 * Remove a QuadTree from the cache if it is still the one associated with
+	 * the key.
+	 *
+	 * @param key
+	 * @param quadTree
+	 */
+	public synchronized void removeQuadTree(long key, QuadTree quadTree) {
+		Entry entry = findEntry(key);
+		if ((entry == null) || (entry.quadTree != quadTree)) {
+			return;
 		}
-		if (oldestItem.inUse)
-			throw new IllegalStateException("Unable to clean up quad tree cache.  All tiles are in use. Increase maximum cache size.");
-		// remove the oldest item if not in use
-		QuadTree qt = quadTreeMap.remove(oldestKey);
-		qt.dispose();
-		qt = null;
-		cleanupCount++;
-		if (cleanupCount == MAX_CLEANUP_COUNT) {
-			System.gc();
-			cleanupCount = 0;
+		removeEntry(key);
+		cacheSize -= entry.size;
+	}
+
+	/**
+	 * Remove least recently used tiles that are not in use until the cache is
+	 * under its maximum size. Tiles that are in use are set aside so they are
+	 * not examined again until they are released.
+	 */
+	protected void cleanUpCache() {
+		while ((cacheSize > maxCacheSize) && (head.after != head)) {
+			Entry entry = head.after;
+			if (entry.quadTree.inUse) {
+				unlink(entry);
+				entry.pinned = true;
+				append(pinnedHead, entry);
+			} else {
+				removeEntry(entry.key);
+				cacheSize -= entry.size;
+				evictionCount++;
+				entry.quadTree.dispose();
+			}
 		}
 	}
 
@@ -102,20 +210,185 @@ public class QuadTreeCache {
 	 * Empty the cache
 	 */
 	public synchronized void dispose() {
-		quadTreeMap.clear();
+		for (int i = 0; i < entries.length; ++i) {
+			entries[i] = null;
+		}
+		head = createList();
+		pinnedHead = createList();
+		count = 0;
+		cacheSize = 0;
+	}
+
+	/**
+	 * Get the number of tiles in the cache
+	 *
+	 * @return
+	 */
+	public synchronized int getTileCount() {
+		return (count);
 	}
 
 	/**
-	 * Update the surface color for all elements in the cache
-	 * 
-	 * @param rgba
+	 * Get the number of bytes held by the tiles in the cache
+	 *
+	 * @return
 	 */
-	public synchronized void updateSurfaceColor(float[] rgba) {
-		Object[] key = new Object[quadTreeMap.size()];
-		key = quadTreeMap.keySet().toArray(key);
-		for (int i = 0; i < key.length; ++i) {
-			QuadTree item = quadTreeMap.get(key[i]);
-			item.getMesh().updateSurfaceColor(rgba);
+	public synchronized long getCacheSize() {
+		return (cacheSize);
+	}
+
+	/**
+	 * Get the maximum number of bytes for the cache
+	 *
+	 * @return
+	 */
+	public long getMaximumCacheSize() {
+		return (maxCacheSize);
+	}
+
+	/**
+	 * Get the number of requests that found a tile in the cache
+	 *
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return (hitCount);
+	}
+
+	/**
+	 * Get the number of requests that did not find a tile in the cache
+	 *
+	 * @return
+	 */
+	public synchronized long getMissCount() {
+		return (missCount);
+	}
+
+	/**
+	 * Get the number of tiles evicted from the cache
+	 *
+	 * @return
+	 */
+	public synchronized long getEvictionCount() {
+		return (evictionCount);
+	}
+
+	/**
+	 * Find an entry and make it the most recently used. A set aside entry
+	 * whose tile is no longer in use goes back in the access order.
+	 */
+	private Entry getEntry(long key) {
+		Entry entry = findEntry(key);
+		if (entry == null) {
+			return (null);
+		}
+		if (!entry.pinned) {
+			unlink(entry);
+			append(head, entry);
+		} else if (!entry.quadTree.inUse) {
+			unlink(entry);
+			entry.pinned = false;
+			append(head, entry);
 		}
+		return (entry);
+	}
+
+	private int indexFor(long key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return ((int) (h ^ (h >>> 32)) & (entries.length - 1));
+	}
+
+	private Entry findEntry(long key) {
+		int mask = entries.length - 1;
+		for (int i = indexFor(key); entries[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return (entries[i]);
+			}
+		}
+		return (null);
+	}
+
+	private void addEntry(Entry entry) {
+		if (count >= entries.length / 2) {
+			resize();
+		}
+		int mask = entries.length - 1;
+		int i = indexFor(entry.key);
+		while (entries[i] != null) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = entry.key;
+		entries[i] = entry;
+		count++;
+		append(head, entry);
+	}
+
+	private Entry removeEntry(long key) {
+		int mask = entries.length - 1;
+		int i = indexFor(key);
+		while ((entries[i] != null) && (keys[i] != key)) {
+			i = (i + 1) & mask;
+		}
+		Entry entry = entries[i];
+		if (entry == null) {
+			return (null);
+		}
+		entries[i] = null;
+		count--;
+		unlink(entry);
+		// shift later entries of the probe sequence back into the hole
+		for (int j = (i + 1) & mask; entries[j] != null; j = (j + 1) & mask) {
+			int home = indexFor(keys[j]);
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				entries[i] = entries[j];
+				entries[j] = null;
+				i = j;
+			}
+		}
+		return (entry);
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		Entry[] oldEntries = entries;
+		keys = new long[oldKeys.length * 2];
+		entries = new Entry[oldEntries.length * 2];
+		int mask = entries.length - 1;
+		for (int i = 0; i < oldEntries.length; ++i) {
+			if (oldEntries[i] != null) {
+				int j = indexFor(oldKeys[i]);
+				while (entries[j] != null) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				entries[j] = oldEntries[i];
+			}
+		}
+	}
+
+	private static Entry createList() {
+		Entry list = new Entry(-1, null);
+		list.before = list;
+		list.after = list;
+		return (list);
+	}
+
+	private static void append(Entry list, Entry entry) {
+		entry.after = list;
+		entry.before = list.before;
+		list.before.after = entry;
+		list.before = entry;
+	}
+
+	private static void unlink(Entry entry) {
+		entry.before.after = entry.after;
+		entry.after.before = entry.before;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return ("QuadTreeCache[tiles=" + count + ",bytes=" + cacheSize + ",max=" + maxCacheSize
+			+ ",hits=" + hitCount + ",misses=" + missCount + ",evictions=" + evictionCount + "]");
 	}
 }
@@ -3,17 +3,11 @@ package gov.nasa.arc.dert.landscape;
 import gov.nasa.arc.dert.io.TileSource;
 import gov.nasa.arc.dert.raster.ProjectionInfo;
 import gov.nasa.arc.dert.render.SharedTexture2D;
-import gov.nasa.arc.dert.util.MathUtil;
-import gov.nasa.arc.dert.util.UIUtil;
 
-import java.awt.Color;
-import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import com.ardor3d.bounding.BoundingBox;
 import com.ardor3d.image.Image;
@@ -54,11 +48,11 @@ public class QuadTreeFactory {
 	// The QuadTree tile cache
 	private QuadTreeCache quadTreeCache;
 
-	// Threading service
-	private ExecutorService executor;
+	// Background loader
+	private QuadTreeLoader loader;
 
-	// The surface color
-	private float[] rgba;
+	// Predictive loader
+	private QuadTreePrefetcher prefetcher;
 
 	// Layers are showing
 	private boolean layersEnabled = true;
@@ -78,6 +72,17 @@ public class QuadTreeFactory {
 	// The dimensions of the entire landscape
 	private double worldWidth, worldLength;
 
+	// Recycled vertex, normal, and color buffers
+	private TileBufferPool bufferPool;
+
+	// Mesh builder for each loader thread
+	private ThreadLocal<TileMeshBuilder> meshBuilder = new ThreadLocal<TileMeshBuilder>() {
+		@Override
+		protected TileMeshBuilder initialValue() {
+			return (new TileMeshBuilder(bufferPool));
+		}
+	};
+
 	/**
 	 * Constructor
 	 * 
@@ -98,24 +103,23 @@ public class QuadTreeFactory {
 		worldLength = baseLayer.getRasterLength() * projInfo.scale[1] * pixelScale;
 		missingFillValue = baseLayer.getFillValue();
 
-		int bytesPerTile = baseLayer.getBytesPerTile()*14+(tileLength*4);
-		for (int i = 0; i < layerList.length; ++i) {
-			if (layerList[i] != null) {
-				bytesPerTile += layerList[i].getBytesPerTile();
-			}
-		}
-		quadTreeCache = new QuadTreeCache(bytesPerTile);
+		// the pool is part of the memory budget
+		bufferPool = new TileBufferPool(tileWidth, tileLength);
+		quadTreeCache = new QuadTreeCache(Math.max(0, QuadTreeCache.MAX_CACHE_MEMORY
+			- bufferPool.getMaximumPoolSize()));
 
-		executor = Executors.newFixedThreadPool(5);
+		loader = new QuadTreeLoader(this);
+		prefetcher = new QuadTreePrefetcher(this);
 	}
 
 	/**
 	 * Dispose of resources
 	 */
 	public void dispose() {
-		executor.shutdown();
+		loader.dispose();
 		quadTreeCache.dispose();
 		quadTreeCache = null;
+		bufferPool.dispose();
 	}
 
 	/**
@@ -133,30 +137,69 @@ public class QuadTreeFactory {
 	 *            wait for tile source to load the data
 	 * @return
 	 */
-	public QuadTree getQuadTree(String key, QuadTree parent, ReadOnlyVector3 p, double pixelWidth, double pixelLength,
+	public QuadTree getQuadTree(long key, QuadTree parent, ReadOnlyVector3 p, double pixelWidth, double pixelLength,
 		int level, int quadrant, boolean wait) {
 		QuadTree quadTree = quadTreeCache.getQuadTree(key);
+		prefetcher.quadTreeRequested(key, quadTree);
 		if (quadTree == null) {
 			quadTree = createQuadTree(key, parent, p, pixelWidth, pixelLength, level, quadrant, wait);
 		}
 		return (quadTree);
 	}
 
+	/**
+	 * Get a QuadTree from the cache without loading it.
+	 * 
+	 * @param key
+	 * @return null if the QuadTree is not in the cache
+	 */
+	public QuadTree peekQuadTree(long key) {
+		return (quadTreeCache.peekQuadTree(key));
+	}
+
+	/**
+	 * Start loading a QuadTree in the background if it is not in the cache.
+	 * 
+	 * @param key
+	 * @param p
+	 *            QuadTree will be translated to this point
+	 * @param pixelWidth
+	 * @param pixelLength
+	 * @param level
+	 * @param quadrant
+	 */
+	public void prefetchQuadTree(long key, ReadOnlyVector3 p, double pixelWidth, double pixelLength, int level,
+		int quadrant) {
+		if (quadTreeCache.peekQuadTree(key) == null) {
+			createQuadTree(key, null, p, pixelWidth, pixelLength, level, quadrant, false);
+		}
+	}
+
+	/**
+	 * Determine if a QuadTree has higher resolution children.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public boolean hasChildren(long key) {
+		return (source.tileExists(QuadKey.getChild(key, 0)));
+	}
+
 	/**
 	 * Given the key, get a QuadTree
 	 * 
 	 * @param key
 	 * @return
 	 */
-	public QuadTree getQuadTree(String key) {
+	public QuadTree getQuadTree(long key) {
 		QuadTree quadTree = quadTreeCache.getQuadTree(key);
 		if (quadTree != null) {
 			return (quadTree);
 		}
 
-		int q = Integer.valueOf(key.substring(key.length() - 1, key.length())) - 1;
+		int q = QuadKey.getQuadrant(key);
 		Vector3 p = keyToTileCenter(key);
-		int level = keyToLevel(key);
+		int level = QuadKey.getLevel(key);
 		double s = Math.pow(2, level);
 		double pixelWidth = (worldWidth / tileWidth) / s;
 		double pixelLength = (worldLength / tileLength) / s;
@@ -170,28 +213,26 @@ public class QuadTreeFactory {
 	 * @param key
 	 * @return
 	 */
-	private Vector3 keyToTileCenter(String key) {
+	private Vector3 keyToTileCenter(long key) {
 		Vector3 p = new Vector3();
-		String[] token = key.split("/");
-		if (token.length <= 1) {
+		if (key == QuadKey.ROOT) {
 			return (p);
 		}
-		double n = Math.pow(2, token.length);
+		double n = Math.pow(2, QuadKey.getLevel(key) + 1);
 		double w = worldWidth / n;
 		double l = worldLength / n;
-		int q = Integer.valueOf(token[token.length - 1]);
-		switch (q) {
+		switch (QuadKey.getQuadrant(key)) {
+		case 0:
+			p.set(-w, l, 0);
+			break;
 		case 1:
-			p.set(p.getX() - w, p.getY() + l, 0);
+			p.set(w, l, 0);
 			break;
 		case 2:
-			p.set(p.getX() + w, p.getY() + l, 0);
+			p.set(-w, -l, 0);
 			break;
 		case 3:
-			p.set(p.getX() - w, p.getY() - l, 0);
-			break;
-		case 4:
-			p.set(p.getX() + w, p.getY() - l, 0);
+			p.set(w, -l, 0);
 			break;
 		}
 		return (p);
@@ -204,62 +245,26 @@ public class QuadTreeFactory {
 	 * @param key
 	 * @return
 	 */
-	private Vector3 keyToTestPointCenter(String key) {
-		Vector3 p = new Vector3();
-		String[] token = key.split("/");
-		if (token.length <= 1) {
-			return (p);
-		}
-		double w = worldWidth;
-		double l = worldLength;
-		for (int i = 0; i < token.length; ++i) {
-			w /= 2;
-			l /= 2;
-			if (!token[i].isEmpty()) {
-				int q = Integer.valueOf(token[i]);
-				switch (q) {
-				case 1:
-					p.set(p.getX() - w, p.getY() + l, 0);
-					break;
-				case 2:
-					p.set(p.getX() + w, p.getY() + l, 0);
-					break;
-				case 3:
-					p.set(p.getX() - w, p.getY() - l, 0);
-					break;
-				case 4:
-					p.set(p.getX() + w, p.getY() - l, 0);
-					break;
-				}
-			}
-		}
-		return (p);
-	}
-
-	/**
-	 * Given a key, find the level
-	 * 
-	 * @param key
-	 * @return
-	 */
-	private int keyToLevel(String key) {
-		String[] token = key.split("/");
-		return (token.length - 1);
+	private Vector3 keyToTestPointCenter(long key) {
+		double n = Math.pow(2, QuadKey.getLevel(key));
+		double w = worldWidth / n;
+		double l = worldLength / n;
+		return (new Vector3((QuadKey.getColumn(key) + 0.5) * w - worldWidth / 2, worldLength / 2
+			- (QuadKey.getRow(key) + 0.5) * l, 0));
 	}
 
 	/**
 	 * Load the 4 child QuadTrees of the given parent.
 	 * 
-	 * @param name
+	 * @param key
 	 * @param parent
 	 * @param qt
 	 * @param wait
 	 * @return the number of loaded QuadTrees
 	 */
-	public int loadQuadTrees(String name, QuadTree parent, QuadTree[] qt, boolean wait) {
+	public int loadQuadTrees(long key, QuadTree parent, QuadTree[] qt, boolean wait) {
 		// no children, we are at the highest level
-		name += File.separator;
-		if (!source.tileExists(name + "1")) {
+		if (!source.tileExists(QuadKey.getChild(key, 0))) {
 			return (-1);
 		}
 
@@ -269,22 +274,22 @@ public class QuadTreeFactory {
 		double xCenter = parent.pixelWidth * tileWidth / 4;
 		double yCenter = parent.pixelLength * tileLength / 4;
 		int qtCount = 0;
-		qt[0] = getQuadTree(name + "1", parent, new Vector3(-xCenter, yCenter, 0), pixelWidth, pixelLength,
+		qt[0] = getQuadTree(QuadKey.getChild(key, 0), parent, new Vector3(-xCenter, yCenter, 0), pixelWidth, pixelLength,
 			parent.level + 1, 0, wait);
 		if (qt[0].getMesh() != null) {
 			qtCount++;
 		}
-		qt[1] = getQuadTree(name + "2", parent, new Vector3(xCenter, yCenter, 0), pixelWidth, pixelLength,
+		qt[1] = getQuadTree(QuadKey.getChild(key, 1), parent, new Vector3(xCenter, yCenter, 0), pixelWidth, pixelLength,
 			parent.level + 1, 1, wait);
 		if (qt[1].getMesh() != null) {
 			qtCount++;
 		}
-		qt[2] = getQuadTree(name + "3", parent, new Vector3(-xCenter, -yCenter, 0), pixelWidth, pixelLength,
+		qt[2] = getQuadTree(QuadKey.getChild(key, 2), parent, new Vector3(-xCenter, -yCenter, 0), pixelWidth, pixelLength,
 			parent.level + 1, 2, wait);
 		if (qt[2].getMesh() != null) {
 			qtCount++;
 		}
-		qt[3] = getQuadTree(name + "4", parent, new Vector3(xCenter, -yCenter, 0), pixelWidth, pixelLength,
+		qt[3] = getQuadTree(QuadKey.getChild(key, 3), parent, new Vector3(xCenter, -yCenter, 0), pixelWidth, pixelLength,
 			parent.level + 1, 3, wait);
 		if (qt[3].getMesh() != null) {
 			qtCount++;
@@ -301,7 +306,7 @@ public class QuadTreeFactory {
 		return (qtCount);
 	}
 
-	private QuadTree createQuadTree(String key, QuadTree parent, ReadOnlyVector3 p, final double pixelWidth,
+	private QuadTree createQuadTree(long key, QuadTree parent, ReadOnlyVector3 p, final double pixelWidth,
 		final double pixelLength, int level, int quadrant, boolean wait) {
 
 		// create the quad tree tile and put it in the cache as a place holder
@@ -312,28 +317,54 @@ public class QuadTreeFactory {
 		quadTreeCache.putQuadTree(key, qt);
 
 		// load the quad tree mesh contents
-		if (key.equals("") || wait) {
-			loadQuadTreeContents(qt);
+		if ((key == QuadKey.ROOT) || wait) {
+			QuadTreeLoader.Request request = new QuadTreeLoader.Request(qt);
+			readQuadTreeContents(request);
+			buildQuadTreeContents(request);
 		} else {
-			Runnable runnable = new Runnable() {
-				@Override
-				public void run() {
-					Thread.yield();
-					loadQuadTreeContents(qt);
-				}
-			};
-			executor.execute(runnable);
+			loader.load(qt);
 		}
 		return (qt);
 	}
 
-	private void loadQuadTreeContents(QuadTree qt) {
-		// load the mesh
-		QuadTreeMesh mesh = getMesh(qt.getName(), qt.pixelWidth, qt.pixelLength);
-		if (mesh == null) {
+	/**
+	 * Read the base layer tile and the image layer textures for a QuadTree.
+	 * This is the I/O and decoding stage of loading.
+	 * 
+	 * @param request
+	 */
+	protected void readQuadTreeContents(QuadTreeLoader.Request request) {
+		long key = request.quadTree.getKey();
+		request.tile = baseLayer.getTile(key);
+		if (request.tile == null) {
+			return;
+		}
+		request.texture = new Texture[layerList.length];
+		for (int i = 0; i < layerList.length; ++i) {
+			if ((layerList[i] != null) && !(layerList[i] instanceof DerivativeLayer)
+				&& !(layerList[i] instanceof FieldLayer) && !(layerList[i] instanceof FieldCameraLayer)) {
+				request.texture[i] = getTexture(key, i, null);
+			}
+		}
+	}
+
+	/**
+	 * Build the mesh for a QuadTree from the contents read by
+	 * readQuadTreeContents, attach the textures and give the mesh to the
+	 * QuadTree.
+	 * 
+	 * @param request
+	 */
+	protected void buildQuadTreeContents(QuadTreeLoader.Request request) {
+		QuadTree qt = request.quadTree;
+		if (request.tile == null) {
 			return;
 		}
 
+		// load the mesh
+		QuadTreeMesh mesh = getMesh(qt.getKey(), request.tile, qt.pixelWidth, qt.pixelLength);
+		request.tile = null;
+
 		// load the image layers as textures
 		TextureState textureState = new TextureState();
 		for (int i = 0; i < layerList.length; ++i) {
@@ -343,14 +374,13 @@ public class QuadTreeFactory {
 					// this is an empty quad tree tile (just for padding)
 					texture = getEmptyTexture();
 				} else if (layerList[i] instanceof DerivativeLayer) {
-					texture = ((DerivativeLayer) layerList[i]).getTexture(qt.getName(), null);
+					texture = ((DerivativeLayer) layerList[i]).getTexture(qt.getKey(), null);
 					((DerivativeLayer) layerList[i]).createColorMapTextureCoords(mesh, i);
 				} else if (layerList[i] instanceof FieldLayer) {
-					texture = ((FieldLayer) layerList[i]).getTexture(qt.getName(), null);
-					((FieldLayer) layerList[i]).createColorMapTextureCoords(qt.getName(), mesh, i);
+					texture = ((FieldLayer) layerList[i]).getTexture(qt.getKey(), null);
+					((FieldLayer) layerList[i]).createColorMapTextureCoords(qt.getKey(), mesh, i);
 				} else if (!(layerList[i] instanceof FieldCameraLayer)) {
-					// load the texture
-					texture = getTexture(qt.getName(), i, null);
+					texture = request.texture[i];
 					if (texture == null) {
 						texture = getEmptyTexture();
 					}
@@ -360,9 +390,93 @@ public class QuadTreeFactory {
 				}
 			}
 		}
+		request.texture = null;
 		textureState.setEnabled(layersEnabled);
 		mesh.setRenderState(textureState);
 		qt.setMesh(mesh);
+		quadTreeCache.quadTreeLoaded(qt.getKey(), qt);
+	}
+
+	/**
+	 * Loading of a QuadTree was cancelled. Remove its place holder from the
+	 * cache so it will be loaded again if needed.
+	 * 
+	 * @param qt
+	 */
+	protected void loadCancelled(QuadTree qt) {
+		QuadTreeCache cache = quadTreeCache;
+		if (cache != null) {
+			cache.removeQuadTree(qt.getKey(), qt);
+		}
+	}
+
+	/**
+	 * A QuadTree is no longer part of the displayed landscape. Let the cache
+	 * evict it again.
+	 * 
+	 * @param qt
+	 */
+	public void quadTreeReleased(QuadTree qt) {
+		QuadTreeCache cache = quadTreeCache;
+		if (cache != null) {
+			cache.releaseQuadTree(qt.getKey(), qt);
+		}
+	}
+
+	/**
+	 * Cancel loading of the descendants of a QuadTree.
+	 * 
+	 * @param key
+	 *            the QuadTree key
+	 * @return the number of loads cancelled
+	 */
+	public int cancelQuadTrees(long key) {
+		return (loader.cancel(key));
+	}
+
+	/**
+	 * Set the camera location used to prioritize loading.
+	 * 
+	 * @param location
+	 */
+	public void setViewpoint(ReadOnlyVector3 location) {
+		loader.setViewpoint(location);
+	}
+
+	/**
+	 * Get the prefetcher
+	 * 
+	 * @return
+	 */
+	public QuadTreePrefetcher getPrefetcher() {
+		return (prefetcher);
+	}
+
+	/**
+	 * Get the tile width in pixels
+	 * 
+	 * @return
+	 */
+	public int getTileWidth() {
+		return (tileWidth);
+	}
+
+	/**
+	 * Get the tile length in pixels
+	 * 
+	 * @return
+	 */
+	public int getTileLength() {
+		return (tileLength);
+	}
+
+	/**
+	 * Get the background loader
+	 * 
+	 * @return
+	 */
+	public QuadTreeLoader getLoader() {
+		return (loader);
 	}
 
 	private Texture getEmptyTexture() {
@@ -392,7 +506,7 @@ public class QuadTreeFactory {
 		return (emptyTexture);
 	}
 
-	private Texture getTexture(String key, int tUnit, Texture texture) {
+	private Texture getTexture(long key, int tUnit, Texture texture) {
 		if (layerList[tUnit] == null) {
 			return (null);
 		}
@@ -495,16 +609,16 @@ public class QuadTreeFactory {
 		return (mesh);
 	}
 
-	private QuadTreeMesh getEmptyMesh(String key, FloatBuffer vertices, double pixelWidth, double pixelLength) {
+	private QuadTreeMesh getEmptyMesh(long key, TileMeshBuilder builder, double pixelWidth, double pixelLength) {
 		// vertices
 		FloatBuffer vertexBuffer = BufferUtils.createFloatBuffer(4 * 3);
-		vertexBuffer.put(vertices.get(0)).put(vertices.get(1)).put(vertices.get(2));
+		vertexBuffer.put(builder.getVertex(0)).put(builder.getVertex(1)).put(builder.getVertex(2));
 		int i = tileLength * (tileWidth + 1) * 3;
-		vertexBuffer.put(vertices.get(i)).put(vertices.get(i + 1)).put(vertices.get(i + 2));
+		vertexBuffer.put(builder.getVertex(i)).put(builder.getVertex(i + 1)).put(builder.getVertex(i + 2));
 		i += tileWidth * 3;
-		vertexBuffer.put(vertices.get(i)).put(vertices.get(i + 1)).put(vertices.get(i + 2));
+		vertexBuffer.put(builder.getVertex(i)).put(builder.getVertex(i + 1)).put(builder.getVertex(i + 2));
 		i = tileWidth * 3;
-		vertexBuffer.put(vertices.get(i)).put(vertices.get(i + 1)).put(vertices.get(i + 2));
+		vertexBuffer.put(builder.getVertex(i)).put(builder.getVertex(i + 1)).put(builder.getVertex(i + 2));
 		vertexBuffer.flip();
 
 		// normals
@@ -535,7 +649,7 @@ public class QuadTreeFactory {
 		texCoordBuffer.put(1).put(1);
 		texCoordBuffer.flip();
 
-		QuadTreeMesh mesh = new QuadTreeMesh("_mesh_"+key, tileWidth, tileLength, pixelWidth, pixelLength);
+		QuadTreeMesh mesh = new QuadTreeMesh("_mesh_"+QuadKey.toPath(key), tileWidth, tileLength, pixelWidth, pixelLength);
 		mesh.empty = true;
 		mesh.setMeshData(new TileMeshData(vertexBuffer, texCoordBuffer, colorBuffer, indexBuffer, indexLengths,
 			normalBuffer, IndexMode.TriangleStrip));
@@ -550,31 +664,32 @@ public class QuadTreeFactory {
 		return (mesh);
 	}
 
-	private QuadTreeMesh getMesh(String key, double pixelWidth, double pixelLength) {
+	private QuadTreeMesh getMesh(long key, QuadTreeTile tile, double pixelWidth, double pixelLength) {
 		// vertices, normals, and colors
-		Object[] result = getVertices(key, pixelWidth * tileWidth, pixelWidth, pixelLength * tileLength, pixelLength);
-		if (result == null) {
-			return (null);
-		}
-		FloatBuffer vertexBuffer = (FloatBuffer) result[0];
-		FloatBuffer colorBuffer = (FloatBuffer) result[1];
-		FloatBuffer normalBuffer = (FloatBuffer) result[2];
-		boolean empty = (Boolean) result[3];
+		TileMeshBuilder builder = meshBuilder.get();
+		boolean empty = builder.build(tile.raster.asFloatBuffer(), tile.width, tile.length, pixelWidth * tileWidth,
+			pixelWidth, pixelLength * tileLength, pixelLength, missingFillValue, pixelScale);
 
 		// all NaNs
 		if (empty) {
-			return (getEmptyMesh(key, vertexBuffer, pixelWidth, pixelLength));
+			return (getEmptyMesh(key, builder, pixelWidth, pixelLength));
 		}
 
-		// vertex indices
-		result = getIndices(vertexBuffer);
-		IntBuffer indexBuffer = (IntBuffer) result[0];
-		int[] indexLengths = (int[]) result[1];
-		FloatBuffer texCoordBuffer = getTexCoords(key);
+		// vertex indices, texture coordinates, and the mask of complete tiles
+		// are shared by all tiles
+		TileMeshBuilder.Topology topology = TileMeshBuilder.getTopology(tileWidth, tileLength);
+		FloatBuffer maskBuffer = null;
+		if (builder.hasMissingValues()) {
+			maskBuffer = builder.getMaskBuffer();
+		} else {
+			maskBuffer = topology.getMaskBuffer();
+		}
 
-		QuadTreeMesh mesh = new QuadTreeMesh("_mesh_"+key, tileWidth, tileLength, pixelWidth, pixelLength);
-		mesh.setMeshData(new TileMeshData(vertexBuffer, texCoordBuffer, colorBuffer, indexBuffer, indexLengths,
-			normalBuffer, IndexMode.TriangleStrip));
+		QuadTreeMesh mesh = new QuadTreeMesh("_mesh_"+QuadKey.toPath(key), tileWidth, tileLength, pixelWidth, pixelLength);
+		mesh.bufferPool = bufferPool;
+		mesh.setMeshData(new TileMeshData(builder.getVertexBuffer(), topology.getTexCoordBuffer(),
+			maskBuffer, topology.getIndexBuffer(), topology.indexLengths, builder.getNormalBuffer(),
+			IndexMode.TriangleStrip));
 
 		mesh.getSceneHints().setNormalsMode(NormalsMode.NormalizeIfScaled);
 		CullState cullState = new CullState();
@@ -586,170 +701,32 @@ public class QuadTreeFactory {
 		return (mesh);
 	}
 
-	private FloatBuffer getTexCoords(String key) {
-		int tWidth = tileWidth + 1;
-		int tLength = tileLength + 1;
-		int size = tWidth * tLength * 2;
-		FloatBuffer texCoords = BufferUtils.createFloatBuffer(size);
-		int i = 0;
-		for (int r = 0; r < tLength; ++r) {
-			for (int c = 0; c < tWidth; ++c) {
-				texCoords.put(i * 2, ((float) c) / tileWidth);
-				texCoords.put(i * 2 + 1, ((float) r) / tileLength);
-				i++;
-			}
-		}
-		texCoords.limit(size);
-		texCoords.rewind();
-		return (texCoords);
-	}
-
-	private Object[] getIndices(FloatBuffer vertices) {
-		int tWidth = tileWidth + 1;
-		int[] indexLengths = new int[tileLength];
-		IntBuffer indices = BufferUtils.createIntBuffer(tileLength * tWidth * 2);
-		int i = 0;
-		// System.err.println("RasterTile.createIndexes "+tSize+" "+tSize1+" "+newLevel+" "+vertices.limit());
-		for (int r = 0; r < tileLength; ++r) {
-			for (int c = 0; c < tWidth; ++c) {
-				indices.put(i);
-				indices.put(i + tWidth);
-				i++;
-			}
-			indexLengths[r] = tWidth * 2;
-		}
-		indices.flip();
-		Object[] result = new Object[2];
-		result[0] = indices;
-		result[1] = indexLengths;
-		return (result);
-	}
-
-	private Object[] getVertices(String key, double width, double pixelWidth, double height, double pixelLength) {
-
-		// Get the base layer tile data
-		QuadTreeTile tile = baseLayer.getTile(key);
-		if (tile == null) {
-			return (null);
-		}
-		int dataSize = tile.width * tile.length;
-		FloatBuffer data = tile.raster.asFloatBuffer();
-
-		// create vertex and color buffers
-		FloatBuffer vertex = BufferUtils.createFloatBuffer(dataSize * 3);
-		FloatBuffer colors = BufferUtils.createFloatBuffer(dataSize * 4);
-
-		// fill buffers
-		int cb = 0;
-		int ce = tile.width - 1;
-		int rb = 0;
-		int re = tile.length - 1;
-
-		int k = 0;
-		boolean empty = true;
-
-		float y = (float) height / 2;
-		for (int r = rb; r <= re; ++r) {
-			float x = -(float) width / 2;
-			for (int c = cb; c <= ce; ++c) {
-				float z = data.get(k);
-				// fill missing value vertices with missing value color
-				if (Float.isNaN(z)) {
-					z = missingFillValue;
-					colors.put(0).put(0).put(0).put(0);
-				} else {
-					colors.put(rgba[0]).put(rgba[1]).put(rgba[2]).put(rgba[3]);
-					empty = false;
-				}
-				vertex.put(x).put(y).put((float) (z * pixelScale));
-				k++;
-				x += pixelWidth;
-			}
-			y -= pixelLength;
-		}
-		vertex.flip();
-		colors.flip();
-
-		// get normals
-		FloatBuffer normals = createNormals(vertex, tile.length, tile.width, dataSize);
-
-		// return results
-		Object[] result = new Object[4];
-		result[0] = vertex;
-		result[1] = colors;
-		result[2] = normals;
-		result[3] = new Boolean(empty);
-		return (result);
-	}
-
-	private FloatBuffer createNormals(FloatBuffer vertex, int rows, int cols, int dataSize) {
-		// compute normal for each face
-		float[] face = new float[3];
-		float[] nrml = new float[dataSize * 3];
-		byte[] cnt = new byte[dataSize];
-		Vector3 norm = new Vector3();
-		Vector3 v0 = new Vector3();
-		Vector3 v1 = new Vector3();
-		Vector3 v2 = new Vector3();
-		int i = 0;
-		int n = cols * 3;
-		int k = 0;
-		for (int r = 0; r < rows - 1; ++r) {
-			for (int c = 0; c < cols - 1; ++c) {
-				k = r * cols + c;
-				i = k * 3;
-				// top triangle for counterclockwise quad where vertex is upper
-				// left corner
-				v0.set(vertex.get(i), vertex.get(i + 1), vertex.get(i + 2));
-				v1.set(vertex.get(i + n), vertex.get(i + n + 1), vertex.get(i + n + 2));
-				v2.set(vertex.get(i + 3), vertex.get(i + 4), vertex.get(i + 5));
-				MathUtil.createNormal(norm, v0, v1, v2);
-				face[0] = norm.getXf();
-				face[1] = norm.getYf();
-				face[2] = norm.getZf();
-				addFace(k, nrml, face, cnt);
-				addFace(k + 1, nrml, face, cnt);
-				addFace(k + cols, nrml, face, cnt);
-				// bottom triangle for quad
-				v0.set(vertex.get(i + n + 3), vertex.get(i + n + 4), vertex.get(i + n + 5));
-				MathUtil.createNormal(norm, v2, v1, v0);
-				face[0] = norm.getXf();
-				face[1] = norm.getYf();
-				face[2] = norm.getZf();
-				addFace(k + 1, nrml, face, cnt);
-				addFace(k + cols, nrml, face, cnt);
-				addFace(k + cols + 1, nrml, face, cnt);
-			}
-		}
-		// normal for vertex is average of surrounding faces
-		for (int r = 0; r < rows; ++r) {
-			for (int c = 0; c < cols; ++c) {
-				k = r * cols + c;
-				i = k * 3;
-				for (int j = 0; j < 3; ++j) {
-					nrml[i + j] /= cnt[k];
-				}
-			}
-		}
-		FloatBuffer normal = BufferUtils.createFloatBuffer(nrml);
-		return (normal);
+	/**
+	 * Get the QuadTree tile cache
+	 * 
+	 * @return
+	 */
+	public QuadTreeCache getCache() {
+		return (quadTreeCache);
 	}
 
-	private void addFace(int index, float[] nrml, float[] face, byte[] cnt) {
-		int i = index * 3;
-		nrml[i] += face[0];
-		nrml[i + 1] += face[1];
-		nrml[i + 2] += face[2];
-		cnt[index]++;
+	/**
+	 * Get the pool of vertex, normal, and color buffers
+	 * 
+	 * @return
+	 */
+	public TileBufferPool getBufferPool() {
+		return (bufferPool);
 	}
 
 	/**
-	 * Set the surface color for all QuadTrees
+	 * Get the number of bytes of direct memory held for the meshes of this
+	 * landscape. This includes the tiles in the cache, the buffer pool, and the
+	 * indices and texture coordinates shared by all tiles.
 	 * 
-	 * @param surfaceColor
+	 * @return
 	 */
-	public void setSurfaceColor(Color surfaceColor) {
-		rgba = UIUtil.colorToFloatArray(surfaceColor);
-		quadTreeCache.updateSurfaceColor(rgba);
+	public long getDirectMemorySize() {
+		return (quadTreeCache.getCacheSize() + bufferPool.getPoolSize() + TileMeshBuilder.getSharedMemorySize());
 	}
 }
@@ -0,0 +1,459 @@
+package gov.nasa.arc.dert.landscape;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import com.ardor3d.image.Texture;
+import com.ardor3d.math.Vector3;
+import com.ardor3d.math.type.ReadOnlyVector3;
+
+/**
+ * Loads the contents of QuadTree tiles in the background. Loading is done in
+ * two stages, each with its own pool of threads. The first stage reads the
+ * tiles from the tile source and decodes the textures. The second stage builds
+ * the mesh and normals and attaches the textures.
+ *
+ * Pending requests are prioritized by screen space error. The request whose
+ * tile has the largest pixels when seen from the current viewpoint (the
+ * smallest distance to pixel size ratio) is loaded first. Each stage keeps
+ * its requests in a priority queue. When the viewpoint has moved the queue is
+ * re-keyed once, by the first thread to take a request, so a moving camera
+ * reorders the queue without evaluating every request on every take.
+ * Requests for tiles that are no longer needed can be cancelled.
+ *
+ */
+public class QuadTreeLoader {
+
+	// Number of threads for reading tiles (0 = based on number of processors)
+	public static int IO_THREADS = 0;
+
+	// Number of threads for building meshes (0 = based on number of processors)
+	public static int MESH_THREADS = 0;
+
+	/**
+	 * A request to load the contents of a QuadTree
+	 */
+	protected static class Request implements Comparable<Request> {
+
+		// The QuadTree to load
+		protected QuadTree quadTree;
+
+		// The base layer tile
+		protected QuadTreeTile tile;
+
+		// Textures for each layer
+		protected Texture[] texture;
+
+		// The request was cancelled while in progress
+		protected volatile boolean cancelled;
+
+		// Priority at the viewpoint the queue was last keyed for
+		protected double priority;
+
+		// Order of arrival, breaks ties between equal priorities
+		protected long sequence;
+
+		protected Request(QuadTree quadTree) {
+			this.quadTree = quadTree;
+		}
+
+		@Override
+		public int compareTo(Request that) {
+			int result = Double.compare(priority, that.priority);
+			if (result == 0) {
+				result = (sequence < that.sequence) ? -1 : ((sequence == that.sequence) ? 0 : 1);
+			}
+			return (result);
+		}
+	}
+
+	/**
+	 * A stage in the loading pipeline
+	 */
+	protected abstract class Stage implements Runnable {
+
+		// Requests waiting for this stage
+		protected PriorityQueue<Request> pending;
+
+		// The viewpoint version the pending requests are keyed for
+		protected long keyedVersion;
+
+		// Counter for request arrival order
+		protected long sequence;
+
+		// Requests being worked on by this stage
+		protected ArrayList<Request> inProgress;
+
+		// The worker threads
+		protected Thread[] thread;
+
+		protected Stage(String name, int threadCount) {
+			pending = new PriorityQueue<Request>();
+			inProgress = new ArrayList<Request>();
+			thread = new Thread[threadCount];
+			for (int i = 0; i < threadCount; ++i) {
+				thread[i] = new Thread(this, name + i);
+				thread[i].setDaemon(true);
+				thread[i].start();
+			}
+		}
+
+		/**
+		 * Add a request to this stage
+		 *
+		 * @param request
+		 */
+		protected synchronized void add(Request request) {
+			request.sequence = sequence++;
+			request.priority = getPriority(request.quadTree, getViewpoint());
+			pending.add(request);
+			notify();
+		}
+
+		/**
+		 * Take the pending request with the highest priority.
+		 *
+		 * @return null if the loader has been disposed
+		 */
+		protected synchronized Request take() {
+			while (pending.isEmpty() && running) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					return (null);
+				}
+			}
+			if (!running) {
+				return (null);
+			}
+			return (poll());
+		}
+
+		/**
+		 * Remove the pending request with the highest priority without
+		 * waiting. The pending requests are re-keyed first if the viewpoint
+		 * has moved since they were last keyed.
+		 *
+		 * @return null if there are no pending requests
+		 */
+		protected synchronized Request poll() {
+			long version = getViewpointVersion();
+			if (version != keyedVersion) {
+				ReadOnlyVector3 vp = getViewpoint();
+				ArrayList<Request> list = new ArrayList<Request>(pending);
+				for (int i = 0; i < list.size(); ++i) {
+					Request request = list.get(i);
+					request.priority = getPriority(request.quadTree, vp);
+				}
+				pending = new PriorityQueue<Request>(list);
+				keyedVersion = version;
+			}
+			Request request = pending.poll();
+			if (request != null) {
+				inProgress.add(request);
+			}
+			return (request);
+		}
+
+		/**
+		 * The request is done.
+		 *
+		 * @param request
+		 * @return false if the request was cancelled while in progress
+		 */
+		protected synchronized boolean done(Request request) {
+			inProgress.remove(request);
+			return (!request.cancelled);
+		}
+
+		/**
+		 * Cancel requests for QuadTrees that are descendants of the given
+		 * QuadTree.
+		 *
+		 * @param key
+		 *            the key of the ancestor
+		 * @param cancelled
+		 *            list of cancelled pending requests
+		 */
+		protected synchronized void cancel(long key, ArrayList<Request> cancelled) {
+			Iterator<Request> iterator = pending.iterator();
+			while (iterator.hasNext()) {
+				Request request = iterator.next();
+				if (QuadKey.isDescendant(key, request.quadTree.getKey())) {
+					cancelled.add(request);
+					iterator.remove();
+				}
+			}
+			for (int i = 0; i < inProgress.size(); ++i) {
+				if (QuadKey.isDescendant(key, inProgress.get(i).quadTree.getKey())) {
+					inProgress.get(i).cancelled = true;
+				}
+			}
+		}
+
+		/**
+		 * Get the number of requests pending or in progress
+		 *
+		 * @return
+		 */
+		protected synchronized int size() {
+			return (pending.size() + inProgress.size());
+		}
+
+		protected synchronized void stop() {
+			pending.clear();
+			notifyAll();
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				Request request = take();
+				if (request == null) {
+					return;
+				}
+				try {
+					if (!request.cancelled) {
+						process(request);
+					}
+				} catch (Exception e) {
+					System.out.println("Unable to load tile " + request.quadTree.getName() + ", see log.");
+					e.printStackTrace();
+					request.cancelled = true;
+				}
+				if (!done(request)) {
+					factory.loadCancelled(request.quadTree);
+				}
+			}
+		}
+
+		/**
+		 * Do the work for this stage
+		 *
+		 * @param request
+		 */
+		protected abstract void process(Request request);
+	}
+
+	// The factory that does the loading
+	private QuadTreeFactory factory;
+
+	// The stages
+	private Stage ioStage, meshStage;
+
+	// The current viewpoint (null if not known)
+	private Vector3 viewpoint;
+
+	// Incremented each time the viewpoint moves
+	private long viewpointVersion;
+
+	// Threads are running
+	private volatile boolean running;
+
+	// Statistics
+	private long requestCount, cancelCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param factory
+	 */
+	public QuadTreeLoader(QuadTreeFactory factory) {
+		this(factory, (IO_THREADS > 0) ? IO_THREADS : Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+			(MESH_THREADS > 0) ? MESH_THREADS : Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param factory
+	 * @param ioThreads
+	 *            number of threads for reading tiles
+	 * @param meshThreads
+	 *            number of threads for building meshes
+	 */
+	protected QuadTreeLoader(QuadTreeFactory factory, int ioThreads, int meshThreads) {
+		this.factory = factory;
+		running = true;
+		ioStage = new Stage("QuadTreeLoader.io", ioThreads) {
+			@Override
+			protected void process(Request request) {
+				QuadTreeLoader.this.factory.readQuadTreeContents(request);
+				// hand off to the next stage
+				synchronized (this) {
+					if (request.cancelled) {
+						return;
+					}
+					meshStage.add(request);
+					inProgress.remove(request);
+				}
+			}
+
+			@Override
+			protected synchronized boolean done(Request request) {
+				// the request was handed off
+				if (!inProgress.contains(request)) {
+					return (true);
+				}
+				return (super.done(request));
+			}
+		};
+		meshStage = new Stage("QuadTreeLoader.mesh", meshThreads) {
+			@Override
+			protected void process(Request request) {
+				QuadTreeLoader.this.factory.buildQuadTreeContents(request);
+			}
+		};
+	}
+
+	/**
+	 * Set the location of the camera used to prioritize requests
+	 *
+	 * @param location
+	 */
+	public synchronized void setViewpoint(ReadOnlyVector3 location) {
+		if (location == null) {
+			if (viewpoint != null) {
+				viewpoint = null;
+				viewpointVersion++;
+			}
+		} else if (viewpoint == null) {
+			viewpoint = new Vector3(location);
+			viewpointVersion++;
+		} else if (!viewpoint.equals(location)) {
+			viewpoint.set(location);
+			viewpointVersion++;
+		}
+	}
+
+	/**
+	 * Get the number of times the viewpoint has moved
+	 *
+	 * @return
+	 */
+	protected synchronized long getViewpointVersion() {
+		return (viewpointVersion);
+	}
+
+	/**
+	 * Get a copy of the current viewpoint
+	 *
+	 * @return
+	 */
+	public synchronized ReadOnlyVector3 getViewpoint() {
+		if (viewpoint == null) {
+			return (null);
+		}
+		return (new Vector3(viewpoint));
+	}
+
+	/**
+	 * Get the priority of a QuadTree, lower values are loaded first. This is
+	 * the inverse of the screen space error of a mesh cell.
+	 *
+	 * @param quadTree
+	 * @param vp
+	 * @return
+	 */
+	protected double getPriority(QuadTree quadTree, ReadOnlyVector3 vp) {
+		if (vp == null) {
+			return (0);
+		}
+		Vector3[] testPoint = quadTree.getTestPoints();
+		if (testPoint == null) {
+			return (Double.MAX_VALUE);
+		}
+		return (vp.distance(testPoint[4]) / quadTree.pixelWidth);
+	}
+
+	/**
+	 * Request that the contents of a QuadTree be loaded.
+	 *
+	 * @param quadTree
+	 */
+	public void load(QuadTree quadTree) {
+		synchronized (this) {
+			requestCount++;
+		}
+		ioStage.add(new Request(quadTree));
+	}
+
+	/**
+	 * Cancel loading of all QuadTrees that are descendants of the given
+	 * QuadTree.
+	 *
+	 * @param key
+	 *            the key of the ancestor
+	 * @return the number of requests cancelled before they were started
+	 */
+	public int cancel(long key) {
+		ArrayList<Request> cancelled = new ArrayList<Request>();
+		ioStage.cancel(key, cancelled);
+		meshStage.cancel(key, cancelled);
+		for (int i = 0; i < cancelled.size(); ++i) {
+			factory.loadCancelled(cancelled.get(i).quadTree);
+		}
+		synchronized (this) {
+			cancelCount += cancelled.size();
+		}
+		return (cancelled.size());
+	}
+
+	/**
+	 * Take the pending request to read a QuadTree with the highest priority
+	 * without waiting. Used when the loader has no reading threads.
+	 *
+	 * @return null if there are no pending requests
+	 */
+	protected QuadTree pollQuadTree() {
+		Request request = ioStage.poll();
+		if (request == null) {
+			return (null);
+		}
+		ioStage.done(request);
+		return (request.quadTree);
+	}
+
+	/**
+	 * Get the number of requests that are pending or in progress
+	 *
+	 * @return
+	 */
+	public int getPendingCount() {
+		return (ioStage.size() + meshStage.size());
+	}
+
+	/**
+	 * Get the number of load requests
+	 *
+	 * @return
+	 */
+	public synchronized long getRequestCount() {
+		return (requestCount);
+	}
+
+	/**
+	 * Get the number of requests cancelled before they were started
+	 *
+	 * @return
+	 */
+	public synchronized long getCancelCount() {
+		return (cancelCount);
+	}
+
+	/**
+	 * Stop the threads
+	 */
+	public void dispose() {
+		running = false;
+		ioStage.stop();
+		meshStage.stop();
+	}
+
+	@Override
+	public String toString() {
+		return ("QuadTreeLoader[io=" + ioStage.thread.length + ",mesh=" + meshStage.thread.length + ",requests="
+			+ getRequestCount() + ",cancelled=" + getCancelCount() + ",pending=" + getPendingCount() + "]");
+	}
+}
@@ -9,7 +9,10 @@ import com.ardor3d.math.Vector3;
 import com.ardor3d.renderer.state.RenderState;
 import com.ardor3d.renderer.state.RenderState.StateType;
 import com.ardor3d.renderer.state.TextureState;
+import com.ardor3d.scenegraph.FloatBufferData;
+import com.ardor3d.scenegraph.IndexBufferData;
 import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.MeshData;
 import com.ardor3d.scenegraph.event.DirtyType;
 import com.ardor3d.util.TextureKey;
 import com.ardor3d.util.TextureManager;
@@ -30,6 +33,9 @@ public class QuadTreeMesh extends Mesh {
 	// This mesh is empty
 	protected boolean empty;
 
+	// Pool for the vertex, normal, and color buffers when disposed
+	protected TileBufferPool bufferPool;
+
 	/**
 	 * Constructor
 	 * 
@@ -336,53 +342,80 @@ public class QuadTreeMesh extends Mesh {
 	 */
 	public void dispose() {
 		TextureState ts = (TextureState) getLocalRenderState(StateType.Texture);
-		if (ts == null)
-			return;
-		int maxUnit = ts.getMaxTextureIndexUsed();
-		for (int i = 0; i < maxUnit; ++i) {
-			Texture texture = ts.getTexture(i);
-			if (texture != null) {
-				TextureKey tKey = texture.getTextureKey();
-				if (tKey != null) {
-					TextureManager.removeFromCache(tKey);
-					// System.err.println("QuadTreeFactory.removeTexture "+tKey);
+		if (ts != null) {
+			int maxUnit = ts.getMaxTextureIndexUsed();
+			for (int i = 0; i < maxUnit; ++i) {
+				Texture texture = ts.getTexture(i);
+				if (texture != null) {
+					TextureKey tKey = texture.getTextureKey();
+					if (tKey != null) {
+						TextureManager.removeFromCache(tKey);
+						// System.err.println("QuadTreeFactory.removeTexture "+tKey);
+					}
+					List<ByteBuffer> data = texture.getImage().getData();
+					data.clear();
 				}
-				List<ByteBuffer> data = texture.getImage().getData();
-				data.clear();
 			}
 		}
 		TileMeshData tmd = (TileMeshData)getMeshData();
-		tmd.dispose();
+		tmd.dispose(bufferPool);
 	}
 
 	/**
-	 * Enable the layers on this mesh.
+	 * Get the number of bytes used by the buffers and textures of this mesh.
+	 * Buffers shared with other meshes (read-only) are not included.
 	 * 
-	 * @param enable
+	 * @return
 	 */
-	public void enableLayers(boolean enable) {
-		TextureState textureState = (TextureState) getLocalRenderState(RenderState.StateType.Texture);
-		textureState.setEnabled(enable);
-		markDirty(DirtyType.RenderState);
+	public long getMemorySize() {
+		long size = 0;
+		MeshData meshData = getMeshData();
+		size += getBufferSize(meshData.getVertexCoords());
+		size += getBufferSize(meshData.getNormalCoords());
+		size += getBufferSize(meshData.getColorCoords());
+		List<FloatBufferData> texCoords = meshData.getTextureCoords();
+		if (texCoords != null) {
+			for (int i = 0; i < texCoords.size(); ++i) {
+				size += getBufferSize(texCoords.get(i));
+			}
+		}
+		IndexBufferData<?> indices = meshData.getIndices();
+		if ((indices != null) && (indices.getBuffer() != null) && !indices.getBuffer().isReadOnly()) {
+			size += (long) indices.getBuffer().capacity() * indices.getByteCount();
+		}
+		TextureState ts = (TextureState) getLocalRenderState(StateType.Texture);
+		if (ts != null) {
+			int maxUnit = ts.getMaxTextureIndexUsed();
+			for (int i = 0; i <= maxUnit; ++i) {
+				Texture texture = ts.getTexture(i);
+				if ((texture != null) && (texture.getImage() != null)) {
+					List<ByteBuffer> data = texture.getImage().getData();
+					for (int j = 0; j < data.size(); ++j) {
+						if (data.get(j) != null) {
+							size += data.get(j).capacity();
+						}
+					}
+				}
+			}
+		}
+		return (size);
+	}
+
+	private long getBufferSize(FloatBufferData data) {
+		if ((data == null) || (data.getBuffer() == null) || data.getBuffer().isReadOnly()) {
+			return (0);
+		}
+		return ((long) data.getBuffer().capacity() * 4);
 	}
 
 	/**
-	 * Set the surface color for this mesh
+	 * Enable the layers on this mesh.
 	 * 
-	 * @param rgba
+	 * @param enable
 	 */
-	public void updateSurfaceColor(float[] rgba) {
-		FloatBuffer colors = getMeshData().getColorBuffer();
-		int dataSize = colors.limit();
-		for (int i = 0; i < dataSize; i += 4) {
-			if (colors.get(i + 3) != 0) {
-				colors.put(i, rgba[0]);
-				colors.put(i + 1, rgba[1]);
-				colors.put(i + 2, rgba[2]);
-				colors.put(i + 3, rgba[3]);
-			}
-		}
-		getMeshData().setColorBuffer(colors);
+	public void enableLayers(boolean enable) {
+		TextureState textureState = (TextureState) getLocalRenderState(RenderState.StateType.Texture);
+		textureState.setEnabled(enable);
 		markDirty(DirtyType.RenderState);
 	}
 
@@ -0,0 +1,309 @@
+package gov.nasa.arc.dert.landscape;
+
+import gov.nasa.arc.dert.util.LongLinkedMap;
+import gov.nasa.arc.dert.viewpoint.BasicCamera;
+import gov.nasa.arc.dert.viewpoint.ViewpointStore;
+
+import java.util.ArrayList;
+
+import com.ardor3d.math.Vector3;
+import com.ardor3d.math.type.ReadOnlyVector3;
+
+/**
+ * Loads QuadTree tiles before they are needed. Given a predicted camera (a
+ * viewpoint ahead on a fly through path or the current camera moved along its
+ * velocity), the prefetcher runs the same resolution test as QuadTree.update
+ * on the tile keys and requests the tiles that will be needed. Tiles are
+ * visited coarsest level first. The number of outstanding loads is bounded so
+ * prefetching does not flood the loader.
+ *
+ * Statistics are kept on how many prefetched tiles were later asked for by
+ * the landscape (hits) and how many tiles the landscape had to load on demand
+ * (misses).
+ *
+ */
+public class QuadTreePrefetcher {
+
+	// Number of frames to look ahead
+	public static int LOOKAHEAD_FRAMES = 10;
+
+	// Maximum number of loads pending in the loader before prefetching stops
+	public static int MAX_PENDING_LOADS = 32;
+
+	// Maximum number of prefetched keys to remember for statistics
+	private static final int MAX_KEYS = 4096;
+
+	/**
+	 * A tile to visit
+	 */
+	private static class Candidate {
+		long key;
+		double x, y, z;
+		double pixelWidth, pixelLength;
+		int level;
+
+		Candidate(long key, double x, double y, double z, double pixelWidth, double pixelLength, int level) {
+			this.key = key;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.pixelWidth = pixelWidth;
+			this.pixelLength = pixelLength;
+			this.level = level;
+		}
+	}
+
+	// The factory
+	private QuadTreeFactory factory;
+
+	// Keys of tiles that were prefetched but not yet used
+	private LongLinkedMap<Boolean> prefetchedKeys;
+
+	// Camera for predicting the view
+	private BasicCamera predictedCamera;
+
+	// Last camera location for computing velocity
+	private Vector3 lastLocation;
+
+	// Helpers
+	private Vector3 closest;
+
+	// Statistics
+	private long prefetchCount, hitCount, lateCount, missCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param factory
+	 */
+	public QuadTreePrefetcher(QuadTreeFactory factory) {
+		this.factory = factory;
+		prefetchedKeys = new LongLinkedMap<Boolean>(MAX_KEYS, false);
+		closest = new Vector3();
+	}
+
+	/**
+	 * Prefetch the tiles that will be needed if the camera continues with its
+	 * current velocity for LOOKAHEAD_FRAMES frames. Call once per frame.
+	 *
+	 * @param camera
+	 * @return the number of tiles requested
+	 */
+	public synchronized int prefetchAlongVelocity(BasicCamera camera) {
+		ReadOnlyVector3 location = camera.getLocation();
+		if (lastLocation == null) {
+			lastLocation = new Vector3(location);
+			return (0);
+		}
+		if (lastLocation.equals(location) || (LOOKAHEAD_FRAMES <= 0)) {
+			return (0);
+		}
+		Vector3 velocity = new Vector3(location);
+		velocity.subtractLocal(lastLocation);
+		lastLocation.set(location);
+		BasicCamera cam = getPredictedCamera(camera);
+		velocity.multiplyLocal(LOOKAHEAD_FRAMES);
+		velocity.addLocal(location);
+		cam.setLocation(velocity);
+		return (prefetch(cam));
+	}
+
+	/**
+	 * Prefetch the tiles that will be needed when the camera is moved to the
+	 * given viewpoint, such as a frame ahead on a fly through path.
+	 *
+	 * @param camera
+	 *            the current camera
+	 * @param vps
+	 *            the future viewpoint
+	 * @return the number of tiles requested
+	 */
+	public synchronized int prefetch(BasicCamera camera, ViewpointStore vps) {
+		BasicCamera cam = getPredictedCamera(camera);
+		cam.setMagnification(vps.magIndex);
+		cam.setFrustum(vps.frustumNear, vps.frustumFar, vps.frustumLeft, vps.frustumRight, vps.frustumTop,
+			vps.frustumBottom);
+		cam.setLocation(vps.location);
+		return (prefetch(cam));
+	}
+
+	/**
+	 * Get a camera to use for prediction initialized from the given camera.
+	 *
+	 * @param camera
+	 * @return
+	 */
+	public synchronized BasicCamera getPredictedCamera(BasicCamera camera) {
+		if (predictedCamera == null) {
+			predictedCamera = new BasicCamera(camera);
+		} else {
+			predictedCamera.set(camera);
+		}
+		return (predictedCamera);
+	}
+
+	/**
+	 * Prefetch the tiles that the landscape will need when viewed by the
+	 * given camera.
+	 *
+	 * @param camera
+	 * @return the number of tiles requested
+	 */
+	public synchronized int prefetch(BasicCamera camera) {
+		int budget = MAX_PENDING_LOADS - factory.getLoader().getPendingCount();
+		if (budget <= 0) {
+			return (0);
+		}
+		QuadTree root = factory.peekQuadTree(QuadKey.ROOT);
+		if ((root == null) || (root.getTestPoints() == null)) {
+			return (0);
+		}
+		int tileWidth = factory.getTileWidth();
+		int tileLength = factory.getTileLength();
+		ReadOnlyVector3 camLoc = camera.getLocation();
+		int count = 0;
+
+		// breadth first so parents are requested before children
+		ArrayList<Candidate> queue = new ArrayList<Candidate>();
+		queue.add(new Candidate(QuadKey.ROOT, 0, 0, root.getTestPoints()[4].getZ(), root.pixelWidth, root.pixelLength, 0));
+		for (int n = 0; (n < queue.size()) && (count < budget); ++n) {
+			Candidate c = queue.get(n);
+			queue.set(n, null);
+
+			// find the closest point of the tile to the camera
+			double w = c.pixelWidth * tileWidth / 2;
+			double l = c.pixelLength * tileLength / 2;
+			closest.set(Math.max(c.x - w, Math.min(c.x + w, camLoc.getX())),
+				Math.max(c.y - l, Math.min(c.y + l, camLoc.getY())), c.z);
+
+			// same test as QuadTree.update
+			double pixSize = camera.getPixelSizeAt(closest, true);
+			if (pixSize <= 0) {
+				continue;
+			}
+			pixSize *= QuadTree.CELL_SIZE;
+			if (pixSize > c.pixelWidth / 2) {
+				continue;
+			}
+			if (!factory.hasChildren(c.key)) {
+				continue;
+			}
+
+			// the children will be needed
+			double pixelWidth = c.pixelWidth / 2;
+			double pixelLength = c.pixelLength / 2;
+			double xCenter = c.pixelWidth * tileWidth / 4;
+			double yCenter = c.pixelLength * tileLength / 4;
+			for (int q = 0; q < 4; ++q) {
+				double dx = ((q == 0) || (q == 2)) ? -xCenter : xCenter;
+				double dy = (q < 2) ? yCenter : -yCenter;
+				long key = QuadKey.getChild(c.key, q);
+				QuadTree qt = factory.peekQuadTree(key);
+				if (qt == null) {
+					if (count >= budget) {
+						break;
+					}
+					factory.prefetchQuadTree(key, new Vector3(dx, dy, 0), pixelWidth, pixelLength, c.level + 1, q);
+					prefetchedKeys.put(key, Boolean.TRUE);
+					if (prefetchedKeys.size() > MAX_KEYS) {
+						prefetchedKeys.removeEldest();
+					}
+					prefetchCount++;
+					count++;
+				}
+				double z = c.z;
+				if ((qt != null) && (qt.getMesh() != null)) {
+					z = qt.getTestPoints()[4].getZ();
+				}
+				queue.add(new Candidate(key, c.x + dx, c.y + dy, z, pixelWidth, pixelLength, c.level + 1));
+			}
+		}
+		return (count);
+	}
+
+	/**
+	 * The landscape asked for a tile.
+	 *
+	 * @param key
+	 * @param quadTree
+	 *            the cached tile or null if it was not in the cache
+	 */
+	public synchronized void quadTreeRequested(long key, QuadTree quadTree) {
+		if (quadTree == null) {
+			missCount++;
+		} else if (!prefetchedKeys.isEmpty() && (prefetchedKeys.remove(key) != null)) {
+			hitCount++;
+			if (quadTree.getMesh() == null) {
+				lateCount++;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of tiles prefetched
+	 *
+	 * @return
+	 */
+	public synchronized long getPrefetchCount() {
+		return (prefetchCount);
+	}
+
+	/**
+	 * Get the number of prefetched tiles that were used
+	 *
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return (hitCount);
+	}
+
+	/**
+	 * Get the number of prefetched tiles that were used before they finished
+	 * loading
+	 *
+	 * @return
+	 */
+	public synchronized long getLateCount() {
+		return (lateCount);
+	}
+
+	/**
+	 * Get the number of tiles that were loaded on demand
+	 *
+	 * @return
+	 */
+	public synchronized long getMissCount() {
+		return (missCount);
+	}
+
+	/**
+	 * Get the fraction of tiles needed by the landscape that were prefetched
+	 *
+	 * @return
+	 */
+	public synchronized double getHitRate() {
+		long total = hitCount + missCount;
+		if (total == 0) {
+			return (0);
+		}
+		return ((double) hitCount / total);
+	}
+
+	/**
+	 * Reset the statistics
+	 */
+	public synchronized void resetStatistics() {
+		prefetchCount = 0;
+		hitCount = 0;
+		lateCount = 0;
+		missCount = 0;
+		prefetchedKeys.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return ("QuadTreePrefetcher[lookahead=" + LOOKAHEAD_FRAMES + ",prefetched=" + prefetchCount + ",hits="
+			+ hitCount + ",late=" + lateCount + ",misses=" + missCount + ",hitRate="
+			+ ((float) getHitRate()) + "]");
+	}
+}
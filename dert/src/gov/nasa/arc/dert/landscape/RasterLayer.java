@@ -189,7 +189,7 @@ public class RasterLayer extends Layer {
 		return (rasterLength);
 	}
 
-	protected QuadTreeTile readTile(String key) {
+	protected QuadTreeTile readTile(long key) {
 		try {
 			DataType dataType = DataType.Byte;
 			switch (layerType) {
@@ -228,10 +228,10 @@ public class RasterLayer extends Layer {
 	}
 
 	/**
-	 * Get a tile with the given key (file path)
+	 * Get a tile with the given key (see QuadKey)
 	 */
 	@Override
-	public QuadTreeTile getTile(String key) {
+	public QuadTreeTile getTile(long key) {
 		QuadTreeTile tile = readTile(key);
 		return (tile);
 	}
@@ -244,7 +244,7 @@ public class RasterLayer extends Layer {
 		return (dataSource.getProperties(layerName));
 	}
 
-	protected Image getTextureImage(String key) {
+	protected Image getTextureImage(long key) {
 		QuadTreeTile t = getTile(key);
 		if (t == null) {
 			return (null);
@@ -259,7 +259,7 @@ public class RasterLayer extends Layer {
 	 * Given the tile key, get a tile as a texture for this layer
 	 */
 	@Override
-	public Texture getTexture(String key, Texture store) {
+	public Texture getTexture(long key, Texture store) {
 		Image image = getTextureImage(key);
 		if (image == null) {
 			return (null);
@@ -275,7 +275,7 @@ public class RasterLayer extends Layer {
 //		}
 		Texture texture = new SharedTexture2D();
 		texture.setTextureKey(TextureKey.getKey(null, false, TextureStoreFormat.GuessNoCompressedFormat, layerName
-			+ key, Texture.MinificationFilter.BilinearNoMipMaps));
+			+ QuadKey.toPath(key), Texture.MinificationFilter.BilinearNoMipMaps));
 		texture.setImage(image);
 		texture.setMinificationFilter(Texture.MinificationFilter.BilinearNoMipMaps);
 		texture.setTextureStoreFormat(ImageUtils.getTextureStoreFormat(texture.getTextureKey().getFormat(),
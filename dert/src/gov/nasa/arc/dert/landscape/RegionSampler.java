@@ -0,0 +1,582 @@
+package gov.nasa.arc.dert.landscape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ardor3d.math.type.ReadOnlyVector3;
+
+/**
+ * Samples the landscape on a regular grid inside a polygon. The polygon is
+ * scan converted once into spans of covered samples for each grid row, using
+ * the same winding number rule as MathUtil.isInsidePolygon, so only covered
+ * samples are visited. The samples are grouped by the highest level tile that
+ * contains them, each tile is fetched from the ElevationRaster once (or not
+ * at all if a TileReduction answers it), and the tiles are sampled in
+ * parallel on a ForkJoinPool. The partial result of each
+ * tile is combined pairwise in tile order, so the result is the same for any
+ * number of threads.
+ *
+ */
+public class RegionSampler {
+
+	/**
+	 * Accumulates the samples of a tile into a partial result and combines
+	 * the partial results.
+	 */
+	public static interface Reduction<T> {
+
+		/**
+		 * Create an empty partial result
+		 *
+		 * @return
+		 */
+		public T create();
+
+		/**
+		 * Add a sample to a partial result
+		 *
+		 * @param result
+		 *            the partial result of the tile
+		 * @param tile
+		 *            the highest level tile that contains the sample
+		 * @param x
+		 * @param y
+		 * @param row
+		 *            the grid row of the sample
+		 * @param column
+		 *            the grid column of the sample
+		 */
+		public void visit(T result, ElevationRaster.Tile tile, double x, double y, int row, int column);
+
+		/**
+		 * Combine two partial results
+		 *
+		 * @param result
+		 *            the result of the samples in the earlier tiles
+		 * @param other
+		 *            the result of the samples in the later tiles
+		 */
+		public void combine(T result, T other);
+	}
+
+	/**
+	 * A reduction that visits the samples of a row span together, so values
+	 * that change linearly along the row can be stepped instead of computed
+	 * for each sample. The visit method is not called.
+	 */
+	public static interface RunReduction<T> extends Reduction<T> {
+
+		/**
+		 * Add a span of samples in a grid row to a partial result
+		 *
+		 * @param result
+		 *            the partial result of the tile
+		 * @param tile
+		 *            the highest level tile that contains the samples
+		 * @param xCoord
+		 *            the X coordinates of the grid columns
+		 * @param y
+		 * @param row
+		 *            the grid row of the samples
+		 * @param first
+		 *            the first grid column of the span
+		 * @param last
+		 *            the grid column after the span
+		 */
+		public void visitRun(T result, ElevationRaster.Tile tile, double[] xCoord, double y, int row, int first,
+			int last);
+	}
+
+	/**
+	 * A run reduction that may add all of the samples of a tile at once,
+	 * before the tile is read, for example from statistics kept for the tile.
+	 */
+	public static interface TileReduction<T> extends RunReduction<T> {
+
+		/**
+		 * Add all of the samples of a tile to a partial result
+		 *
+		 * @param result
+		 *            the partial result of the tile
+		 * @param key
+		 *            the key of the highest level tile that contains the
+		 *            samples
+		 * @param xCoord
+		 *            the X coordinates of the grid columns
+		 * @param yCoord
+		 *            the Y coordinates of the grid rows
+		 * @param run
+		 *            the row spans of samples in the tile in increasing row
+		 *            order, each is the grid row, the first grid column and
+		 *            the grid column after the span
+		 * @return false if the runs must be visited instead
+		 */
+		public boolean visitTile(T result, long key, double[] xCoord, double[] yCoord, int[][] run);
+	}
+
+	/**
+	 * Receives the progress of sampling
+	 */
+	public static interface Listener {
+
+		/**
+		 * Samples have been visited
+		 *
+		 * @param fraction
+		 *            the fraction of the samples visited
+		 */
+		public void progress(double fraction);
+	}
+
+	// Number of threads for sampling, 0 sets the number based on the number
+	// of processors
+	public static int THREADS = 0;
+
+	// Interval for reporting progress while waiting for the threads
+	private static final long PROGRESS_INTERVAL = 100;
+
+	// Pools of sampling threads by number of threads. A pool is never shut
+	// down so changing THREADS does not disturb an analysis in progress.
+	private static HashMap<Integer, ForkJoinPool> poolMap = new HashMap<Integer, ForkJoinPool>();
+
+	// Sample coordinates
+	private double[] xCoord, yCoord;
+
+	// Start and end (exclusive) column of each span
+	private int[] span;
+
+	// Index of the first span of each row, the last entry is the span count
+	private int[] rowSpan;
+
+	// The landscape being sampled
+	private Landscape landscape;
+
+	// Keys of the tiles being sampled and the runs of samples in each tile
+	// (row, start column, and end column)
+	private long[] tileKey;
+	private int[][][] tileRun;
+
+	// Samples visited, total samples, and the last percentage reported
+	private AtomicLong visited;
+	private long total;
+	private long percent;
+
+	// Sampling was interrupted
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor
+	 *
+	 * @param vertex
+	 *            the polygon vertices, the last vertex is the same as the
+	 *            first
+	 * @param xCoord
+	 *            the X coordinates of the grid columns in increasing order
+	 * @param yCoord
+	 *            the Y coordinates of the grid rows
+	 */
+	public RegionSampler(ReadOnlyVector3[] vertex, double[] xCoord, double[] yCoord) {
+		this.xCoord = xCoord;
+		this.yCoord = yCoord;
+		scanConvert(vertex);
+	}
+
+	/**
+	 * Get the coordinates of a row or column of samples
+	 *
+	 * @param min
+	 *            the lower bound of the region
+	 * @param step
+	 *            the distance between samples
+	 * @param n
+	 *            the number of samples
+	 * @param offset
+	 *            offset of the samples from the lower bound in steps
+	 * @param singlePrecision
+	 *            round the coordinates to float
+	 * @return
+	 */
+	public static double[] getCoordinates(double min, double step, int n, double offset, boolean singlePrecision) {
+		double[] coord = new double[Math.max(n, 0)];
+		for (int i = 0; i < coord.length; ++i) {
+			coord[i] = min + (i + offset) * step;
+			if (singlePrecision) {
+				coord[i] = (float) coord[i];
+			}
+		}
+		return (coord);
+	}
+
+	/**
+	 * Get the number of samples inside the polygon
+	 *
+	 * @return
+	 */
+	public long getSampleCount() {
+		long count = 0;
+		for (int i = 0; i < rowSpan[yCoord.length]; ++i) {
+			count += span[i * 2 + 1] - span[i * 2];
+		}
+		return (count);
+	}
+
+	/**
+	 * Determine if a sample is inside the polygon
+	 *
+	 * @param row
+	 * @param column
+	 * @return
+	 */
+	public boolean isInside(int row, int column) {
+		for (int i = rowSpan[row]; i < rowSpan[row + 1]; ++i) {
+			if ((column >= span[i * 2]) && (column < span[i * 2 + 1])) {
+				return (true);
+			}
+		}
+		return (false);
+	}
+
+	/**
+	 * Get the number of threads used for sampling
+	 *
+	 * @return
+	 */
+	public static int getThreadCount() {
+		if (THREADS <= 0) {
+			return (Runtime.getRuntime().availableProcessors());
+		}
+		return (THREADS);
+	}
+
+	private static synchronized ForkJoinPool getPool(int threads) {
+		ForkJoinPool pool = poolMap.get(threads);
+		if (pool == null) {
+			pool = new ForkJoinPool(threads);
+			poolMap.put(threads, pool);
+		}
+		return (pool);
+	}
+
+	/**
+	 * Sample the polygon one tile at a time. Samples that are not covered by a
+	 * tile are skipped. Interrupting the calling thread stops sampling.
+	 *
+	 * @param landscape
+	 * @param reduction
+	 *            accumulates the samples
+	 * @param parallel
+	 *            sample several tiles at once, the reduction must be safe to
+	 *            use from several threads for different partial results
+	 * @param listener
+	 *            receives the progress on the calling thread (may be null)
+	 * @return the result or null if the thread was interrupted
+	 */
+	public <T> T sample(Landscape landscape, Reduction<T> reduction, boolean parallel, Listener listener) {
+		this.landscape = landscape;
+
+		// divide the spans into runs of samples in the same tile
+		LinkedHashMap<Long, ArrayList<int[]>> runMap = new LinkedHashMap<Long, ArrayList<int[]>>();
+		total = 0;
+		for (int r = 0; r < yCoord.length; ++r) {
+			double y = yCoord[r];
+			for (int i = rowSpan[r]; i < rowSpan[r + 1]; ++i) {
+				int c = span[i * 2];
+				int end = span[i * 2 + 1];
+				while (c < end) {
+					long key = landscape.getHighestLevelKey(xCoord[c], y);
+					int start = c++;
+					while ((c < end) && (landscape.getHighestLevelKey(xCoord[c], y) == key)) {
+						c++;
+					}
+					if (key < 0) {
+						continue;
+					}
+					ArrayList<int[]> runList = runMap.get(key);
+					if (runList == null) {
+						runList = new ArrayList<int[]>();
+						runMap.put(key, runList);
+					}
+					runList.add(new int[] { r, start, c });
+					total += c - start;
+				}
+			}
+		}
+		tileKey = new long[runMap.size()];
+		tileRun = new int[runMap.size()][][];
+		int n = 0;
+		for (Map.Entry<Long, ArrayList<int[]>> entry : runMap.entrySet()) {
+			tileKey[n] = entry.getKey();
+			tileRun[n] = entry.getValue().toArray(new int[entry.getValue().size()][]);
+			n++;
+		}
+		visited = new AtomicLong();
+		percent = -1;
+		cancelled = false;
+
+		try {
+			T result = null;
+			int threads = getThreadCount();
+			if (n == 0) {
+				result = reduction.create();
+			} else if (!parallel || (threads == 1) || (n == 1)) {
+				result = new SampleTask<T>(reduction, 0, n, false, listener).compute();
+			} else {
+				ForkJoinTask<T> task = getPool(threads).submit(new SampleTask<T>(reduction, 0, n, true, null));
+				try {
+					while (true) {
+						try {
+							result = task.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+							break;
+						} catch (TimeoutException e) {
+							reportProgress(listener);
+						}
+					}
+				} catch (InterruptedException e) {
+					cancelled = true;
+					task.cancel(true);
+					// leave the interrupt for the caller
+					Thread.currentThread().interrupt();
+					return (null);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					throw new IllegalStateException(cause);
+				}
+			}
+			if (cancelled) {
+				return (null);
+			}
+			reportProgress(listener);
+			return (result);
+		} finally {
+			tileKey = null;
+			tileRun = null;
+		}
+	}
+
+	/**
+	 * Get the elevation at any coordinate from the highest level tile while
+	 * sampling.
+	 *
+	 * @param tile
+	 *            the tile being sampled, used if it contains the coordinate
+	 * @param x
+	 * @param y
+	 * @return NaN if there is no tile
+	 */
+	public double getElevation(ElevationRaster.Tile tile, double x, double y) {
+		long key = landscape.getHighestLevelKey(x, y);
+		if (key < 0) {
+			return (Double.NaN);
+		}
+		if ((tile == null) || (key != tile.getKey())) {
+			tile = landscape.getElevationRaster().getTile(key);
+			if (tile == null) {
+				return (Double.NaN);
+			}
+		}
+		return (tile.getElevation(x, y));
+	}
+
+	private void reportProgress(Listener listener) {
+		if ((listener == null) || (total == 0)) {
+			return;
+		}
+		long p = visited.get() * 100 / total;
+		if (p != percent) {
+			percent = p;
+			listener.progress(p / 100.0);
+		}
+	}
+
+	/**
+	 * Samples a range of tiles. The range is split in half until it has one
+	 * tile, and the results of the halves are combined in order.
+	 */
+	private class SampleTask<T> extends RecursiveTask<T> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Reduction<T> reduction;
+		private int first, last;
+		private boolean fork;
+		private Listener listener;
+
+		public SampleTask(Reduction<T> reduction, int first, int last, boolean fork, Listener listener) {
+			this.reduction = reduction;
+			this.first = first;
+			this.last = last;
+			this.fork = fork;
+			this.listener = listener;
+		}
+
+		@Override
+		protected T compute() {
+			if (last - first == 1) {
+				return (sampleTile());
+			}
+			int mid = (first + last) >>> 1;
+			SampleTask<T> left = new SampleTask<T>(reduction, first, mid, fork, listener);
+			SampleTask<T> right = new SampleTask<T>(reduction, mid, last, fork, listener);
+			T leftResult, rightResult;
+			if (fork) {
+				left.fork();
+				rightResult = right.compute();
+				leftResult = left.join();
+			} else {
+				leftResult = left.compute();
+				rightResult = right.compute();
+			}
+			if ((leftResult == null) || (rightResult == null)) {
+				return (null);
+			}
+			reduction.combine(leftResult, rightResult);
+			return (leftResult);
+		}
+
+		private T sampleTile() {
+			if (cancelled) {
+				return (null);
+			}
+			T result = reduction.create();
+			int[][] runList = tileRun[first];
+			if ((reduction instanceof TileReduction)
+				&& ((TileReduction<T>) reduction).visitTile(result, tileKey[first], xCoord, yCoord, runList)) {
+				for (int i = 0; i < runList.length; ++i) {
+					visited.addAndGet(runList[i][2] - runList[i][1]);
+				}
+				reportProgress(listener);
+				return (result);
+			}
+			ElevationRaster.Tile tile = landscape.getElevationRaster().getTile(tileKey[first]);
+			RunReduction<T> runReduction = null;
+			if (reduction instanceof RunReduction) {
+				runReduction = (RunReduction<T>) reduction;
+			}
+			for (int i = 0; i < runList.length; ++i) {
+				if (cancelled || Thread.currentThread().isInterrupted()) {
+					cancelled = true;
+					return (null);
+				}
+				int[] run = runList[i];
+				if (tile != null) {
+					double y = yCoord[run[0]];
+					if (runReduction != null) {
+						runReduction.visitRun(result, tile, xCoord, y, run[0], run[1], run[2]);
+					} else {
+						for (int c = run[1]; c < run[2]; ++c) {
+							reduction.visit(result, tile, xCoord[c], y, run[0], c);
+						}
+					}
+				}
+				visited.addAndGet(run[2] - run[1]);
+				reportProgress(listener);
+			}
+			return (result);
+		}
+	}
+
+	/**
+	 * Convert the polygon to spans of samples for each row. A sample is
+	 * inside if the winding number of the polygon around it is not zero. An
+	 * edge that crosses the row adds to the winding number of the samples to
+	 * its left. Those samples are found with the same test as
+	 * MathUtil.isInsidePolygon so the results are identical.
+	 */
+	private void scanConvert(ReadOnlyVector3[] vertex) {
+		int rows = yCoord.length;
+		int columns = xCoord.length;
+		rowSpan = new int[rows + 1];
+		span = new int[16];
+		int spanCount = 0;
+		int edges = Math.max(vertex.length - 1, 0);
+		long[] event = new long[edges];
+		for (int r = 0; r < rows; ++r) {
+			rowSpan[r] = spanCount;
+			double y = yCoord[r];
+			int n = 0;
+			int winding = 0;
+			for (int i = 0; i < edges; ++i) {
+				double y0 = vertex[i].getY();
+				double y1 = vertex[i + 1].getY();
+				int w = 0;
+				if (y0 <= y) {
+					if (y1 > y) {
+						w = 1;
+					}
+				} else if (y1 <= y) {
+					w = -1;
+				}
+				if (w == 0) {
+					continue;
+				}
+				// number of samples to the left of the edge
+				int lo = 0;
+				int hi = columns;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (isLeft(vertex[i], vertex[i + 1], xCoord[mid], y, w)) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+				if (lo > 0) {
+					// pack the column with the winding change in the low bit
+					event[n++] = ((long) lo << 1) | (w > 0 ? 1 : 0);
+					winding += w;
+				}
+			}
+
+			// sweep the columns where the winding number changes
+			Arrays.sort(event, 0, n);
+			int start = 0;
+			for (int i = 0; i < n; ++i) {
+				int column = (int) (event[i] >>> 1);
+				if ((winding != 0) && (column > start)) {
+					spanCount = addSpan(spanCount, rowSpan[r], start, column);
+				}
+				if (column > start) {
+					start = column;
+				}
+				winding -= ((event[i] & 1) == 1) ? 1 : -1;
+			}
+		}
+		rowSpan[rows] = spanCount;
+	}
+
+	private int addSpan(int spanCount, int rowStart, int start, int end) {
+		// join with the previous span of the row
+		if ((spanCount > rowStart) && (span[spanCount * 2 - 1] == start)) {
+			span[spanCount * 2 - 1] = end;
+			return (spanCount);
+		}
+		if (span.length < (spanCount + 1) * 2) {
+			span = Arrays.copyOf(span, span.length * 2);
+		}
+		span[spanCount * 2] = start;
+		span[spanCount * 2 + 1] = end;
+		return (spanCount + 1);
+	}
+
+	// the test of MathUtil.windingNumber for an edge that crosses the row
+	private static boolean isLeft(ReadOnlyVector3 p0, ReadOnlyVector3 p1, double x, double y, int w) {
+		double d = (p1.getX() - p0.getX()) * (y - p0.getY()) - (x - p0.getX()) * (p1.getY() - p0.getY());
+		if (w > 0) {
+			return (d > 0);
+		}
+		return (d < 0);
+	}
+}
@@ -0,0 +1,254 @@
+package gov.nasa.arc.dert.landscape;
+
+import gov.nasa.arc.dert.util.MathUtil;
+
+import com.ardor3d.math.Vector3;
+
+/**
+ * Accumulates the statistics of the landscape inside a region from a single
+ * pass over the samples: the count, mean, minimum, maximum, and standard
+ * deviation of the elevation, the mean normal and slope, the surface area, and
+ * the volume above and below a constant elevation or a polygon surface.
+ * Statistics accumulated separately for parts of a region can be combined.
+ *
+ */
+public class RegionStatistics {
+
+	// Area of a sample
+	private double sampleArea;
+
+	// Elevation statistics (mean and sum of squared differences are updated
+	// with Welford's method)
+	private long count;
+	private double mean, m2;
+	private double minimum, maximum;
+
+	// Sum of normals and a normal sample
+	private Vector3 normal, store;
+	private long normalCount;
+
+	// Surface area
+	private double surfaceArea;
+
+	// Volume above and below, in elevation units times samples
+	private boolean hasVolume;
+	private double volumeAbove, volumeBelow;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sampleArea
+	 *            the planimetric area of a sample
+	 * @param hasVolume
+	 *            the volume is computed
+	 */
+	public RegionStatistics(double sampleArea, boolean hasVolume) {
+		this.sampleArea = sampleArea;
+		this.hasVolume = hasVolume;
+		minimum = Double.NaN;
+		maximum = Double.NaN;
+		normal = new Vector3();
+		store = new Vector3();
+	}
+
+	/**
+	 * Add an elevation sample
+	 *
+	 * @param z
+	 */
+	public void addElevation(double z) {
+		count++;
+		double d = z - mean;
+		mean += d / count;
+		m2 += d * (z - mean);
+		if ((count == 1) || (z < minimum)) {
+			minimum = z;
+		}
+		if ((count == 1) || (z > maximum)) {
+			maximum = z;
+		}
+	}
+
+	/**
+	 * Add a surface normal sample from a tile
+	 *
+	 * @param tile
+	 * @param x
+	 * @param y
+	 */
+	public void addNormal(ElevationRaster.Tile tile, double x, double y) {
+		if (tile.getNormal(x, y, store)) {
+			normal.addLocal(store);
+			normalCount++;
+		}
+	}
+
+	/**
+	 * Add the surface area of a sample
+	 *
+	 * @param area
+	 */
+	public void addSurfaceArea(double area) {
+		surfaceArea += area;
+	}
+
+	/**
+	 * Add a volume sample
+	 *
+	 * @param z
+	 *            the landscape elevation
+	 * @param base
+	 *            the elevation of the constant or polygon surface
+	 */
+	public void addVolume(double z, double base) {
+		if (z < base) {
+			volumeBelow += base - z;
+		} else {
+			volumeAbove += z - base;
+		}
+	}
+
+	/**
+	 * Add the statistics of another part of the region
+	 *
+	 * @param other
+	 */
+	public void add(RegionStatistics other) {
+		if (other.count > 0) {
+			if (count == 0) {
+				mean = other.mean;
+				m2 = other.m2;
+				minimum = other.minimum;
+				maximum = other.maximum;
+			} else {
+				// combine the means and squared differences (Chan et al.)
+				double n = count + other.count;
+				double d = other.mean - mean;
+				mean += d * other.count / n;
+				m2 += other.m2 + d * d * count * other.count / n;
+				minimum = Math.min(minimum, other.minimum);
+				maximum = Math.max(maximum, other.maximum);
+			}
+			count += other.count;
+		}
+		normal.addLocal(other.normal);
+		normalCount += other.normalCount;
+		surfaceArea += other.surfaceArea;
+		volumeAbove += other.volumeAbove;
+		volumeBelow += other.volumeBelow;
+	}
+
+	/**
+	 * Get the number of elevation samples
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return (count);
+	}
+
+	/**
+	 * Get the mean elevation
+	 *
+	 * @return NaN if there are no samples
+	 */
+	public double getMeanElevation() {
+		if (count == 0) {
+			return (Double.NaN);
+		}
+		return (mean);
+	}
+
+	/**
+	 * Get the minimum elevation
+	 *
+	 * @return NaN if there are no samples
+	 */
+	public double getMinimumElevation() {
+		return (minimum);
+	}
+
+	/**
+	 * Get the maximum elevation
+	 *
+	 * @return NaN if there are no samples
+	 */
+	public double getMaximumElevation() {
+		return (maximum);
+	}
+
+	/**
+	 * Get the standard deviation of the elevation
+	 *
+	 * @return NaN if there are no samples
+	 */
+	public double getStandardDeviation() {
+		if (count == 0) {
+			return (Double.NaN);
+		}
+		return (Math.sqrt(m2 / count));
+	}
+
+	/**
+	 * Get the mean surface normal
+	 *
+	 * @param store
+	 * @return
+	 */
+	public Vector3 getMeanNormal(Vector3 store) {
+		if (store == null) {
+			store = new Vector3();
+		}
+		store.set(normal);
+		if (normalCount > 0) {
+			store.multiplyLocal(1.0 / normalCount);
+		}
+		return (store);
+	}
+
+	/**
+	 * Get the slope of the mean surface normal
+	 *
+	 * @return NaN if there are no samples
+	 */
+	public double getMeanSlope() {
+		if (normalCount == 0) {
+			return (Double.NaN);
+		}
+		return (MathUtil.getSlopeFromNormal(getMeanNormal(null)));
+	}
+
+	/**
+	 * Get the surface area
+	 *
+	 * @return
+	 */
+	public double getSurfaceArea() {
+		return (surfaceArea);
+	}
+
+	/**
+	 * Determine if the volume was computed
+	 *
+	 * @return
+	 */
+	public boolean hasVolume() {
+		return (hasVolume);
+	}
+
+	/**
+	 * Get the volume
+	 *
+	 * @return the volume above and below the surface
+	 */
+	public double[] getVolume() {
+		return (new double[] { volumeAbove * sampleArea, volumeBelow * sampleArea });
+	}
+
+	@Override
+	public String toString() {
+		return ("RegionStatistics[count=" + count + ",mean=" + getMeanElevation() + ",min=" + minimum + ",max="
+			+ maximum + ",stdDev=" + getStandardDeviation() + ",slope=" + getMeanSlope() + ",surfaceArea="
+			+ surfaceArea + "]");
+	}
+}
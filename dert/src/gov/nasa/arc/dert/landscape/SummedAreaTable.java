@@ -0,0 +1,187 @@
+package gov.nasa.arc.dert.landscape;
+
+/**
+ * Summed-area tables of the elevation posts of a tile. Each table entry holds
+ * the number of posts with data, the sum of their elevations, and the sum of
+ * their squared elevations for the rectangle from the upper left corner of
+ * the tile to the entry, so these sums for any rectangle of posts are found
+ * from its four corners. The minimum and maximum elevation of the tile are
+ * also kept. Missing values (NaN) are not counted.
+ *
+ * The tables are computed from a tile that has been read, when first needed,
+ * and answer the parts of a region that do not cover a whole tile. Whole
+ * tiles are answered from the TileStatistics written with the layer.
+ *
+ */
+public class SummedAreaTable {
+
+	// Number of columns and rows of posts
+	private int columns, rows;
+
+	// Tables with one more column and row than the posts, row 0 and column 0
+	// are zero
+	private int[] count;
+	private double[] sum, sumOfSquares;
+
+	// Elevation range of the tile
+	private float minimum, maximum;
+
+	private SummedAreaTable(int columns, int rows) {
+		this.columns = columns;
+		this.rows = rows;
+		int n = (columns + 1) * (rows + 1);
+		count = new int[n];
+		sum = new double[n];
+		sumOfSquares = new double[n];
+		minimum = Float.NaN;
+		maximum = Float.NaN;
+	}
+
+	/**
+	 * Create the tables for a tile
+	 *
+	 * @param data
+	 *            the elevation posts in row order starting at the top
+	 * @param columns
+	 * @param rows
+	 * @return
+	 */
+	public static SummedAreaTable create(float[] data, int columns, int rows) {
+		SummedAreaTable table = new SummedAreaTable(columns, rows);
+		int stride = columns + 1;
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+		for (int r = 0; r < rows; ++r) {
+			// running sums of this row added to the row above
+			int rowCount = 0;
+			double rowSum = 0;
+			double rowSumOfSquares = 0;
+			int k = (r + 1) * stride + 1;
+			int d = r * columns;
+			for (int c = 0; c < columns; ++c) {
+				float z = data[d++];
+				if (!Float.isNaN(z)) {
+					rowCount++;
+					rowSum += z;
+					rowSumOfSquares += (double) z * z;
+					if (z < min) {
+						min = z;
+					}
+					if (z > max) {
+						max = z;
+					}
+				}
+				table.count[k] = table.count[k - stride] + rowCount;
+				table.sum[k] = table.sum[k - stride] + rowSum;
+				table.sumOfSquares[k] = table.sumOfSquares[k - stride] + rowSumOfSquares;
+				k++;
+			}
+		}
+		if (table.count[table.count.length - 1] > 0) {
+			table.minimum = min;
+			table.maximum = max;
+		}
+		return (table);
+	}
+
+	/**
+	 * Get the number of posts with data in a rectangle
+	 *
+	 * @param c0
+	 *            the first column
+	 * @param r0
+	 *            the first row (row 0 is the top)
+	 * @param c1
+	 *            the column after the rectangle
+	 * @param r1
+	 *            the row after the rectangle
+	 * @return
+	 */
+	public int getCount(int c0, int r0, int c1, int r1) {
+		int stride = columns + 1;
+		return (count[r1 * stride + c1] - count[r0 * stride + c1] - count[r1 * stride + c0] + count[r0 * stride
+			+ c0]);
+	}
+
+	/**
+	 * Get the sum of the elevation of the posts in a rectangle
+	 *
+	 * @param c0
+	 *            the first column
+	 * @param r0
+	 *            the first row (row 0 is the top)
+	 * @param c1
+	 *            the column after the rectangle
+	 * @param r1
+	 *            the row after the rectangle
+	 * @return
+	 */
+	public double getSum(int c0, int r0, int c1, int r1) {
+		int stride = columns + 1;
+		return (sum[r1 * stride + c1] - sum[r0 * stride + c1] - sum[r1 * stride + c0] + sum[r0 * stride + c0]);
+	}
+
+	/**
+	 * Get the sum of the squared elevation of the posts in a rectangle
+	 *
+	 * @param c0
+	 *            the first column
+	 * @param r0
+	 *            the first row (row 0 is the top)
+	 * @param c1
+	 *            the column after the rectangle
+	 * @param r1
+	 *            the row after the rectangle
+	 * @return
+	 */
+	public double getSumOfSquares(int c0, int r0, int c1, int r1) {
+		int stride = columns + 1;
+		return (sumOfSquares[r1 * stride + c1] - sumOfSquares[r0 * stride + c1] - sumOfSquares[r1 * stride + c0]
+			+ sumOfSquares[r0 * stride + c0]);
+	}
+
+	/**
+	 * Get the minimum elevation of the tile
+	 *
+	 * @return NaN if the tile has no data
+	 */
+	public float getMinimum() {
+		return (minimum);
+	}
+
+	/**
+	 * Get the maximum elevation of the tile
+	 *
+	 * @return NaN if the tile has no data
+	 */
+	public float getMaximum() {
+		return (maximum);
+	}
+
+	/**
+	 * Get the number of columns of posts
+	 *
+	 * @return
+	 */
+	public int getColumns() {
+		return (columns);
+	}
+
+	/**
+	 * Get the number of rows of posts
+	 *
+	 * @return
+	 */
+	public int getRows() {
+		return (rows);
+	}
+
+	/**
+	 * Get the number of bytes held by the tables
+	 *
+	 * @return
+	 */
+	public long getMemorySize() {
+		return (count.length * 20l);
+	}
+}
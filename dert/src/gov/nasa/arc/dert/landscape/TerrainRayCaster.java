@@ -0,0 +1,787 @@
+package gov.nasa.arc.dert.landscape;
+
+import com.ardor3d.math.Vector3;
+import com.ardor3d.math.type.ReadOnlyVector3;
+
+/**
+ * Casts rays against the full resolution surface of the landscape. The
+ * surface is the triangle mesh of the highest level posts, split the same way
+ * as the rendered tiles. A ray descends a quad tree of the elevation range of
+ * the highest level tiles, built from the statistics written with the layer
+ * (see TileStatistics), and then the min/max pyramid of each tile it reaches
+ * (see MinMaxPyramid), in front to back order. Any node whose elevation range
+ * the ray passes above or below is skipped, so only the tiles and cells near
+ * the surface are read and tested. Without statistics every highest level
+ * tile the ray crosses is read.
+ *
+ * Coordinates are those of the elevation raster, X,Y relative to the center
+ * of the landscape and Z the scaled elevation. A caster holds no query state
+ * and may be used from several threads at once.
+ *
+ */
+public class TerrainRayCaster {
+
+	// Tolerance for the triangle edges so rays do not pass between triangles
+	private static final double EDGE_TOLERANCE = 0.000000001;
+
+	// The state of one query
+	private static class Query {
+		// Ray origin and direction
+		private double ox, oy, oz, dx, dy, dz;
+		// Range of the ray parameter that is accepted
+		private double tMin, tMax;
+		// Normal at the nearest hit
+		private double nx, ny, nz;
+		// Largest elevation angle tangent found for a horizon
+		private double bestTan;
+	}
+
+	// The elevation to be searched
+	private ElevationRaster raster;
+
+	// Bounds of the landscape
+	private double left, bottom, right, top, minZ, maxZ;
+
+	// Dimensions of a highest level tile
+	private double tileWidth, tileLength;
+
+	// Elevation range of the highest level tiles and of each coarser level of
+	// 2x2 blocks of them, null if the layer has no statistics
+	private TileBounds tileBounds;
+
+	// A quad tree of elevation ranges over the highest level tiles
+	private static class TileBounds {
+		// Number of levels, the last is the highest level tiles
+		private int numLevels;
+		// Minimum and maximum by level in row order starting at the top, the
+		// minimum is greater than the maximum if there is no data
+		private float[][] minimum, maximum;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param raster
+	 *            the elevation
+	 * @param minZ
+	 *            the minimum scaled elevation of the landscape
+	 * @param maxZ
+	 *            the maximum scaled elevation of the landscape
+	 */
+	public TerrainRayCaster(ElevationRaster raster, double minZ, double maxZ) {
+		this.raster = raster;
+		double pad = Math.max(Math.abs(maxZ - minZ) * 0.0001, 0.0001);
+		this.minZ = minZ - pad;
+		this.maxZ = maxZ + pad;
+		right = raster.getWidth() / 2;
+		top = raster.getLength() / 2;
+		left = -right;
+		bottom = -top;
+		tileWidth = raster.getPixelWidth() * raster.getTileWidth();
+		tileLength = raster.getPixelLength() * raster.getTileLength();
+		tileBounds = createTileBounds();
+	}
+
+	// Build the elevation ranges of the tiles from the tile statistics
+	private TileBounds createTileBounds() {
+		TileStatistics stats = raster.getTileStatistics();
+		if (stats == null) {
+			return (null);
+		}
+		int level = stats.getLevel();
+		int n = stats.getNumberOfTiles();
+		TileBounds bounds = new TileBounds();
+		bounds.numLevels = level + 1;
+		bounds.minimum = new float[level + 1][];
+		bounds.maximum = new float[level + 1][];
+		float[] min = new float[n * n];
+		float[] max = new float[n * n];
+		for (int row = 0; row < n; ++row) {
+			for (int column = 0; column < n; ++column) {
+				int i = row * n + column;
+				min[i] = Float.POSITIVE_INFINITY;
+				max[i] = Float.NEGATIVE_INFINITY;
+				if (stats.getCount(i) == 0) {
+					// a lower level tile may cover a hole at the highest level
+					long key = raster.getKey(left + (column + 0.5) * tileWidth, top - (row + 0.5) * tileLength);
+					if ((key >= 0) && (QuadKey.getLevel(key) < level)) {
+						min[i] = Float.NEGATIVE_INFINITY;
+						max[i] = Float.POSITIVE_INFINITY;
+					}
+					continue;
+				}
+				// the right column and top row of a tile are counted in its
+				// neighbors
+				for (int r = Math.max(row - 1, 0); r <= row; ++r) {
+					for (int c = column; c <= Math.min(column + 1, n - 1); ++c) {
+						int k = r * n + c;
+						if (stats.getCount(k) > 0) {
+							min[i] = Math.min(min[i], stats.getMinimum(k));
+							max[i] = Math.max(max[i], stats.getMaximum(k));
+						}
+					}
+				}
+			}
+		}
+		bounds.minimum[level] = min;
+		bounds.maximum[level] = max;
+		for (int l = level - 1; l >= 0; --l) {
+			int m = 1 << l;
+			float[] childMin = min;
+			float[] childMax = max;
+			min = new float[m * m];
+			max = new float[m * m];
+			for (int row = 0; row < m; ++row) {
+				for (int column = 0; column < m; ++column) {
+					int i = row * m + column;
+					min[i] = Float.POSITIVE_INFINITY;
+					max[i] = Float.NEGATIVE_INFINITY;
+					for (int r = row * 2; r < row * 2 + 2; ++r) {
+						for (int c = column * 2; c < column * 2 + 2; ++c) {
+							min[i] = Math.min(min[i], childMin[r * m * 2 + c]);
+							max[i] = Math.max(max[i], childMax[r * m * 2 + c]);
+						}
+					}
+				}
+			}
+			bounds.minimum[l] = min;
+			bounds.maximum[l] = max;
+		}
+		return (bounds);
+	}
+
+	/**
+	 * Find the nearest intersection of a ray with the surface.
+	 *
+	 * @param origin
+	 *            the start of the ray
+	 * @param direction
+	 *            the direction of the ray, the ray parameter is in units of
+	 *            its length
+	 * @param maxT
+	 *            the largest ray parameter to search
+	 * @param position
+	 *            the intersection point is placed here (may be null)
+	 * @param normal
+	 *            the unit normal of the surface at the intersection is placed
+	 *            here (may be null)
+	 * @return the ray parameter of the intersection or NaN if there is none
+	 */
+	public double intersect(ReadOnlyVector3 origin, ReadOnlyVector3 direction, double maxT, Vector3 position,
+		Vector3 normal) {
+		Query query = createQuery(origin, direction, 0, maxT);
+		double t = cast(query);
+		if (Double.isNaN(t)) {
+			return (t);
+		}
+		if (position != null) {
+			position.set(query.ox + t * query.dx, query.oy + t * query.dy, query.oz + t * query.dz);
+		}
+		if (normal != null) {
+			normal.set(query.nx, query.ny, query.nz);
+		}
+		return (t);
+	}
+
+	/**
+	 * Determine if two points can see each other, that is, the surface does
+	 * not cross the line between them. The points themselves may lie on the
+	 * surface.
+	 *
+	 * @param p0
+	 * @param p1
+	 * @return
+	 */
+	public boolean isVisible(ReadOnlyVector3 p0, ReadOnlyVector3 p1) {
+		Vector3 direction = new Vector3(p1).subtractLocal(p0);
+		Query query = createQuery(p0, direction, 0.000001, 1 - 0.000001);
+		return (Double.isNaN(cast(query)));
+	}
+
+	/**
+	 * Get the elevation angle of the horizon seen from a point in the given
+	 * direction. This is the largest angle above the horizontal of any point
+	 * of the surface along the direction.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            the observer
+	 * @param azimuth
+	 *            the direction in radians clockwise from north (+Y)
+	 * @param maxDistance
+	 *            the largest horizontal distance to search
+	 * @return the angle in radians, NaN if there is no surface in the
+	 *         direction
+	 */
+	public double getHorizonAngle(double x, double y, double z, double azimuth, double maxDistance) {
+		Query query = new Query();
+		query.ox = x;
+		query.oy = y;
+		query.oz = z;
+		query.dx = Math.sin(azimuth);
+		query.dy = Math.cos(azimuth);
+		query.tMin = 0;
+		query.tMax = maxDistance;
+		query.bestTan = Double.NEGATIVE_INFINITY;
+		double t0 = Math.max(0, Math.max(enter(x, query.dx, left, right), enter(y, query.dy, bottom, top)));
+		double t1 = Math.min(maxDistance, Math.min(leave(x, query.dx, left, right), leave(y, query.dy, bottom, top)));
+		if (t0 >= t1) {
+			return (Double.NaN);
+		}
+		if (tileBounds != null) {
+			horizonTiles(query, 0, 0, 0, t0, t1);
+		} else {
+			horizonWalk(query, t0, t1);
+		}
+		if (query.bestTan == Double.NEGATIVE_INFINITY) {
+			return (Double.NaN);
+		}
+		return (Math.atan(query.bestTan));
+	}
+
+	// Walk the line through every highest level tile it crosses
+	private void horizonWalk(Query query, double t0, double t1) {
+		TileWalk walk = new TileWalk(query, t0, t1);
+		while (walk.next()) {
+			// no surface beyond this point can rise above the horizon found
+			double h = maxZ - query.oz;
+			if ((h > 0) && (walk.t0 > 0) && (h / walk.t0 <= query.bestTan)) {
+				break;
+			}
+			ElevationRaster.Tile tile = walk.getTile();
+			if (tile != null) {
+				MinMaxPyramid pyramid = raster.getMinMaxPyramid(tile);
+				int level = pyramid.getNumberOfLevels() - 1;
+				horizonNode(query, tile, pyramid, level, 0, 0, walk.t0, walk.t1);
+			}
+		}
+	}
+
+	/**
+	 * Get the elevation angle of the horizon in a number of evenly spaced
+	 * directions starting at north.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            the observer
+	 * @param maxDistance
+	 *            the largest horizontal distance to search
+	 * @param store
+	 *            the angles in radians, one for each direction
+	 */
+	public void getHorizon(double x, double y, double z, double maxDistance, double[] store) {
+		for (int i = 0; i < store.length; ++i) {
+			store[i] = getHorizonAngle(x, y, z, i * 2 * Math.PI / store.length, maxDistance);
+		}
+	}
+
+	private Query createQuery(ReadOnlyVector3 origin, ReadOnlyVector3 direction, double tMin, double tMax) {
+		Query query = new Query();
+		query.ox = origin.getX();
+		query.oy = origin.getY();
+		query.oz = origin.getZ();
+		query.dx = direction.getX();
+		query.dy = direction.getY();
+		query.dz = direction.getZ();
+		query.tMin = tMin;
+		query.tMax = tMax;
+		return (query);
+	}
+
+	// Find the nearest hit of the ray between the minimum and maximum
+	// elevation
+	private double cast(Query query) {
+		double t0 = Math.max(query.tMin, Math.max(enter(query.ox, query.dx, left, right),
+			Math.max(enter(query.oy, query.dy, bottom, top), enter(query.oz, query.dz, minZ, maxZ))));
+		double t1 = Math.min(query.tMax, Math.min(leave(query.ox, query.dx, left, right),
+			Math.min(leave(query.oy, query.dy, bottom, top), leave(query.oz, query.dz, minZ, maxZ))));
+		if (t0 > t1) {
+			return (Double.NaN);
+		}
+		if (tileBounds != null) {
+			return (intersectTiles(query, 0, 0, 0, t0, t1));
+		}
+		// walk the ray through every highest level tile it crosses
+		TileWalk walk = new TileWalk(query, t0, t1);
+		while (walk.next()) {
+			ElevationRaster.Tile tile = walk.getTile();
+			if (tile == null) {
+				continue;
+			}
+			MinMaxPyramid pyramid = raster.getMinMaxPyramid(tile);
+			int level = pyramid.getNumberOfLevels() - 1;
+			double t = intersectNode(query, tile, pyramid, level, 0, 0, walk.t0, walk.t1);
+			if (!Double.isNaN(t)) {
+				return (t);
+			}
+		}
+		return (Double.NaN);
+	}
+
+	// Steps through the grid of highest level tiles along the X,Y projection
+	// of a ray. A lower level tile is visited once for each highest level
+	// tile it covers.
+	private class TileWalk {
+
+		private Query query;
+		// Interval of the current step
+		private double t0, t1;
+		// End of the walk
+		private double tEnd;
+		// Parameter of the next column and row crossed and the step between
+		// them
+		private double tx, ty, tDeltaX, tDeltaY;
+
+		private TileWalk(Query query, double tStart, double tEnd) {
+			this.query = query;
+			this.tEnd = tEnd;
+			t1 = tStart;
+			tx = Double.POSITIVE_INFINITY;
+			ty = Double.POSITIVE_INFINITY;
+			tDeltaX = Double.POSITIVE_INFINITY;
+			tDeltaY = Double.POSITIVE_INFINITY;
+			if (query.dx != 0) {
+				double c = (query.ox + tStart * query.dx - left) / tileWidth;
+				double next = (query.dx > 0) ? Math.floor(c) + 1 : Math.ceil(c) - 1;
+				tx = (left + next * tileWidth - query.ox) / query.dx;
+				tDeltaX = tileWidth / Math.abs(query.dx);
+			}
+			if (query.dy != 0) {
+				double r = (query.oy + tStart * query.dy - bottom) / tileLength;
+				double next = (query.dy > 0) ? Math.floor(r) + 1 : Math.ceil(r) - 1;
+				ty = (bottom + next * tileLength - query.oy) / query.dy;
+				tDeltaY = tileLength / Math.abs(query.dy);
+			}
+		}
+
+		// Move to the next tile, return false at the end of the walk
+		private boolean next() {
+			while (t1 < tEnd) {
+				t0 = t1;
+				t1 = Math.min(Math.min(tx, ty), tEnd);
+				// a corner crosses both
+				if (tx <= t1) {
+					tx += tDeltaX;
+				}
+				if (ty <= t1) {
+					ty += tDeltaY;
+				}
+				if (t1 > t0) {
+					return (true);
+				}
+			}
+			return (false);
+		}
+
+		// Get the tile at the middle of the current step
+		private ElevationRaster.Tile getTile() {
+			return (TerrainRayCaster.this.getTile(query, t0, t1));
+		}
+	}
+
+	// Find the nearest hit in a node of the tile bounds
+	private double intersectTiles(Query query, int level, int column, int row, double t0, double t1) {
+		int i = row * (1 << level) + column;
+		float zMin = tileBounds.minimum[level][i];
+		float zMax = tileBounds.maximum[level][i];
+		if (zMin > zMax) {
+			// no data
+			return (Double.NaN);
+		}
+		double w = tileWidth * (1 << (tileBounds.numLevels - 1 - level));
+		double l = tileLength * (1 << (tileBounds.numLevels - 1 - level));
+		double xMin = left + column * w;
+		double yMax = top - row * l;
+		double ta = Math.max(t0, Math.max(enter(query.ox, query.dx, xMin - w * EDGE_TOLERANCE, xMin + w + w
+			* EDGE_TOLERANCE), enter(query.oy, query.dy, yMax - l - l * EDGE_TOLERANCE, yMax + l * EDGE_TOLERANCE)));
+		double tb = Math.min(t1, Math.min(leave(query.ox, query.dx, xMin - w * EDGE_TOLERANCE, xMin + w + w
+			* EDGE_TOLERANCE), leave(query.oy, query.dy, yMax - l - l * EDGE_TOLERANCE, yMax + l * EDGE_TOLERANCE)));
+		if (ta > tb) {
+			return (Double.NaN);
+		}
+		double za = query.oz + ta * query.dz;
+		double zb = query.oz + tb * query.dz;
+		if ((Math.min(za, zb) > zMax) || (Math.max(za, zb) < zMin)) {
+			return (Double.NaN);
+		}
+		if (level == tileBounds.numLevels - 1) {
+			ElevationRaster.Tile tile = getTile(query, ta, tb);
+			if (tile == null) {
+				return (Double.NaN);
+			}
+			MinMaxPyramid pyramid = raster.getMinMaxPyramid(tile);
+			return (intersectNode(query, tile, pyramid, pyramid.getNumberOfLevels() - 1, 0, 0, ta, tb));
+		}
+		int[] child = getTileChildren(query, level, column, row);
+		for (int k = 0; k < 4; ++k) {
+			double t = intersectTiles(query, level + 1, child[k * 2], child[k * 2 + 1], ta, tb);
+			if (!Double.isNaN(t)) {
+				return (t);
+			}
+		}
+		return (Double.NaN);
+	}
+
+	// Raise the horizon with the surface in a node of the tile bounds
+	private void horizonTiles(Query query, int level, int column, int row, double t0, double t1) {
+		int i = row * (1 << level) + column;
+		float zMax = tileBounds.maximum[level][i];
+		if (tileBounds.minimum[level][i] > zMax) {
+			// no data
+			return;
+		}
+		double w = tileWidth * (1 << (tileBounds.numLevels - 1 - level));
+		double l = tileLength * (1 << (tileBounds.numLevels - 1 - level));
+		double xMin = left + column * w;
+		double yMax = top - row * l;
+		double ta = Math.max(t0, Math.max(enter(query.ox, query.dx, xMin, xMin + w), enter(query.oy, query.dy,
+			yMax - l, yMax)));
+		double tb = Math.min(t1, Math.min(leave(query.ox, query.dx, xMin, xMin + w), leave(query.oy, query.dy,
+			yMax - l, yMax)));
+		if (ta > tb) {
+			return;
+		}
+		// the largest angle any point in the node could have
+		double h = zMax - query.oz;
+		double bound;
+		if (h > 0) {
+			bound = (ta > 0) ? h / ta : Double.POSITIVE_INFINITY;
+		} else {
+			bound = (tb > 0) ? h / tb : Double.NEGATIVE_INFINITY;
+		}
+		if (bound <= query.bestTan) {
+			return;
+		}
+		if (level == tileBounds.numLevels - 1) {
+			ElevationRaster.Tile tile = getTile(query, ta, tb);
+			if (tile != null) {
+				MinMaxPyramid pyramid = raster.getMinMaxPyramid(tile);
+				horizonNode(query, tile, pyramid, pyramid.getNumberOfLevels() - 1, 0, 0, ta, tb);
+			}
+			return;
+		}
+		// children in the order the line enters them, the near ones raise
+		// the horizon so more of the far ones are skipped
+		int[] child = getTileChildren(query, level, column, row);
+		for (int k = 0; k < 4; ++k) {
+			horizonTiles(query, level + 1, child[k * 2], child[k * 2 + 1], ta, tb);
+		}
+	}
+
+	// Get the column and row of the children of a node of the tile bounds in
+	// the order the X,Y projection of a ray enters them
+	private int[] getTileChildren(Query query, int level, int column, int row) {
+		double w = tileWidth * (1 << (tileBounds.numLevels - 2 - level));
+		double l = tileLength * (1 << (tileBounds.numLevels - 2 - level));
+		int n = 0;
+		int[] child = new int[8];
+		double[] entry = new double[4];
+		for (int r = row * 2; r < row * 2 + 2; ++r) {
+			for (int c = column * 2; c < column * 2 + 2; ++c) {
+				double xMin = left + c * w;
+				double yMax = top - r * l;
+				double e = Math.max(enter(query.ox, query.dx, xMin, xMin + w), enter(query.oy, query.dy, yMax - l, yMax));
+				int i = n;
+				while ((i > 0) && (entry[i - 1] > e)) {
+					entry[i] = entry[i - 1];
+					child[i * 2] = child[i * 2 - 2];
+					child[i * 2 + 1] = child[i * 2 - 1];
+					i--;
+				}
+				entry[i] = e;
+				child[i * 2] = c;
+				child[i * 2 + 1] = r;
+				n++;
+			}
+		}
+		return (child);
+	}
+
+	// Get the tile at the middle of part of a ray, a lower level tile if the
+	// highest level has a hole there
+	private ElevationRaster.Tile getTile(Query query, double t0, double t1) {
+		double t = (t0 + t1) / 2;
+		return (raster.getTile(query.ox + t * query.dx, query.oy + t * query.dy));
+	}
+
+	// Find the nearest hit in a node of the pyramid
+	private double intersectNode(Query query, ElevationRaster.Tile tile, MinMaxPyramid pyramid, int level,
+		int column, int row, double t0, double t1) {
+		float zMin = pyramid.getMinimum(level, column, row);
+		float zMax = pyramid.getMaximum(level, column, row);
+		if (zMin > zMax) {
+			// no data
+			return (Double.NaN);
+		}
+		double pw = tile.getPixelWidth();
+		double pl = tile.getPixelLength();
+		double xMin = tile.getX() + (column << level) * pw;
+		double xMax = tile.getX() + Math.min((column + 1) << level, pyramid.getColumns(0)) * pw;
+		double yMax = tile.getY() + (tile.getRows() - 1 - (row << level)) * pl;
+		double yMin = tile.getY() + (tile.getRows() - 1 - Math.min((row + 1) << level, pyramid.getRows(0))) * pl;
+		double ta = Math.max(t0, Math.max(enter(query.ox, query.dx, xMin - pw * EDGE_TOLERANCE, xMax + pw
+			* EDGE_TOLERANCE), enter(query.oy, query.dy, yMin - pl * EDGE_TOLERANCE, yMax + pl * EDGE_TOLERANCE)));
+		double tb = Math.min(t1, Math.min(leave(query.ox, query.dx, xMin - pw * EDGE_TOLERANCE, xMax + pw
+			* EDGE_TOLERANCE), leave(query.oy, query.dy, yMin - pl * EDGE_TOLERANCE, yMax + pl * EDGE_TOLERANCE)));
+		if (ta > tb) {
+			return (Double.NaN);
+		}
+		double za = query.oz + ta * query.dz;
+		double zb = query.oz + tb * query.dz;
+		if ((Math.min(za, zb) > zMax) || (Math.max(za, zb) < zMin)) {
+			return (Double.NaN);
+		}
+		if (level == 0) {
+			return (intersectCell(query, tile, column, row, xMin, yMax));
+		}
+
+		// children in the order the ray enters them
+		int n = 0;
+		int[] child = new int[8];
+		double[] entry = new double[4];
+		level--;
+		for (int r = row * 2; r < Math.min(row * 2 + 2, pyramid.getRows(level)); ++r) {
+			for (int c = column * 2; c < Math.min(column * 2 + 2, pyramid.getColumns(level)); ++c) {
+				double e = getEntry(query, tile, pyramid, level, c, r);
+				int i = n;
+				while ((i > 0) && (entry[i - 1] > e)) {
+					entry[i] = entry[i - 1];
+					child[i * 2] = child[i * 2 - 2];
+					child[i * 2 + 1] = child[i * 2 - 1];
+					i--;
+				}
+				entry[i] = e;
+				child[i * 2] = c;
+				child[i * 2 + 1] = r;
+				n++;
+			}
+		}
+		for (int i = 0; i < n; ++i) {
+			double t = intersectNode(query, tile, pyramid, level, child[i * 2], child[i * 2 + 1], ta, tb);
+			if (!Double.isNaN(t)) {
+				return (t);
+			}
+		}
+		return (Double.NaN);
+	}
+
+	// Get the ray parameter where the X,Y projection of a ray enters a node
+	private double getEntry(Query query, ElevationRaster.Tile tile, MinMaxPyramid pyramid, int level, int column,
+		int row) {
+		double pw = tile.getPixelWidth();
+		double pl = tile.getPixelLength();
+		double xMin = tile.getX() + (column << level) * pw;
+		double xMax = tile.getX() + Math.min((column + 1) << level, pyramid.getColumns(0)) * pw;
+		double yMax = tile.getY() + (tile.getRows() - 1 - (row << level)) * pl;
+		double yMin = tile.getY() + (tile.getRows() - 1 - Math.min((row + 1) << level, pyramid.getRows(0))) * pl;
+		return (Math.max(enter(query.ox, query.dx, xMin, xMax), enter(query.oy, query.dy, yMin, yMax)));
+	}
+
+	// Intersect the two triangles of a cell, the cell upper left post is at
+	// column, row and X,Y
+	private double intersectCell(Query query, ElevationRaster.Tile tile, int column, int row, double x, double y) {
+		double pw = tile.getPixelWidth();
+		double pl = tile.getPixelLength();
+		float zul = tile.getElevation(column, row);
+		float zur = tile.getElevation(column + 1, row);
+		float zll = tile.getElevation(column, row + 1);
+		float zlr = tile.getElevation(column + 1, row + 1);
+		double[] hit = new double[4];
+		double t = Double.NaN;
+		// top triangle
+		if (!Float.isNaN(zul) && !Float.isNaN(zll) && !Float.isNaN(zur)) {
+			t = intersectTriangle(query, x, y, zul, 0, -pl, zll - zul, pw, 0, zur - zul, hit);
+		}
+		// bottom triangle
+		if (!Float.isNaN(zlr) && !Float.isNaN(zll) && !Float.isNaN(zur)) {
+			double[] bottomHit = new double[4];
+			double tb = intersectTriangle(query, x + pw, y - pl, zlr, -pw, 0, zll - zlr, 0, pl, zur - zlr, bottomHit);
+			if (!Double.isNaN(tb) && (Double.isNaN(t) || (tb < t))) {
+				t = tb;
+				hit = bottomHit;
+			}
+		}
+		if (!Double.isNaN(t)) {
+			query.nx = hit[1];
+			query.ny = hit[2];
+			query.nz = hit[3];
+		}
+		return (t);
+	}
+
+	// Intersect a triangle given by a vertex and two edges (Moller-Trumbore).
+	// The ray parameter and the unit upward normal are placed in hit.
+	private double intersectTriangle(Query query, double vx, double vy, double vz, double e1x, double e1y,
+		double e1z, double e2x, double e2y, double e2z, double[] hit) {
+		// p = d x e2
+		double px = query.dy * e2z - query.dz * e2y;
+		double py = query.dz * e2x - query.dx * e2z;
+		double pz = query.dx * e2y - query.dy * e2x;
+		double det = e1x * px + e1y * py + e1z * pz;
+		if (det == 0) {
+			return (Double.NaN);
+		}
+		double inv = 1 / det;
+		double sx = query.ox - vx;
+		double sy = query.oy - vy;
+		double sz = query.oz - vz;
+		double u = (sx * px + sy * py + sz * pz) * inv;
+		if ((u < -EDGE_TOLERANCE) || (u > 1 + EDGE_TOLERANCE)) {
+			return (Double.NaN);
+		}
+		// q = s x e1
+		double qx = sy * e1z - sz * e1y;
+		double qy = sz * e1x - sx * e1z;
+		double qz = sx * e1y - sy * e1x;
+		double v = (query.dx * qx + query.dy * qy + query.dz * qz) * inv;
+		if ((v < -EDGE_TOLERANCE) || (u + v > 1 + EDGE_TOLERANCE)) {
+			return (Double.NaN);
+		}
+		double t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+		if ((t < query.tMin) || (t > query.tMax)) {
+			return (Double.NaN);
+		}
+		// normal = e1 x e2, facing up
+		double nx = e1y * e2z - e1z * e2y;
+		double ny = e1z * e2x - e1x * e2z;
+		double nz = e1x * e2y - e1y * e2x;
+		double s = 1 / Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (nz < 0) {
+			s = -s;
+		}
+		hit[0] = t;
+		hit[1] = nx * s;
+		hit[2] = ny * s;
+		hit[3] = nz * s;
+		return (t);
+	}
+
+	// Raise the horizon with the surface in a node of the pyramid
+	private void horizonNode(Query query, ElevationRaster.Tile tile, MinMaxPyramid pyramid, int level, int column,
+		int row, double t0, double t1) {
+		float zMin = pyramid.getMinimum(level, column, row);
+		float zMax = pyramid.getMaximum(level, column, row);
+		if (zMin > zMax) {
+			// no data
+			return;
+		}
+		double pw = tile.getPixelWidth();
+		double pl = tile.getPixelLength();
+		double xMin = tile.getX() + (column << level) * pw;
+		double xMax = tile.getX() + Math.min((column + 1) << level, pyramid.getColumns(0)) * pw;
+		double yMax = tile.getY() + (tile.getRows() - 1 - (row << level)) * pl;
+		double yMin = tile.getY() + (tile.getRows() - 1 - Math.min((row + 1) << level, pyramid.getRows(0))) * pl;
+		double ta = Math.max(t0, Math.max(enter(query.ox, query.dx, xMin, xMax), enter(query.oy, query.dy, yMin, yMax)));
+		double tb = Math.min(t1, Math.min(leave(query.ox, query.dx, xMin, xMax), leave(query.oy, query.dy, yMin, yMax)));
+		if (ta > tb) {
+			return;
+		}
+		// the largest angle any point in the node could have
+		double h = zMax - query.oz;
+		double bound;
+		if (h > 0) {
+			bound = (ta > 0) ? h / ta : Double.POSITIVE_INFINITY;
+		} else {
+			bound = (tb > 0) ? h / tb : Double.NEGATIVE_INFINITY;
+		}
+		if (bound <= query.bestTan) {
+			return;
+		}
+		if (level == 0) {
+			horizonCell(query, tile, column, row, xMin, yMax, ta, tb);
+			return;
+		}
+
+		// children in the order the line enters them, the near ones raise
+		// the horizon so more of the far ones are skipped
+		int n = 0;
+		int[] child = new int[8];
+		double[] entry = new double[4];
+		level--;
+		for (int r = row * 2; r < Math.min(row * 2 + 2, pyramid.getRows(level)); ++r) {
+			for (int c = column * 2; c < Math.min(column * 2 + 2, pyramid.getColumns(level)); ++c) {
+				double e = getEntry(query, tile, pyramid, level, c, r);
+				int i = n;
+				while ((i > 0) && (entry[i - 1] > e)) {
+					entry[i] = entry[i - 1];
+					child[i * 2] = child[i * 2 - 2];
+					child[i * 2 + 1] = child[i * 2 - 1];
+					i--;
+				}
+				entry[i] = e;
+				child[i * 2] = c;
+				child[i * 2 + 1] = r;
+				n++;
+			}
+		}
+		for (int i = 0; i < n; ++i) {
+			horizonNode(query, tile, pyramid, level, child[i * 2], child[i * 2 + 1], ta, tb);
+		}
+	}
+
+	// Raise the horizon with the part of a cell between ta and tb. The
+	// surface is linear between the cell edges and the diagonal, so the
+	// largest angle is at one of the points where the line crosses them.
+	private void horizonCell(Query query, ElevationRaster.Tile tile, int column, int row, double x, double y,
+		double ta, double tb) {
+		double pw = tile.getPixelWidth();
+		double pl = tile.getPixelLength();
+		float zul = tile.getElevation(column, row);
+		float zur = tile.getElevation(column + 1, row);
+		float zll = tile.getElevation(column, row + 1);
+		float zlr = tile.getElevation(column + 1, row + 1);
+		raiseHorizon(query, ta, x, y, pw, pl, zul, zur, zll, zlr);
+		raiseHorizon(query, tb, x, y, pw, pl, zul, zur, zll, zlr);
+		// diagonal where u + v = 1
+		double a = (query.ox - x) / pw + (y - query.oy) / pl;
+		double b = query.dx / pw - query.dy / pl;
+		if (b != 0) {
+			double t = (1 - a) / b;
+			if ((t > ta) && (t < tb)) {
+				raiseHorizon(query, t, x, y, pw, pl, zul, zur, zll, zlr);
+			}
+		}
+	}
+
+	private void raiseHorizon(Query query, double t, double x, double y, double pw, double pl, float zul,
+		float zur, float zll, float zlr) {
+		if (t <= 0) {
+			return;
+		}
+		double u = Math.max(0, Math.min(1, (query.ox + t * query.dx - x) / pw));
+		double v = Math.max(0, Math.min(1, (y - query.oy - t * query.dy) / pl));
+		double z;
+		if (u + v <= 1) {
+			z = zul + u * (zur - zul) + v * (zll - zul);
+		} else {
+			z = zlr + (1 - u) * (zll - zlr) + (1 - v) * (zur - zlr);
+		}
+		if (Double.isNaN(z)) {
+			return;
+		}
+		double tan = (z - query.oz) / t;
+		if (tan > query.bestTan) {
+			query.bestTan = tan;
+		}
+	}
+
+	// Ray parameter where a ray enters a slab, -infinity if parallel and
+	// inside, +infinity if parallel and outside
+	private static double enter(double o, double d, double min, double max) {
+		if (d == 0) {
+			return (((o >= min) && (o <= max)) ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+		}
+		return ((d > 0) ? (min - o) / d : (max - o) / d);
+	}
+
+	// Ray parameter where a ray leaves a slab, +infinity if parallel and
+	// inside, -infinity if parallel and outside
+	private static double leave(double o, double d, double min, double max) {
+		if (d == 0) {
+			return (((o >= min) && (o <= max)) ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+		}
+		return ((d > 0) ? (max - o) / d : (min - o) / d);
+	}
+}
@@ -0,0 +1,174 @@
+package gov.nasa.arc.dert.landscape;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+import com.ardor3d.util.geom.BufferUtils;
+
+/**
+ * Pool of direct buffers for the vertices, normals, and colors of tile meshes.
+ * All full size tiles of a landscape have the same number of vertices, so
+ * buffers from evicted tiles can be handed to new tiles instead of allocating
+ * more direct memory. Only buffers of the tile sizes are accepted. Empty tiles
+ * and shared (read-only) buffers are not pooled.
+ *
+ */
+public class TileBufferPool {
+
+	// The maximum amount of memory held by the pool (in bytes)
+	public static long MAX_POOL_MEMORY = 32000000l;
+
+	// Free buffers of 3 components per vertex (vertices and normals)
+	private ArrayList<FloatBuffer> list3;
+
+	// Free buffers of 4 components per vertex (colors)
+	private ArrayList<FloatBuffer> list4;
+
+	// Number of vertices in a tile
+	private int vertexCount;
+
+	// The maximum pool size (in bytes)
+	private long maxPoolSize;
+
+	// The number of bytes held by the pool
+	private long poolSize;
+
+	// Statistics
+	private long allocatedCount, reusedCount, discardedCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tileWidth
+	 *            the tile width in cells
+	 * @param tileLength
+	 *            the tile length in cells
+	 */
+	public TileBufferPool(int tileWidth, int tileLength) {
+		this(tileWidth, tileLength, MAX_POOL_MEMORY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param tileWidth
+	 *            the tile width in cells
+	 * @param tileLength
+	 *            the tile length in cells
+	 * @param maxPoolSize
+	 *            the maximum number of bytes held by the pool
+	 */
+	public TileBufferPool(int tileWidth, int tileLength, long maxPoolSize) {
+		vertexCount = (tileWidth + 1) * (tileLength + 1);
+		this.maxPoolSize = maxPoolSize;
+		list3 = new ArrayList<FloatBuffer>();
+		list4 = new ArrayList<FloatBuffer>();
+	}
+
+	/**
+	 * Get a buffer from the pool or allocate a new one. The contents of a
+	 * pooled buffer are not cleared.
+	 *
+	 * @param size
+	 *            the number of floats
+	 * @return the buffer with position 0 and limit size
+	 */
+	public synchronized FloatBuffer getBuffer(int size) {
+		ArrayList<FloatBuffer> list = getList(size);
+		if ((list == null) || list.isEmpty()) {
+			allocatedCount++;
+			return (BufferUtils.createFloatBuffer(size));
+		}
+		FloatBuffer buffer = list.remove(list.size() - 1);
+		poolSize -= (long) size * 4;
+		reusedCount++;
+		buffer.clear();
+		return (buffer);
+	}
+
+	/**
+	 * Return a buffer to the pool. Buffers of other sizes, read-only buffers,
+	 * and buffers that would put the pool over its maximum size are left for
+	 * the garbage collector.
+	 *
+	 * @param buffer
+	 */
+	public synchronized void releaseBuffer(FloatBuffer buffer) {
+		if ((buffer == null) || buffer.isReadOnly() || !buffer.isDirect()) {
+			return;
+		}
+		ArrayList<FloatBuffer> list = getList(buffer.capacity());
+		if (list == null) {
+			return;
+		}
+		long size = (long) buffer.capacity() * 4;
+		if (poolSize + size > maxPoolSize) {
+			discardedCount++;
+			return;
+		}
+		list.add(buffer);
+		poolSize += size;
+	}
+
+	private ArrayList<FloatBuffer> getList(int size) {
+		if (size == vertexCount * 3) {
+			return (list3);
+		}
+		if (size == vertexCount * 4) {
+			return (list4);
+		}
+		return (null);
+	}
+
+	/**
+	 * Release all buffers in the pool
+	 */
+	public synchronized void dispose() {
+		list3.clear();
+		list4.clear();
+		poolSize = 0;
+	}
+
+	/**
+	 * Get the number of bytes held by the pool
+	 *
+	 * @return
+	 */
+	public synchronized long getPoolSize() {
+		return (poolSize);
+	}
+
+	/**
+	 * Get the maximum number of bytes held by the pool
+	 *
+	 * @return
+	 */
+	public long getMaximumPoolSize() {
+		return (maxPoolSize);
+	}
+
+	/**
+	 * Get the number of buffers that were newly allocated
+	 *
+	 * @return
+	 */
+	public synchronized long getAllocatedCount() {
+		return (allocatedCount);
+	}
+
+	/**
+	 * Get the number of buffers that were taken from the pool
+	 *
+	 * @return
+	 */
+	public synchronized long getReusedCount() {
+		return (reusedCount);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return ("TileBufferPool[buffers=" + (list3.size() + list4.size()) + ",bytes=" + poolSize + ",max="
+			+ maxPoolSize + ",allocated=" + allocatedCount + ",reused=" + reusedCount + ",discarded="
+			+ discardedCount + "]");
+	}
+}
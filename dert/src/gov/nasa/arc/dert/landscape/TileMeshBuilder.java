@@ -0,0 +1,436 @@
+package gov.nasa.arc.dert.landscape;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+
+import com.ardor3d.math.MathUtils;
+import com.ardor3d.util.geom.BufferUtils;
+
+/**
+ * Builds the vertices, normals, and missing value mask of a tile mesh from the
+ * base layer raster. The work is done on primitive float arrays that are reused from tile
+ * to tile, then copied to direct buffers in bulk. Normals are computed in the
+ * same pass as the vertices, one row behind.
+ *
+ * The triangle strip indices and texture coordinates only depend on the tile
+ * dimensions, so they are built once for each size and shared by all tiles.
+ *
+ * The mask is stored in the mesh color buffer, white for vertices with a
+ * value and transparent black for missing ones. The surface color itself is
+ * applied by the landscape shader. Tiles without missing values share a
+ * single all white mask.
+ *
+ * Vertex, normal, and color buffers are taken from a TileBufferPool when one
+ * is given.
+ *
+ * A builder is not thread safe. Each loader thread uses its own.
+ *
+ */
+public class TileMeshBuilder {
+
+	/**
+	 * Indices, texture coordinates, and mask for tiles of one size
+	 */
+	public static class Topology {
+
+		// Triangle strip indices, one strip per row
+		public final IntBuffer indices;
+		public final int[] indexLengths;
+
+		// Texture coordinates
+		public final FloatBuffer texCoords;
+
+		// Mask for tiles without missing values
+		public final FloatBuffer mask;
+
+		protected Topology(int tileWidth, int tileLength) {
+			int tWidth = tileWidth + 1;
+			int tLength = tileLength + 1;
+
+			int[] index = new int[tileLength * tWidth * 2];
+			indexLengths = new int[tileLength];
+			int i = 0;
+			int j = 0;
+			for (int r = 0; r < tileLength; ++r) {
+				for (int c = 0; c < tWidth; ++c) {
+					index[j++] = i;
+					index[j++] = i + tWidth;
+					i++;
+				}
+				indexLengths[r] = tWidth * 2;
+			}
+			indices = BufferUtils.createIntBuffer(index.length);
+			indices.put(index);
+			indices.flip();
+
+			float[] coord = new float[tWidth * tLength * 2];
+			j = 0;
+			for (int r = 0; r < tLength; ++r) {
+				for (int c = 0; c < tWidth; ++c) {
+					coord[j++] = ((float) c) / tileWidth;
+					coord[j++] = ((float) r) / tileLength;
+				}
+			}
+			texCoords = BufferUtils.createFloatBuffer(coord.length);
+			texCoords.put(coord);
+			texCoords.flip();
+
+			mask = BufferUtils.createFloatBuffer(tWidth * tLength * 4);
+			for (int k = 0; k < mask.limit(); ++k) {
+				mask.put(k, 1);
+			}
+		}
+
+		/**
+		 * Get a read-only view of the shared index buffer with its own
+		 * position and limit.
+		 *
+		 * @return
+		 */
+		public IntBuffer getIndexBuffer() {
+			return (indices.asReadOnlyBuffer());
+		}
+
+		/**
+		 * Get a read-only view of the shared texture coordinate buffer with
+		 * its own position and limit. Layers that compute their own
+		 * coordinates must replace it rather than write into it.
+		 *
+		 * @return
+		 */
+		public FloatBuffer getTexCoordBuffer() {
+			return (texCoords.asReadOnlyBuffer());
+		}
+
+		/**
+		 * Get a read-only view of the shared mask for tiles without missing
+		 * values.
+		 *
+		 * @return
+		 */
+		public FloatBuffer getMaskBuffer() {
+			return (mask.asReadOnlyBuffer());
+		}
+	}
+
+	// Shared topologies by tile size
+	private static HashMap<Long, Topology> topologyMap = new HashMap<Long, Topology>();
+
+	// Bytes held by the shared topologies
+	private static long topologySize;
+
+	// Source of direct buffers (may be null)
+	private TileBufferPool pool;
+
+	// Working arrays
+	private float[] vertex, normal, color;
+
+	// Number of vertices in the last tile built
+	private int vertexCount;
+
+	// None of the samples in the last tile were valid
+	private boolean empty;
+
+	// Some of the samples in the last tile were missing
+	private boolean missing;
+
+	/**
+	 * Constructor
+	 */
+	public TileMeshBuilder() {
+		this(null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param pool
+	 *            the source of direct buffers, null to allocate new ones
+	 */
+	public TileMeshBuilder(TileBufferPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Get the shared indices and texture coordinates for a tile size.
+	 *
+	 * @param tileWidth
+	 *            the tile width in cells
+	 * @param tileLength
+	 *            the tile length in cells
+	 * @return
+	 */
+	public static synchronized Topology getTopology(int tileWidth, int tileLength) {
+		Long key = Long.valueOf(((long) tileWidth << 32) | tileLength);
+		Topology topology = topologyMap.get(key);
+		if (topology == null) {
+			topology = new Topology(tileWidth, tileLength);
+			topologyMap.put(key, topology);
+			topologySize += (long) topology.indices.capacity() * 4 + (long) topology.texCoords.capacity() * 4
+				+ (long) topology.mask.capacity() * 4;
+		}
+		return (topology);
+	}
+
+	/**
+	 * Get the number of bytes held by the shared indices and texture
+	 * coordinates of all tile sizes.
+	 *
+	 * @return
+	 */
+	public static synchronized long getSharedMemorySize() {
+		return (topologySize);
+	}
+
+	/**
+	 * Build the vertices, normals, and mask for a tile.
+	 *
+	 * @param data
+	 *            the elevation samples, row by row starting at the top
+	 * @param cols
+	 *            the number of samples in a row
+	 * @param rows
+	 *            the number of rows
+	 * @param width
+	 *            the physical width of the tile
+	 * @param pixelWidth
+	 * @param length
+	 *            the physical length of the tile
+	 * @param pixelLength
+	 * @param fillValue
+	 *            elevation to use for missing samples
+	 * @param scale
+	 *            elevation scale factor
+	 * @return true if none of the samples are valid
+	 */
+	public boolean build(FloatBuffer data, int cols, int rows, double width, double pixelWidth, double length,
+		double pixelLength, float fillValue, double scale) {
+		vertexCount = cols * rows;
+		if ((vertex == null) || (vertex.length < vertexCount * 3)) {
+			vertex = new float[vertexCount * 3];
+			normal = new float[vertexCount * 3];
+			color = new float[vertexCount * 4];
+		}
+		empty = true;
+		missing = false;
+
+		int rowSize = cols * 3;
+		int i = 0;
+		int j = 0;
+		float y = (float) length / 2;
+		for (int r = 0; r < rows; ++r) {
+			float x = -(float) width / 2;
+			int k = r * cols;
+			for (int c = 0; c < cols; ++c) {
+				float z = data.get(k + c);
+				// mask out missing value vertices
+				if (Float.isNaN(z)) {
+					z = fillValue;
+					color[j] = 0;
+					color[j + 1] = 0;
+					color[j + 2] = 0;
+					color[j + 3] = 0;
+					missing = true;
+				} else {
+					color[j] = 1;
+					color[j + 1] = 1;
+					color[j + 2] = 1;
+					color[j + 3] = 1;
+					empty = false;
+				}
+				j += 4;
+				vertex[i] = x;
+				vertex[i + 1] = y;
+				vertex[i + 2] = (float) (z * scale);
+				normal[i] = 0;
+				normal[i + 1] = 0;
+				normal[i + 2] = 0;
+				i += 3;
+				x += pixelWidth;
+			}
+			y -= pixelLength;
+
+			// the faces of the previous row of cells are complete
+			if (r > 0) {
+				addFaces(r - 1, cols, rowSize);
+				averageNormals(r - 1, cols, rows);
+			}
+		}
+		averageNormals(rows - 1, cols, rows);
+		return (empty);
+	}
+
+	/**
+	 * Add the normals of the two triangles of each cell in a row to the
+	 * normals of their vertices. All rows share the same x coordinates and
+	 * each row has a single y coordinate, so only the z components of the
+	 * triangle edges vary.
+	 */
+	private void addFaces(int r, int cols, int rowSize) {
+		float[] v = vertex;
+		float[] n = normal;
+		int i = r * rowSize;
+		// y difference to the next row
+		double dy = (double) v[i + rowSize + 1] - v[i + 1];
+		for (int c = 0; c < cols - 1; ++c, i += 3) {
+			int i1 = i + rowSize;
+			int i2 = i + 3;
+			int i3 = i1 + 3;
+			// x difference to the next column
+			double dx = (double) v[i2] - v[i];
+			double dxdy = -dx * dy;
+
+			// top triangle for counterclockwise quad where vertex is upper
+			// left corner, edges are (0, dy, az) and (dx, 0, bz)
+			double az = (double) v[i1 + 2] - v[i + 2];
+			double bz = (double) v[i2 + 2] - v[i + 2];
+			double nx = dy * bz;
+			double ny = az * dx;
+			double lsq = nx * nx + ny * ny + dxdy * dxdy;
+			float fx = 0, fy = 0, fz = 0;
+			if (!Float.isNaN(v[i + 2]) && !Float.isNaN(v[i1 + 2]) && !Float.isNaN(v[i2 + 2])
+				&& (Math.abs(lsq) > MathUtils.EPSILON)) {
+				double s = 1.0 / Math.sqrt(lsq);
+				fx = (float) (nx * s);
+				fy = (float) (ny * s);
+				fz = (float) (dxdy * s);
+			}
+			n[i] += fx;
+			n[i + 1] += fy;
+			n[i + 2] += fz;
+			n[i2] += fx;
+			n[i2 + 1] += fy;
+			n[i2 + 2] += fz;
+			n[i1] += fx;
+			n[i1 + 1] += fy;
+			n[i1 + 2] += fz;
+
+			// bottom triangle for quad, edges are (-dx, dy, az) and (0, dy,
+			// bz)
+			az = (double) v[i1 + 2] - v[i2 + 2];
+			bz = (double) v[i3 + 2] - v[i2 + 2];
+			nx = dy * bz - az * dy;
+			ny = dx * bz;
+			lsq = nx * nx + ny * ny + dxdy * dxdy;
+			fx = 0;
+			fy = 0;
+			fz = 0;
+			if (!Float.isNaN(v[i2 + 2]) && !Float.isNaN(v[i1 + 2]) && !Float.isNaN(v[i3 + 2])
+				&& (Math.abs(lsq) > MathUtils.EPSILON)) {
+				double s = 1.0 / Math.sqrt(lsq);
+				fx = (float) (nx * s);
+				fy = (float) (ny * s);
+				fz = (float) (dxdy * s);
+			}
+			n[i2] += fx;
+			n[i2 + 1] += fy;
+			n[i2 + 2] += fz;
+			n[i1] += fx;
+			n[i1 + 1] += fy;
+			n[i1 + 2] += fz;
+			n[i3] += fx;
+			n[i3 + 1] += fy;
+			n[i3 + 2] += fz;
+		}
+	}
+
+	/**
+	 * The normal of a vertex is the average of the faces that share it.
+	 */
+	private void averageNormals(int r, int cols, int rows) {
+		for (int c = 0; c < cols; ++c) {
+			// number of triangles that share the vertex
+			int count = 0;
+			if (r < rows - 1) {
+				if (c < cols - 1) {
+					count += 1;
+				}
+				if (c > 0) {
+					count += 2;
+				}
+			}
+			if (r > 0) {
+				if (c < cols - 1) {
+					count += 2;
+				}
+				if (c > 0) {
+					count += 1;
+				}
+			}
+			int i = (r * cols + c) * 3;
+			normal[i] /= count;
+			normal[i + 1] /= count;
+			normal[i + 2] /= count;
+		}
+	}
+
+	/**
+	 * None of the samples in the last tile were valid
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return (empty);
+	}
+
+	/**
+	 * Some of the samples in the last tile were missing
+	 *
+	 * @return
+	 */
+	public boolean hasMissingValues() {
+		return (missing);
+	}
+
+	/**
+	 * Get a vertex coordinate of the last tile
+	 *
+	 * @param index
+	 *            the index of the coordinate (vertex index * 3 + axis)
+	 * @return
+	 */
+	public float getVertex(int index) {
+		return (vertex[index]);
+	}
+
+	/**
+	 * Copy the vertices of the last tile to a direct buffer
+	 *
+	 * @return
+	 */
+	public FloatBuffer getVertexBuffer() {
+		return (toBuffer(vertex, vertexCount * 3));
+	}
+
+	/**
+	 * Copy the normals of the last tile to a direct buffer
+	 *
+	 * @return
+	 */
+	public FloatBuffer getNormalBuffer() {
+		return (toBuffer(normal, vertexCount * 3));
+	}
+
+	/**
+	 * Copy the mask of the last tile to a direct buffer. Only needed if the
+	 * tile has missing values, otherwise use the shared mask of the topology.
+	 *
+	 * @return
+	 */
+	public FloatBuffer getMaskBuffer() {
+		return (toBuffer(color, vertexCount * 4));
+	}
+
+	private FloatBuffer toBuffer(float[] array, int size) {
+		FloatBuffer buffer = null;
+		if (pool == null) {
+			buffer = BufferUtils.createFloatBuffer(size);
+		} else {
+			buffer = pool.getBuffer(size);
+		}
+		buffer.put(array, 0, size);
+		buffer.flip();
+		return (buffer);
+	}
+}
@@ -72,12 +72,31 @@ public class TileMeshData extends MeshData {
 	}
 	
 	public void dispose() {
-		if (_vertexCoords != null)
+		dispose(null);
+	}
+
+	/**
+	 * Release the buffers of this mesh data. Vertex, normal, and color buffers
+	 * are returned to the pool, if there is one.
+	 * 
+	 * @param pool
+	 */
+	public void dispose(TileBufferPool pool) {
+		if (_vertexCoords != null) {
+			if (pool != null)
+				pool.releaseBuffer(_vertexCoords.getBuffer());
 			_vertexCoords.setBuffer(null);
-		if (_normalCoords != null)
+		}
+		if (_normalCoords != null) {
+			if (pool != null)
+				pool.releaseBuffer(_normalCoords.getBuffer());
 			_normalCoords.setBuffer(null);
-		if (_colorCoords != null)
+		}
+		if (_colorCoords != null) {
+			if (pool != null)
+				pool.releaseBuffer(_colorCoords.getBuffer());
 			_colorCoords.setBuffer(null);
+		}
 		if (_indexBuffer != null)
 			_indexBuffer.setBuffer(null);
 		if (_textureCoords != null)
@@ -0,0 +1,329 @@
+package gov.nasa.arc.dert.landscape;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The number of posts with data, the sum and sum of squares of their
+ * elevation, and the minimum and maximum elevation of each tile at the highest
+ * level of an elevation layer. They are written beside the tiles when the
+ * layer is built (see RasterPyramidLayerFactory), so region statistics can
+ * answer a tile that is entirely inside the region, and the ray caster can
+ * skip a tile, without reading it.
+ *
+ * Adjacent tiles share their edge posts. The statistics of a tile count only
+ * the posts that TileIndex.getKey assigns to it: the left column and not the
+ * right, the bottom row and not the top, except at the right and top edges of
+ * the landscape. Missing values (NaN) are not counted.
+ *
+ */
+public class TileStatistics {
+
+	// Name of the file in the elevation layer directory
+	public static final String FILE_NAME = "tilestats.dat";
+
+	// File format version
+	public static final int VERSION = 1;
+
+	// Level of the tiles
+	private int level;
+
+	// Number of tiles on a side
+	private int numTiles;
+
+	// Tile dimensions in pixels
+	private int tileWidth, tileLength;
+
+	// Statistics by tile, in row order starting at the top
+	private int[] count;
+	private double[] sum, sumOfSquares;
+	private float[] minimum, maximum;
+
+	/**
+	 * Constructor
+	 *
+	 * @param level
+	 *            the highest level of the layer
+	 * @param tileWidth
+	 *            tile width in pixels
+	 * @param tileLength
+	 *            tile length in pixels
+	 */
+	public TileStatistics(int level, int tileWidth, int tileLength) {
+		this.level = level;
+		this.tileWidth = tileWidth;
+		this.tileLength = tileLength;
+		numTiles = 1 << level;
+		int n = numTiles * numTiles;
+		count = new int[n];
+		sum = new double[n];
+		sumOfSquares = new double[n];
+		minimum = new float[n];
+		maximum = new float[n];
+		for (int i = 0; i < n; ++i) {
+			minimum[i] = Float.NaN;
+			maximum[i] = Float.NaN;
+		}
+	}
+
+	/**
+	 * Set the statistics of a tile from its posts. Different tiles may be set
+	 * from different threads.
+	 *
+	 * @param key
+	 *            the tile key
+	 * @param data
+	 *            the tileWidth+1 by tileLength+1 posts of the tile in row
+	 *            order starting at the top
+	 */
+	public void set(long key, float[] data) {
+		int i = getIndex(key);
+		if (i < 0) {
+			throw new IllegalArgumentException("Tile " + QuadKey.toPath(key) + " is not at level " + level + ".");
+		}
+		int column = QuadKey.getColumn(key);
+		int row = QuadKey.getRow(key);
+		int columns = tileWidth + 1;
+		int c1 = (column == numTiles - 1) ? columns : tileWidth;
+		int r0 = (row == 0) ? 0 : 1;
+		int n = 0;
+		double s = 0;
+		double ss = 0;
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+		for (int r = r0; r <= tileLength; ++r) {
+			int k = r * columns;
+			for (int c = 0; c < c1; ++c) {
+				float z = data[k + c];
+				if (!Float.isNaN(z)) {
+					n++;
+					s += z;
+					ss += (double) z * z;
+					if (z < min) {
+						min = z;
+					}
+					if (z > max) {
+						max = z;
+					}
+				}
+			}
+		}
+		count[i] = n;
+		sum[i] = s;
+		sumOfSquares[i] = ss;
+		if (n > 0) {
+			minimum[i] = min;
+			maximum[i] = max;
+		}
+	}
+
+	/**
+	 * Write the statistics
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream oStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			oStream.writeInt(VERSION);
+			oStream.writeInt(level);
+			oStream.writeInt(tileWidth);
+			oStream.writeInt(tileLength);
+			for (int i = 0; i < count.length; ++i) {
+				oStream.writeInt(count[i]);
+				oStream.writeDouble(sum[i]);
+				oStream.writeDouble(sumOfSquares[i]);
+				oStream.writeFloat(minimum[i]);
+				oStream.writeFloat(maximum[i]);
+			}
+		} finally {
+			oStream.close();
+		}
+	}
+
+	/**
+	 * Read the statistics written for a layer
+	 *
+	 * @param file
+	 * @param scale
+	 *            scale factor for the elevation values
+	 * @return
+	 * @throws IOException
+	 */
+	public static TileStatistics read(File file, double scale) throws IOException {
+		DataInputStream iStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int version = iStream.readInt();
+			if (version > VERSION) {
+				throw new IOException(file + " has unsupported version " + version + ".");
+			}
+			int level = iStream.readInt();
+			if ((level < 0) || (level > QuadKey.MAX_LEVEL / 2)) {
+				throw new IOException(file + " has invalid level " + level + ".");
+			}
+			TileStatistics stats = new TileStatistics(level, iStream.readInt(), iStream.readInt());
+			double scaleSquared = scale * scale;
+			for (int i = 0; i < stats.count.length; ++i) {
+				stats.count[i] = iStream.readInt();
+				stats.sum[i] = iStream.readDouble() * scale;
+				stats.sumOfSquares[i] = iStream.readDouble() * scaleSquared;
+				float min = (float) (iStream.readFloat() * scale);
+				float max = (float) (iStream.readFloat() * scale);
+				stats.minimum[i] = (scale < 0) ? max : min;
+				stats.maximum[i] = (scale < 0) ? min : max;
+			}
+			return (stats);
+		} finally {
+			iStream.close();
+		}
+	}
+
+	/**
+	 * Get the level of the tiles
+	 *
+	 * @return
+	 */
+	public int getLevel() {
+		return (level);
+	}
+
+	/**
+	 * Get the number of tiles on a side
+	 *
+	 * @return
+	 */
+	public int getNumberOfTiles() {
+		return (numTiles);
+	}
+
+	/**
+	 * Get the tile width in pixels
+	 *
+	 * @return
+	 */
+	public int getTileWidth() {
+		return (tileWidth);
+	}
+
+	/**
+	 * Get the tile length in pixels
+	 *
+	 * @return
+	 */
+	public int getTileLength() {
+		return (tileLength);
+	}
+
+	/**
+	 * Get the index of a tile
+	 *
+	 * @param key
+	 * @return -1 if the tile is not at the level of these statistics
+	 */
+	public int getIndex(long key) {
+		if ((key < 0) || (QuadKey.getLevel(key) != level)) {
+			return (-1);
+		}
+		return (QuadKey.getRow(key) * numTiles + QuadKey.getColumn(key));
+	}
+
+	/**
+	 * Determine if a rectangle of posts is exactly the posts counted for a
+	 * tile. Posts are numbered from the upper left post of the landscape at
+	 * the highest level.
+	 *
+	 * @param key
+	 * @param c0
+	 *            the first column
+	 * @param r0
+	 *            the first row
+	 * @param c1
+	 *            the column after the rectangle
+	 * @param r1
+	 *            the row after the rectangle
+	 * @return
+	 */
+	public boolean isTile(long key, int c0, int r0, int c1, int r1) {
+		if (getIndex(key) < 0) {
+			return (false);
+		}
+		int column = QuadKey.getColumn(key);
+		int row = QuadKey.getRow(key);
+		int tc0 = column * tileWidth;
+		int tc1 = (column + 1) * tileWidth + ((column == numTiles - 1) ? 1 : 0);
+		int tr0 = row * tileLength + ((row == 0) ? 0 : 1);
+		int tr1 = (row + 1) * tileLength + 1;
+		return ((c0 == tc0) && (c1 == tc1) && (r0 == tr0) && (r1 == tr1));
+	}
+
+	/**
+	 * Get the number of posts with data in a tile
+	 *
+	 * @param index
+	 *            the tile index (see getIndex)
+	 * @return
+	 */
+	public int getCount(int index) {
+		return (count[index]);
+	}
+
+	/**
+	 * Get the sum of the elevation of the posts of a tile
+	 *
+	 * @param index
+	 *            the tile index (see getIndex)
+	 * @return
+	 */
+	public double getSum(int index) {
+		return (sum[index]);
+	}
+
+	/**
+	 * Get the sum of the squared elevation of the posts of a tile
+	 *
+	 * @param index
+	 *            the tile index (see getIndex)
+	 * @return
+	 */
+	public double getSumOfSquares(int index) {
+		return (sumOfSquares[index]);
+	}
+
+	/**
+	 * Get the minimum elevation of a tile
+	 *
+	 * @param index
+	 *            the tile index (see getIndex)
+	 * @return NaN if the tile has no data
+	 */
+	public float getMinimum(int index) {
+		return (minimum[index]);
+	}
+
+	/**
+	 * Get the maximum elevation of a tile
+	 *
+	 * @param index
+	 *            the tile index (see getIndex)
+	 * @return NaN if the tile has no data
+	 */
+	public float getMaximum(int index) {
+		return (maximum[index]);
+	}
+
+	/**
+	 * Get the number of bytes held by the statistics
+	 *
+	 * @return
+	 */
+	public long getMemorySize() {
+		return (count.length * 32l);
+	}
+}
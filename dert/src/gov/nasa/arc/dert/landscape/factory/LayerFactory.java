@@ -4,6 +4,7 @@ import gov.nasa.arc.dert.action.file.AboutBox;
 import gov.nasa.arc.dert.landscape.LayerInfo.LayerType;
 import gov.nasa.arc.dert.raster.RasterFile;
 import gov.nasa.arc.dert.raster.geotiff.GTIF;
+import gov.nasa.arc.dert.raster.geotiff.JavaGTIF;
 import gov.nasa.arc.dert.raster.pds.PDS;
 import gov.nasa.arc.dert.util.StringUtil;
 
@@ -67,6 +68,11 @@ public class LayerFactory {
 	private int[] margin;
 	private Color color;
 	private String elevAttrName;
+	private String tileFormat;
+	private boolean compress;
+	private boolean streaming;
+	private boolean javaTiff;
+	private String convertLayer;
 
 	// This is a vector file so it needs to be rendered
 	private boolean isVector;
@@ -94,7 +100,9 @@ public class LayerFactory {
 			if (args[0].equals("-usage")) {
 				System.out.println("layerfactory -landscape=landscapePath -file=inputFilePath -tilesize=tileSize -type=layerType "+
 						"[-globe=globename] [-missing=missingValue] [-name=layerName] [-leftmargin=numPixels] [-rightmargin=numPixels]"+
-						" [-bottommargin=numPixels] [-topmargin=numPixels] [-color=R,G,B,A] [-elevattrname=elevation attribute name]");
+						" [-bottommargin=numPixels] [-topmargin=numPixels] [-color=R,G,B,A] [-elevattrname=elevation attribute name]"+
+						" [-tileformat=png|packed] [-compress] [-stream] [-javatiff]");
+				System.out.println("layerfactory -landscape=landscapePath -convert=layerName [-compress]");
 				System.exit(0);
 			}
 		}
@@ -128,6 +136,8 @@ public class LayerFactory {
 			dertProperties.load(new FileInputStream(file));
 			version = dertProperties.getProperty("Dert.Version", "");
 			setGlobes(dertProperties);
+			RasterPyramidLayerFactory.BUILD_THREADS = StringUtil.getIntegerValue(dertProperties,
+				"LayerFactory.Threads", false, RasterPyramidLayerFactory.BUILD_THREADS, false);
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.exit(-1);
@@ -146,6 +156,20 @@ public class LayerFactory {
 	
 	public boolean createLayer() {
 
+		// Convert an existing layer to a packed tile file and exit.
+		if (checkConvertArgs(args)) {
+			try {
+				String layerPath = new File(landscapePath, convertLayer).getAbsolutePath();
+				System.out.println("Converting " + layerPath + " to a packed tile file.");
+				int n = RasterPyramidLayerFactory.convertToPacked(layerPath, compress);
+				System.out.println("Converted " + n + " tiles.");
+			} catch (Exception e) {
+				e.printStackTrace();
+				return(false);
+			}
+			return(true);
+		}
+
 		// Do the build if all arguments are present and then exit.
 		if (checkArgs(args)) {
 			try {
@@ -156,6 +180,8 @@ public class LayerFactory {
 					RasterFile rf = null;
 					if (filePath.toLowerCase().endsWith(".img")) {
 						rf = new PDS(filePath, dertProperties);
+					} else if (javaTiff || !GTIF.isNativeLibraryLoaded()) {
+						rf = new JavaGTIF(filePath, dertProperties);
 					} else {
 						rf = new GTIF(filePath, dertProperties);
 					}
@@ -168,6 +194,8 @@ public class LayerFactory {
 						tmpPath = System.getProperty(tmpPath.substring(1));
 
 					RasterPyramidLayerFactory factory = new RasterPyramidLayerFactory(rf, tmpPath);
+					factory.setTileFormat(tileFormat, compress);
+					factory.setStreaming(streaming);
 					factory.buildPyramid(landscapePath, globe, layerType, layerName, tileSize, missing, margin, null);
 				}
 			} catch (Exception e) {
@@ -242,6 +270,31 @@ public class LayerFactory {
 		return(true);
 	}
 
+	/**
+	 * Determine if this is a request to convert a layer to a packed tile file.
+	 */
+	protected boolean checkConvertArgs(String[] args) {
+		landscapePath = null;
+		convertLayer = null;
+		compress = false;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].startsWith("-landscape=")) {
+				landscapePath = args[i].substring(11);
+				if (landscapePath.isEmpty()) {
+					landscapePath = null;
+				}
+			} else if (args[i].startsWith("-convert=")) {
+				convertLayer = args[i].substring(9);
+				if (convertLayer.isEmpty()) {
+					convertLayer = null;
+				}
+			} else if (args[i].equals("-compress")) {
+				compress = true;
+			}
+		}
+		return ((landscapePath != null) && (convertLayer != null));
+	}
+
 	/**
 	 * Perform the pyramid build if all required arguments are present.
 	 */
@@ -257,6 +310,10 @@ public class LayerFactory {
 		globe = PyramidLayerFactory.defaultGlobe;
 		color = Color.white;
 		elevAttrName = null;
+		tileFormat = null;
+		compress = false;
+		streaming = false;
+		javaTiff = false;
 		for (int i = 0; i < args.length; ++i) {
 			if (args[i].startsWith("-landscape=")) {
 				landscapePath = args[i].substring(11);
@@ -339,6 +396,14 @@ public class LayerFactory {
 				margin[3] = Integer.parseInt(str, 0);
 			} else if (args[i].startsWith("-elevattrname=")) {
 				elevAttrName = args[i].substring(14);
+			} else if (args[i].startsWith("-tileformat=")) {
+				tileFormat = args[i].substring(12);
+			} else if (args[i].equals("-compress")) {
+				compress = true;
+			} else if (args[i].equals("-stream")) {
+				streaming = true;
+			} else if (args[i].equals("-javatiff")) {
+				javaTiff = true;
 			}
 		}
 		if ((landscapePath == null) || (filePath == null)) {
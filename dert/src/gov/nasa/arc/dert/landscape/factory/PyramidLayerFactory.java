@@ -1,7 +1,11 @@
 package gov.nasa.arc.dert.landscape.factory;
 
+import gov.nasa.arc.dert.io.PackedTileFile;
+import gov.nasa.arc.dert.io.PackedTileSource;
+import gov.nasa.arc.dert.io.PackedTileWriter;
 import gov.nasa.arc.dert.landscape.LayerInfo.LayerType;
 import gov.nasa.arc.dert.raster.ProjectionInfo;
+import gov.nasa.arc.dert.util.ImageUtil;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
@@ -56,7 +60,16 @@ public abstract class PyramidLayerFactory {
 	protected float edgeFillValue;
 
 	// flag for cancellation
-	protected boolean doIt;
+	protected volatile boolean doIt;
+
+	// Tile storage format, PNG files or a packed tile file
+	protected String tileFormat = "PNG";
+
+	// Compress packed tiles
+	protected boolean compressTiles;
+
+	// Writer for a packed tile file (null if writing PNG files)
+	protected PackedTileWriter packedWriter;
 
 	/**
 	 * Constructor
@@ -67,6 +80,49 @@ public abstract class PyramidLayerFactory {
 		this.sourceFilePath = sourceFilePath;
 	}
 
+	/**
+	 * Set the format for storing tiles.
+	 * 
+	 * @param tileFormat
+	 *            "PNG" for one PNG file per tile or "Packed" for a single
+	 *            packed tile file per layer
+	 * @param compress
+	 *            compress packed tiles
+	 */
+	public void setTileFormat(String tileFormat, boolean compress) {
+		if (PackedTileSource.TILE_FORMAT.equalsIgnoreCase(tileFormat)) {
+			this.tileFormat = PackedTileSource.TILE_FORMAT;
+		} else {
+			this.tileFormat = "PNG";
+		}
+		compressTiles = compress;
+	}
+
+	/**
+	 * Open the packed tile file for the layer if tiles are to be packed.
+	 * 
+	 * @param dirPath
+	 *            the layer directory
+	 * @throws IOException
+	 */
+	protected void openTileStore(String dirPath) throws IOException {
+		if (tileFormat.equals(PackedTileSource.TILE_FORMAT)) {
+			packedWriter = new PackedTileWriter(new File(dirPath, PackedTileFile.FILE_NAME), compressTiles);
+		}
+	}
+
+	/**
+	 * Close the packed tile file.
+	 * 
+	 * @throws IOException
+	 */
+	protected void closeTileStore() throws IOException {
+		if (packedWriter != null) {
+			packedWriter.close();
+			packedWriter = null;
+		}
+	}
+
 	protected void writeProperties(String path, int numLevels, int tileWidth, int tileLength, int numTiles)
 			throws IOException, FileNotFoundException {
 		Properties properties = new Properties();
@@ -78,7 +134,7 @@ public abstract class PyramidLayerFactory {
 		properties.setProperty("Source", sourceFilePath);
 		properties.setProperty("MinimumValue", Double.toString(minimumSampleValue[0]));
 		properties.setProperty("MaximumValue", Double.toString(maximumSampleValue[0]));
-		properties.setProperty("TileFormat", "PNG");
+		properties.setProperty("TileFormat", tileFormat);
 		projInfo.saveToProperties(properties, defaultGlobe);
 		if (layerType == LayerType.elevation) {
 			properties.setProperty("EdgeFillValue", Float.toString(edgeFillValue));
@@ -132,7 +188,7 @@ public abstract class PyramidLayerFactory {
 	}
 
 	/**
-	 * Determine the path for a tile.
+	 * Determine the id for a tile.
 	 * 
 	 * @param column
 	 *            the tile column
@@ -142,15 +198,13 @@ public abstract class PyramidLayerFactory {
 	 *            the number of tiles on a side
 	 * @param level
 	 *            the pyramid level
-	 * @param dirPath
-	 *            the directory for the tiles
-	 * @return
+	 * @return the id ("" for the root tile)
 	 */
-	protected String getTileFilePath(int column, int row, int numTiles, int level, String dirPath) {
+	protected String getTileId(int column, int row, int numTiles, int level) {
 		numTiles /= 2;
 		int xLine = numTiles;
 		int yLine = numTiles;
-		byte[] id = new byte[level + 1];
+		byte[] id = new byte[level];
 		int l = 0;
 		while (numTiles > 0) {
 			if ((column < xLine) && (row < yLine)) {
@@ -176,11 +230,43 @@ public abstract class PyramidLayerFactory {
 			}
 			l++;
 		}
-		id[l] = 0;
-		String fileName = "";
+		String tileId = "";
 		for (int i = 0; i < id.length; ++i) {
-			fileName += File.separator + id[i];
+			tileId += "/" + id[i];
 		}
+		return (tileId);
+	}
+
+	/**
+	 * Determine the path for a tile.
+	 * 
+	 * @param column
+	 *            the tile column
+	 * @param row
+	 *            the tile row
+	 * @param numTiles
+	 *            the number of tiles on a side
+	 * @param level
+	 *            the pyramid level
+	 * @param dirPath
+	 *            the directory for the tiles
+	 * @return
+	 */
+	protected String getTileFilePath(int column, int row, int numTiles, int level, String dirPath) {
+		return (getTileFilePath(getTileId(column, row, numTiles, level), dirPath));
+	}
+
+	/**
+	 * Determine the path for a tile.
+	 * 
+	 * @param tileId
+	 *            the tile id
+	 * @param dirPath
+	 *            the directory for the tiles
+	 * @return
+	 */
+	protected String getTileFilePath(String tileId, String dirPath) {
+		String fileName = tileId.replace('/', File.separatorChar) + File.separator + "0";
 		File file = new File(dirPath + fileName);
 		return (file.getAbsolutePath());
 	}
@@ -193,7 +279,34 @@ public abstract class PyramidLayerFactory {
 	}
 
 	/**
-	 * Write a tile out to the pyramid
+	 * Write a tile out to the pyramid, either to the packed tile file or to a
+	 * PNG file.
+	 * 
+	 * @param dirPath
+	 *            the layer directory
+	 * @param tileId
+	 * @param bbArray
+	 *            the tile contents (color tiles are modified)
+	 * @param width
+	 * @param height
+	 * @param layerType
+	 * @throws IOException
+	 */
+	protected void writeTile(String dirPath, String tileId, byte[] bbArray, int width, int height, LayerType layerType)
+		throws IOException {
+		if (packedWriter == null) {
+			writeTile(getTileFilePath(tileId, dirPath), bbArray, width, height, layerType);
+			return;
+		}
+		// store color in the order it is given to OpenGL
+		if ((layerType == LayerType.colorimage) && (bbArray.length != 0)) {
+			ImageUtil.swapRGBABytes(new DataBufferByte(bbArray, bbArray.length));
+		}
+		packedWriter.writeTile(tileId, bbArray, bbArray.length, width, height);
+	}
+
+	/**
+	 * Write a tile out to the pyramid as a PNG file
 	 * 
 	 * @param filePath
 	 * @param bbArray
@@ -3,6 +3,7 @@ package gov.nasa.arc.dert.landscape.factory;
 import gov.nasa.arc.dert.landscape.LayerInfo.LayerType;
 import gov.nasa.arc.dert.raster.RasterFile;
 import gov.nasa.arc.dert.raster.geotiff.GTIF;
+import gov.nasa.arc.dert.raster.geotiff.JavaGTIF;
 import gov.nasa.arc.dert.raster.pds.PDS;
 import gov.nasa.arc.dert.ui.GBCHelper;
 import gov.nasa.arc.dert.ui.LandscapeChooserDialog;
@@ -332,7 +333,11 @@ public class RasterLayerPanel extends JPanel {
 				rf = new PDS(filetxt, dertProperties);
 			} else if (fPath.endsWith(".tiff") || fPath.endsWith(".tif") || fPath.endsWith(".gtif")
 				|| fPath.endsWith(".gtiff")) {
-				rf = new GTIF(filetxt, dertProperties);
+				if (GTIF.isNativeLibraryLoaded()) {
+					rf = new GTIF(filetxt, dertProperties);
+				} else {
+					rf = new JavaGTIF(filetxt, dertProperties);
+				}
 			} else {
 				messageText.setText("Only NASA PDS and GeoTIFF formats are supported.");
 				return (false);
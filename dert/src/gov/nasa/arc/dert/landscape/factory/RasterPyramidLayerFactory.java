@@ -1,10 +1,22 @@
 package gov.nasa.arc.dert.landscape.factory;
 
+import gov.nasa.arc.dert.io.PackedTileFile;
+import gov.nasa.arc.dert.io.PackedTileSource;
+import gov.nasa.arc.dert.io.PackedTileWriter;
 import gov.nasa.arc.dert.landscape.LayerInfo.LayerType;
+import gov.nasa.arc.dert.landscape.QuadKey;
+import gov.nasa.arc.dert.landscape.TileStatistics;
 import gov.nasa.arc.dert.raster.Raster;
 import gov.nasa.arc.dert.raster.RasterFile;
 import gov.nasa.arc.dert.raster.RasterFile.DataType;
+import gov.nasa.arc.dert.raster.RasterTarget;
+import gov.nasa.arc.dert.raster.RasterWindow;
+import gov.nasa.arc.dert.raster.SampleStatistics;
+import gov.nasa.arc.dert.util.ImageUtil;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -14,19 +26,30 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.imageio.ImageIO;
 import javax.swing.JTextField;
 
 /**
  * Convert a raster layer file such as a DEM or ortho-image to a
  * multi-resolution tiled pyramid. Pixels for new levels are subsampled through
- * averaging. The raster is padded first to extend its size to a power of 2 on
- * each side.
+ * averaging 2x2 blocks of the level above. The raster is padded first to extend
+ * its size to a power of 2 on each side.
  *
  */
 public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 
+	// Number of threads for building the pyramid (0 = number of processors)
+	public static int BUILD_THREADS = 0;
+
 	// Dimensions
 	protected int rasterWidth, rasterLength;
 	protected int tileWidth, tileLength;
@@ -53,6 +76,16 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 	// Location of temporary files
 	protected String tmpPath;
 
+	// Statistics of the highest resolution elevation tiles (null if not
+	// kept)
+	protected TileStatistics tileStatistics;
+
+	// Load the raster file directly into the padded raster
+	protected boolean streaming;
+
+	// Bytes held by temporary rasters and the most held at once
+	protected long scratchSize, peakScratchSize;
+
 	/**
 	 * Constructor
 	 * 
@@ -65,6 +98,17 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 		this.tmpPath = tmpPath;
 	}
 
+	/**
+	 * Load the raster file directly into the padded raster rather than into a
+	 * temporary raster that is then copied. This halves the temporary file
+	 * space and removes a pass over the raster.
+	 * 
+	 * @param streaming
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
 	/**
 	 * Build a multi-resolution tiled pyramid to be used in a landscape.
 	 * 
@@ -154,7 +198,12 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 			}
 			else
 				System.out.println("Writing temporary "+paddedWidth+" x "+paddedLength+" file ");
-			Raster raster = createPaddedRaster(path, samplesPerPixel, missing);
+			Raster raster = null;
+			if (streaming) {
+				raster = loadPaddedRaster(path, missing);
+			} else {
+				raster = createPaddedRaster(path, samplesPerPixel, missing);
+			}
 			rasterFile.close();
 			System.gc();
 
@@ -162,45 +211,24 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 			File dirFile = new File(path, layerName);
 			dirFile.mkdirs();
 			String dirPath = dirFile.getAbsolutePath();
+			openTileStore(dirPath);
+			// statistics from an earlier build no longer match the tiles
+			File statsFile = new File(dirPath, TileStatistics.FILE_NAME);
+			if (statsFile.exists()) {
+				statsFile.delete();
+			}
+			if (layerType == LayerType.elevation) {
+				tileStatistics = new TileStatistics(maxLevel, tileWidth, tileLength);
+			}
 
 			// Write tiles for each level starting at highest resolution
-			int columnStep = tileWidth;
-			int rowStep = tileLength;
-			for (int level = maxLevel; level >= 0; level--) {
-				if (!doIt) {
-					break;
-				}
-				int kernelSize = (int) Math.pow(2, (maxLevel - level));
-				int rcnt = 0;
-				if (messageText == null)
-					System.out.println("Writing "+numTiles+" rows for level "+(level+1)+" of "+(maxLevel+1));
-				for (int r = 0; r < numTiles; ++r) {
-					if (messageText == null) {
-						if (rcnt%10 == 0)
-							System.out.print(rcnt);
-						else 
-							System.out.print(".");
-						rcnt ++;
-					}
-					for (int c = 0; c < numTiles; ++c) {
-						if (!doIt) {
-							break;
-						}
-						if (messageText != null) {
-							messageText.setText("Writing " + layerName + " level " + (level + 1) + " of "
-								+ (maxLevel + 1) + ", tile row " + (r + 1) + " of " + numTiles + " . . .");
-							Thread.yield();
-						}
-						String filePath = getTileFilePath(c, r, numTiles, level, dirPath);
-						writeTile(raster, c * columnStep, r * rowStep, kernelSize, filePath, layerType);
-					}
-				}
-				if (messageText == null)
-					System.out.println();
-				numTiles /= 2;
-				columnStep *= 2;
-				rowStep *= 2;
+			writeLevels(raster, dirPath, layerName, maxLevel, messageText);
+			closeTileStore();
+			if ((tileStatistics != null) && doIt) {
+				tileStatistics.write(statsFile);
 			}
+			tileStatistics = null;
+			disposeRaster(raster);
 			raster = null;
 			System.gc();
 
@@ -242,9 +270,97 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 				+ ((double)nt*tileWidth*tileLength*bytesPerPixel / 1073741824.0) + " GB.");
 			System.out.println("Total time for building " + layerName + " = "
 				+ (float) ((System.currentTimeMillis() - t) / 60000.0) + " minutes.");
+			SampleStatistics stats = rasterFile.getSampleStatistics();
+			if ((stats != null) && ((layerType == LayerType.elevation) || (layerType == LayerType.field))) {
+				System.out.println("Valid samples for " + layerName + " = " + stats.getCount() + " of "
+					+ ((long) rasterWidth * rasterLength) + ".");
+			}
+			System.out.println("Peak temporary file space for building " + layerName + " = "
+				+ (float) (getPeakScratchSize() / 1048576.0) + " MB.");
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			try {
+				closeTileStore();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Convert an existing pyramid of PNG tiles to a packed tile file. The
+	 * layer.properties file is updated so the layer is read from the packed
+	 * file. The PNG tiles are not removed.
+	 * 
+	 * @param layerPath
+	 *            the layer directory
+	 * @param compress
+	 *            compress the tiles
+	 * @return the number of tiles converted
+	 * @throws IOException
+	 */
+	public static int convertToPacked(String layerPath, boolean compress) throws IOException {
+		File layerDir = new File(layerPath);
+		File propFile = new File(layerDir, "layer.properties");
+		Properties properties = new Properties();
+		FileInputStream iStream = new FileInputStream(propFile);
+		properties.load(iStream);
+		iStream.close();
+		LayerType lType = LayerType.valueOf(properties.getProperty("LayerType"));
+
+		PackedTileWriter writer = new PackedTileWriter(new File(layerDir, PackedTileFile.FILE_NAME), compress);
+		int count = 0;
+		try {
+			count = convertToPacked(layerDir, "", lType, writer);
+		} finally {
+			writer.close();
 		}
+
+		properties.setProperty("TileFormat", PackedTileSource.TILE_FORMAT);
+		FileOutputStream oStream = new FileOutputStream(propFile);
+		properties.store(oStream, LayerFactory.VERSION);
+		oStream.close();
+		return (count);
+	}
+
+	private static int convertToPacked(File dir, String tileId, LayerType lType, PackedTileWriter writer)
+		throws IOException {
+		File file = new File(dir, "0.png");
+		if (!file.exists()) {
+			return (0);
+		}
+		int count = 1;
+		BufferedImage bImage = ImageIO.read(file);
+		if (bImage == null) {
+			writer.writeTile(tileId, new byte[0], 0, 0, 0);
+		} else {
+			int width = bImage.getWidth();
+			int height = bImage.getHeight();
+			boolean isFloat = (lType == LayerType.elevation) || (lType == LayerType.field);
+			int imageType = BufferedImage.TYPE_4BYTE_ABGR;
+			if ((lType == LayerType.grayimage) || (bImage.getType() == BufferedImage.TYPE_BYTE_GRAY)) {
+				imageType = BufferedImage.TYPE_BYTE_GRAY;
+			}
+			// normalize color images that were not written by DERT
+			if (!isFloat && (bImage.getType() != imageType)) {
+				BufferedImage img = new BufferedImage(width, height, imageType);
+				Graphics2D g = img.createGraphics();
+				g.drawImage(bImage, 0, 0, null);
+				g.dispose();
+				bImage = img;
+			}
+			byte[] bytes = ((DataBufferByte) bImage.getRaster().getDataBuffer()).getData();
+			// store color in the order it is given to OpenGL
+			if (!isFloat && (imageType == BufferedImage.TYPE_4BYTE_ABGR)) {
+				ImageUtil.swapRGBABytes(bImage.getRaster().getDataBuffer());
+			}
+			writer.writeTile(tileId, bytes, bytes.length, width, height);
+		}
+		for (int i = 1; i <= 4; ++i) {
+			count += convertToPacked(new File(dir, Integer.toString(i)), tileId + "/" + i, lType, writer);
+		}
+		return (count);
 	}
 
 	protected void findDimensions(int[] margin, int tileSize) {
@@ -315,12 +431,8 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 		}
 
 		projInfo = rasterFile.getProjectionInfo();
-		float missingValue = Float.NaN;
-		if (missing == null) {
-			missingValue = rasterFile.getMissingValue();
-		} else {
-			missingValue = new Float(missing);
-			rasterFile.setMissingValue(missingValue);
+		if (missing != null) {
+			rasterFile.setMissingValue(Float.valueOf(missing));
 		}
 
 		// Get the entire raster file contents
@@ -331,7 +443,7 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 		minimumSampleValue = rasterFile.getMinimumSampleValue();
 		maximumSampleValue = rasterFile.getMaximumSampleValue();
 
-		Raster padded = new Raster(paddedWidth, paddedLength, bytesPerPixel, dataType, tmpPath);
+		Raster padded = createRaster(paddedWidth, paddedLength);
 		byte[] bbArray = new byte[rasterWidth * bytesPerPixel];
 
 		// add in the raster data
@@ -343,7 +455,7 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 			break;
 		case elevation:
 		case field:
-			raster.setMissingValuesToNaN(missingValue, minimumSampleValue, maximumSampleValue);
+			// missing and out of range samples were set to NaN while loading
 			padded.set(Float.NaN);
 			break;
 		case colorimage:
@@ -370,10 +482,131 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 			edgeFillValue = (float)minimumSampleValue[0];
 		}
 
-		raster.dispose();
+		disposeRaster(raster);
 		return (padded);
 	}
 
+	/**
+	 * Load the raster file directly into the padded raster. Only the margins
+	 * are filled, the raster file fills the rest. The missing value and the
+	 * samples outside of the valid range are converted to NaN by the raster
+	 * file as it loads elevation and field data.
+	 * 
+	 * @param path
+	 *            the landscape path
+	 * @param missing
+	 *            the missing value argument
+	 * @return the padded raster
+	 * @throws IOException
+	 */
+	protected Raster loadPaddedRaster(String path, String missing) throws IOException {
+
+		if (!doIt) {
+			return (null);
+		}
+
+		projInfo = rasterFile.getProjectionInfo();
+		if (missing != null) {
+			rasterFile.setMissingValue(Float.valueOf(missing));
+		}
+		if (tmpPath == null)
+			tmpPath = path;
+
+		// the data type of the padded raster
+		byte[] fill = new byte[paddedWidth * bytesPerPixel];
+		switch (layerType) {
+		case none:
+		case footprint:
+		case viewshed:
+		case derivative:
+			break;
+		case elevation:
+		case field:
+			dataType = DataType.Float;
+			FloatBuffer fbuf = ByteBuffer.wrap(fill).asFloatBuffer();
+			while (fbuf.hasRemaining()) {
+				fbuf.put(Float.NaN);
+			}
+			break;
+		case colorimage:
+			dataType = DataType.Integer;
+			break;
+		case grayimage:
+			dataType = DataType.UnsignedByte;
+			break;
+		}
+		Raster padded = createRaster(paddedWidth, paddedLength);
+
+		// fill the margins
+		int right = Math.min(leftMargin + rasterWidth, paddedWidth);
+		for (int r = 0; r < paddedLength; ++r) {
+			if ((r < topMargin) || (r >= topMargin + rasterLength)) {
+				padded.write(r, 0, paddedWidth, fill, 0);
+			} else {
+				if (leftMargin > 0) {
+					padded.write(r, 0, leftMargin, fill, 0);
+				}
+				if (right < paddedWidth) {
+					padded.write(r, right, paddedWidth - right, fill, 0);
+				}
+			}
+		}
+
+		// load the raster file into the window inside the margins
+		RasterWindow window = new RasterWindow(padded, topMargin, leftMargin, rasterWidth, rasterLength);
+		loadRasterFile(window);
+		window.dispose();
+		minimumSampleValue = rasterFile.getMinimumSampleValue();
+		maximumSampleValue = rasterFile.getMaximumSampleValue();
+		padded.flush();
+
+		if (layerType == LayerType.elevation) {
+			edgeFillValue = (float) minimumSampleValue[0];
+		}
+		return (padded);
+	}
+
+	/**
+	 * Create a temporary raster of the layer data type
+	 * 
+	 * @param width
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	protected Raster createRaster(int width, int length) throws IOException {
+		Raster raster = new Raster(width, length, bytesPerPixel, dataType, tmpPath);
+		synchronized (this) {
+			scratchSize += raster.getSize();
+			peakScratchSize = Math.max(peakScratchSize, scratchSize);
+		}
+		return (raster);
+	}
+
+	/**
+	 * Dispose of a temporary raster
+	 * 
+	 * @param raster
+	 */
+	protected void disposeRaster(Raster raster) {
+		if (raster == null) {
+			return;
+		}
+		raster.dispose();
+		synchronized (this) {
+			scratchSize -= raster.getSize();
+		}
+	}
+
+	/**
+	 * Get the most temporary raster space held at once while building
+	 * 
+	 * @return the size in bytes
+	 */
+	public synchronized long getPeakScratchSize() {
+		return (peakScratchSize);
+	}
+
 	/**
 	 * Load a raster file converting to the data type appropriate for the layer.
 	 * 
@@ -383,7 +616,23 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 	 * @throws IOException
 	 */
 	protected Raster loadRasterFile(String path) throws IOException {
-		Raster raster = new Raster(rasterWidth, rasterLength, bytesPerPixel, dataType, path);
+		Raster raster = createRaster(rasterWidth, rasterLength);
+		if (loadRasterFile(raster)) {
+			return (raster);
+		}
+		disposeRaster(raster);
+		return (null);
+	}
+
+	/**
+	 * Load a raster file into a raster converting to the data type
+	 * appropriate for the layer.
+	 * 
+	 * @param raster
+	 * @return false if the layer type is not loaded from a raster file
+	 * @throws IOException
+	 */
+	protected boolean loadRasterFile(RasterTarget raster) throws IOException {
 		switch (layerType) {
 		case none:
 		case footprint:
@@ -393,85 +642,232 @@ public class RasterPyramidLayerFactory extends PyramidLayerFactory {
 		case elevation:
 			rasterFile.loadHeightMap(raster);
 			this.dataType = DataType.Float;
-			return (raster);
+			return (true);
 		case colorimage:
 			rasterFile.loadRGBA(raster);
 			this.dataType = DataType.Integer;
-			return (raster);
+			return (true);
 		case field:
 			rasterFile.load(raster);
 			this.dataType = DataType.Float;
-			return (raster);
+			return (true);
 		case grayimage:
 			rasterFile.loadGray(raster);
 			this.dataType = DataType.UnsignedByte;
-			return (raster);
+			return (true);
 		}
-		raster.flush();
-		return (null);
+		return (false);
 	}
 
 	/**
-	 * Write out a tile.
+	 * Write the tiles for all levels starting at the highest resolution. The
+	 * samples of each level are computed from the previous level by averaging
+	 * 2x2 blocks and kept in a temporary raster. Tile rows are written and the
+	 * next level is reduced by a pool of threads, so tile encoding overlaps the
+	 * computation.
 	 * 
 	 * @param raster
-	 *            the raster array from which the tile comes
-	 * @param column
-	 *            the column start in the array
-	 * @param row
-	 *            the row start in the array
-	 * @param size
-	 *            the tile size (width and height)
-	 * @param filePath
-	 *            the path for the file
-	 * @param layerType
-	 *            the type of layer
+	 *            the padded raster
+	 * @param dirPath
+	 *            the layer directory
+	 * @param layerName
+	 *            the layer name
+	 * @param maxLevel
+	 *            the highest resolution level
+	 * @param messageText
+	 *            UI text field for messages (null if headless)
 	 * @throws IOException
 	 */
-	protected void writeTile(Raster raster, int column, int row, int kernelSize, String filePath, LayerType layerType)
-		throws IOException {
+	protected void writeLevels(Raster raster, final String dirPath, String layerName, int maxLevel,
+		JTextField messageText) throws IOException {
+		long t = System.currentTimeMillis();
+		int threads = BUILD_THREADS;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final AtomicLong byteCount = new AtomicLong();
+		final boolean rgba = (layerType == LayerType.colorimage);
 
-		int tWidth = tileWidth + 1;
-		int tLength = tileLength + 1;
-		int tSize = tLength * tWidth * bytesPerPixel;
-		int tileTop = 0;
-		int tileLeft = 0;
+		// The samples for the current level start at (top, left) in the grid.
+		// The grid for the highest resolution level is the padded raster
+		// itself. It has enough padding on the right and bottom to provide
+		// the extra samples of every level below it.
+		Raster grid = raster;
+		Raster next = null;
+		int top = topInset;
+		int left = leftInset;
+		int numTiles = numberOfTiles;
+		try {
+			for (int level = maxLevel; level >= 0; level--) {
+				if (!doIt) {
+					break;
+				}
+				if (messageText == null) {
+					System.out.println("Writing " + numTiles + " rows for level " + (level + 1) + " of "
+						+ (maxLevel + 1));
+				}
+				final Raster src = grid;
+				final int srcTop = top;
+				final int srcLeft = left;
+				final int n = numTiles;
+				final int lvl = level;
+				ArrayList<Future<?>> rowList = new ArrayList<Future<?>>();
+				for (int r = 0; r < numTiles; ++r) {
+					final int row = r;
+					rowList.add(executor.submit(new Callable<Object>() {
+						@Override
+						public Object call() throws IOException {
+							byteCount.addAndGet(writeTileRow(src, srcTop, srcLeft, row, n, lvl, dirPath));
+							return (null);
+						}
+					}));
+				}
 
-		int rasterLeft = leftInset + column;
-		int rasterTop = topInset + row;
-		int rasterTWidth = tWidth * kernelSize;
-		int rasterTLength = tLength * kernelSize;
+				// reduce this level for the next one while the tiles are
+				// written
+				ArrayList<Future<?>> bandList = new ArrayList<Future<?>>();
+				if (level > 0) {
+					final int nextLength = numTiles / 2 * (tileLength + 1);
+					next = createRaster(numTiles / 2 * (tileWidth + 1), nextLength);
+					final Raster dest = next;
+					int bandLength = Math.max(1, (nextLength + threads * 4 - 1) / (threads * 4));
+					for (int r = 0; r < nextLength; r += bandLength) {
+						final int row = r;
+						final int hgt = Math.min(bandLength, nextLength - r);
+						bandList.add(executor.submit(new Callable<Object>() {
+							@Override
+							public Object call() {
+								if (doIt) {
+									src.reduce(srcTop, srcLeft, dest, row, hgt, rgba);
+								}
+								return (null);
+							}
+						}));
+					}
+				}
 
-		// allocate buffer for writing the file
-		byte[] bbArray = new byte[tSize];
-		ByteBuffer bbuf = ByteBuffer.wrap(bbArray);
+				// wait for the level to finish
+				for (int r = 0; r < rowList.size(); ++r) {
+					waitFor(rowList.get(r));
+					if (messageText == null) {
+						if (r % 10 == 0) {
+							System.out.print(r);
+						} else {
+							System.out.print(".");
+						}
+					} else {
+						messageText.setText("Writing " + layerName + " level " + (level + 1) + " of " + (maxLevel + 1)
+							+ ", tile row " + (r + 1) + " of " + numTiles + " . . .");
+						Thread.yield();
+					}
+				}
+				for (int i = 0; i < bandList.size(); ++i) {
+					waitFor(bandList.get(i));
+				}
+				if (messageText == null) {
+					System.out.println();
+				}
 
-		// fill the tile
-		switch (layerType) {
-		case none:
-		case footprint:
-		case viewshed:
-		case derivative:
-			break;
-		case elevation:
-		case field:
-		case grayimage:
-			raster.get(rasterTop, rasterLeft, rasterTWidth, rasterTLength, bbuf, tileTop, tileLeft, tWidth, kernelSize);
-			break;
-		case colorimage:
-			bbuf.order(ByteOrder.nativeOrder());
-			bbuf.rewind();
-			raster.getRGBA(rasterTop, rasterLeft, rasterTWidth, rasterTLength, bbuf, tileTop, tileLeft, tWidth,
-				kernelSize);
-			break;
+				if (grid != raster) {
+					disposeRaster(grid);
+				}
+				grid = next;
+				next = null;
+				top = 0;
+				left = 0;
+				numTiles /= 2;
+			}
+		} finally {
+			executor.shutdownNow();
+			disposeRaster(next);
+			if (grid != raster) {
+				disposeRaster(grid);
+			}
 		}
 
-		// zero the file if it is only missing values
-		if (isEmpty(bbuf)) {
-			bbuf.limit(0);
+		// report throughput
+		double seconds = Math.max(System.currentTimeMillis() - t, 1) / 1000.0;
+		double mBytes = byteCount.get() / 1048576.0;
+		System.out.println("Wrote " + (float) mBytes + " MB of tiles for " + layerName + " in " + (float) seconds
+			+ " seconds (" + (float) (mBytes / seconds) + " MB/s) with " + threads + " threads.");
+	}
+
+	/**
+	 * Write out a row of tiles.
+	 * 
+	 * @param grid
+	 *            the samples for the level
+	 * @param top
+	 *            the row of the first sample in the grid
+	 * @param left
+	 *            the column of the first sample in the grid
+	 * @param row
+	 *            the tile row
+	 * @param numTiles
+	 *            the number of tiles on a side for the level
+	 * @param level
+	 *            the level
+	 * @param dirPath
+	 *            the layer directory
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	protected long writeTileRow(Raster grid, int top, int left, int row, int numTiles, int level, String dirPath)
+		throws IOException {
+		int tWidth = tileWidth + 1;
+		int tLength = tileLength + 1;
+		int rowBytes = tWidth * bytesPerPixel;
+		boolean swap = (layerType == LayerType.colorimage) && (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+		long count = 0;
+		for (int c = 0; c < numTiles; ++c) {
+			if (!doIt) {
+				break;
+			}
+			// a new array for each tile, the writer may keep it
+			byte[] bbArray = new byte[tLength * rowBytes];
+			for (int r = 0; r < tLength; ++r) {
+				grid.read(top + row * tileLength + r, left + c * tileWidth, tWidth, bbArray, r * rowBytes);
+			}
+			// color tiles are packed ints in native order
+			if (swap) {
+				for (int i = 0; i < bbArray.length; i += 4) {
+					byte b = bbArray[i];
+					bbArray[i] = bbArray[i + 3];
+					bbArray[i + 3] = b;
+					b = bbArray[i + 1];
+					bbArray[i + 1] = bbArray[i + 2];
+					bbArray[i + 2] = b;
+				}
+			}
+			String tileId = getTileId(c, row, numTiles, level);
+			// statistics are only kept for the highest resolution level
+			if ((tileStatistics != null) && (numTiles == numberOfTiles)) {
+				float[] data = new float[tWidth * tLength];
+				ByteBuffer.wrap(bbArray).asFloatBuffer().get(data);
+				tileStatistics.set(QuadKey.fromPath(tileId), data);
+			}
+			writeTile(dirPath, tileId, bbArray, tWidth, tLength, layerType);
+			count += bbArray.length;
 		}
+		return (count);
+	}
 
-		writeTile(filePath, bbArray, tWidth, tLength, layerType);
+	private void waitFor(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
 	}
 
 	/**
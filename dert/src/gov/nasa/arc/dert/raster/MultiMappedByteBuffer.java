@@ -77,7 +77,8 @@ public class MultiMappedByteBuffer {
 
 		file = new File(path);
 		file.mkdirs();
-		file = new File(file, "tmp_" + System.currentTimeMillis());
+		// a unique name, several buffers may be created in the same millisecond
+		file = File.createTempFile("tmp_", "", file);
 		file.deleteOnExit();
 		raf = new RandomAccessFile(file, "rw");
 		fileChannel = raf.getChannel();
@@ -206,6 +207,44 @@ public class MultiMappedByteBuffer {
 		mbBuf[index].put(bArray, pos, wid);
 	}
 
+	/**
+	 * Fill a byte array at the given position starting at a given file row and
+	 * column with wid bytes. The position of the sub-buffers is not changed so
+	 * several threads may read at once.
+	 *
+	 * @param row
+	 * @param column
+	 * @param wid
+	 * @param bArray
+	 * @param pos
+	 */
+	public void read(int row, int column, int wid, byte[] bArray, int pos) {
+		int index = row / numRows;
+		row = row % numRows;
+		ByteBuffer buf = mbBuf[index].duplicate();
+		buf.position(row * width + column);
+		buf.get(bArray, pos, wid);
+	}
+
+	/**
+	 * Set a row starting at a given column from the specified position in a
+	 * byte array. The position of the sub-buffers is not changed so several
+	 * threads may write different parts of the file at once.
+	 *
+	 * @param row
+	 * @param column
+	 * @param wid
+	 * @param bArray
+	 * @param pos
+	 */
+	public void write(int row, int column, int wid, byte[] bArray, int pos) {
+		int index = row / numRows;
+		row = row % numRows;
+		ByteBuffer buf = mbBuf[index].duplicate();
+		buf.position(row * width + column);
+		buf.put(bArray, pos, wid);
+	}
+
 	/**
 	 * Free the buffers so they can be garbage collected.
 	 */
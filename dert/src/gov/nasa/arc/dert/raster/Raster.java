@@ -15,7 +15,7 @@ import java.util.Arrays;
  * Represents a raster file in memory using a MultiMappedByteBuffer.
  *
  */
-public class Raster {
+public class Raster implements RasterTarget {
 
 	protected static long MAX_SIZE = 4294967296l; // 4096 MB
 
@@ -41,7 +41,7 @@ public class Raster {
 		this.length = length;
 		this.numBytes = numBytes;
 		this.dataType = dataType;
-		size = width * length * numBytes;
+		size = (long) width * length * numBytes;
 
 		mmbBuf = new MultiMappedByteBuffer(path, width * numBytes, length);
 
@@ -64,6 +64,15 @@ public class Raster {
 		mmbBuf.flush();
 	}
 
+	/**
+	 * Get the number of bytes held by the raster
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return (size);
+	}
+
 	/**
 	 * Get the width of the raster
 	 * 
@@ -234,7 +243,8 @@ public class Raster {
 	}
 
 	/**
-	 * Fill a portion of the raster with a byte array
+	 * Fill a portion of the raster with a byte array. Several threads may set
+	 * different rows at once.
 	 * 
 	 * @param row
 	 * @param hgt
@@ -243,13 +253,14 @@ public class Raster {
 	public void set(int row, int hgt, byte[] bArray) {
 		int b = 0;
 		for (int r = row; r < (row + hgt); ++r) {
-			mmbBuf.set(r, 0, width * numBytes, b * width * numBytes, bArray);
+			mmbBuf.write(r, 0, width * numBytes, bArray, b * width * numBytes);
 			b++;
 		}
 	}
 
 	/**
-	 * Fill a portion of the raster with a buffer
+	 * Fill a portion of the raster with a buffer. Several threads may set
+	 * different portions at once.
 	 * 
 	 * @param row
 	 * @param column
@@ -260,7 +271,7 @@ public class Raster {
 	public void set(int row, int column, int wid, int hgt, byte[] bArray) {
 		int b = 0;
 		for (int r = row; r < (row + hgt); ++r) {
-			mmbBuf.set(r, column * numBytes, wid * numBytes, b * wid * numBytes, bArray);
+			mmbBuf.write(r, column * numBytes, wid * numBytes, bArray, b * wid * numBytes);
 			b++;
 		}
 	}
@@ -299,6 +310,31 @@ public class Raster {
 	 */
 	public void setAsFloat(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, float scalingFactor,
 		double[] min, double[] max, float missing) {
+		setAsFloat(top, left, wid, hgt, bBuf, type, scalingFactor, min, max, missing, null);
+	}
+
+	/**
+	 * Fill a portion of the raster with floats from a buffer, accumulating
+	 * statistics of the valid samples in the same pass. A null minimum or
+	 * maximum does not limit the range of valid samples.
+	 * 
+	 * @param top
+	 * @param left
+	 * @param wid
+	 * @param hgt
+	 * @param bBuf
+	 * @param type
+	 * @param scalingFactor
+	 * @param min
+	 * @param max
+	 * @param missing
+	 * @param stats
+	 *            statistics of the unscaled valid samples (may be null)
+	 */
+	public void setAsFloat(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, float scalingFactor,
+		double[] min, double[] max, float missing, SampleStatistics stats) {
+		double lo = (min == null) ? Double.NEGATIVE_INFINITY : min[0];
+		double hi = (max == null) ? Double.POSITIVE_INFINITY : max[0];
 		byte[] bArray = new byte[wid * 4 * hgt];
 		ByteBuffer rBuf = ByteBuffer.wrap(bArray);
 		rBuf.rewind();
@@ -307,25 +343,38 @@ public class Raster {
 		int right = left + wid;
 		switch (type) {
 		case Float:
+			// convert a row at a time through float views in the byte order of
+			// each buffer
+			float[] fArray = new float[wid];
+			FloatBuffer fBuf = bBuf.asFloatBuffer();
+			FloatBuffer oBuf = rBuf.asFloatBuffer();
 			for (int r = top; r < bottom; ++r) {
-				for (int c = left; c < right; ++c) {
-					float val = bBuf.getFloat();
-					if (Float.isNaN(val) || (val == missing) || (val < min[0]) || (val > max[0])) {
-						rBuf.putFloat(Float.NaN);
+				fBuf.get(fArray);
+				for (int c = 0; c < wid; ++c) {
+					float val = fArray[c];
+					if (Float.isNaN(val) || (val == missing) || (val < lo) || (val > hi)) {
+						fArray[c] = Float.NaN;
 					} else {
-						rBuf.putFloat(val * scalingFactor);
+						fArray[c] = val * scalingFactor;
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
+				oBuf.put(fArray);
 			}
 			break;
 		case Integer:
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					float val = bBuf.getInt();
-					if ((val == missing) || (val < min[0]) || (val > max[0])) {
+					if ((val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					} else {
 						rBuf.putFloat(val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -334,10 +383,13 @@ public class Raster {
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					float val = MathUtil.unsignedInt(bBuf.getInt());
-					if ((val == missing) || (val < min[0]) || (val > max[0])) {
+					if ((val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					} else {
 						rBuf.putFloat(val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -346,11 +398,14 @@ public class Raster {
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					float val = bBuf.getShort();
-					if ((val == missing) || (val < min[0]) || (val > max[0])) {
+					if ((val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					}
 					else {
 						rBuf.putFloat(val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -359,10 +414,13 @@ public class Raster {
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					float val = MathUtil.unsignedShort(bBuf.getShort());
-					if ((val == missing) || (val < min[0]) || (val > max[0])) {
+					if ((val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					} else {
 						rBuf.putFloat(val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -371,10 +429,13 @@ public class Raster {
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					float val = bBuf.get();
-					if ((val == missing) || (val < min[0]) || (val > max[0])) {
+					if ((val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					} else {
 						rBuf.putFloat(val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -383,10 +444,13 @@ public class Raster {
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					float val = MathUtil.unsignedByte(bBuf.get());
-					if ((val == missing) || (val < min[0]) || (val > max[0])) {
+					if ((val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					} else {
 						rBuf.putFloat(val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -395,10 +459,13 @@ public class Raster {
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					double val = bBuf.getDouble();
-					if (Double.isNaN(val) || (val == missing) || (val < min[0]) || (val > max[0])) {
+					if (Double.isNaN(val) || (val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					} else {
 						rBuf.putFloat((float) val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -407,10 +474,13 @@ public class Raster {
 			for (int r = top; r < bottom; ++r) {
 				for (int c = left; c < right; ++c) {
 					float val = bBuf.getLong();
-					if ((val == missing) || (val < min[0]) || (val > max[0])) {
+					if ((val == missing) || (val < lo) || (val > hi)) {
 						rBuf.putFloat(Float.NaN);
 					} else {
 						rBuf.putFloat(val * scalingFactor);
+						if (stats != null) {
+							stats.add(val);
+						}
 					}
 				}
 			}
@@ -898,10 +968,130 @@ public class Raster {
 	 * @param row
 	 * @param bArray
 	 */
-	public final void get(int row, byte[] bArray) {
+	public void get(int row, byte[] bArray) {
 		mmbBuf.get(row, bArray);
 	}
 
+	/**
+	 * Fill a byte array at the given position with a portion of a raster row.
+	 * Several threads may read at once.
+	 *
+	 * @param row
+	 * @param column
+	 *            the start column in pixels
+	 * @param wid
+	 *            the number of pixels
+	 * @param bArray
+	 * @param pos
+	 *            the start position in the array
+	 */
+	public final void read(int row, int column, int wid, byte[] bArray, int pos) {
+		mmbBuf.read(row, column * numBytes, wid * numBytes, bArray, pos);
+	}
+
+	/**
+	 * Fill a portion of a raster row from a byte array at the given position.
+	 * Several threads may write different rows at once.
+	 *
+	 * @param row
+	 * @param column
+	 *            the start column in pixels
+	 * @param wid
+	 *            the number of pixels
+	 * @param bArray
+	 * @param pos
+	 *            the start position in the array
+	 */
+	public final void write(int row, int column, int wid, byte[] bArray, int pos) {
+		mmbBuf.write(row, column * numBytes, wid * numBytes, bArray, pos);
+	}
+
+	/**
+	 * Reduce a portion of this raster to half resolution in another raster.
+	 * Each destination pixel is the mean of a 2x2 block of pixels starting at
+	 * row top+2*r and column left+2*c of this raster. As with the mean
+	 * functions, a missing value (NaN) in the block makes the mean missing.
+	 * Different destination rows may be reduced by several threads at once.
+	 *
+	 * @param top
+	 *            the start row in this raster
+	 * @param left
+	 *            the start column in this raster
+	 * @param dest
+	 *            the destination raster (the full width is filled)
+	 * @param destRow
+	 *            the first destination row
+	 * @param destHgt
+	 *            the number of destination rows
+	 * @param rgba
+	 *            average the 4 bytes of each pixel separately
+	 */
+	public void reduce(int top, int left, Raster dest, int destRow, int destHgt, boolean rgba) {
+		int wid = dest.width;
+		int rowBytes = 2 * wid * numBytes;
+		byte[] src = new byte[2 * rowBytes];
+		byte[] dst = new byte[wid * numBytes];
+		ByteBuffer sBuf = ByteBuffer.wrap(src);
+		ByteBuffer dBuf = ByteBuffer.wrap(dst);
+		for (int r = destRow; r < (destRow + destHgt); ++r) {
+			read(top + 2 * r, left, 2 * wid, src, 0);
+			read(top + 2 * r + 1, left, 2 * wid, src, rowBytes);
+			switch (dataType) {
+			case Float:
+				for (int c = 0, i = 0; c < wid; ++c, i += 8) {
+					double sum = sBuf.getFloat(i);
+					sum += sBuf.getFloat(i + 4);
+					sum += sBuf.getFloat(i + rowBytes);
+					sum += sBuf.getFloat(i + rowBytes + 4);
+					dBuf.putFloat(c * 4, (float) (sum / 4));
+				}
+				break;
+			case Double:
+				for (int c = 0, i = 0; c < wid; ++c, i += 16) {
+					double sum = sBuf.getDouble(i);
+					sum += sBuf.getDouble(i + 8);
+					sum += sBuf.getDouble(i + rowBytes);
+					sum += sBuf.getDouble(i + rowBytes + 8);
+					dBuf.putDouble(c * 8, sum / 4);
+				}
+				break;
+			case Integer:
+				if (rgba) {
+					for (int c = 0, i = 0; c < wid; ++c, i += 8) {
+						for (int k = 0; k < 4; ++k) {
+							int sum = MathUtil.unsignedByte(src[i + k]);
+							sum += MathUtil.unsignedByte(src[i + k + 4]);
+							sum += MathUtil.unsignedByte(src[i + k + rowBytes]);
+							sum += MathUtil.unsignedByte(src[i + k + rowBytes + 4]);
+							dst[c * 4 + k] = (byte) (sum / 4);
+						}
+					}
+				} else {
+					for (int c = 0, i = 0; c < wid; ++c, i += 8) {
+						double sum = sBuf.getInt(i);
+						sum += sBuf.getInt(i + 4);
+						sum += sBuf.getInt(i + rowBytes);
+						sum += sBuf.getInt(i + rowBytes + 4);
+						dBuf.putInt(c * 4, (int) Math.round(sum / 4));
+					}
+				}
+				break;
+			case UnsignedByte:
+				for (int c = 0, i = 0; c < wid; ++c, i += 2) {
+					double sum = MathUtil.unsignedByte(src[i]);
+					sum += MathUtil.unsignedByte(src[i + 1]);
+					sum += MathUtil.unsignedByte(src[i + rowBytes]);
+					sum += MathUtil.unsignedByte(src[i + rowBytes + 1]);
+					dst[c] = (byte) Math.round(sum / 4);
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Cannot reduce a raster of type " + dataType + ".");
+			}
+			dest.write(r, 0, wid, dst, 0);
+		}
+	}
+
 	/**
 	 * Compute the mean of an area in a raster array.
 	 * 
@@ -88,6 +88,13 @@ public interface RasterFile {
 	 */
 	public double[] getMaximumSampleValue();
 
+	/**
+	 * Get the statistics of the valid samples accumulated by the last load.
+	 * 
+	 * @return the statistics or null if none
+	 */
+	public SampleStatistics getSampleStatistics();
+
 	/**
 	 * Get the value that represents no data.
 	 * 
@@ -115,27 +122,27 @@ public interface RasterFile {
 	 * 
 	 * @param buffer
 	 */
-	public void load(Raster raster) throws IOException;
+	public void load(RasterTarget raster) throws IOException;
 
 	/**
 	 * Load data from raster file as an RGBA image, to be used as a texture map.
 	 * 
 	 * @param buffer
 	 */
-	public void loadRGBA(Raster raster) throws IOException;
+	public void loadRGBA(RasterTarget raster) throws IOException;
 
 	/**
 	 * Load data from raster file as height map.
 	 * 
 	 * @param buffer
 	 */
-	public void loadHeightMap(Raster raster) throws IOException;
+	public void loadHeightMap(RasterTarget raster) throws IOException;
 
 	/**
 	 * Load data from raster file as height map.
 	 * 
 	 * @param buffer
 	 */
-	public void loadGray(Raster raster) throws IOException;
+	public void loadGray(RasterTarget raster) throws IOException;
 
 }
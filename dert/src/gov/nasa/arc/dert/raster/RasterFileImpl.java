@@ -6,8 +6,15 @@ import gov.nasa.arc.dert.util.StringUtil;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Abstract base class representing a raster file.
@@ -15,6 +22,9 @@ import java.util.Properties;
  */
 public abstract class RasterFileImpl implements RasterFile {
 
+	// Number of threads for decoding strips or tiles (0 = number of processors)
+	public static int DECODE_THREADS = 0;
+
 	// File access, "r" for read, "w" for write, or "a" for append
 	protected String access;
 
@@ -47,6 +57,9 @@ public abstract class RasterFileImpl implements RasterFile {
 	
 	protected float scalingFactor = 1f;
 
+	// Statistics of the valid samples from the last load (null if none)
+	protected SampleStatistics statistics;
+
 	/**
 	 * Constructor.
 	 * 
@@ -173,6 +186,49 @@ public abstract class RasterFileImpl implements RasterFile {
 		return (max);
 	}
 
+	/**
+	 * Get the statistics of the valid samples accumulated by the last load
+	 * converting to float.
+	 * 
+	 * @return the statistics or null if none
+	 */
+	@Override
+	public SampleStatistics getSampleStatistics() {
+		return (statistics);
+	}
+
+	/**
+	 * Set a minimum or maximum not given by the file from the statistics
+	 * accumulated while loading.
+	 */
+	protected void setMinMaxFromStatistics() {
+		if (minimum == null) {
+			minimum = new double[samplesPerPixel];
+			Arrays.fill(minimum, statistics.getMinimum());
+		}
+		if (maximum == null) {
+			maximum = new double[samplesPerPixel];
+			Arrays.fill(maximum, statistics.getMaximum());
+		}
+	}
+
+	/**
+	 * Set the minimum and maximum for byte data, which always span the full
+	 * range, so the file need not be read to find them.
+	 * 
+	 * @return true if the data type has a fixed range
+	 */
+	protected boolean setFixedMinMax() {
+		if ((dataType != DataType.Byte) && (dataType != DataType.UnsignedByte)) {
+			return (false);
+		}
+		minimum = new double[samplesPerPixel];
+		maximum = new double[samplesPerPixel];
+		Arrays.fill(minimum, 0);
+		Arrays.fill(maximum, 255);
+		return (true);
+	}
+
 	/**
 	 * Get the type of the raster data.
 	 * 
@@ -199,7 +255,7 @@ public abstract class RasterFileImpl implements RasterFile {
 	 * @param raster
 	 */
 	@Override
-	public abstract void load(Raster raster) throws IOException;
+	public abstract void load(RasterTarget raster) throws IOException;
 
 	/**
 	 * Load entire file contents into a raster converting to float if data
@@ -209,7 +265,7 @@ public abstract class RasterFileImpl implements RasterFile {
 	 * @param dataType
 	 */
 	@Override
-	public abstract void loadHeightMap(Raster raster) throws IOException;
+	public abstract void loadHeightMap(RasterTarget raster) throws IOException;
 
 	/**
 	 * Load entire file contents into a raster converting to unsigned byte if data
@@ -218,14 +274,133 @@ public abstract class RasterFileImpl implements RasterFile {
 	 * @param raster
 	 */
 	@Override
-	public abstract void loadGray(Raster raster) throws IOException;
+	public abstract void loadGray(RasterTarget raster) throws IOException;
 
 	/**
 	 * Load entire file contents into byte array. File data type must be short,
 	 * unsigned short, byte, or unsigned byte.
 	 */
 	@Override
-	public abstract void loadRGBA(Raster raster) throws IOException;
+	public abstract void loadRGBA(RasterTarget raster) throws IOException;
+
+	/**
+	 * Get the number of threads to decode a number of strips or tiles
+	 * 
+	 * @param count
+	 *            the number of strips or tiles
+	 * @return the number of threads
+	 */
+	protected int getDecodeThreads(int count) {
+		int threads = DECODE_THREADS;
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		return (Math.max(1, Math.min(threads, count)));
+	}
+
+	/**
+	 * Decode strips or tiles with a pool of workers, one thread each. Each
+	 * worker takes the next strip or tile not yet decoded until none remain, so
+	 * they are committed to the raster in any order. The statistics of the
+	 * workers are added to those of the file.
+	 * 
+	 * @param count
+	 *            the number of strips or tiles
+	 * @param workers
+	 *            the workers
+	 * @throws IOException
+	 */
+	protected void decode(int count, ArrayList<DecodeWorker> workers) throws IOException {
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+		try {
+			ArrayList<Future<Object>> futureList = new ArrayList<Future<Object>>();
+			for (int i = 0; i < workers.size(); ++i) {
+				workers.get(i).start(next, count);
+				futureList.add(executor.submit(workers.get(i)));
+			}
+			for (int i = 0; i < futureList.size(); ++i) {
+				try {
+					futureList.get(i).get();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		for (int i = 0; i < workers.size(); ++i) {
+			if ((statistics != null) && (workers.get(i).stats != null)) {
+				statistics.add(workers.get(i).stats);
+			}
+		}
+	}
+
+	/**
+	 * Decodes strips or tiles on one thread. A worker holds whatever must not
+	 * be shared between threads, such as a file handle and a buffer.
+	 */
+	protected abstract class DecodeWorker implements Callable<Object> {
+
+		// Statistics of the valid samples decoded by this worker (null if not
+		// kept)
+		protected SampleStatistics stats;
+
+		// The next strip or tile to decode and the number of them
+		private AtomicInteger next;
+		private int count;
+
+		private void start(AtomicInteger next, int count) {
+			this.next = next;
+			this.count = count;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			open();
+			try {
+				for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+					decode(i);
+				}
+			} finally {
+				close();
+			}
+			return (null);
+		}
+
+		/**
+		 * Get what this worker needs before decoding
+		 * 
+		 * @throws IOException
+		 */
+		protected void open() throws IOException {
+		}
+
+		/**
+		 * Decode a strip or tile into the raster
+		 * 
+		 * @param index
+		 *            the strip or tile number
+		 * @throws IOException
+		 */
+		protected abstract void decode(int index) throws IOException;
+
+		/**
+		 * Release what this worker needed
+		 * 
+		 * @throws IOException
+		 */
+		protected void close() throws IOException {
+		}
+	}
 
 	protected void computeMinMax(ByteBuffer bBuf) {
 		int len = bBuf.limit();
@@ -0,0 +1,131 @@
+package gov.nasa.arc.dert.raster;
+
+import gov.nasa.arc.dert.raster.RasterFile.DataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The place a raster file loads its pixels into (see RasterFile). Implemented
+ * by Raster and by RasterWindow, a rectangle of a larger raster.
+ *
+ */
+public interface RasterTarget {
+
+	/**
+	 * Get the width in pixels
+	 *
+	 * @return
+	 */
+	public int getWidth();
+
+	/**
+	 * Get the length in pixels
+	 *
+	 * @return
+	 */
+	public int getLength();
+
+	/**
+	 * Get the number of bytes in a pixel
+	 *
+	 * @return
+	 */
+	public int getBytesPerSample();
+
+	/**
+	 * Fill a portion of the target with a byte array. Several threads may set
+	 * different rows at once.
+	 *
+	 * @param row
+	 * @param hgt
+	 * @param bArray
+	 */
+	public void set(int row, int hgt, byte[] bArray);
+
+	/**
+	 * Fill a portion of the target with a byte array. Several threads may set
+	 * different portions at once.
+	 *
+	 * @param row
+	 * @param column
+	 * @param wid
+	 * @param hgt
+	 * @param bArray
+	 */
+	public void set(int row, int column, int wid, int hgt, byte[] bArray);
+
+	/**
+	 * Fill the target with an integer value
+	 *
+	 * @param val
+	 */
+	public void set(int val);
+
+	/**
+	 * Fill the target with a float value
+	 *
+	 * @param val
+	 */
+	public void set(float val);
+
+	/**
+	 * Fill a portion of the target with floats from a buffer
+	 *
+	 * @param top
+	 * @param left
+	 * @param wid
+	 * @param hgt
+	 * @param bBuf
+	 * @param type
+	 * @param scalingFactor
+	 * @param min
+	 * @param max
+	 * @param missing
+	 */
+	public void setAsFloat(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, float scalingFactor,
+		double[] min, double[] max, float missing);
+
+	/**
+	 * Fill a portion of the target with floats from a buffer, accumulating
+	 * statistics of the valid samples in the same pass.
+	 *
+	 * @param top
+	 * @param left
+	 * @param wid
+	 * @param hgt
+	 * @param bBuf
+	 * @param type
+	 * @param scalingFactor
+	 * @param min
+	 * @param max
+	 * @param missing
+	 * @param stats
+	 *            statistics of the unscaled valid samples (may be null)
+	 */
+	public void setAsFloat(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, float scalingFactor,
+		double[] min, double[] max, float missing, SampleStatistics stats);
+
+	/**
+	 * Fill a portion of the target with gray scale values from a buffer
+	 *
+	 * @param top
+	 * @param left
+	 * @param wid
+	 * @param hgt
+	 * @param bBuf
+	 * @param type
+	 * @param min
+	 * @param max
+	 * @param missing
+	 */
+	public void setAsGray(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, double[] min,
+		double[] max, float missing);
+
+	/**
+	 * Fill a buffer with a row of the target
+	 *
+	 * @param row
+	 * @param bArray
+	 */
+	public void get(int row, byte[] bArray);
+}
@@ -0,0 +1,132 @@
+package gov.nasa.arc.dert.raster;
+
+import gov.nasa.arc.dert.raster.RasterFile.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A window onto a rectangle of a larger raster. A raster file loaded into the
+ * window places its pixels directly in the larger raster, for example a
+ * raster padded to a tile aligned size, so no intermediate copy of the whole
+ * file is needed. The window does not own the buffer of the larger raster.
+ *
+ */
+public class RasterWindow implements RasterTarget {
+
+	// The raster that holds the window
+	protected Raster raster;
+
+	// Position and dimensions of the window in the raster
+	protected int top, left, width, length;
+
+	/**
+	 * Constructor
+	 *
+	 * @param raster
+	 *            the raster that holds the window
+	 * @param top
+	 *            the row of the window in the raster
+	 * @param left
+	 *            the column of the window in the raster
+	 * @param width
+	 *            the window width
+	 * @param length
+	 *            the window length
+	 */
+	public RasterWindow(Raster raster, int top, int left, int width, int length) {
+		this.raster = raster;
+		this.top = top;
+		this.left = left;
+		this.width = width;
+		this.length = length;
+	}
+
+	/**
+	 * The buffer belongs to the larger raster, nothing is disposed.
+	 */
+	public void dispose() {
+		raster = null;
+	}
+
+	/**
+	 * Flush the larger raster
+	 */
+	public void flush() {
+		raster.flush();
+	}
+
+	@Override
+	public int getWidth() {
+		return (width);
+	}
+
+	@Override
+	public int getLength() {
+		return (length);
+	}
+
+	@Override
+	public int getBytesPerSample() {
+		return (raster.getBytesPerSample());
+	}
+
+	@Override
+	public void set(int row, int hgt, byte[] bArray) {
+		raster.set(top + row, left, width, hgt, bArray);
+	}
+
+	@Override
+	public void set(int row, int column, int wid, int hgt, byte[] bArray) {
+		raster.set(top + row, left + column, wid, hgt, bArray);
+	}
+
+	@Override
+	public void set(int val) {
+		byte[] bArray = new byte[width * raster.getBytesPerSample()];
+		IntBuffer iBuf = ByteBuffer.wrap(bArray).asIntBuffer();
+		while (iBuf.hasRemaining()) {
+			iBuf.put(val);
+		}
+		for (int r = 0; r < length; ++r) {
+			set(r, 0, width, 1, bArray);
+		}
+	}
+
+	@Override
+	public void set(float val) {
+		byte[] bArray = new byte[width * raster.getBytesPerSample()];
+		FloatBuffer fBuf = ByteBuffer.wrap(bArray).asFloatBuffer();
+		while (fBuf.hasRemaining()) {
+			fBuf.put(val);
+		}
+		for (int r = 0; r < length; ++r) {
+			set(r, 0, width, 1, bArray);
+		}
+	}
+
+	@Override
+	public void setAsFloat(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, float scalingFactor,
+		double[] min, double[] max, float missing) {
+		raster.setAsFloat(this.top + top, this.left + left, wid, hgt, bBuf, type, scalingFactor, min, max, missing);
+	}
+
+	@Override
+	public void setAsFloat(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, float scalingFactor,
+		double[] min, double[] max, float missing, SampleStatistics stats) {
+		raster.setAsFloat(this.top + top, this.left + left, wid, hgt, bBuf, type, scalingFactor, min, max, missing,
+			stats);
+	}
+
+	@Override
+	public void setAsGray(int top, int left, int wid, int hgt, ByteBuffer bBuf, DataType type, double[] min,
+		double[] max, float missing) {
+		raster.setAsGray(this.top + top, this.left + left, wid, hgt, bBuf, type, min, max, missing);
+	}
+
+	@Override
+	public void get(int row, byte[] bArray) {
+		raster.read(top + row, left, width, bArray, 0);
+	}
+}
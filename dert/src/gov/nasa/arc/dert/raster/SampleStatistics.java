@@ -0,0 +1,188 @@
+package gov.nasa.arc.dert.raster;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of the valid samples of a raster file, accumulated one sample at
+ * a time while the file is decoded so the file need not be read again. The
+ * histogram has a fixed number of bins. Since the range of the samples is not
+ * known until the last one is seen, the bin width starts small and is doubled,
+ * merging pairs of bins, whenever a sample falls outside the bins. Bin widths
+ * are powers of 2 and each bin starts at a multiple of its width.
+ *
+ */
+public class SampleStatistics {
+
+	// Number of histogram bins
+	public static final int NUMBER_OF_BINS = 256;
+
+	// Number of valid samples
+	private long count;
+
+	// Extrema of the valid samples
+	private double minimum, maximum;
+
+	// Histogram
+	private long[] histogram;
+
+	// Start of the first bin and width of each bin (0 until two different
+	// samples have been seen)
+	private double binOrigin, binWidth;
+
+	/**
+	 * Constructor
+	 */
+	public SampleStatistics() {
+		minimum = Double.MAX_VALUE;
+		maximum = -Double.MAX_VALUE;
+		histogram = new long[NUMBER_OF_BINS];
+	}
+
+	/**
+	 * Add a valid sample
+	 *
+	 * @param val
+	 */
+	public void add(double val) {
+		count++;
+		if (val < minimum) {
+			minimum = val;
+		}
+		if (val > maximum) {
+			maximum = val;
+		}
+		if ((binWidth == 0) ? (val != binOrigin) : ((val < binOrigin) || (val >= binOrigin + NUMBER_OF_BINS
+			* binWidth))) {
+			fit(binWidth);
+		}
+		histogram[getBin(val)]++;
+	}
+
+	/**
+	 * Add the samples counted by another set of statistics, for example one
+	 * kept by each thread decoding part of a file. Since the bin widths are
+	 * powers of 2 and the bins start at a multiple of their width, the bins of
+	 * both fall exactly into the merged bins.
+	 *
+	 * @param that
+	 */
+	public void add(SampleStatistics that) {
+		if (that.count == 0) {
+			return;
+		}
+		if (count == 0) {
+			binOrigin = that.binOrigin;
+		}
+		count += that.count;
+		minimum = Math.min(minimum, that.minimum);
+		maximum = Math.max(maximum, that.maximum);
+		fit(Math.max(binWidth, that.binWidth));
+		for (int i = 0; i < NUMBER_OF_BINS; ++i) {
+			if (that.histogram[i] != 0) {
+				histogram[getBin(that.binOrigin + i * that.binWidth)] += that.histogram[i];
+			}
+		}
+	}
+
+	/**
+	 * Rebin the histogram to cover the range of the samples. The width is
+	 * doubled until the range fits.
+	 *
+	 * @param width
+	 *            the smallest bin width (0 to size the bins from the range)
+	 */
+	private void fit(double width) {
+		if (maximum == minimum) {
+			// all samples so far are in the first bin
+			binOrigin = minimum;
+			return;
+		}
+		if (width == 0) {
+			width = Math.scalb(1.0, Math.getExponent((maximum - minimum) / NUMBER_OF_BINS));
+		}
+		double origin = Math.floor(minimum / width) * width;
+		while (maximum >= origin + NUMBER_OF_BINS * width) {
+			width *= 2;
+			origin = Math.floor(minimum / width) * width;
+		}
+		long[] old = histogram;
+		double oldOrigin = binOrigin;
+		double oldWidth = binWidth;
+		histogram = new long[NUMBER_OF_BINS];
+		binOrigin = origin;
+		binWidth = width;
+		for (int i = 0; i < NUMBER_OF_BINS; ++i) {
+			if (old[i] != 0) {
+				histogram[getBin(oldOrigin + i * oldWidth)] += old[i];
+			}
+		}
+	}
+
+	private int getBin(double val) {
+		if (binWidth == 0) {
+			return (0);
+		}
+		int bin = (int) Math.floor((val - binOrigin) / binWidth);
+		return (Math.min(Math.max(bin, 0), NUMBER_OF_BINS - 1));
+	}
+
+	/**
+	 * Get the number of valid samples
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return (count);
+	}
+
+	/**
+	 * Get the minimum valid sample (Double.MAX_VALUE if there were none)
+	 *
+	 * @return
+	 */
+	public double getMinimum() {
+		return (minimum);
+	}
+
+	/**
+	 * Get the maximum valid sample (-Double.MAX_VALUE if there were none)
+	 *
+	 * @return
+	 */
+	public double getMaximum() {
+		return (maximum);
+	}
+
+	/**
+	 * Get the histogram
+	 *
+	 * @return a copy of the NUMBER_OF_BINS counts
+	 */
+	public long[] getHistogram() {
+		return (Arrays.copyOf(histogram, NUMBER_OF_BINS));
+	}
+
+	/**
+	 * Get the start of the first histogram bin
+	 *
+	 * @return
+	 */
+	public double getBinOrigin() {
+		return (binOrigin);
+	}
+
+	/**
+	 * Get the width of a histogram bin (0 if all samples are the same)
+	 *
+	 * @return
+	 */
+	public double getBinWidth() {
+		return (binWidth);
+	}
+
+	@Override
+	public String toString() {
+		return ("SampleStatistics[count=" + count + ",min=" + minimum + ",max=" + maximum + ",binOrigin=" + binOrigin
+			+ ",binWidth=" + binWidth + "]");
+	}
+}
@@ -1,8 +1,9 @@
 package gov.nasa.arc.dert.raster.geotiff;
 
 import gov.nasa.arc.dert.raster.ProjectionInfo;
-import gov.nasa.arc.dert.raster.Raster;
 import gov.nasa.arc.dert.raster.RasterFileImpl;
+import gov.nasa.arc.dert.raster.RasterTarget;
+import gov.nasa.arc.dert.raster.SampleStatistics;
 import gov.nasa.arc.dert.raster.geotiff.GeoKey.KeyID;
 import gov.nasa.arc.dert.util.ImageUtil;
 
@@ -13,6 +14,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Properties;
@@ -301,6 +303,9 @@ public class GTIF extends RasterFileImpl {
 	 */
 	protected native String getTIFFError();
 
+	// The native library was loaded
+	private static boolean nativeLibraryLoaded;
+
 	/**
 	 * Load native library.
 	 */
@@ -332,11 +337,22 @@ public class GTIF extends RasterFileImpl {
 			in.close();
 			System.load(libFile.getAbsolutePath());
 			libFile.delete();
-		} catch (Exception e) {
+			nativeLibraryLoaded = true;
+		} catch (Throwable e) {
+			// JavaGTIF reads GeoTIFF files without the native library
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Determine if the native library was loaded.
+	 * 
+	 * @return true if libgeo is available
+	 */
+	public static boolean isNativeLibraryLoaded() {
+		return (nativeLibraryLoaded);
+	}
+
 	/**
 	 * Constructor
 	 */
@@ -1320,7 +1336,10 @@ public class GTIF extends RasterFileImpl {
 	 * @param raster
 	 */
 	@Override
-	public void load(Raster raster) {
+	public void load(RasterTarget raster) throws IOException {
+
+		// The minimum and maximum are found while loading
+		statistics = new SampleStatistics();
 
 		// TIFF is organized in tiles.
 		if (isTiled()) {
@@ -1337,10 +1356,6 @@ public class GTIF extends RasterFileImpl {
 					+ Integer.MAX_VALUE + ".");
 			}
 
-			if ((minimum == null) || (maximum == null)) {
-				computeMinMaxFromTile(dataType, n, (int) s);
-			}
-
 			loadFromTile(dataType, n, (int) s, w, h, raster, false);
 		}
 
@@ -1359,12 +1374,9 @@ public class GTIF extends RasterFileImpl {
 					+ Integer.MAX_VALUE + ".");
 			}
 
-			if ((minimum == null) || (maximum == null)) {
-				computeMinMaxFromStrip(dataType, n, (int) s);
-			}
-
 			loadFromStrip(dataType, n, (int) s, w, raster, false);
 		}
+		setMinMaxFromStatistics();
 	}
 
 	/**
@@ -1373,7 +1385,7 @@ public class GTIF extends RasterFileImpl {
 	 * @param raster
 	 */
 	@Override
-	public void loadHeightMap(Raster raster) {
+	public void loadHeightMap(RasterTarget raster) throws IOException {
 		load(raster);
 //		// TIFF is organized in tiles.
 //		if (isTiled()) {
@@ -1425,7 +1437,7 @@ public class GTIF extends RasterFileImpl {
 	 * unsigned short, byte, or unsigned byte.
 	 */
 	@Override
-	public void loadRGBA(Raster raster) {
+	public void loadRGBA(RasterTarget raster) {
 
 		// TIFF is organized in tiles.
 		if (isTiled()) {
@@ -1521,7 +1533,7 @@ public class GTIF extends RasterFileImpl {
 	 * @param raster
 	 */
 	@Override
-	public void loadGray(Raster raster) {
+	public void loadGray(RasterTarget raster) throws IOException {
 
 		// TIFF is organized in tiles.
 		if (isTiled()) {
@@ -1582,7 +1594,7 @@ public class GTIF extends RasterFileImpl {
 	 * @param raster
 	 *            the raster
 	 */
-	protected final void loadFromStrip(int n, int size, int w, Raster raster) {
+	protected final void loadFromStrip(int n, int size, int w, RasterTarget raster) {
 
 		// Allocate memory
 		byte[] bArray = new byte[size];
@@ -1611,8 +1623,9 @@ public class GTIF extends RasterFileImpl {
 	}
 
 	/**
-	 * Load data from a strip into a raster. This method converts to float or unsigned
-	 * byte depending on the value of 'gray'.
+	 * Load data from the strips into a raster. This method converts to float or
+	 * unsigned byte depending on the value of 'gray'. Strips are decoded and
+	 * converted by a pool of workers, each with its own handle to the file.
 	 * 
 	 * @param dataType
 	 *            the strip data type
@@ -1626,33 +1639,36 @@ public class GTIF extends RasterFileImpl {
 	 *            the raster
 	 * @param gray
 	 * 			  these are gray scale pixels (0-255), convert to unsigned byte
-	 */
-	protected final void loadFromStrip(DataType dataType, int n, int size, int w, Raster raster, boolean gray) {
-
-		// Allocate memory directly
-		ByteBuffer bbuf = ByteBuffer.allocateDirect(size);
-		bbuf.order(byteOrder);
-
-		// Read each strip and place it in the raster.
-		int row = 0; // row pixel of upper left corner of strip
-		int h = 0;
-		for (int i = 0; i < n; ++i) {
-			bbuf.rewind();
-			long as = readStrip(i, bbuf, size);
-			if (as == -1) {
-				throw new IllegalStateException(getTIFFError());
-			}
-			bbuf.rewind();
-			h = (int) (as / (w * bytesPerSample)); // compute the height of the
-													// strip
-			if (gray) {
-				raster.setAsGray(row, 0, rasterWidth, h, bbuf, dataType, minimum, maximum, missing);
-			} else {
-				raster.setAsFloat(row, 0, rasterWidth, h, bbuf, dataType, scalingFactor, minimum, maximum, missing);
-			}
-			row += h;
-			Thread.yield();
+	 * @throws IOException
+	 */
+	protected final void loadFromStrip(final DataType dataType, int n, final int size, final int w,
+		final RasterTarget raster, final boolean gray) throws IOException {
+		final int rowsPerStrip = getRowsPerStrip();
+		ArrayList<DecodeWorker> workers = new ArrayList<DecodeWorker>();
+		int threads = getDecodeThreads(n);
+		for (int t = 0; t < threads; ++t) {
+			workers.add(new GTIFWorker(size, gray) {
+				@Override
+				protected void decode(int index) {
+					bbuf.rewind();
+					long as = readStrip(tiffHandle, index, bbuf, size);
+					if (as == -1) {
+						throw new IllegalStateException(getTIFFError());
+					}
+					bbuf.rewind();
+					int row = index * rowsPerStrip;
+					int h = (int) (as / (w * bytesPerSample)); // compute the height
+																// of the strip
+					if (gray) {
+						raster.setAsGray(row, 0, rasterWidth, h, bbuf, dataType, minimum, maximum, missing);
+					} else {
+						raster.setAsFloat(row, 0, rasterWidth, h, bbuf, dataType, scalingFactor, minimum, maximum,
+							missing, stats);
+					}
+				}
+			});
 		}
+		decode(n, workers);
 	}
 
 	/**
@@ -1669,7 +1685,7 @@ public class GTIF extends RasterFileImpl {
 	 * @param raster
 	 *            the raster
 	 */
-	protected final void loadFromTile(int n, int size, int w, int h, Raster raster) {
+	protected final void loadFromTile(int n, int size, int w, int h, RasterTarget raster) {
 
 		// Allocate memory
 		ByteBuffer bbuf = ByteBuffer.allocateDirect(size);
@@ -1704,7 +1720,8 @@ public class GTIF extends RasterFileImpl {
 	}
 
 	/**
-	 * Load data from a tile into a raster.
+	 * Load data from the tiles into a raster. Tiles are decoded and converted
+	 * by a pool of workers, each with its own handle to the file.
 	 * 
 	 * @param dataType
 	 *            the tile data type
@@ -1720,40 +1737,76 @@ public class GTIF extends RasterFileImpl {
 	 *            the raster
 	 * @param gray
 	 *            convert pixels to gray scale unsigned bytes
+	 * @throws IOException
 	 */
-	protected final void loadFromTile(DataType dataType, int n, int size, int w, int h, Raster raster, boolean gray) {
+	protected final void loadFromTile(final DataType dataType, int n, final int size, final int w, final int h,
+		final RasterTarget raster, final boolean gray) throws IOException {
 		// System.err.println("GTIF.loadFromTile "+dataType+" "+gray+" "+byteOrder+" "+ByteOrder.nativeOrder()+" "+missing);
+		final int tilesAcross = (rasterWidth + w - 1) / w;
+		ArrayList<DecodeWorker> workers = new ArrayList<DecodeWorker>();
+		int threads = getDecodeThreads(n);
+		for (int t = 0; t < threads; ++t) {
+			workers.add(new GTIFWorker(size, gray) {
+				@Override
+				protected void decode(int index) {
+					bbuf.rewind();
+					long len = readTile(tiffHandle, index, bbuf, size);
+					if (len == -1) {
+						throw new IllegalStateException(getTIFFError());
+					}
+					bbuf.rewind();
+					// row and column pixels of the upper left corner of the tile
+					int row = (index / tilesAcross) * h;
+					int left = (index % tilesAcross) * w;
+					int wid = Math.min(w, rasterWidth - left);
+					int hgt = Math.min(h, rasterLength - row);
+					if (gray) {
+						raster.setAsGray(row, left, wid, hgt, bbuf, dataType, minimum, maximum, missing);
+					} else {
+						raster.setAsFloat(row, left, wid, hgt, bbuf, dataType, scalingFactor, minimum, maximum,
+							missing, stats);
+					}
+				}
+			});
+		}
+		decode(n, workers);
+	}
 
-		// Allocate memory
-		ByteBuffer bbuf = ByteBuffer.allocateDirect(size);
-		bbuf.order(byteOrder);
+	/**
+	 * Decodes strips or tiles with its own handle to the file and its own
+	 * buffer. Separate handles let libtiff decode on several threads at once.
+	 */
+	protected abstract class GTIFWorker extends DecodeWorker {
 
-		// Read each tile and place it in the full size raster.
-		int row = 0, left = 0, wid = 0, hgt = 0; // row and column pixels of the
-													// upper left corner of the
-													// tile
-		for (int i = 0; i < n; ++i) {
-			bbuf.rewind();
-			long len = readTile(i, bbuf, size);
-			if (len == -1) {
-				throw new IllegalStateException(getTIFFError());
-			}
-			bbuf.rewind();
-			wid = Math.min(w, rasterWidth - left);
-			hgt = Math.min(h, rasterLength - row);
-			if (gray) {
-				raster.setAsGray(row, left, wid, hgt, bbuf, dataType, minimum, maximum, missing);
-			} else {
-				raster.setAsFloat(row, left, wid, hgt, bbuf, dataType, scalingFactor, minimum, maximum, missing);
+		// Handle to the file for this worker
+		protected long tiffHandle;
+
+		// Buffer for one strip or tile
+		protected ByteBuffer bbuf;
+
+		public GTIFWorker(int size, boolean gray) {
+			bbuf = ByteBuffer.allocateDirect(size);
+			bbuf.order(byteOrder);
+			if (!gray) {
+				stats = new SampleStatistics();
 			}
-			left += w;
-			if (left >= rasterWidth) {
-				left = 0;
-				row += h;
+		}
+
+		@Override
+		protected void open() throws IOException {
+			tiffHandle = openTIFF(filePath, "r");
+			if (tiffHandle == 0) {
+				throw new IOException("Unable to open " + filePath + ": " + getTIFFError());
 			}
-			Thread.yield();
 		}
 
+		@Override
+		protected void close() {
+			if (tiffHandle != 0) {
+				closeTIFF(tiffHandle);
+				tiffHandle = 0;
+			}
+		}
 	}
 
 	/**
@@ -1768,6 +1821,9 @@ public class GTIF extends RasterFileImpl {
 	 */
 	protected final void computeMinMaxFromStrip(DataType dataType, int n, int size) {
 
+		if (setFixedMinMax()) {
+			return;
+		}
 		minimum = new double[samplesPerPixel];
 		maximum = new double[samplesPerPixel];
 		Arrays.fill(minimum, Double.MAX_VALUE);
@@ -1802,6 +1858,9 @@ public class GTIF extends RasterFileImpl {
 	 */
 	protected final void computeMinMaxFromTile(DataType dataType, int n, int size) {
 
+		if (setFixedMinMax()) {
+			return;
+		}
 		minimum = new double[samplesPerPixel];
 		maximum = new double[samplesPerPixel];
 		Arrays.fill(minimum, Double.MAX_VALUE);
@@ -0,0 +1,1122 @@
+package gov.nasa.arc.dert.raster.geotiff;
+
+import gov.nasa.arc.dert.raster.RasterTarget;
+import gov.nasa.arc.dert.util.MathUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Implementation of RasterFile interface for a GeoTIFF file that is read in
+ * Java instead of with libtiff. The file is mapped read-only, the image file
+ * directories and GeoKeys are parsed from the mapping, and strips and tiles
+ * are decoded from it (no compression, LZW, Deflate, or PackBits, with or
+ * without a predictor). The native methods of GTIF that read the file are
+ * replaced, so the interpretation of the tags is shared with GTIF. Each
+ * handle returned by openTIFF has its own decoder, so workers may decode
+ * strips and tiles at once. Reduced resolution images (overviews) in the file
+ * are available through readWindow. Writing is not supported.
+ *
+ */
+public class JavaGTIF extends GTIF {
+
+	public static final int TIFFTAG_NEWSUBFILETYPE = 254;
+	public static final int TIFFTAG_COMPRESSION = 259;
+	public static final int TIFFTAG_STRIPOFFSETS = 273;
+	public static final int TIFFTAG_PREDICTOR = 317;
+	public static final int TIFFTAG_COLORMAP = 320;
+	public static final int TIFFTAG_TILEOFFSETS = 324;
+	public static final int TIFFTAG_TILEBYTECOUNTS = 325;
+
+	public static final int COMPRESSION_NONE = 1;
+	public static final int COMPRESSION_LZW = 5;
+	public static final int COMPRESSION_ADOBE_DEFLATE = 8;
+	public static final int COMPRESSION_PACKBITS = 32773;
+	public static final int COMPRESSION_DEFLATE = 32946;
+
+	public static final int PREDICTOR_NONE = 1;
+	public static final int PREDICTOR_HORIZONTAL = 2;
+	public static final int PREDICTOR_FLOATINGPOINT = 3;
+
+	public static final int FILETYPE_REDUCEDIMAGE = 1;
+	public static final int FILETYPE_MASK = 4;
+
+	public static final int PHOTOMETRIC_MINISWHITE = 0;
+	public static final int PHOTOMETRIC_PALETTE = 3;
+
+	// Size of a mapped block of the file
+	public static final long MAP_SIZE = 1 << 30;
+
+	// Sizes of the TIFF field types, indexed by type
+	private static final int[] TYPE_SIZE = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4, 0, 0, 8, 8, 8 };
+
+	// The file mapped in blocks of MAP_SIZE bytes (null if not mapped)
+	protected MappedByteBuffer[] fileMap;
+
+	// File size
+	protected long fileSize;
+
+	// Byte order of the file
+	protected ByteOrder fileOrder;
+
+	// The full resolution image followed by its overviews
+	protected ArrayList<Directory> directories;
+
+	// Decoders for the open handles
+	protected HashMap<Long, Decoder> decoders = new HashMap<Long, Decoder>();
+	protected long handleCount;
+
+	// Last error
+	protected volatile String error = "";
+
+	/**
+	 * Constructor
+	 */
+	public JavaGTIF(String filePath, Properties properties) {
+		super(filePath, properties);
+	}
+
+	/**
+	 * Open a handle to the file, mapping it and reading the image file
+	 * directories if they have not been read. Only "r" access is supported.
+	 *
+	 * @param filePath
+	 *            the file location
+	 * @param access
+	 *            the file access
+	 * @return the handle (0 if unsuccessful)
+	 */
+	@Override
+	protected synchronized long openTIFF(String filePath, String access) {
+		if (!access.equals("r")) {
+			error = "Only read access is supported.";
+			return (0);
+		}
+		try {
+			mapFile();
+		} catch (Exception e) {
+			error = e.toString();
+			return (0);
+		}
+		handleCount++;
+		decoders.put(handleCount, new Decoder());
+		return (handleCount);
+	}
+
+	/**
+	 * Close a handle. The mapping is released when the last handle is closed.
+	 *
+	 * @param handle
+	 */
+	@Override
+	protected synchronized void closeTIFF(long handle) {
+		Decoder decoder = decoders.remove(handle);
+		if (decoder != null) {
+			decoder.dispose();
+		}
+		if (decoders.isEmpty()) {
+			fileMap = null;
+		}
+	}
+
+	protected synchronized Decoder getDecoder(long handle) {
+		Decoder decoder = decoders.get(handle);
+		if (decoder == null) {
+			throw new IllegalStateException("No open file.");
+		}
+		return (decoder);
+	}
+
+	@Override
+	protected String getTIFFError() {
+		return (error);
+	}
+
+	/**
+	 * Map the file and read the header and image file directories.
+	 *
+	 * @throws IOException
+	 */
+	protected void mapFile() throws IOException {
+		if (fileMap != null) {
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(filePath, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			fileSize = channel.size();
+			MappedByteBuffer[] map = new MappedByteBuffer[(int) ((fileSize + MAP_SIZE - 1) / MAP_SIZE)];
+			for (int i = 0; i < map.length; ++i) {
+				long offset = i * MAP_SIZE;
+				map[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAP_SIZE, fileSize - offset));
+			}
+			fileMap = map;
+		} finally {
+			raf.close();
+		}
+		if (directories == null) {
+			readDirectories();
+		}
+	}
+
+	/**
+	 * Get bytes of the file in the byte order of the file. Bytes within one
+	 * mapped block are a view of the file, otherwise they are copied.
+	 *
+	 * @param offset
+	 *            the file offset
+	 * @param len
+	 *            the number of bytes
+	 * @return a buffer positioned at the first byte
+	 * @throws IOException
+	 */
+	protected ByteBuffer getBytes(long offset, int len) throws IOException {
+		if ((offset < 0) || (offset + len > fileSize)) {
+			throw new IOException("Offset " + offset + " is past the end of " + filePath + ".");
+		}
+		int block = (int) (offset / MAP_SIZE);
+		int pos = (int) (offset % MAP_SIZE);
+		ByteBuffer buf;
+		if (pos + len <= MAP_SIZE) {
+			buf = fileMap[block].duplicate();
+			buf.position(pos);
+			buf.limit(pos + len);
+			buf = buf.slice();
+		} else {
+			byte[] bArray = new byte[len];
+			int n = 0;
+			while (n < len) {
+				ByteBuffer b = fileMap[block].duplicate();
+				b.position(pos);
+				int m = Math.min(len - n, b.remaining());
+				b.get(bArray, n, m);
+				n += m;
+				block++;
+				pos = 0;
+			}
+			buf = ByteBuffer.wrap(bArray);
+		}
+		buf.order(fileOrder);
+		return (buf);
+	}
+
+	/**
+	 * Read the header and the chain of image file directories. Classic TIFF
+	 * and BigTIFF are supported. The first directory is the full resolution
+	 * image, reduced resolution images after it are kept as overviews.
+	 *
+	 * @throws IOException
+	 */
+	protected void readDirectories() throws IOException {
+		fileOrder = ByteOrder.BIG_ENDIAN;
+		ByteBuffer buf = getBytes(0, 8);
+		if ((buf.get(0) == 'I') && (buf.get(1) == 'I')) {
+			fileOrder = ByteOrder.LITTLE_ENDIAN;
+		} else if ((buf.get(0) != 'M') || (buf.get(1) != 'M')) {
+			throw new IOException(filePath + " is not a TIFF file.");
+		}
+		buf.order(fileOrder);
+		boolean bigTiff = false;
+		long offset = 0;
+		switch (buf.getShort(2)) {
+		case 42:
+			offset = MathUtil.unsignedInt(buf.getInt(4));
+			break;
+		case 43:
+			bigTiff = true;
+			offset = getBytes(8, 8).getLong();
+			break;
+		default:
+			throw new IOException(filePath + " is not a TIFF file.");
+		}
+
+		directories = new ArrayList<Directory>();
+		HashMap<Long, Long> visited = new HashMap<Long, Long>();
+		while ((offset != 0) && !visited.containsKey(offset)) {
+			visited.put(offset, offset);
+			Directory dir = new Directory();
+			offset = dir.read(offset, bigTiff);
+			int subfileType = (int) dir.getValue(TIFFTAG_NEWSUBFILETYPE, 0);
+			if (directories.isEmpty()) {
+				directories.add(dir);
+			} else if (((subfileType & FILETYPE_REDUCEDIMAGE) != 0) && ((subfileType & FILETYPE_MASK) == 0)) {
+				directories.add(dir);
+			}
+		}
+		if (directories.isEmpty()) {
+			throw new IOException(filePath + " has no image.");
+		}
+	}
+
+	/**
+	 * Get the number of reduced resolution images (overviews) in the file.
+	 *
+	 * @return the number of overviews
+	 */
+	public int getOverviewCount() {
+		return (directories.size() - 1);
+	}
+
+	/**
+	 * Get the width of an image.
+	 *
+	 * @param level
+	 *            0 for the full resolution image, 1 for the first overview,
+	 *            etc.
+	 * @return the width in pixels
+	 */
+	public int getOverviewWidth(int level) {
+		return (directories.get(level).width);
+	}
+
+	/**
+	 * Get the length of an image.
+	 *
+	 * @param level
+	 *            0 for the full resolution image, 1 for the first overview,
+	 *            etc.
+	 * @return the length in pixels
+	 */
+	public int getOverviewLength(int level) {
+		return (directories.get(level).length);
+	}
+
+	@Override
+	protected int getTIFFFieldString(long handle, int tag, String[] value) {
+		Object val = directories.get(0).fields.get(tag);
+		if (!(val instanceof String) || ((String) val).isEmpty()) {
+			return (0);
+		}
+		value[0] = (String) val;
+		return (value[0].length());
+	}
+
+	@Override
+	protected int getTIFFFieldInt(long handle, int tag, int[] value) {
+		double[] val = directories.get(0).getValues(tag);
+		if (val == null) {
+			return (0);
+		}
+		int n = Math.min(val.length, value.length);
+		for (int i = 0; i < n; ++i) {
+			value[i] = (int) (long) val[i];
+		}
+		return (n);
+	}
+
+	@Override
+	protected int getTIFFFieldShort(long handle, int tag, short[] value) {
+		double[] val = directories.get(0).getValues(tag);
+		if (val == null) {
+			return (0);
+		}
+		int n = Math.min(val.length, value.length);
+		for (int i = 0; i < n; ++i) {
+			value[i] = (short) (long) val[i];
+		}
+		return (n);
+	}
+
+	@Override
+	protected int getTIFFFieldDouble(long handle, int tag, double[] value) {
+		double[] val = directories.get(0).getValues(tag);
+		if (val == null) {
+			return (0);
+		}
+		int n = Math.min(val.length, value.length);
+		System.arraycopy(val, 0, value, 0, n);
+		return (n);
+	}
+
+	@Override
+	protected int getTIFFFieldFloat(long handle, int tag, float[] value) {
+		double[] val = directories.get(0).getValues(tag);
+		if (val == null) {
+			return (0);
+		}
+		int n = Math.min(val.length, value.length);
+		for (int i = 0; i < n; ++i) {
+			value[i] = (float) val[i];
+		}
+		return (n);
+	}
+
+	@Override
+	protected boolean isTiled(long handle) {
+		return (directories.get(0).tiled);
+	}
+
+	@Override
+	protected int getNumberOfStrips(long handle) {
+		return (directories.get(0).offsets.length);
+	}
+
+	@Override
+	protected long getStripSize(long handle) {
+		return ((long) directories.get(0).chunkRows * directories.get(0).rowBytes);
+	}
+
+	@Override
+	protected int getNumberOfTiles(long handle) {
+		return (directories.get(0).offsets.length);
+	}
+
+	@Override
+	protected long getTileSize(long handle) {
+		return ((long) directories.get(0).chunkRows * directories.get(0).rowBytes);
+	}
+
+	/**
+	 * Decode a strip into a buffer in native byte order.
+	 *
+	 * @return the strip size or -1 for error
+	 */
+	@Override
+	protected long readStrip(long handle, int stripNumber, Buffer buffer, long size) {
+		return (readChunk(handle, stripNumber, buffer, size));
+	}
+
+	/**
+	 * Decode a tile into a buffer in native byte order.
+	 *
+	 * @return the tile size or -1 for error
+	 */
+	@Override
+	protected long readTile(long handle, int tileNumber, Buffer buffer, long size) {
+		return (readChunk(handle, tileNumber, buffer, size));
+	}
+
+	private long readChunk(long handle, int index, Buffer buffer, long size) {
+		Decoder decoder = getDecoder(handle);
+		try {
+			int n = decoder.decode(directories.get(0), index);
+			ByteBuffer bbuf = ((ByteBuffer) buffer).duplicate();
+			bbuf.clear();
+			n = (int) Math.min(n, Math.min(size, bbuf.capacity()));
+			bbuf.put(decoder.output, 0, n);
+			return (n);
+		} catch (Exception e) {
+			error = e.toString();
+			return (-1);
+		}
+	}
+
+	/**
+	 * Load the file into a raster of RGBA pixels. Gray scale, palette, RGB,
+	 * and RGBA images of 8 bit samples are supported.
+	 */
+	@Override
+	public void loadRGBA(final RasterTarget raster) {
+		final Directory dir = directories.get(0);
+		if ((dir.bitsPerSample != 8) || ((dir.samplesPerPixel > 1) && (dir.planarConfiguration != PLANARCONFIG_CONTIG))) {
+			throw new IllegalArgumentException("Cannot load RGBA from " + dir.bitsPerSample + " bit samples.");
+		}
+		final int[] colorMap = dir.getColorMap();
+		ArrayList<DecodeWorker> workers = new ArrayList<DecodeWorker>();
+		int threads = getDecodeThreads(dir.offsets.length);
+		for (int t = 0; t < threads; ++t) {
+			workers.add(new DecodeWorker() {
+				protected long tiffHandle;
+				protected Decoder decoder;
+				protected byte[] bArray;
+
+				@Override
+				protected void open() throws IOException {
+					tiffHandle = openTIFF(filePath, "r");
+					if (tiffHandle == 0) {
+						throw new IOException("Unable to open " + filePath + ": " + error);
+					}
+					decoder = getDecoder(tiffHandle);
+				}
+
+				@Override
+				protected void decode(int index) throws IOException {
+					decoder.decode(dir, index);
+					int row = dir.getRow(index);
+					int left = dir.getColumn(index);
+					int wid = Math.min(dir.chunkWidth, dir.width - left);
+					int hgt = Math.min(dir.chunkRows, dir.length - row);
+					if (bArray == null) {
+						bArray = new byte[dir.chunkWidth * dir.chunkRows * 4];
+					}
+					int spp = dir.samplesPerPixel;
+					int k = 0;
+					for (int r = 0; r < hgt; ++r) {
+						int j = r * dir.rowBytes;
+						for (int c = 0; c < wid; ++c) {
+							int v = decoder.output[j] & 0xff;
+							if (colorMap != null) {
+								bArray[k] = (byte) (colorMap[v] >> 8);
+								bArray[k + 1] = (byte) (colorMap[v + 256] >> 8);
+								bArray[k + 2] = (byte) (colorMap[v + 512] >> 8);
+								bArray[k + 3] = (byte) 255;
+							} else if (spp < 3) {
+								if (dir.photometric == PHOTOMETRIC_MINISWHITE) {
+									v = 255 - v;
+								}
+								bArray[k] = (byte) v;
+								bArray[k + 1] = (byte) v;
+								bArray[k + 2] = (byte) v;
+								bArray[k + 3] = (spp == 2) ? decoder.output[j + 1] : (byte) 255;
+							} else {
+								bArray[k] = decoder.output[j];
+								bArray[k + 1] = decoder.output[j + 1];
+								bArray[k + 2] = decoder.output[j + 2];
+								bArray[k + 3] = (spp > 3) ? decoder.output[j + 3] : (byte) 255;
+							}
+							j += spp;
+							k += 4;
+						}
+					}
+					raster.set(row, left, wid, hgt, bArray);
+				}
+
+				@Override
+				protected void close() {
+					if (tiffHandle != 0) {
+						closeTIFF(tiffHandle);
+						tiffHandle = 0;
+					}
+				}
+			});
+		}
+		try {
+			decode(dir.offsets.length, workers);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		if (minimum == null) {
+			minimum = new double[] { 0, 0, 0, 1 };
+		}
+		if (maximum == null) {
+			maximum = new double[] { 255, 255, 255, 255 };
+		}
+	}
+
+	/**
+	 * Read a window of the full resolution single band image converted to
+	 * float. Only the strips or tiles that overlap the window are decoded.
+	 * Missing values and samples outside the valid range are NaN and the
+	 * scaling factor is applied. Several threads may read windows at once.
+	 *
+	 * @param top
+	 *            the first row
+	 * @param left
+	 *            the first column
+	 * @param wid
+	 *            the window width
+	 * @param hgt
+	 *            the window height
+	 * @param store
+	 *            the window samples in row order (wid*hgt floats)
+	 * @throws IOException
+	 */
+	public void readWindow(int top, int left, int wid, int hgt, float[] store) throws IOException {
+		readWindow(0, top, left, wid, hgt, store);
+	}
+
+	/**
+	 * Read a window of a single band image or overview converted to float.
+	 *
+	 * @param level
+	 *            0 for the full resolution image, 1 for the first overview,
+	 *            etc.
+	 * @param top
+	 *            the first row
+	 * @param left
+	 *            the first column
+	 * @param wid
+	 *            the window width
+	 * @param hgt
+	 *            the window height
+	 * @param store
+	 *            the window samples in row order (wid*hgt floats)
+	 * @throws IOException
+	 */
+	public void readWindow(int level, int top, int left, int wid, int hgt, float[] store) throws IOException {
+		if (samplesPerPixel != 1) {
+			throw new IllegalStateException("Cannot read a window of an image with " + samplesPerPixel + " bands.");
+		}
+		long handle = openTIFF(filePath, "r");
+		if (handle == 0) {
+			throw new IOException("Unable to open " + filePath + ": " + error);
+		}
+		try {
+			Decoder decoder = getDecoder(handle);
+			Directory dir = directories.get(level);
+			if ((top < 0) || (left < 0) || (top + hgt > dir.length) || (left + wid > dir.width)) {
+				throw new IllegalArgumentException("Window is outside of the image.");
+			}
+			double lo = (minimum == null) ? Double.NEGATIVE_INFINITY : minimum[0];
+			double hi = (maximum == null) ? Double.POSITIVE_INFINITY : maximum[0];
+			int across = (dir.width + dir.chunkWidth - 1) / dir.chunkWidth;
+			for (int cr = top / dir.chunkRows; cr <= (top + hgt - 1) / dir.chunkRows; ++cr) {
+				for (int cc = left / dir.chunkWidth; cc <= (left + wid - 1) / dir.chunkWidth; ++cc) {
+					int index = cr * across + cc;
+					decoder.decode(dir, index);
+					ByteBuffer buf = ByteBuffer.wrap(decoder.output).order(ByteOrder.nativeOrder());
+					int row = dir.getRow(index);
+					int col = dir.getColumn(index);
+					int r0 = Math.max(top, row);
+					int r1 = Math.min(top + hgt, row + dir.chunkRows);
+					int c0 = Math.max(left, col);
+					int c1 = Math.min(left + wid, col + dir.chunkWidth);
+					for (int r = r0; r < r1; ++r) {
+						int k = (r - top) * wid + (c0 - left);
+						int j = (r - row) * dir.rowBytes + (c0 - col) * bytesPerSample;
+						for (int c = c0; c < c1; ++c) {
+							float val = getSample(buf, j);
+							if (Float.isNaN(val) || (val == missing) || (val < lo) || (val > hi)) {
+								store[k] = Float.NaN;
+							} else {
+								store[k] = val * scalingFactor;
+							}
+							j += bytesPerSample;
+							k++;
+						}
+					}
+				}
+			}
+		} finally {
+			closeTIFF(handle);
+		}
+	}
+
+	private float getSample(ByteBuffer buf, int j) {
+		switch (dataType) {
+		case Float:
+			return (buf.getFloat(j));
+		case Double:
+			return ((float) buf.getDouble(j));
+		case Integer:
+			return (buf.getInt(j));
+		case UnsignedInteger:
+			return (MathUtil.unsignedInt(buf.getInt(j)));
+		case Short:
+			return (buf.getShort(j));
+		case UnsignedShort:
+			return (MathUtil.unsignedShort(buf.getShort(j)));
+		case Byte:
+			return (buf.get(j));
+		case UnsignedByte:
+			return (MathUtil.unsignedByte(buf.get(j)));
+		default:
+			throw new IllegalStateException("Cannot read a window of " + dataType + " data.");
+		}
+	}
+
+	/**
+	 * The fields of an image file directory and the layout of its strips or
+	 * tiles.
+	 */
+	protected class Directory {
+
+		// Field values by tag, a String for ASCII fields, otherwise double[]
+		protected HashMap<Integer, Object> fields = new HashMap<Integer, Object>();
+
+		// Image attributes
+		protected int width, length, bitsPerSample, samplesPerPixel, sampleFormat, planarConfiguration,
+			compression, predictor, photometric;
+
+		// Strip or tile layout (a strip is as wide as the image)
+		protected boolean tiled;
+		protected int chunkWidth, chunkRows, chunkSamples, rowBytes, chunksPerPlane;
+		protected long[] offsets, byteCounts;
+
+		/**
+		 * Read the directory at an offset.
+		 *
+		 * @param offset
+		 * @param bigTiff
+		 * @return the offset of the next directory
+		 * @throws IOException
+		 */
+		protected long read(long offset, boolean bigTiff) throws IOException {
+			int entrySize = bigTiff ? 20 : 12;
+			int count = bigTiff ? (int) getBytes(offset, 8).getLong() : MathUtil.unsignedShort(getBytes(offset, 2)
+				.getShort());
+			offset += bigTiff ? 8 : 2;
+			ByteBuffer buf = getBytes(offset, count * entrySize + (bigTiff ? 8 : 4));
+			for (int i = 0; i < count; ++i) {
+				int p = i * entrySize;
+				int tag = MathUtil.unsignedShort(buf.getShort(p));
+				int type = MathUtil.unsignedShort(buf.getShort(p + 2));
+				long n = bigTiff ? buf.getLong(p + 4) : MathUtil.unsignedInt(buf.getInt(p + 4));
+				if ((type >= TYPE_SIZE.length) || (TYPE_SIZE[type] == 0) || (n > Integer.MAX_VALUE / 8)) {
+					continue;
+				}
+				int len = (int) n * TYPE_SIZE[type];
+				ByteBuffer val;
+				if (len <= (bigTiff ? 8 : 4)) {
+					buf.position(p + (bigTiff ? 12 : 8));
+					val = buf.slice().order(fileOrder);
+				} else {
+					val = getBytes(bigTiff ? buf.getLong(p + 12) : MathUtil.unsignedInt(buf.getInt(p + 8)), len);
+				}
+				fields.put(tag, readValue(val, type, (int) n));
+			}
+			long next = bigTiff ? buf.getLong(count * entrySize) : MathUtil.unsignedInt(buf.getInt(count
+				* entrySize));
+
+			width = (int) getValue(TIFFTAG_IMAGEWIDTH, 0);
+			length = (int) getValue(TIFFTAG_IMAGELENGTH, 0);
+			bitsPerSample = (int) getValue(TIFFTAG_BITSPERSAMPLE, 1);
+			samplesPerPixel = (int) getValue(TIFFTAG_SAMPLESPERPIXEL, 1);
+			sampleFormat = (int) getValue(TIFFTAG_SAMPLEFORMAT, SAMPLEFORMAT_UINT);
+			planarConfiguration = (int) getValue(TIFFTAG_PLANARCONFIG, PLANARCONFIG_CONTIG);
+			compression = (int) getValue(TIFFTAG_COMPRESSION, COMPRESSION_NONE);
+			predictor = (int) getValue(TIFFTAG_PREDICTOR, PREDICTOR_NONE);
+			photometric = (int) getValue(TIFFTAG_PHOTOMETRIC, -1);
+			tiled = fields.containsKey(TIFFTAG_TILEOFFSETS);
+			if (tiled) {
+				chunkWidth = (int) getValue(TIFFTAG_TILEWIDTH, 0);
+				chunkRows = (int) getValue(TIFFTAG_TILELENGTH, 0);
+				offsets = getOffsets(TIFFTAG_TILEOFFSETS);
+				byteCounts = getOffsets(TIFFTAG_TILEBYTECOUNTS);
+			} else {
+				chunkWidth = width;
+				chunkRows = (int) Math.min(getValue(TIFFTAG_ROWSPERSTRIP, length), length);
+				fields.put(TIFFTAG_ROWSPERSTRIP, new double[] { chunkRows });
+				offsets = getOffsets(TIFFTAG_STRIPOFFSETS);
+				byteCounts = getOffsets(TIFFTAG_STRIPBYTECOUNTS);
+			}
+			if ((width <= 0) || (length <= 0) || (chunkWidth <= 0) || (chunkRows <= 0) || (offsets == null)
+				|| (byteCounts == null) || (byteCounts.length < offsets.length)) {
+				throw new IOException(filePath + " has an incomplete image file directory.");
+			}
+			chunkSamples = (planarConfiguration == PLANARCONFIG_CONTIG) ? samplesPerPixel : 1;
+			rowBytes = (int) (((long) chunkWidth * chunkSamples * bitsPerSample + 7) / 8);
+			chunksPerPlane = ((length + chunkRows - 1) / chunkRows) * ((width + chunkWidth - 1) / chunkWidth);
+			return (next);
+		}
+
+		private Object readValue(ByteBuffer buf, int type, int n) {
+			if (type == 2) {
+				byte[] bArray = new byte[n];
+				buf.get(bArray);
+				int len = 0;
+				while ((len < n) && (bArray[len] != 0)) {
+					len++;
+				}
+				return (new String(bArray, 0, len));
+			}
+			double[] val = new double[n];
+			for (int i = 0; i < n; ++i) {
+				switch (type) {
+				case 1:
+				case 7:
+					val[i] = MathUtil.unsignedByte(buf.get());
+					break;
+				case 6:
+					val[i] = buf.get();
+					break;
+				case 3:
+					val[i] = MathUtil.unsignedShort(buf.getShort());
+					break;
+				case 8:
+					val[i] = buf.getShort();
+					break;
+				case 4:
+				case 13:
+					val[i] = MathUtil.unsignedInt(buf.getInt());
+					break;
+				case 9:
+					val[i] = buf.getInt();
+					break;
+				case 5:
+					val[i] = (double) MathUtil.unsignedInt(buf.getInt()) / MathUtil.unsignedInt(buf.getInt());
+					break;
+				case 10:
+					val[i] = (double) buf.getInt() / buf.getInt();
+					break;
+				case 11:
+					val[i] = buf.getFloat();
+					break;
+				case 12:
+					val[i] = buf.getDouble();
+					break;
+				default:
+					val[i] = buf.getLong();
+					break;
+				}
+			}
+			return (val);
+		}
+
+		/**
+		 * Get the values of a numeric field, with the default of libtiff for
+		 * some of the fields that are not present.
+		 *
+		 * @param tag
+		 * @return the values or null
+		 */
+		protected double[] getValues(int tag) {
+			Object val = fields.get(tag);
+			if (val instanceof double[]) {
+				return ((double[]) val);
+			}
+			switch (tag) {
+			case TIFFTAG_NEWSUBFILETYPE:
+				return (new double[] { 0 });
+			case TIFFTAG_BITSPERSAMPLE:
+			case TIFFTAG_SAMPLESPERPIXEL:
+			case TIFFTAG_SAMPLEFORMAT:
+			case TIFFTAG_PLANARCONFIG:
+			case TIFFTAG_COMPRESSION:
+			case TIFFTAG_PREDICTOR:
+			case TIFFTAG_FILLORDER:
+				return (new double[] { 1 });
+			case TIFFTAG_MINSAMPLEVALUE:
+				return (new double[] { 0 });
+			case TIFFTAG_MAXSAMPLEVALUE:
+				return (new double[] { (1L << bitsPerSample) - 1 });
+			default:
+				return (null);
+			}
+		}
+
+		protected double getValue(int tag, double defaultValue) {
+			Object val = fields.get(tag);
+			if ((val instanceof double[]) && (((double[]) val).length > 0)) {
+				return (((double[]) val)[0]);
+			}
+			return (defaultValue);
+		}
+
+		private long[] getOffsets(int tag) {
+			Object val = fields.get(tag);
+			if (!(val instanceof double[])) {
+				return (null);
+			}
+			double[] d = (double[]) val;
+			long[] l = new long[d.length];
+			for (int i = 0; i < d.length; ++i) {
+				l[i] = (long) d[i];
+			}
+			return (l);
+		}
+
+		/**
+		 * Get the palette of a palette color image as red, green, and blue
+		 * values of 256 entries each.
+		 *
+		 * @return the palette or null if this is not a palette color image
+		 */
+		protected int[] getColorMap() {
+			if (photometric != PHOTOMETRIC_PALETTE) {
+				return (null);
+			}
+			double[] val = getValues(TIFFTAG_COLORMAP);
+			if ((val == null) || (val.length < 768)) {
+				throw new IllegalArgumentException("Palette color image has no color map.");
+			}
+			int[] colorMap = new int[768];
+			for (int i = 0; i < 768; ++i) {
+				colorMap[i] = (int) val[i];
+			}
+			return (colorMap);
+		}
+
+		/**
+		 * Get the first row of a strip or tile.
+		 */
+		protected int getRow(int index) {
+			return (((index % chunksPerPlane) / ((width + chunkWidth - 1) / chunkWidth)) * chunkRows);
+		}
+
+		/**
+		 * Get the first column of a strip or tile.
+		 */
+		protected int getColumn(int index) {
+			return (((index % chunksPerPlane) % ((width + chunkWidth - 1) / chunkWidth)) * chunkWidth);
+		}
+
+		/**
+		 * Get the size of a decoded strip or tile. The last strip may be
+		 * short, tiles are always full size.
+		 */
+		protected int getChunkSize(int index) {
+			if (tiled) {
+				return (chunkRows * rowBytes);
+			}
+			return (Math.min(chunkRows, length - getRow(index)) * rowBytes);
+		}
+	}
+
+	/**
+	 * Decodes strips and tiles. Each decoder has its own buffers, so one is
+	 * needed for each thread.
+	 */
+	protected class Decoder {
+
+		// Decoded strip or tile in native byte order
+		protected byte[] output = new byte[0];
+
+		// Encoded strip or tile
+		protected byte[] input = new byte[0];
+
+		// Row buffer for the floating point predictor
+		protected byte[] rowBuffer = new byte[0];
+
+		// Deflate decoder
+		protected Inflater inflater;
+
+		// LZW string table
+		protected int[] prefix;
+		protected byte[] suffix, first;
+		protected int[] stringLength;
+
+		/**
+		 * Decode a strip or tile into the output array.
+		 *
+		 * @param dir
+		 *            the directory of the image
+		 * @param index
+		 *            the strip or tile number
+		 * @return the number of bytes
+		 * @throws IOException
+		 */
+		public int decode(Directory dir, int index) throws IOException {
+			if ((index < 0) || (index >= dir.offsets.length)) {
+				throw new IllegalArgumentException("No strip or tile " + index + ".");
+			}
+			int size = dir.getChunkSize(index);
+			if (output.length < size) {
+				output = new byte[size];
+			}
+			int len = (int) Math.min(dir.byteCounts[index], fileSize - dir.offsets[index]);
+			ByteBuffer buf = getBytes(dir.offsets[index], Math.max(len, 0));
+			int n = 0;
+			switch (dir.compression) {
+			case COMPRESSION_NONE:
+				n = Math.min(len, size);
+				buf.get(output, 0, n);
+				break;
+			case COMPRESSION_LZW:
+				n = decodeLZW(getInput(buf, len), len, size);
+				break;
+			case COMPRESSION_ADOBE_DEFLATE:
+			case COMPRESSION_DEFLATE:
+				n = decodeDeflate(getInput(buf, len), len, size);
+				break;
+			case COMPRESSION_PACKBITS:
+				n = decodePackBits(getInput(buf, len), len, size);
+				break;
+			default:
+				throw new IOException("Compression " + dir.compression + " is not supported.");
+			}
+			Arrays.fill(output, n, size, (byte) 0);
+
+			int sampleBytes = dir.bitsPerSample / 8;
+			int rows = size / dir.rowBytes;
+			if (dir.predictor == PREDICTOR_FLOATINGPOINT) {
+				for (int r = 0; r < rows; ++r) {
+					undoFloatingPointPredictor(r * dir.rowBytes, dir.rowBytes, sampleBytes, dir.chunkSamples);
+				}
+			} else {
+				if ((sampleBytes > 1) && (fileOrder != ByteOrder.nativeOrder())) {
+					swap(size, sampleBytes);
+				}
+				if (dir.predictor == PREDICTOR_HORIZONTAL) {
+					ByteBuffer bbuf = ByteBuffer.wrap(output).order(ByteOrder.nativeOrder());
+					for (int r = 0; r < rows; ++r) {
+						undoHorizontalPredictor(bbuf, r * dir.rowBytes, dir.rowBytes, sampleBytes, dir.chunkSamples);
+					}
+				}
+			}
+			return (size);
+		}
+
+		private byte[] getInput(ByteBuffer buf, int len) {
+			if (input.length < len) {
+				input = new byte[len];
+			}
+			buf.get(input, 0, len);
+			return (input);
+		}
+
+		private int decodeDeflate(byte[] in, int len, int size) throws IOException {
+			if (inflater == null) {
+				inflater = new Inflater();
+			}
+			inflater.reset();
+			inflater.setInput(in, 0, len);
+			int n = 0;
+			try {
+				while ((n < size) && !inflater.finished()) {
+					int m = inflater.inflate(output, n, size - n);
+					if ((m == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					n += m;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt Deflate data in " + filePath + ".", e);
+			}
+			return (n);
+		}
+
+		private int decodePackBits(byte[] in, int len, int size) {
+			int ip = 0, op = 0;
+			while ((op < size) && (ip < len)) {
+				int n = in[ip++];
+				if (n >= 0) {
+					n = Math.min(Math.min(n + 1, len - ip), size - op);
+					System.arraycopy(in, ip, output, op, n);
+					ip += n;
+					op += n;
+				} else if ((n != -128) && (ip < len)) {
+					n = Math.min(1 - n, size - op);
+					Arrays.fill(output, op, op + n, in[ip++]);
+					op += n;
+				}
+			}
+			return (op);
+		}
+
+		private int decodeLZW(byte[] in, int len, int size) throws IOException {
+			if (prefix == null) {
+				prefix = new int[4096];
+				suffix = new byte[4096];
+				first = new byte[4096];
+				stringLength = new int[4096];
+				for (int i = 0; i < 256; ++i) {
+					suffix[i] = (byte) i;
+					first[i] = (byte) i;
+					stringLength[i] = 1;
+				}
+			}
+			int ip = 0, op = 0;
+			int bits = 0, bitCount = 0;
+			int codeLength = 9, nextCode = 258, old = -1;
+			while (op < size) {
+				while (bitCount < codeLength) {
+					if (ip >= len) {
+						return (op);
+					}
+					bits = (bits << 8) | (in[ip++] & 0xff);
+					bitCount += 8;
+				}
+				int code = (bits >>> (bitCount - codeLength)) & ((1 << codeLength) - 1);
+				bitCount -= codeLength;
+				if (code == 257) {
+					break;
+				}
+				if (code == 256) {
+					codeLength = 9;
+					nextCode = 258;
+					old = -1;
+					continue;
+				}
+				if (old == -1) {
+					if (code > 255) {
+						throw new IOException("Corrupt LZW data in " + filePath + ".");
+					}
+					output[op++] = (byte) code;
+					old = code;
+					continue;
+				}
+				if (code > nextCode) {
+					throw new IOException("Corrupt LZW data in " + filePath + ".");
+				}
+				if (nextCode < 4096) {
+					prefix[nextCode] = old;
+					first[nextCode] = first[old];
+					suffix[nextCode] = (code == nextCode) ? first[old] : first[code];
+					stringLength[nextCode] = stringLength[old] + 1;
+					nextCode++;
+					if ((nextCode + 1 >= (1 << codeLength)) && (codeLength < 12)) {
+						codeLength++;
+					}
+				}
+				op = writeString(code, op, size);
+				old = code;
+			}
+			return (op);
+		}
+
+		private int writeString(int code, int op, int size) {
+			int n = stringLength[code];
+			for (int i = n - 1; i >= 0; --i) {
+				if (op + i < size) {
+					output[op + i] = suffix[code];
+				}
+				code = prefix[code];
+			}
+			return (Math.min(op + n, size));
+		}
+
+		private void swap(int size, int sampleBytes) {
+			for (int i = 0; i + sampleBytes <= size; i += sampleBytes) {
+				for (int j = 0; j < sampleBytes / 2; ++j) {
+					byte b = output[i + j];
+					output[i + j] = output[i + sampleBytes - 1 - j];
+					output[i + sampleBytes - 1 - j] = b;
+				}
+			}
+		}
+
+		private void undoHorizontalPredictor(ByteBuffer bbuf, int start, int rowBytes, int sampleBytes, int stride) {
+			int unit = Math.max(sampleBytes, 1);
+			int step = stride * unit;
+			for (int i = start + step; i + unit <= start + rowBytes; i += unit) {
+				switch (sampleBytes) {
+				case 2:
+					bbuf.putShort(i, (short) (bbuf.getShort(i) + bbuf.getShort(i - step)));
+					break;
+				case 4:
+					bbuf.putInt(i, bbuf.getInt(i) + bbuf.getInt(i - step));
+					break;
+				case 8:
+					bbuf.putLong(i, bbuf.getLong(i) + bbuf.getLong(i - step));
+					break;
+				default:
+					output[i] += output[i - step];
+					break;
+				}
+			}
+		}
+
+		private void undoFloatingPointPredictor(int start, int rowBytes, int sampleBytes, int stride) {
+			for (int i = start + stride; i < start + rowBytes; ++i) {
+				output[i] += output[i - stride];
+			}
+			// the bytes of the samples are stored most significant first in
+			// separate runs
+			if (rowBuffer.length < rowBytes) {
+				rowBuffer = new byte[rowBytes];
+			}
+			int count = rowBytes / sampleBytes;
+			boolean bigEndian = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+			for (int i = 0; i < count; ++i) {
+				for (int b = 0; b < sampleBytes; ++b) {
+					int plane = bigEndian ? b : sampleBytes - b - 1;
+					rowBuffer[i * sampleBytes + b] = output[start + plane * count + i];
+				}
+			}
+			System.arraycopy(rowBuffer, 0, output, start, rowBytes);
+		}
+
+		/**
+		 * Release the decoder
+		 */
+		public void dispose() {
+			if (inflater != null) {
+				inflater.end();
+				inflater = null;
+			}
+		}
+	}
+}
@@ -3,7 +3,10 @@ package gov.nasa.arc.dert.raster.pds;
 import gov.nasa.arc.dert.raster.ProjectionInfo;
 import gov.nasa.arc.dert.raster.Raster;
 import gov.nasa.arc.dert.raster.RasterFileImpl;
+import gov.nasa.arc.dert.raster.RasterTarget;
+import gov.nasa.arc.dert.raster.SampleStatistics;
 import gov.nasa.arc.dert.raster.pds.LabelParser.KeyValue;
+import gov.nasa.arc.dert.util.MathUtil;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
@@ -13,8 +16,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -33,9 +39,16 @@ public class PDS extends RasterFileImpl {
 	// Map of metadata elements
 	protected HashMap<String, Object> metadata;
 
-	// Input stream from raster file
+	// Input stream for the label
 	protected FileImageInputStream iStream;
 
+	// Image data mapped from the data file in blocks of whole rows
+	protected MappedByteBuffer[] imageMap;
+
+	// Bytes in a row of the image and rows in a mapped block
+	protected long rowBytes;
+	protected int rowsPerMap;
+
 	// Start address of PDS image data
 	protected long imageStart;
 
@@ -149,6 +162,11 @@ public class PDS extends RasterFileImpl {
 		if (type.equals("PC_REAL")) {
 			dataType = DataType.Float;
 			bytesPerSample = 4;
+			byteOrder = ByteOrder.LITTLE_ENDIAN;
+		} else if (type.equals("IEEE_REAL")) {
+			dataType = DataType.Float;
+			bytesPerSample = 4;
+			byteOrder = ByteOrder.BIG_ENDIAN;
 		} else {
 			boolean unsigned = type.contains("UNSIGNED");
 			if (type.startsWith("LSB_")) {
@@ -451,8 +469,204 @@ public class PDS extends RasterFileImpl {
 				outputStream.close();
 				outputStream = null;
 			}
-		} else if (iStream != null) {
-			iStream.close();
+		} else {
+			if (iStream != null) {
+				iStream.close();
+			}
+			// mapped blocks are unmapped when collected
+			imageMap = null;
+		}
+	}
+
+	/**
+	 * Map the image object of the data file into memory, read only. Blocks are
+	 * whole rows and, when rows are small enough, a multiple of STRIP_ROWS
+	 * rows, so a strip never spans two blocks.
+	 * 
+	 * @throws IOException
+	 */
+	protected void mapImage() throws IOException {
+		if (imageMap != null) {
+			return;
+		}
+		rowBytes = (long) rasterWidth * samplesPerPixel * bytesPerSample;
+		if (rowBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Cannot load PDS file with row size > " + Integer.MAX_VALUE + ".");
+		}
+		rowsPerMap = (int) Math.min(rasterLength, Integer.MAX_VALUE / rowBytes);
+		if (rowsPerMap >= STRIP_ROWS) {
+			rowsPerMap -= rowsPerMap % STRIP_ROWS;
+		}
+		RandomAccessFile file = new RandomAccessFile(dataFilePath, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long fileSize = channel.size();
+			MappedByteBuffer[] map = new MappedByteBuffer[(rasterLength + rowsPerMap - 1) / rowsPerMap];
+			for (int i = 0; i < map.length; ++i) {
+				long start = imageStart + i * rowsPerMap * rowBytes;
+				long size = Math.min(rowsPerMap, rasterLength - i * rowsPerMap) * rowBytes;
+				// a short file maps only what is there
+				size = Math.max(0, Math.min(size, fileSize - start));
+				map[i] = channel.map(FileChannel.MapMode.READ_ONLY, Math.min(start, fileSize), size);
+			}
+			imageMap = map;
+		} finally {
+			// the mapping remains valid after the file is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Get the number of rows in a strip that lies within one mapped block
+	 * 
+	 * @return the number of rows
+	 * @throws IOException
+	 */
+	protected int getStripRows() throws IOException {
+		mapImage();
+		return (Math.min(STRIP_ROWS, rowsPerMap));
+	}
+
+	/**
+	 * Get rows of the image in the byte order of the file. Rows within one
+	 * mapped block are a view of the file, otherwise they are copied. Bytes
+	 * past the end of a short file are 0. Several threads may get rows at
+	 * once.
+	 * 
+	 * @param row
+	 *            the first row
+	 * @param rows
+	 *            the number of rows
+	 * @return a buffer positioned at the first row
+	 * @throws IOException
+	 */
+	public ByteBuffer getImageRows(int row, int rows) throws IOException {
+		mapImage();
+		int block = row / rowsPerMap;
+		long start = (row % rowsPerMap) * rowBytes;
+		long len = rows * rowBytes;
+		ByteBuffer map = imageMap[block];
+		if (start + len <= map.capacity()) {
+			ByteBuffer buf = map.duplicate();
+			buf.position((int) start);
+			buf.limit((int) (start + len));
+			return (buf.slice().order(byteOrder));
+		}
+		byte[] bArray = new byte[(int) len];
+		readImage(row * rowBytes, bArray, 0, bArray.length);
+		return (ByteBuffer.wrap(bArray).order(byteOrder));
+	}
+
+	/**
+	 * Copy bytes of the image object into an array. Bytes past the end of a
+	 * short file are 0.
+	 * 
+	 * @param offset
+	 *            the offset from the start of the image object
+	 * @param bArray
+	 * @param pos
+	 *            the start position in the array
+	 * @param len
+	 *            the number of bytes
+	 * @throws IOException
+	 */
+	protected void readImage(long offset, byte[] bArray, int pos, int len) throws IOException {
+		mapImage();
+		long blockBytes = rowsPerMap * rowBytes;
+		while (len > 0) {
+			int block = (int) (offset / blockBytes);
+			if (block >= imageMap.length) {
+				Arrays.fill(bArray, pos, pos + len, (byte) 0);
+				return;
+			}
+			int start = (int) (offset % blockBytes);
+			int n = (int) Math.min(len, blockBytes - start);
+			ByteBuffer buf = imageMap[block].duplicate();
+			int m = Math.max(0, Math.min(n, buf.capacity() - start));
+			if (m > 0) {
+				buf.position(start);
+				buf.get(bArray, pos, m);
+			}
+			Arrays.fill(bArray, pos + m, pos + n, (byte) 0);
+			offset += n;
+			pos += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Read a window of a single band image converted to float, reading only
+	 * the rows of the window from the mapped file. Missing values and samples
+	 * outside the valid range are NaN and the scaling factor is applied.
+	 * Several threads may read windows at once.
+	 * 
+	 * @param top
+	 *            the first row
+	 * @param left
+	 *            the first column
+	 * @param wid
+	 *            the window width
+	 * @param hgt
+	 *            the window height
+	 * @param store
+	 *            the window samples in row order (wid*hgt floats)
+	 * @throws IOException
+	 */
+	public void readWindow(int top, int left, int wid, int hgt, float[] store) throws IOException {
+		if (samplesPerPixel != 1) {
+			throw new IllegalStateException("Cannot read a window of an image with " + samplesPerPixel + " bands.");
+		}
+		double lo = (minimum == null) ? Double.NEGATIVE_INFINITY : minimum[0];
+		double hi = (maximum == null) ? Double.POSITIVE_INFINITY : maximum[0];
+		for (int r = 0; r < hgt; ++r) {
+			ByteBuffer buf = getImageRows(top + r, 1);
+			buf.position(left * bytesPerSample);
+			int k = r * wid;
+			switch (dataType) {
+			case Float:
+				buf.asFloatBuffer().get(store, k, wid);
+				break;
+			case Integer:
+				for (int c = 0; c < wid; ++c) {
+					store[k + c] = buf.getInt();
+				}
+				break;
+			case UnsignedInteger:
+				for (int c = 0; c < wid; ++c) {
+					store[k + c] = MathUtil.unsignedInt(buf.getInt());
+				}
+				break;
+			case Short:
+				for (int c = 0; c < wid; ++c) {
+					store[k + c] = buf.getShort();
+				}
+				break;
+			case UnsignedShort:
+				for (int c = 0; c < wid; ++c) {
+					store[k + c] = MathUtil.unsignedShort(buf.getShort());
+				}
+				break;
+			case Byte:
+				for (int c = 0; c < wid; ++c) {
+					store[k + c] = buf.get();
+				}
+				break;
+			case UnsignedByte:
+				for (int c = 0; c < wid; ++c) {
+					store[k + c] = MathUtil.unsignedByte(buf.get());
+				}
+				break;
+			default:
+				throw new IllegalStateException("Cannot read a window of " + dataType + " data.");
+			}
+			for (int c = k; c < k + wid; ++c) {
+				float val = store[c];
+				if (Float.isNaN(val) || (val == missing) || (val < lo) || (val > hi)) {
+					store[c] = Float.NaN;
+				} else {
+					store[c] = val * scalingFactor;
+				}
+			}
 		}
 	}
 
@@ -462,9 +676,9 @@ public class PDS extends RasterFileImpl {
 	 * @param raster
 	 */
 	@Override
-	public void load(Raster raster) throws IOException {
+	public void load(RasterTarget raster) throws IOException {
 
-		int stripHeight = Math.min(STRIP_ROWS, rasterLength);
+		int stripHeight = getStripRows();
 		int stripWidth = rasterWidth * samplesPerPixel;
 		int stripSize = stripWidth * stripHeight * bytesPerSample;
 		int numStrips = (int) Math.ceil((double) rasterLength / stripHeight);
@@ -474,11 +688,10 @@ public class PDS extends RasterFileImpl {
 			throw new IllegalArgumentException("Cannot load PDS file with strip size > " + Integer.MAX_VALUE + ".");
 		}
 
-		if ((minimum == null) || (maximum == null)) {
-			computeMinMaxFromStrip(dataType, numStrips, stripSize, stripWidth, stripHeight);
-		}
-
+		// The minimum and maximum are found while loading
+		statistics = new SampleStatistics();
 		loadFromStrip(dataType, numStrips, stripSize, stripWidth, stripHeight, raster, false);
+		setMinMaxFromStatistics();
 	}
 
 	/**
@@ -487,9 +700,9 @@ public class PDS extends RasterFileImpl {
 	 * @param raster
 	 */
 	@Override
-	public void loadHeightMap(Raster raster) throws IOException {
+	public void loadHeightMap(RasterTarget raster) throws IOException {
 
-		int stripHeight = Math.min(STRIP_ROWS, rasterLength);
+		int stripHeight = getStripRows();
 		int stripWidth = rasterWidth * samplesPerPixel;
 		int stripSize = stripWidth * stripHeight * bytesPerSample;
 		int numStrips = (int) Math.ceil((double) rasterLength / stripHeight);
@@ -499,11 +712,10 @@ public class PDS extends RasterFileImpl {
 			throw new IllegalArgumentException("Cannot load PDS file with strip size > " + Integer.MAX_VALUE + ".");
 		}
 
-		if ((minimum == null) || (maximum == null)) {
-			computeMinMaxFromStrip(dataType, numStrips, stripSize, stripWidth, stripHeight);
-		}
-
+		// The minimum and maximum are found while loading
+		statistics = new SampleStatistics();
 		loadFromStrip(dataType, numStrips, stripSize, stripWidth, stripHeight, raster, false);
+		setMinMaxFromStatistics();
 	}
 
 	/**
@@ -512,9 +724,9 @@ public class PDS extends RasterFileImpl {
 	 * @param raster
 	 */
 	@Override
-	public void loadGray(Raster raster) throws IOException {
+	public void loadGray(RasterTarget raster) throws IOException {
 
-		int stripHeight = Math.min(STRIP_ROWS, rasterLength);
+		int stripHeight = getStripRows();
 		int stripWidth = rasterWidth * samplesPerPixel;
 		int stripSize = stripWidth * stripHeight * bytesPerSample;
 		int numStrips = (int) Math.ceil((double) rasterLength / stripHeight);
@@ -551,35 +763,25 @@ public class PDS extends RasterFileImpl {
 	 *            the raster
 	 * @throws IOException
 	 */
-	protected final void loadFromStrip(int numStrips, int size, int width, int height, Raster raster)
+	protected final void loadFromStrip(int numStrips, int size, int width, int height, RasterTarget raster)
 		throws IOException {
-		if (iStream != null) {
-			iStream.close();
-		}
-		iStream = new FileImageInputStream(new File(dataFilePath));
-		iStream.seek(imageStart);
-
 		// Allocate memory
 		byte[] bbArray = new byte[size];
-		ByteBuffer bbuf = ByteBuffer.wrap(bbArray);
-		bbuf.order(byteOrder);
 
 		// Read each strip and place it in the full size raster.
 		int r = 0; // row pixel of upper left corner of strip
 		for (int i = 0; i < numStrips; ++i) {
 			// determine the height of each strip in case it is short
-			bbuf.rewind();
 			int h = Math.min(rasterLength - height * i, height); // strip height
-			int len = h * width * bytesPerSample;
-			len = iStream.read(bbArray, 0, len);
-			bbuf.rewind();
+			getImageRows(r, h).get(bbArray, 0, h * width * bytesPerSample);
 			raster.set(r, h, bbArray);
 			r += h;
 		}
 	}
 
 	/**
-	 * Load data from a strip file into a raster, converting data.
+	 * Load data from a strip file into a raster, converting data. Strips are
+	 * converted from the mapped file by a pool of workers.
 	 * 
 	 * @param dataType
 	 *            the data type of the raster.
@@ -597,36 +799,35 @@ public class PDS extends RasterFileImpl {
 	 *            convert to gray scale unsigned byte
 	 * @throws IOException
 	 */
-	protected final void loadFromStrip(DataType dataType, int numStrips, int size, int width, int height,
-		Raster raster, boolean gray) throws IOException {
-		if (iStream != null) {
-			iStream.close();
-		}
-		iStream = new FileImageInputStream(new File(dataFilePath));
-		iStream.seek(imageStart);
-
-		// Allocate memory
-		byte[] bbArray = new byte[size];
-		ByteBuffer bbuf = ByteBuffer.wrap(bbArray);
-		bbuf.order(byteOrder);
-		bbuf.rewind();
+	protected final void loadFromStrip(final DataType dataType, int numStrips, int size, int width,
+		final int height, final RasterTarget raster, final boolean gray) throws IOException {
+		ArrayList<DecodeWorker> workers = new ArrayList<DecodeWorker>();
+		int threads = getDecodeThreads(numStrips);
+		for (int t = 0; t < threads; ++t) {
+			workers.add(new DecodeWorker() {
+				@Override
+				protected void open() {
+					if (!gray) {
+						stats = new SampleStatistics();
+					}
+				}
 
-		// Read each strip and place it in the full size raster.
-		int r = 0; // row pixel of upper left corner of strip
-		for (int i = 0; i < numStrips; ++i) {
-			// determine the height of each strip in case it is short
-			int h = Math.min(rasterLength - height * i, height); // strip height
-			int len = h * width * bytesPerSample;
-			iStream.read(bbArray, 0, len);
-			bbuf.rewind();
-			bbuf.limit(len);
-			if (gray) {
-				raster.setAsGray(r, 0, rasterWidth, h, bbuf, dataType, minimum, maximum, missing);
-			} else {
-				raster.setAsFloat(r, 0, rasterWidth, h, bbuf, dataType, scalingFactor, minimum, maximum, missing);
-			}
-			r += h;
+				@Override
+				protected void decode(int index) throws IOException {
+					// determine the height of each strip in case it is short
+					int r = height * index; // row pixel of upper left corner
+					int h = Math.min(rasterLength - r, height); // strip height
+					ByteBuffer bbuf = getImageRows(r, h);
+					if (gray) {
+						raster.setAsGray(r, 0, rasterWidth, h, bbuf, dataType, minimum, maximum, missing);
+					} else {
+						raster.setAsFloat(r, 0, rasterWidth, h, bbuf, dataType, scalingFactor, minimum, maximum,
+							missing, stats);
+					}
+				}
+			});
 		}
+		decode(numStrips, workers);
 	}
 
 	/**
@@ -646,31 +847,19 @@ public class PDS extends RasterFileImpl {
 	 */
 	protected final void computeMinMaxFromStrip(DataType dataType, int numStrips, int size, int width, int height)
 		throws IOException {
-		if (iStream != null) {
-			iStream.close();
+		if (setFixedMinMax()) {
+			return;
 		}
-		iStream = new FileImageInputStream(new File(dataFilePath));
-		iStream.seek(imageStart);
-
 		minimum = new double[samplesPerPixel];
 		Arrays.fill(minimum, Double.MAX_VALUE);
 		maximum = new double[samplesPerPixel];
 		Arrays.fill(maximum, -Double.MAX_VALUE);
 
-		// Allocate memory
-		byte[] bbArray = new byte[size];
-		ByteBuffer bbuf = ByteBuffer.wrap(bbArray);
-		bbuf.order(byteOrder);
-		bbuf.rewind();
-
-		// Read each strip and place it in the full size raster.
+		// Read each strip and compute min and max values.
 		for (int i = 0; i < numStrips; ++i) {
 			// determine the height of each strip in case it is short
 			int h = Math.min(rasterLength - height * i, height); // strip height
-			int len = h * width * bytesPerSample;
-			iStream.read(bbArray, 0, len);
-			bbuf.rewind();
-			computeMinMax(bbuf);
+			computeMinMax(getImageRows(height * i, h));
 		}
 	}
 
@@ -680,18 +869,14 @@ public class PDS extends RasterFileImpl {
 	 * @param raster
 	 */
 	@Override
-	public void loadRGBA(Raster raster) throws IOException {
+	public void loadRGBA(RasterTarget raster) throws IOException {
 		if (bandStorageType == null) {
 			throw new IllegalArgumentException("Unable to find BAND_STORAGE_TYPE.");
 		}
 		if (samplesPerPixel < 3) {
 			throw new IllegalArgumentException("Cannot load RGBA with less than 3 color components.");
 		}
-		if (iStream != null) {
-			iStream.close();
-		}
-		iStream = new FileImageInputStream(new File(dataFilePath));
-		iStream.seek(imageStart);
+		long offset = 0; // offset in the image object
 
 		int stripHeight = Math.min(STRIP_ROWS, rasterLength);
 		int stripWidth = rasterWidth * samplesPerPixel;
@@ -709,7 +894,6 @@ public class PDS extends RasterFileImpl {
 			// Allocate memory directly
 			byte[] bbArray = new byte[stripSize];
 			ByteBuffer bbuf = ByteBuffer.allocate(4 * rasterWidth * stripHeight);
-			iStream.seek(imageStart);
 
 			// Read each strip and place it in the full size raster.
 			int r = 0; // row pixel of upper left corner of strip
@@ -722,7 +906,8 @@ public class PDS extends RasterFileImpl {
 																				// the
 																				// strip
 				int len = h * stripWidth;
-				len = iStream.read(bbArray, 0, len);
+				readImage(offset, bbArray, 0, len);
+				offset += len;
 				for (int j = 0; j < h; ++j) {
 					for (int k = 0; k < stripWidth; k += samplesPerPixel) {
 						for (int l = 0; l < samplesPerPixel; ++l) {
@@ -754,7 +939,6 @@ public class PDS extends RasterFileImpl {
 
 			// Allocate memory
 			byte[] bbArray = new byte[stripSize];
-			iStream.seek(imageStart);
 
 			for (int k = 0; k < samplesPerPixel; ++k) {
 				// Read each strip and place it in the full size raster.
@@ -768,7 +952,8 @@ public class PDS extends RasterFileImpl {
 																					// the
 																					// strip
 					int len = h * rasterWidth;
-					len = iStream.read(bbArray, 0, len);
+					readImage(offset, bbArray, 0, len);
+					offset += len;
 					for (int j = 0; j < h; ++j) {
 						raster.get(r, bArray);
 						for (int c = 0; c < rasterWidth; ++c) {
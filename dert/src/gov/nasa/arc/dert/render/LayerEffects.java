@@ -27,7 +27,8 @@ public class LayerEffects extends GLSLShaderObjectsState {
 	protected static final String top =
 		  "varying vec4 gl_TexCoord[8];\n"
 		+ "void main() {\n"
-		+ "	vec4 color = vec4(gl_Color);\n"
+		+ "	vec4 sColor = gl_Color*vec4(surfaceColor[0], surfaceColor[1], surfaceColor[2], surfaceColor[3]);\n"
+		+ "	vec4 color = vec4(sColor);\n"
 		+ "	vec4 tcolor = vec4(0, 0, 0, 0);\n"
 		+ "	vec4 gColor = vec4(gridColor[0], gridColor[1], gridColor[2], 0);\n"
 		+ "	float shadeFactor = 1.0;\n"
@@ -49,7 +50,8 @@ public class LayerEffects extends GLSLShaderObjectsState {
 		+ "uniform float yGridCell;\n"
 		+ "uniform float gridLineWidth;\n"
 		+ "uniform float gridColor[4];\n"
-		+ "uniform bool gridEnabled;\n";
+		+ "uniform bool gridEnabled;\n"
+		+ "uniform float surfaceColor[4];\n";
 
 	protected static final String bottom =
 		  "		if (color.a > 0.0)\n"
@@ -62,9 +64,9 @@ public class LayerEffects extends GLSLShaderObjectsState {
 		+ "	if (hasTexture)\n"
 		+ "		gl_FragColor = vec4(shadeFactor*color.rgb, color.a);\n"
 		+ "	else if (layersEnabled)\n"
-		+ "		gl_FragColor = vec4(shadeFactor*blendFactor[0]*gl_Color.rgb, gl_Color.a);\n"
+		+ "		gl_FragColor = vec4(shadeFactor*blendFactor[0]*sColor.rgb, sColor.a);\n"
 		+ "	else\n"
-		+ "		gl_FragColor = vec4(shadeFactor*gl_Color.rgb, gl_Color.a);\n"
+		+ "		gl_FragColor = vec4(shadeFactor*sColor.rgb, sColor.a);\n"
 		+ "	if (gridEnabled) {\n"
 		+ "		x = gl_TexCoord[0].x-xGridOffset;\n"
 		+ "		x = abs(xGridOffset+xGridCell*floor(x/xGridCell)-gl_TexCoord[0].x);\n"
@@ -97,6 +99,10 @@ public class LayerEffects extends GLSLShaderObjectsState {
 	// RGBA color
 	public float[] gridColor;
 
+	// RGBA surface color, the vertex color of the landscape is only a mask
+	// for missing values
+	public float[] surfaceColor;
+
 	// shader uniforms
 	protected ArrayList<Object[]> intUniforms;
 	protected ArrayList<Object[]> floatArrayUniforms;
@@ -113,6 +119,7 @@ public class LayerEffects extends GLSLShaderObjectsState {
 	public LayerEffects(Layer[] layers, LayerEffects oldEffects) {
 		blendFactor = new float[] { 0, 0, 0, 0, 0, 0, 0 };
 		gridColor = new float[] { 1, 1, 1, 1 };
+		surfaceColor = new float[] { 1, 1, 1, 1 };
 		gridCell = Landscape.defaultCellSize;
 		if (oldEffects != null) {
 			layersEnabled = oldEffects.layersEnabled;
@@ -120,6 +127,7 @@ public class LayerEffects extends GLSLShaderObjectsState {
 			gridEnabled = oldEffects.gridEnabled;
 			gridCell = oldEffects.gridCell;
 			System.arraycopy(oldEffects.gridColor, 0, gridColor, 0, gridColor.length);
+			System.arraycopy(oldEffects.surfaceColor, 0, surfaceColor, 0, surfaceColor.length);
 		}
 		setLayers(layers);
 	}
@@ -138,6 +146,7 @@ public class LayerEffects extends GLSLShaderObjectsState {
 		setUniform("yGridCell", yGridCell);
 		setUniform("gridLineWidth", lineWidth);
 		setUniform("gridColor", gridColor);
+		setUniform("surfaceColor", surfaceColor);
 
 		for (int i = 0; i < intUniforms.size(); ++i) {
 			setUniform((String) intUniforms.get(i)[0], (Integer) intUniforms.get(i)[1]);
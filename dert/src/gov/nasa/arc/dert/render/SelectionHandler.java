@@ -1,5 +1,6 @@
 package gov.nasa.arc.dert.render;
 
+import gov.nasa.arc.dert.landscape.Landscape;
 import gov.nasa.arc.dert.landscape.QuadTreeMesh;
 import gov.nasa.arc.dert.util.MathUtil;
 import gov.nasa.arc.dert.util.SpatialPickResults;
@@ -60,6 +61,12 @@ public class SelectionHandler {
 		IntersectionRecord record = null;
 		int index = -1;
 		double dist = Double.MAX_VALUE;
+		// the terrain is picked once at full resolution rather than picking
+		// the triangles of each landscape tile
+		Landscape landscape = Landscape.getInstance();
+		boolean terrainPicked = false;
+		Vector3 terrainPosition = new Vector3();
+		Vector3 terrainNormal = new Vector3();
 		for (int i = 0; i < mesh.length; ++i) {
 			if (terrainOnly) {
 				if (!(mesh[i] instanceof QuadTreeMesh))
@@ -75,6 +82,19 @@ public class SelectionHandler {
 				continue;
 			}
 
+			if ((mesh[i] instanceof QuadTreeMesh) && (landscape != null)) {
+				if (!terrainPicked) {
+					terrainPicked = true;
+					double d = landscape.pickSurface(pickRay, terrainPosition, terrainNormal);
+					if (!Double.isNaN(d) && (d < dist)) {
+						dist = d;
+						record = null;
+						meshIndex = i;
+					}
+				}
+				continue;
+			}
+
 			pickResults = new PrimitivePickResults();
 			PickingUtil.findPick(mesh[i], pickRay, pickResults);
 			if (pickResults.getNumber() > 0) {
@@ -92,9 +112,14 @@ public class SelectionHandler {
 				}
 			}
 		}
-		if (record == null) {
+		if (meshIndex < 0) {
 			return (null);
 		}
+		if (record == null) {
+			position.set(terrainPosition);
+			normal.set(terrainNormal);
+			return (getTerrainMesh(mesh, terrainPosition, meshIndex));
+		}
 		ReadOnlyVector3 pos = record.getIntersectionPoint(index);
 		ReadOnlyVector3 nrml = record.getIntersectionNormal(index);
 		if (nrml == null) {
@@ -115,6 +140,17 @@ public class SelectionHandler {
 		return (null);
 	}
 
+	// Get the landscape tile that contains a terrain pick
+	private Mesh getTerrainMesh(Mesh[] mesh, ReadOnlyVector3 position, int meshIndex) {
+		for (int i = meshIndex; i < mesh.length; ++i) {
+			if ((mesh[i] instanceof QuadTreeMesh) && (mesh[i].getWorldBound() != null)
+				&& mesh[i].getWorldBound().contains(position)) {
+				return (mesh[i]);
+			}
+		}
+		return (mesh[meshIndex]);
+	}
+
 	/**
 	 * Get the normal at the picked location.
 	 * 
@@ -0,0 +1,248 @@
+package gov.nasa.arc.dert.scene.featureset;
+
+import gov.nasa.arc.dert.landscape.QuadTree;
+import gov.nasa.arc.dert.scenegraph.FigureMarker;
+import gov.nasa.arc.dert.scenegraph.LineStrip;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.ardor3d.math.Vector3;
+import com.ardor3d.math.type.ReadOnlyVector3;
+import com.ardor3d.scenegraph.Node;
+import com.ardor3d.scenegraph.Spatial;
+
+/**
+ * A grid index over the vertices of the features in a FeatureSet. Line strips
+ * are divided into runs of consecutive vertices and each run is entered in the
+ * grid cells its bounding rectangle overlaps. When a quad tree tile changes
+ * only the runs and markers that overlap the tile are draped again. The X,Y
+ * coordinates of the features do not change, so the index is built once.
+ *
+ */
+public class FeatureIndex {
+
+	// Maximum number of vertices in a run of a line strip
+	public static int RUN_LENGTH = 64;
+
+	// Maximum number of grid cells on a side
+	public static int GRID_SIZE = 64;
+
+	// A run of a line strip or a marker
+	private static class Entry {
+		// Order of the entry in the feature set
+		private int id;
+		private LineStrip lineStrip;
+		private FigureMarker marker;
+		// Vertex range of a run
+		private int first, last;
+		// Bounding rectangle
+		private float minX, minY, maxX, maxY;
+		// Last query that visited this entry
+		private int stamp;
+	}
+
+	// Grid origin and cell dimensions
+	private double minX, minY, cellWidth, cellLength;
+	private int columns, rows;
+
+	// Entries in each cell, in id order
+	private Entry[][] cell;
+
+	// Query counter
+	private int stamp;
+
+	// Scratch space for a query
+	private ArrayList<Entry> found;
+	private int[] index;
+
+	/**
+	 * Constructor
+	 *
+	 * @param featureSet
+	 *            the node that contains the features
+	 */
+	public FeatureIndex(Node featureSet) {
+		ArrayList<Entry> list = new ArrayList<Entry>();
+		for (int i = 0; i < featureSet.getNumberOfChildren(); ++i) {
+			Spatial child = featureSet.getChild(i);
+			if (child instanceof Feature) {
+				addFeature((Feature) child, list);
+			}
+		}
+		createGrid(list);
+		found = new ArrayList<Entry>();
+		index = new int[RUN_LENGTH];
+	}
+
+	private void addFeature(Feature feature, ArrayList<Entry> list) {
+		for (int i = 0; i < feature.getNumberOfChildren(); ++i) {
+			Spatial child = feature.getChild(i);
+			if (child instanceof LineStrip) {
+				LineStrip lineStrip = (LineStrip) child;
+				FloatBuffer vertex = lineStrip.getMeshData().getVertexBuffer();
+				int n = vertex.limit() / 3;
+				for (int first = 0; first < n; first += RUN_LENGTH) {
+					Entry entry = new Entry();
+					entry.lineStrip = lineStrip;
+					entry.first = first;
+					entry.last = Math.min(first + RUN_LENGTH, n);
+					entry.minX = Float.MAX_VALUE;
+					entry.minY = Float.MAX_VALUE;
+					entry.maxX = -Float.MAX_VALUE;
+					entry.maxY = -Float.MAX_VALUE;
+					for (int j = entry.first; j < entry.last; ++j) {
+						float x = vertex.get(j * 3);
+						float y = vertex.get(j * 3 + 1);
+						entry.minX = Math.min(entry.minX, x);
+						entry.minY = Math.min(entry.minY, y);
+						entry.maxX = Math.max(entry.maxX, x);
+						entry.maxY = Math.max(entry.maxY, y);
+					}
+					entry.id = list.size();
+					list.add(entry);
+				}
+			} else if (child instanceof FigureMarker) {
+				FigureMarker marker = (FigureMarker) child;
+				ReadOnlyVector3 location = marker.getLocation();
+				Entry entry = new Entry();
+				entry.marker = marker;
+				entry.minX = location.getXf();
+				entry.minY = location.getYf();
+				entry.maxX = entry.minX;
+				entry.maxY = entry.minY;
+				entry.id = list.size();
+				list.add(entry);
+			}
+		}
+	}
+
+	private void createGrid(ArrayList<Entry> list) {
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		minX = Double.MAX_VALUE;
+		minY = Double.MAX_VALUE;
+		for (int i = 0; i < list.size(); ++i) {
+			Entry entry = list.get(i);
+			minX = Math.min(minX, entry.minX);
+			minY = Math.min(minY, entry.minY);
+			maxX = Math.max(maxX, entry.maxX);
+			maxY = Math.max(maxY, entry.maxY);
+		}
+		if (list.isEmpty()) {
+			minX = 0;
+			minY = 0;
+			maxX = 0;
+			maxY = 0;
+		}
+		columns = GRID_SIZE;
+		rows = GRID_SIZE;
+		cellWidth = Math.max((maxX - minX) / columns, Double.MIN_NORMAL);
+		cellLength = Math.max((maxY - minY) / rows, Double.MIN_NORMAL);
+
+		// count the entries in each cell, then fill the cells
+		int[] count = new int[columns * rows];
+		for (int i = 0; i < list.size(); ++i) {
+			Entry entry = list.get(i);
+			for (int r = getRow(entry.minY); r <= getRow(entry.maxY); ++r) {
+				for (int c = getColumn(entry.minX); c <= getColumn(entry.maxX); ++c) {
+					count[r * columns + c]++;
+				}
+			}
+		}
+		cell = new Entry[columns * rows][];
+		for (int i = 0; i < cell.length; ++i) {
+			cell[i] = new Entry[count[i]];
+			count[i] = 0;
+		}
+		for (int i = 0; i < list.size(); ++i) {
+			Entry entry = list.get(i);
+			for (int r = getRow(entry.minY); r <= getRow(entry.maxY); ++r) {
+				for (int c = getColumn(entry.minX); c <= getColumn(entry.maxX); ++c) {
+					int k = r * columns + c;
+					cell[k][count[k]++] = entry;
+				}
+			}
+		}
+	}
+
+	private int getColumn(double x) {
+		int c = (int) Math.floor((x - minX) / cellWidth);
+		return (Math.max(0, Math.min(c, columns - 1)));
+	}
+
+	private int getRow(double y) {
+		int r = (int) Math.floor((y - minY) / cellLength);
+		return (Math.max(0, Math.min(r, rows - 1)));
+	}
+
+	/**
+	 * Update the elevation of the vertices inside a quad tree tile.
+	 *
+	 * @param quadTree
+	 * @return true if any vertices were changed
+	 */
+	public synchronized boolean updateElevation(QuadTree quadTree) {
+		Vector3[] testPoint = quadTree.getTestPoints();
+		double x0 = testPoint[0].getX();
+		double y0 = testPoint[0].getY();
+		double x1 = testPoint[2].getX();
+		double y1 = testPoint[2].getY();
+		if ((x1 < minX) || (y1 < minY) || (x0 > minX + columns * cellWidth) || (y0 > minY + rows * cellLength)) {
+			return (false);
+		}
+
+		// find the entries that overlap the tile, each only once
+		stamp++;
+		found.clear();
+		for (int r = getRow(y0); r <= getRow(y1); ++r) {
+			for (int c = getColumn(x0); c <= getColumn(x1); ++c) {
+				Entry[] entry = cell[r * columns + c];
+				for (int i = 0; i < entry.length; ++i) {
+					Entry e = entry[i];
+					if ((e.stamp != stamp) && (e.maxX >= x0) && (e.minX <= x1) && (e.maxY >= y0) && (e.minY <= y1)) {
+						e.stamp = stamp;
+						found.add(e);
+					}
+				}
+			}
+		}
+		if (found.isEmpty()) {
+			return (false);
+		}
+		Entry[] entry = found.toArray(new Entry[found.size()]);
+		Arrays.sort(entry, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry e0, Entry e1) {
+				return (e0.id - e1.id);
+			}
+		});
+
+		// update the runs of each line strip together
+		boolean modified = false;
+		int i = 0;
+		while (i < entry.length) {
+			if (entry[i].marker != null) {
+				modified |= entry[i].marker.updateElevation(quadTree);
+				i++;
+				continue;
+			}
+			LineStrip lineStrip = entry[i].lineStrip;
+			int n = 0;
+			while ((i < entry.length) && (entry[i].lineStrip == lineStrip)) {
+				int m = entry[i].last - entry[i].first;
+				if (n + m > index.length) {
+					index = Arrays.copyOf(index, Math.max(n + m, index.length * 2));
+				}
+				for (int j = entry[i].first; j < entry[i].last; ++j) {
+					index[n++] = j;
+				}
+				i++;
+			}
+			modified |= lineStrip.updateElevation(quadTree, index, n);
+		}
+		return (modified);
+	}
+}
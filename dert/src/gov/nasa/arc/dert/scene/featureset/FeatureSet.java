@@ -57,6 +57,9 @@ public class FeatureSet extends GroupNode implements MapElement, ViewDependent {
 	private boolean ground;
 	
 	private float size, lineWidth;
+	
+	// Spatial index of the feature vertices for draping
+	private FeatureIndex featureIndex;
 
 	/**
 	 * Constructor
@@ -177,17 +180,38 @@ public class FeatureSet extends GroupNode implements MapElement, ViewDependent {
 	public boolean updateElevation(QuadTree quadTree) {
 		if (!ground)
 			return(false);
+		return (getFeatureIndex().updateElevation(quadTree));
+	}
+
+	/**
+	 * Update the elevation (Z coordinate) for the lines in several quad trees
+	 * 
+	 * @param quadTree
+	 * @return true if any vertices were changed
+	 */
+	public boolean updateElevation(QuadTree[] quadTree) {
+		if (!ground)
+			return(false);
+		FeatureIndex index = getFeatureIndex();
 		boolean modified = false;
-		for (int i = 0; i < getNumberOfChildren(); ++i) {
-			Spatial child = getChild(i);
-			if (child instanceof Feature) {
-				Feature feature = (Feature) child;
-				modified |= feature.updateElevation(quadTree);
-			}
+		for (int i = 0; i < quadTree.length; ++i) {
+			modified |= index.updateElevation(quadTree[i]);
 		}
 		return (modified);
 	}
 
+	/**
+	 * Get the spatial index of the features, creating it if necessary
+	 * 
+	 * @return
+	 */
+	public synchronized FeatureIndex getFeatureIndex() {
+		if (featureIndex == null) {
+			featureIndex = new FeatureIndex(this);
+		}
+		return (featureIndex);
+	}
+
 	/**
 	 * Set the vertical exaggeration
 	 */
@@ -1,5 +1,6 @@
 package gov.nasa.arc.dert.scene.featureset;
 
+import gov.nasa.arc.dert.landscape.QuadKey;
 import gov.nasa.arc.dert.landscape.QuadTree;
 import gov.nasa.arc.dert.scenegraph.GroupNode;
 import gov.nasa.arc.dert.state.FeatureSetState;
@@ -31,6 +32,9 @@ public class FeatureSets extends GroupNode {
 	// Thread service for updating
 	private ExecutorService executor;
 	
+	// Quad trees that changed since the last update
+	private ArrayList<QuadTree> changedList;
+	
 	private ZBufferState zBufferState;
 
 	/**
@@ -42,6 +46,7 @@ public class FeatureSets extends GroupNode {
 		super("FeatureSets");
 		this.featureSetList = featureSetList;
 		executor = Executors.newFixedThreadPool(5);
+		changedList = new ArrayList<QuadTree>();
 	}
 
 	/**
@@ -65,11 +70,47 @@ public class FeatureSets extends GroupNode {
 	}
 
 	/**
-	 * The landscape has changed, update the elevation of all the FeatureSets
+	 * The landscape has changed. The quad tree is saved until
+	 * updateElevation is called so that the changes from several splits are
+	 * handled together.
 	 * 
 	 * @param quadTree
 	 */
-	public void landscapeChanged(final QuadTree quadTree) {
+	public void landscapeChanged(QuadTree quadTree) {
+		synchronized (changedList) {
+			changedList.add(quadTree);
+		}
+	}
+
+	/**
+	 * Update the elevation of all the FeatureSets for the quad trees that
+	 * changed since the last call. A quad tree that is inside another changed
+	 * quad tree is skipped.
+	 */
+	public void updateElevation() {
+		final QuadTree[] quadTree;
+		synchronized (changedList) {
+			if (changedList.isEmpty()) {
+				return;
+			}
+			ArrayList<QuadTree> list = new ArrayList<QuadTree>();
+			for (int i = 0; i < changedList.size(); ++i) {
+				QuadTree qt = changedList.get(i);
+				boolean inside = false;
+				for (int j = 0; j < changedList.size(); ++j) {
+					long key = changedList.get(j).getKey();
+					if (QuadKey.isDescendant(key, qt.getKey()) || ((key == qt.getKey()) && (j < i))) {
+						inside = true;
+						break;
+					}
+				}
+				if (!inside) {
+					list.add(qt);
+				}
+			}
+			changedList.clear();
+			quadTree = list.toArray(new QuadTree[list.size()]);
+		}
 		for (int i = 0; i < getNumberOfChildren(); ++i) {
 			final Spatial child = getChild(i);
 			Runnable runnable = new Runnable() {
@@ -4,6 +4,8 @@ import gov.nasa.arc.dert.icon.Icons;
 import gov.nasa.arc.dert.io.CsvWriter;
 import gov.nasa.arc.dert.landscape.Landscape;
 import gov.nasa.arc.dert.landscape.QuadTree;
+import gov.nasa.arc.dert.landscape.RegionSampler;
+import gov.nasa.arc.dert.landscape.RegionStatistics;
 import gov.nasa.arc.dert.scenegraph.HiddenLine;
 import gov.nasa.arc.dert.scenegraph.MotionListener;
 import gov.nasa.arc.dert.scenegraph.Movable;
@@ -923,6 +925,39 @@ public class Path extends Node implements MotionListener, Tool, ViewDependent {
 		return(vol);
 	}
 
+	/**
+	 * Compute the statistics of the landscape inside the path polygon in a
+	 * single pass.
+	 * 
+	 * @param doVolume
+	 *            compute the volume
+	 * @param volElev
+	 *            compute the volume above and below this elevation, NaN to
+	 *            use the polygon
+	 * @param listener
+	 *            receives the progress (may be null)
+	 * @return the statistics or null if there is no polygon or the thread was
+	 *         interrupted
+	 */
+	public RegionStatistics getStatistics(boolean doVolume, double volElev, RegionSampler.Listener listener) {
+		int n = getNumberOfPoints();
+		if (n < 3) {
+			return (null);
+		}
+		Vector3[] vertex = pointSet.getPolygonVertices();
+		Landscape landscape = Landscape.getInstance();
+		if (!doVolume || !Double.isNaN(volElev)) {
+			return (landscape.getSampledStatisticsOfRegion(vertex, lowerBound, upperBound, doVolume ? volElev
+				: Double.NaN, null, listener));
+		}
+		poly.getSceneHints().setPickingHint(PickingHint.Pickable, true);
+		try {
+			return (landscape.getSampledStatisticsOfRegion(vertex, lowerBound, upperBound, Double.NaN, poly, listener));
+		} finally {
+			poly.getSceneHints().setPickingHint(PickingHint.Pickable, false);
+		}
+	}
+
 //	public String getStatistics() {
 //		pointSet.updatePolygon(poly);
 //		int n = getNumberOfPoints();
@@ -700,11 +700,13 @@ public class Plane extends Node implements Tool, ViewDependent {
 	 * Get the difference between the plane and the terrain elevation.
 	 * 
 	 * @param size
+	 *            the maximum number of samples on a side
 	 * @param diff
+	 *            the differences, row by row with size values per row
 	 * @param minMaxElev
-	 * @return
+	 * @return the number of rows and columns
 	 */
-	public int[] getElevationDifference(int size, float[][] diff, float[] minMaxElev) {
+	public int[] getElevationDifference(int size, float[] diff, float[] minMaxElev) {
 		updatePlane();
 		updatePolygon();
 
@@ -738,7 +740,7 @@ public class Plane extends Node implements Tool, ViewDependent {
 		// get elevation differences
 		double[] planeEqCopy = new double[planeEq.length];
 		System.arraycopy(planeEq, 0, planeEqCopy, 0, planeEq.length);
-		int[] result = Landscape.getInstance().getSampledDifferenceOfRegion(vertex, lowerBound, upperBound, planeEqCopy, sampleSize, diff, minMaxElev);
+		int[] result = Landscape.getInstance().getSampledDifferenceOfRegion(vertex, lowerBound, upperBound, planeEqCopy, sampleSize, diff, size, minMaxElev);
 		return (result);
 	}
 
@@ -3,6 +3,7 @@ package gov.nasa.arc.dert.scene.tool;
 import gov.nasa.arc.dert.icon.Icons;
 import gov.nasa.arc.dert.io.CsvWriter;
 import gov.nasa.arc.dert.landscape.Landscape;
+import gov.nasa.arc.dert.landscape.LineProfile;
 import gov.nasa.arc.dert.landscape.QuadTree;
 import gov.nasa.arc.dert.scenegraph.BillboardMarker;
 import gov.nasa.arc.dert.scenegraph.Marker;
@@ -56,6 +57,8 @@ public class Profile extends Node implements ViewDependent, Tool {
 	public static Color defaultColor = Color.blue;
 	public static boolean defaultLabelVisible = true;
 	public static float defaultLineWidth = 2.0f;
+	// Maximum elevation error of the displayed profile
+	public static double simplifyTolerance = 0;
 
 	// Endpoint icon texture
 	protected static Texture texture, highlightTexture;
@@ -66,9 +69,12 @@ public class Profile extends Node implements ViewDependent, Tool {
 	private Line line;
 
 	// Transect line
-	private int xDim, yDim;
 	private float[] vertex;
 
+	// Full resolution samples along the line and the samples displayed
+	private LineProfile lineProfile;
+	private int[] sampleIndex;
+
 	// Endpoint locations
 	private Vector3 pALoc, pBLoc;
 
@@ -105,10 +111,9 @@ public class Profile extends Node implements ViewDependent, Tool {
 		pBLoc = new Vector3(state.p1);
 		colorRGBA = new ColorRGBA(color.getRed() / 255f, color.getGreen() / 255f, color.getBlue() / 255f,
 			color.getAlpha() / 255f);
-		Landscape landscape = Landscape.getInstance();
-		xDim = landscape.getRasterWidth();
-		yDim = landscape.getRasterLength();
-		vertex = new float[3 * (int) (Math.sqrt((long) xDim * xDim + (long) yDim * yDim) + 1024)];
+		lineProfile = new LineProfile();
+		sampleIndex = new int[1024];
+		vertex = new float[3 * sampleIndex.length];
 		graphVertex = new float[vertex.length];
 		coord = new Vector3();
 		vertex[0] = pALoc.getXf();
@@ -210,10 +215,33 @@ public class Profile extends Node implements ViewDependent, Tool {
 	}
 
 	protected void buildLine() {
-		// Get vertices along the trancept from the Landscape
+		// Sample the trancept at full resolution and select the vertices to
+		// display
 		Landscape landscape = Landscape.getInstance();
-		int n = landscape.getVertices(vertex, pALoc, pBLoc, false, true);
+		lineProfile.sample(landscape.getElevationRaster(), pALoc, pBLoc);
+		if (sampleIndex.length < lineProfile.getCount()) {
+			sampleIndex = new int[lineProfile.getCount()];
+		}
+		int n = lineProfile.simplify(simplifyTolerance, sampleIndex);
+		if (vertex.length < n * 3) {
+			vertex = new float[n * 3];
+			graphVertex = new float[vertex.length];
+		}
+		// subtract minimum Z to translate line to contents
+		double zOffset = landscape.getMinimumElevation() * landscape.getPixelScale();
+		for (int i = 0; i < n; ++i) {
+			int k = sampleIndex[i];
+			vertex[i * 3] = (float) lineProfile.getX(k);
+			vertex[i * 3 + 1] = (float) lineProfile.getY(k);
+			vertex[i * 3 + 2] = (float) (lineProfile.getZ(k) - zOffset);
+		}
+		n *= 3;
 		FloatBuffer vertexBuffer = line.getMeshData().getVertexBuffer();
+		if (vertexBuffer.capacity() < n) {
+			vertexBuffer = BufferUtils.createFloatBuffer(vertex.length);
+			line.getMeshData().setVertexBuffer(vertexBuffer);
+			line.getMeshData().setIndexBuffer(BufferUtils.createIntBuffer(vertex.length / 3));
+		}
 		vertexBuffer.clear();
 		vertexBuffer.put(vertex, 0, n);
 		vertexBuffer.limit(n);
@@ -512,6 +540,8 @@ public class Profile extends Node implements ViewDependent, Tool {
 				defaultLineWidth, false);
 		defaultLabelVisible = StringUtil.getBooleanValue(properties, "MapElement.Profile.defaultLabelVisible",
 			defaultLabelVisible, false);
+		simplifyTolerance = StringUtil.getDoubleValue(properties, "MapElement.Profile.simplifyTolerance", true,
+			simplifyTolerance, false);
 	}
 
 	/**
@@ -524,10 +554,11 @@ public class Profile extends Node implements ViewDependent, Tool {
 		properties.setProperty("MapElement.Profile.defaultSize", Float.toString(defaultSize));
 		properties.setProperty("MapElement.Profile.defaultLineWidth", Float.toString(defaultLineWidth));
 		properties.setProperty("MapElement.Profile.defaultLabelVisible", Boolean.toString(defaultLabelVisible));
+		properties.setProperty("MapElement.Profile.simplifyTolerance", Double.toString(simplifyTolerance));
 	}
 
 	/**
-	 * Save vertices to comma separated value formatted file
+	 * Save the full resolution samples to comma separated value formatted file
 	 * 
 	 * @param filename
 	 */
@@ -538,16 +569,29 @@ public class Profile extends Node implements ViewDependent, Tool {
 			csvWriter = new CsvWriter(filename, column);
 			csvWriter.open();
 			String[] value = new String[column.length];
-			for (int i = 0; i < vertexCount; ++i) {
+			Landscape landscape = Landscape.getInstance();
+			lineProfile.sample(landscape.getElevationRaster(), pALoc, pBLoc);
+			double zOffset = landscape.getMinimumElevation() * landscape.getPixelScale();
+			int n = lineProfile.getCount();
+			Vector3 last = new Vector3();
+			double dist = 0;
+			for (int i = 0; i < n; ++i) {
+				coord.set(lineProfile.getX(i), lineProfile.getY(i), lineProfile.getZ(i) - zOffset);
+				landscape.localToWorldCoordinate(coord);
+				if (i > 0) {
+					dist += Math.sqrt((coord.getX() - last.getX()) * (coord.getX() - last.getX())
+						+ (coord.getY() - last.getY()) * (coord.getY() - last.getY()));
+				}
+				last.set(coord);
 				value[0] = Integer.toString(i);
-				value[1] = Double.toString(vertex[i*3]);
-				value[2] = Double.toString(vertex[i*3 + 1]);
-				value[3] = Double.toString(graphVertex[i*2 + 1]);
-				value[4] = Double.toString(graphVertex[i*2]);
+				value[1] = Double.toString(coord.getX());
+				value[2] = Double.toString(coord.getY());
+				value[3] = Double.toString(coord.getZ());
+				value[4] = Double.toString(dist);
 				csvWriter.writeLine(value);
 			}
 			csvWriter.close();
-			Console.println(vertexCount + " records saved to " + filename);
+			Console.println(n + " records saved to " + filename);
 		} catch (Exception e) {
 			e.printStackTrace();
 			if (csvWriter != null) {
@@ -40,25 +40,44 @@ public class LineStrip extends Line {
 	}
 
 	/**
-	 * Update the elevation when the landscape changes.
+	 * Update the elevation of the vertices in a quad tree when the landscape
+	 * changes.
 	 * 
 	 * @param quadTree
+	 * @return true if any vertices were changed
 	 */
-	public synchronized void updateElevation(QuadTree quadTree) {
+	public synchronized boolean updateElevation(QuadTree quadTree) {
 		FloatBuffer vertex = _meshData.getVertexBuffer();
-		int n = vertex.limit();
-		Landscape landscape = Landscape.getInstance();
-		for (int i = 0; i < n; i += 3) {
-			float x = vertex.get(i);
-			float y = vertex.get(i + 1);
-			double z = landscape.getZ(x, y) + 0.1;
-			if (!Double.isNaN(z)) {
-				vertex.put(i + 2, (float) z);
-			}
+		int n = Landscape.getInstance().getZ(vertex, quadTree, 0.1);
+		if (n == 0) {
+			return (false);
+		}
+		
+		_meshData.setVertexBuffer(vertex);
+		updateModelBound();
+		return (true);
+	}
+
+	/**
+	 * Update the elevation of some of the vertices in a quad tree when the
+	 * landscape changes.
+	 * 
+	 * @param quadTree
+	 * @param index
+	 *            the indices of the vertices, this array is reordered
+	 * @param n
+	 *            the number of indices
+	 * @return true if any vertices were changed
+	 */
+	public synchronized boolean updateElevation(QuadTree quadTree, int[] index, int n) {
+		FloatBuffer vertex = _meshData.getVertexBuffer();
+		if (Landscape.getInstance().getZ(vertex, index, n, quadTree, 0.1) == 0) {
+			return (false);
 		}
 		
 		_meshData.setVertexBuffer(vertex);
 		updateModelBound();
+		return (true);
 	}
 
 	/**
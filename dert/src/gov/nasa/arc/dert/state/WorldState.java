@@ -1,6 +1,6 @@
 package gov.nasa.arc.dert.state;
 
-import gov.nasa.arc.dert.io.FileSystemTileSource;
+import gov.nasa.arc.dert.io.PackedTileSource;
 import gov.nasa.arc.dert.landscape.Landscape;
 import gov.nasa.arc.dert.landscape.LayerManager;
 import gov.nasa.arc.dert.lighting.Lighting;
@@ -44,7 +44,7 @@ public class WorldState extends State {
 
 	// Transient components
 	private transient World world;
-	private transient FileSystemTileSource tileSource;
+	private transient PackedTileSource tileSource;
 
 	/**
 	 * Constructor
@@ -116,7 +116,7 @@ public class WorldState extends State {
 	 * @return the world
 	 */
 	public World createWorld(String landscapeName, Configuration config) {
-		tileSource = new FileSystemTileSource(landscapeName);
+		tileSource = new PackedTileSource(landscapeName);
 		if (!tileSource.connect("dert", "dert")) {
 			return (null);
 		}
@@ -1,21 +1,58 @@
 package gov.nasa.arc.dert.test;
 
 import gov.nasa.arc.dert.io.FileSystemTileSource;
+import gov.nasa.arc.dert.io.PackedTileFile;
+import gov.nasa.arc.dert.io.PackedTileSource;
+import gov.nasa.arc.dert.landscape.ElevationRaster;
 import gov.nasa.arc.dert.landscape.Landscape;
 import gov.nasa.arc.dert.landscape.LayerManager;
+import gov.nasa.arc.dert.landscape.LineProfile;
+import gov.nasa.arc.dert.landscape.QuadKey;
+import gov.nasa.arc.dert.landscape.QuadTree;
+import gov.nasa.arc.dert.landscape.QuadTreeCache;
+import gov.nasa.arc.dert.landscape.QuadTreeFactory;
+import gov.nasa.arc.dert.landscape.QuadTreeLoader;
+import gov.nasa.arc.dert.landscape.QuadTreeTile;
+import gov.nasa.arc.dert.landscape.RegionSampler;
+import gov.nasa.arc.dert.landscape.RegionStatistics;
+import gov.nasa.arc.dert.landscape.SummedAreaTable;
+import gov.nasa.arc.dert.landscape.TerrainRayCaster;
+import gov.nasa.arc.dert.landscape.TileStatistics;
+import gov.nasa.arc.dert.landscape.TileBufferPool;
 import gov.nasa.arc.dert.landscape.factory.LayerFactory;
+import gov.nasa.arc.dert.landscape.factory.RasterPyramidLayerFactory;
+import gov.nasa.arc.dert.raster.ProjectionInfo;
+import gov.nasa.arc.dert.raster.Raster;
+import gov.nasa.arc.dert.raster.RasterFile.DataType;
+import gov.nasa.arc.dert.raster.RasterFileImpl;
+import gov.nasa.arc.dert.raster.SampleStatistics;
+import gov.nasa.arc.dert.raster.geotiff.GTIF;
+import gov.nasa.arc.dert.raster.geotiff.JavaGTIF;
+import gov.nasa.arc.dert.raster.pds.PDS;
+import gov.nasa.arc.dert.scene.featureset.Feature;
+import gov.nasa.arc.dert.scene.featureset.FeatureIndex;
+import gov.nasa.arc.dert.scenegraph.LineStrip;
+import gov.nasa.arc.dert.util.LongLinkedMap;
 import gov.nasa.arc.dert.util.MathUtil;
 import gov.nasa.arc.dert.util.Tessellator;
+import gov.nasa.arc.dert.viewpoint.BasicCamera;
 
 import java.awt.Color;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
 
 import com.ardor3d.bounding.BoundingBox;
 import com.ardor3d.math.Vector3;
 import com.ardor3d.math.type.ReadOnlyVector3;
 import com.ardor3d.scenegraph.Mesh;
+import com.ardor3d.scenegraph.Node;
 import com.ardor3d.scenegraph.event.DirtyType;
 import com.ardor3d.util.geom.BufferUtils;
 
@@ -46,8 +83,44 @@ public class LandscapeTest {
 		if (!lf.createLayer())
 			return(false);
 		
+		System.err.println("Create streamed layer");
+		if (!testStreamedLayer(testLoc)) {
+			System.err.println("Test of streamed layer failed.");
+			return(false);
+		}
+		
+		System.err.println("Test sample statistics");
+		if (!testSampleStatistics(testLoc)) {
+			System.err.println("Test of sample statistics failed.");
+			return(false);
+		}
+		
+		System.err.println("Test parallel decode");
+		if (!testParallelDecode(testLoc)) {
+			System.err.println("Test of parallel decode failed.");
+			return(false);
+		}
+		
+		System.err.println("Test PDS reader");
+		if (!testPDS(testLoc)) {
+			System.err.println("Test of PDS reader failed.");
+			return(false);
+		}
+		
+		System.err.println("Test Java GeoTIFF reader");
+		if (!testJavaGTIF(testLoc)) {
+			System.err.println("Test of Java GeoTIFF reader failed.");
+			return(false);
+		}
+		
+		System.err.println("Create packed tiles");
+		if (!testPackedTiles(testLoc)) {
+			System.err.println("Test of packed tiles failed.");
+			return(false);
+		}
+		
 		System.err.println("Create tile source");
-		FileSystemTileSource tileSource = new FileSystemTileSource(testLoc);
+		PackedTileSource tileSource = new PackedTileSource(testLoc);
 		if (!tileSource.connect("dert", "dert")) {
 			return (false);
 		}
@@ -116,10 +189,1342 @@ public class LandscapeTest {
 			return(false);
 		}
 		
+		if (!testGetSampledStatisticsOfRegion(landscape)) {
+			System.err.println("Test of Landscape.getSampledStatisticsOfRegion failed.");
+			return(false);
+		}
+		
+		if (!testRegionSampler()) {
+			System.err.println("Test of RegionSampler failed.");
+			return(false);
+		}
+		
+		if (!testParallelRegionAnalysis(landscape)) {
+			System.err.println("Test of parallel region analysis failed.");
+			return(false);
+		}
+		
+		if (!testElevationRaster(landscape)) {
+			System.err.println("Test of ElevationRaster failed.");
+			return(false);
+		}
+		
+		if (!testBatchElevation(landscape)) {
+			System.err.println("Test of Landscape.getZ for a vertex buffer failed.");
+			return(false);
+		}
+		
+		if (!testLineProfile(landscape)) {
+			System.err.println("Test of LineProfile failed.");
+			return(false);
+		}
+		
+		if (!testFeatureIndex(landscape)) {
+			System.err.println("Test of FeatureIndex failed.");
+			return(false);
+		}
+		
+		if (!testSummedAreaTable(landscape, testLoc)) {
+			System.err.println("Test of SummedAreaTable failed.");
+			return(false);
+		}
+		
+		if (!testRayCaster(landscape)) {
+			System.err.println("Test of TerrainRayCaster failed.");
+			return(false);
+		}
+		
+		if (!testPrefetch(landscape)) {
+			System.err.println("Test of QuadTreePrefetcher failed.");
+			return(false);
+		}
+		
+		if (!testBufferPool()) {
+			System.err.println("Test of TileBufferPool failed.");
+			return(false);
+		}
+		
+		if (!testQuadTreeCache()) {
+			System.err.println("Test of QuadTreeCache failed.");
+			return(false);
+		}
+		
+		if (!testLongLinkedMap()) {
+			System.err.println("Test of LongLinkedMap failed.");
+			return(false);
+		}
+		
+		if (!testLoaderPriority(landscape)) {
+			System.err.println("Test of QuadTreeLoader priority failed.");
+			return(false);
+		}
+		
+		System.err.println("LandscapeTest "+landscape.getFactory().getCache());
+		System.err.println("LandscapeTest "+landscape.getElevationRaster());
+		System.err.println("LandscapeTest "+landscape.getFactory().getBufferPool());
+		System.err.println("LandscapeTest direct memory "+landscape.getFactory().getDirectMemorySize()+" bytes");
+		System.err.println("LandscapeTest "+landscape.getFactory().getLoader());
+		System.err.println("LandscapeTest "+landscape.getFactory().getPrefetcher());
+		
+		
+		return(true);
+	}
+	
+	private boolean testElevationRaster(Landscape landscape) {
+		ElevationRaster raster = landscape.getElevationRaster();
+		QuadTreeFactory factory = landscape.getFactory();
+		// the analyses so far should not have created any highest level tiles
+		if (factory.peekQuadTree(landscape.getHighestLevelKey(5, 5)) != null) {
+			System.err.println("LandscapeTest.testElevationRaster analysis created a rendered tile");
+			return(false);
+		}
+		
+		// a window across tile boundaries at the posts of the DEM
+		int column = 500;
+		int row = 490;
+		int width = 40;
+		int length = 30;
+		float[] window = new float[width*length];
+		int count = raster.read(column, row, width, length, window);
+		if (count != window.length) {
+			System.err.println("LandscapeTest.testElevationRaster read "+count+" of "+window.length+" posts");
+			return(false);
+		}
+		double diff = 0;
+		for (int r=0; r<length; ++r) {
+			for (int c=0; c<width; ++c) {
+				double x = column+c-512;
+				double y = 512-row-r;
+				diff = Math.max(diff, Math.abs(window[r*width+c]-demFactory.getZ(x, y)));
+				diff = Math.max(diff, Math.abs(raster.getElevation(x, y)-demFactory.getZ(x, y)));
+			}
+		}
+		System.err.println("LandscapeTest.testElevationRaster read "+width+"x"+length+" window, max error = "+diff);
+		if (diff > 0.0001)
+			return(false);
+		
+		// interpolation and normals match the rendered tiles
+		double[][] point = new double[][] {{5.3, 5.7}, {-100.25, 37.5}, {200.9, -300.1}, {-411.6, -7.2}};
+		Vector3 n0 = new Vector3();
+		Vector3 n1 = new Vector3();
+		double normalDiff = 0;
+		diff = 0;
+		for (int i=0; i<point.length; ++i) {
+			double x = point[i][0];
+			double y = point[i][1];
+			QuadTree quadTree = factory.getQuadTree(landscape.getHighestLevelKey(x, y));
+			if (quadTree == null)
+				return(false);
+			diff = Math.max(diff, Math.abs(raster.getElevation(x, y)-quadTree.getElevation(x, y)));
+			diff = Math.max(diff, Math.abs(raster.getElevationNearestNeighbor(x, y)-quadTree.getElevationNearestNeighbor(x, y)));
+			if (!raster.getNormal(x, y, n0) || !quadTree.getNormal(x, y, n1))
+				return(false);
+			normalDiff = Math.max(normalDiff, n0.distance(n1));
+		}
+		System.err.println("LandscapeTest.testElevationRaster max elevation error = "+diff+", max normal error = "+normalDiff);
+		return((diff < 0.0001) && (normalDiff < 0.0001));
+	}
+	
+	private boolean testBatchElevation(Landscape landscape) {
+		QuadTree quadTree = landscape.getFactory().getQuadTree(landscape.getHighestLevelKey(5, 5));
+		if (quadTree == null)
+			return(false);
+		// a line through the tile and beyond it
+		int n = 1000;
+		FloatBuffer vertex = BufferUtils.createFloatBuffer(n*3);
+		for (int i=0; i<n; ++i) {
+			vertex.put(-100+i*0.37f).put(-50+i*0.23f).put(-999);
+		}
+		vertex.flip();
+		int count = landscape.getZ(vertex, quadTree, 0.1);
+		int inside = 0;
+		for (int i=0; i<n; ++i) {
+			float x = vertex.get(i*3);
+			float y = vertex.get(i*3+1);
+			float z = vertex.get(i*3+2);
+			if (quadTree.contains(x, y)) {
+				inside ++;
+				if (z != (float)(landscape.getZ(x, y, quadTree)+0.1))
+					return(false);
+			}
+			else if (z != -999)
+				return(false);
+		}
+		System.err.println("LandscapeTest.testBatchElevation set "+count+" of "+n+" vertices, "+inside+" inside tile");
+		return((count == inside) && (count > 0) && (count < n));
+	}
+	
+	private boolean testLineProfile(Landscape landscape) {
+		ElevationRaster raster = landscape.getElevationRaster();
+		LineProfile profile = new LineProfile();
+		Vector3 p0 = new Vector3(-300.25, -200.5, 0);
+		Vector3 p1 = new Vector3(310.75, 150.3, 0);
+		if (!profile.sample(raster, p0, p1) || profile.sample(raster, p0, p1))
+			return(false);
+		// a sample at each end and at each column and row crossed
+		int expected = 2+(310-(-300)+1)+(150-(-200)+1);
+		int n = profile.getCount();
+		double diff = 0;
+		for (int i=0; i<n; ++i) {
+			double x = profile.getX(i);
+			double y = profile.getY(i);
+			if ((i > 0) && (i < n-1) && (Math.abs(x-Math.rint(x)) > 0.000001) && (Math.abs(y-Math.rint(y)) > 0.000001))
+				return(false);
+			if ((i > 0) && (profile.getDistance(i) <= profile.getDistance(i-1)))
+				return(false);
+			diff = Math.max(diff, Math.abs(profile.getZ(i)-raster.getElevation(x, y)));
+		}
+		// the simplified profile is within the tolerance
+		int[] index = new int[n];
+		double tolerance = 0.5;
+		int m = profile.simplify(tolerance, index);
+		double error = 0;
+		for (int j=0; j<m-1; ++j) {
+			int i0 = index[j];
+			int i1 = index[j+1];
+			for (int k=i0+1; k<i1; ++k) {
+				double z = profile.getZ(i0)+(profile.getZ(i1)-profile.getZ(i0))*(profile.getDistance(k)-profile.getDistance(i0))/(profile.getDistance(i1)-profile.getDistance(i0));
+				error = Math.max(error, Math.abs(z-profile.getZ(k)));
+			}
+		}
+		System.err.println("LandscapeTest.testLineProfile "+n+" samples ("+expected+" expected), max error = "+diff+", simplified to "+m+" samples, max error = "+error);
+		return((n == expected) && (diff < 0.0001) && (m > 2) && (m < n) && (error <= tolerance) && (index[0] == 0) && (index[m-1] == n-1));
+	}
+	
+	private boolean testFeatureIndex(Landscape landscape) {
+		QuadTree quadTree = landscape.getFactory().getQuadTree(landscape.getHighestLevelKey(5, 5));
+		if (quadTree == null)
+			return(false);
+		// one line crosses the tile, the other is outside of it
+		Node featureSet = new Node("_features");
+		Feature feature = new Feature("_feature", Color.white, null);
+		featureSet.attachChild(feature);
+		LineStrip[] lineStrip = new LineStrip[2];
+		for (int k=0; k<lineStrip.length; ++k) {
+			int n = 1000;
+			FloatBuffer vertex = BufferUtils.createFloatBuffer(n*3);
+			for (int i=0; i<n; ++i) {
+				vertex.put(-100+i*0.37f).put(-50-k*200+i*0.23f).put(-999);
+			}
+			vertex.flip();
+			lineStrip[k] = new LineStrip("_line"+k, vertex, null, null, null);
+			feature.attachChild(lineStrip[k]);
+		}
+		FeatureIndex index = new FeatureIndex(featureSet);
+		if (!index.updateElevation(quadTree))
+			return(false);
+		int count = 0;
+		for (int k=0; k<lineStrip.length; ++k) {
+			FloatBuffer vertex = lineStrip[k].getMeshData().getVertexBuffer();
+			for (int i=0; i<vertex.limit(); i+=3) {
+				float x = vertex.get(i);
+				float y = vertex.get(i+1);
+				float z = vertex.get(i+2);
+				if (quadTree.contains(x, y)) {
+					count ++;
+					if (z != (float)(landscape.getZ(x, y, quadTree)+0.1))
+						return(false);
+				}
+				else if (z != -999)
+					return(false);
+			}
+		}
+		System.err.println("LandscapeTest.testFeatureIndex draped "+count+" vertices");
+		return(count > 0);
+	}
+	
+	private boolean testSummedAreaTable(Landscape landscape, String testLoc) {
+		if (!new File(testLoc+"/elevation", TileStatistics.FILE_NAME).exists())
+			return(false);
+		ElevationRaster raster = landscape.getElevationRaster();
+		TileStatistics stats = raster.getTileStatistics();
+		if (stats == null)
+			return(false);
+		
+		// statistics read from the layer match the tile, tables match the posts
+		double error = 0;
+		int[] point = new int[] {5, 5, -300, 200, 511, -511, -511, 511};
+		for (int i=0; i<point.length; i+=2) {
+			ElevationRaster.Tile tile = raster.getTile(point[i], point[i+1]);
+			SummedAreaTable table = raster.getSummedAreaTable(tile);
+			int columns = table.getColumns();
+			int rows = table.getRows();
+			float[] data = new float[columns*rows];
+			for (int r=0; r<rows; ++r)
+				for (int c=0; c<columns; ++c)
+					data[r*columns+c] = tile.getElevation(c, r);
+			TileStatistics computedStats = new TileStatistics(stats.getLevel(), stats.getTileWidth(), stats.getTileLength());
+			computedStats.set(tile.getKey(), data);
+			int index = stats.getIndex(tile.getKey());
+			if ((index < 0) || (stats.getCount(index) != computedStats.getCount(index))
+				|| (stats.getMinimum(index) != computedStats.getMinimum(index))
+				|| (stats.getMaximum(index) != computedStats.getMaximum(index)))
+				return(false);
+			error = Math.max(error, Math.abs(stats.getSum(index)-computedStats.getSum(index)));
+			error = Math.max(error, Math.abs(stats.getSumOfSquares(index)-computedStats.getSumOfSquares(index))/stats.getCount(index));
+			for (int k=0; k<20; ++k) {
+				int c0 = (k*37)%columns;
+				int r0 = (k*53)%rows;
+				int c1 = c0+1+(k*29)%(columns-c0);
+				int r1 = r0+1+(k*31)%(rows-r0);
+				double sum = 0;
+				int count = 0;
+				for (int r=r0; r<r1; ++r)
+					for (int c=c0; c<c1; ++c)
+						if (!Float.isNaN(data[r*columns+c])) {
+							sum += data[r*columns+c];
+							count ++;
+						}
+				if (table.getCount(c0, r0, c1, r1) != count)
+					return(false);
+				error = Math.max(error, Math.abs(table.getSum(c0, r0, c1, r1)-sum));
+			}
+		}
+		
+		// mean and volume of a concave region match a visit of every post
+		Vector3[] vertex = new Vector3[] {new Vector3(-200.5,-150,0), new Vector3(180,-170.2,0), new Vector3(20,0,0), new Vector3(190,210,0), new Vector3(-170,160,0), new Vector3(-200.5,-150,0)};
+		Vector3 lowerBound = new Vector3(-200.5,-170.2,0);
+		Vector3 upperBound = new Vector3(190,210,0);
+		double elev = 50;
+		double sum = 0;
+		int count = 0;
+		double above = 0;
+		double below = 0;
+		Vector3 p = new Vector3();
+		for (int y=-170; y<210; ++y) {
+			for (int x=-200; x<190; ++x) {
+				p.set(x, y, 0);
+				double z = raster.getElevation(x, y);
+				if (!Double.isNaN(z) && MathUtil.isInsidePolygon(p, vertex)) {
+					sum += z;
+					count ++;
+					if (z < elev)
+						below += elev-z;
+					else
+						above += z-elev;
+				}
+			}
+		}
+		double mean = landscape.getSampledMeanElevationOfRegion(vertex, lowerBound, upperBound);
+		double[] volume = landscape.getSampledVolumeOfRegion(vertex, lowerBound, upperBound, elev);
+		System.err.println("LandscapeTest.testSummedAreaTable max sum error = "+error+", mean = "+mean+" "+(sum/count)
+			+", volume above = "+volume[0]+" "+above+", below = "+volume[1]+" "+below);
+		if ((error >= 0.001) || (Math.abs(mean-sum/count) >= 0.0000001) || (Math.abs(volume[0]-above) >= 0.001)
+			|| (Math.abs(volume[1]-below) >= 0.001))
+			return(false);
+		
+		// a square over 16 whole 128 post tiles and 20 partial ones, only the partial ones are read
+		vertex = new Vector3[] {new Vector3(-300.5,-300.5,0), new Vector3(300.5,-300.5,0), new Vector3(300.5,300.5,0), new Vector3(-300.5,300.5,0), new Vector3(-300.5,-300.5,0)};
+		lowerBound = new Vector3(-300.5,-300.5,0);
+		upperBound = new Vector3(300.5,300.5,0);
+		raster.clear();
+		long misses = raster.getMissCount();
+		mean = landscape.getSampledMeanElevationOfRegion(vertex, lowerBound, upperBound);
+		misses = raster.getMissCount()-misses;
+		volume = landscape.getSampledVolumeOfRegion(vertex, lowerBound, upperBound, elev);
+		sum = 0;
+		count = 0;
+		above = 0;
+		below = 0;
+		// the sampler's grid ends before the upper bound
+		for (int y=-300; y<300; ++y) {
+			for (int x=-300; x<300; ++x) {
+				double z = raster.getElevation(x, y);
+				if (!Double.isNaN(z)) {
+					sum += z;
+					count ++;
+					if (z < elev)
+						below += elev-z;
+					else
+						above += z-elev;
+				}
+			}
+		}
+		System.err.println("LandscapeTest.testSummedAreaTable square read "+misses+" tiles, mean = "+mean+" "+(sum/count)
+			+", volume above = "+volume[0]+" "+above+", below = "+volume[1]+" "+below);
+		return((misses <= 20) && (Math.abs(mean-sum/count) < 0.0000001) && (Math.abs(volume[0]-above) < 0.001)
+			&& (Math.abs(volume[1]-below) < 0.001));
+	}
+	
+	private boolean testRayCaster(Landscape landscape) {
+		ElevationRaster raster = landscape.getElevationRaster();
+		TerrainRayCaster caster = landscape.getRayCaster();
+		double top = landscape.getMaximumElevation()*landscape.getPixelScale()+50;
+		Vector3 down = new Vector3(0, 0, -1);
+		Vector3 position = new Vector3();
+		Vector3 normal = new Vector3();
+		
+		// vertical rays at the posts hit the post elevation
+		double error = 0;
+		for (int y=-500; y<=500; y+=37) {
+			for (int x=-500; x<=500; x+=41) {
+				if (Double.isNaN(caster.intersect(new Vector3(x, y, top), down, Double.MAX_VALUE, position, normal)))
+					return(false);
+				if (normal.getZ() <= 0)
+					return(false);
+				error = Math.max(error, Math.abs(position.getZ()-raster.getElevation(x, y)));
+			}
+		}
+		
+		// oblique rays do not cross the surface before the hit, the line of
+		// sight ends at the hit
+		Random random = new Random(7);
+		int hits = 0;
+		double surfaceError = 0;
+		Vector3 p = new Vector3();
+		for (int i=0; i<200; ++i) {
+			Vector3 origin = new Vector3(random.nextDouble()*800-400, random.nextDouble()*800-400, top);
+			Vector3 direction = new Vector3(random.nextDouble()*2-1, random.nextDouble()*2-1, -0.2-random.nextDouble());
+			double t = caster.intersect(origin, direction, Double.MAX_VALUE, position, normal);
+			if (Double.isNaN(t))
+				continue;
+			hits ++;
+			if (Double.isNaN(caster.intersect(new Vector3(position.getX(), position.getY(), top), down, Double.MAX_VALUE, p, null)))
+				return(false);
+			surfaceError = Math.max(surfaceError, Math.abs(p.getZ()-position.getZ()));
+			for (int k=1; k<100; ++k) {
+				double tk = t*k/100;
+				double x = origin.getX()+tk*direction.getX();
+				double y = origin.getY()+tk*direction.getY();
+				if (!Double.isNaN(caster.intersect(new Vector3(x, y, top), down, Double.MAX_VALUE, p, null))
+					&& (origin.getZ()+tk*direction.getZ() < p.getZ()-0.0001))
+					return(false);
+			}
+			Vector3 beyond = new Vector3(direction).multiplyLocal(t*1.1).addLocal(origin);
+			if (!caster.isVisible(origin, position) || caster.isVisible(origin, beyond))
+				return(false);
+		}
 		
+		// the horizon is at least as high as a fine sampling along each
+		// direction and close to it
+		double horizonError = 0;
+		double x0 = 12.5;
+		double y0 = -30.25;
+		double z0 = raster.getElevation(x0, y0)+2;
+		for (int i=0; i<8; ++i) {
+			double azimuth = i*Math.PI/4;
+			double angle = caster.getHorizonAngle(x0, y0, z0, azimuth, 200);
+			double sampled = Double.NEGATIVE_INFINITY;
+			for (double d=0.05; d<=200; d+=0.05) {
+				double x = x0+d*Math.sin(azimuth);
+				double y = y0+d*Math.cos(azimuth);
+				if (!Double.isNaN(caster.intersect(new Vector3(x, y, top), down, Double.MAX_VALUE, p, null)))
+					sampled = Math.max(sampled, Math.atan((p.getZ()-z0)/d));
+			}
+			if (angle < sampled-0.0000001)
+				return(false);
+			horizonError = Math.max(horizonError, angle-sampled);
+		}
+		
+		// a level ray across the landscape just below the highest post of a
+		// row of tiles only reads the tiles that rise to it
+		TileStatistics stats = raster.getTileStatistics();
+		if (stats == null)
+			return(false);
+		int n = stats.getNumberOfTiles();
+		double y1 = 1;
+		int row = (int)Math.ceil((raster.getLength()/2-y1)*n/raster.getLength())-1;
+		float rowMax = Float.NEGATIVE_INFINITY;
+		for (int c=0; c<n; ++c)
+			if (stats.getCount(row*n+c) > 0)
+				rowMax = Math.max(rowMax, stats.getMaximum(row*n+c));
+		raster.clear();
+		long misses = raster.getMissCount();
+		caster.intersect(new Vector3(-600, y1, rowMax-0.001), new Vector3(1, 0, 0), Double.MAX_VALUE, position, normal);
+		misses = raster.getMissCount()-misses;
+		System.err.println("LandscapeTest.testRayCaster max post error = "+error+", "+hits+" oblique hits, max surface error = "+surfaceError+", max horizon error = "+horizonError+", level ray read "+misses+" of "+n+" tiles");
+		return((error < 0.0001) && (hits > 100) && (surfaceError < 0.001) && (horizonError < 0.01) && (misses < n/2));
+	}
+	
+	private boolean testPrefetch(Landscape landscape) {
+		QuadTreeFactory factory = landscape.getFactory();
+		BasicCamera camera = new BasicCamera(800, 600);
+		camera.setFrustumPerspective(camera.getFovY(), camera.getAspect(), 1, 100000);
+		// look at the landscape from just above its center, close enough that every level is needed
+		camera.setLocation(new Vector3(0, 0, landscape.getMaximumElevation()-landscape.getMinimumElevation()+10));
+		// let the loads from initialization finish so the prefetch has a budget
+		for (int i=0; (i<1000) && (factory.getLoader().getPendingCount() > 0); ++i) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				return(false);
+			}
+		}
+		if (factory.getLoader().getPendingCount() > 0)
+			return(false);
+		// only the root has been loaded
+		for (int q=0; q<4; ++q)
+			if (factory.peekQuadTree(QuadKey.getChild(QuadKey.ROOT, q)) != null)
+				return(false);
+		long prefetched = factory.getPrefetcher().getPrefetchCount();
+		int count = factory.getPrefetcher().prefetch(camera);
+		System.err.println("LandscapeTest prefetched "+count+" tiles");
+		if ((count <= 4) || (factory.getPrefetcher().getPrefetchCount() != prefetched+count))
+			return(false);
+		// the children of the root tile should be loading or in the cache
+		for (int q=0; q<4; ++q)
+			if (factory.peekQuadTree(QuadKey.getChild(QuadKey.ROOT, q)) == null)
+				return(false);
 		return(true);
 	}
 	
+	private boolean testGetSampledStatisticsOfRegion(Landscape landscape) {
+		Vector3[] vertex = new Vector3[] {new Vector3(0,0,0), new Vector3(10,0, 0), new Vector3(10,10,0), new Vector3(0,10,0), new Vector3(0,0,0)};
+		Vector3 lowerBound = new Vector3(0,0,0);
+		Vector3 upperBound = new Vector3(10,10,0);
+		final int[] progress = new int[1];
+		RegionStatistics stats = landscape.getSampledStatisticsOfRegion(vertex, lowerBound, upperBound, 8, null, new RegionSampler.Listener() {
+			@Override
+			public void progress(double fraction) {
+				progress[0] = (int)Math.round(fraction*100);
+			}
+		});
+		System.err.println("LandscapeTest.testGetSampledStatisticsOfRegion 10x10 region = "+stats+" progress = "+progress[0]+"%");
+		// samples are at the pixel centers
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		double above = 0;
+		double below = 0;
+		for (int r=0; r<10; ++r) {
+			for (int c=0; c<10; ++c) {
+				double z = landscape.getElevationAtHighestLevel(c+0.5, r+0.5);
+				sum += z;
+				min = Math.min(min, z);
+				max = Math.max(max, z);
+				if (z < 8)
+					below += 8-z;
+				else
+					above += z-8;
+			}
+		}
+		double mean = sum/100;
+		double var = 0;
+		for (int r=0; r<10; ++r) {
+			for (int c=0; c<10; ++c) {
+				double d = landscape.getElevationAtHighestLevel(c+0.5, r+0.5)-mean;
+				var += d*d;
+			}
+		}
+		if ((stats.getCount() != 100) || (progress[0] != 100))
+			return(false);
+		if ((Math.abs(stats.getMeanElevation()-mean) > 0.0000001) || (stats.getMinimumElevation() != min) || (stats.getMaximumElevation() != max))
+			return(false);
+		if (Math.abs(stats.getStandardDeviation()-Math.sqrt(var/100)) > 0.0000001)
+			return(false);
+		double[] vol = stats.getVolume();
+		if ((Math.abs(vol[0]-above) > 0.00001) || (Math.abs(vol[1]-below) > 0.00001))
+			return(false);
+		double sa = landscape.getSampledSurfaceAreaOfRegion(vertex, lowerBound, upperBound);
+		return(Math.abs(stats.getSurfaceArea()-sa) < 0.0000001);
+	}
+	
+	private boolean testParallelRegionAnalysis(Landscape landscape) {
+		// a region covering several tiles
+		Vector3[] vertex = new Vector3[] {new Vector3(-200,-150,0), new Vector3(180,-170,0), new Vector3(20,0,0), new Vector3(190,210,0), new Vector3(-170,160,0), new Vector3(-200,-150,0)};
+		Vector3 lowerBound = new Vector3(-200,-170,0);
+		Vector3 upperBound = new Vector3(190,210,0);
+		double[] planeEq = MathUtil.getPlaneFromPointAndNormal(vertex[0], Vector3.UNIT_Z, null);
+		int threads = RegionSampler.THREADS;
+		String[] result = new String[2];
+		float[][] diff = new float[2][];
+		try {
+			for (int i=0; i<2; ++i) {
+				RegionSampler.THREADS = (i == 0) ? 1 : 4;
+				RegionStatistics stats = landscape.getSampledStatisticsOfRegion(vertex, lowerBound, upperBound, 8, null, null);
+				double[] vol = landscape.getSampledVolumeOfRegion(vertex, lowerBound, upperBound, 8);
+				diff[i] = new float[380*390];
+				float[] minMaxElev = new float[2];
+				landscape.getSampledDifferenceOfRegion(vertex, lowerBound, upperBound, planeEq, 1, diff[i], 390, minMaxElev);
+				result[i] = stats+" "+stats.getVolume()[0]+" "+stats.getVolume()[1]
+					+" "+landscape.getSampledMeanElevationOfRegion(vertex, lowerBound, upperBound)
+					+" "+landscape.getSampledMeanSlopeOfRegion(vertex, lowerBound, upperBound)
+					+" "+landscape.getSampledSurfaceAreaOfRegion(vertex, lowerBound, upperBound)
+					+" "+vol[0]+" "+vol[1]+" "+minMaxElev[0]+" "+minMaxElev[1];
+				System.err.println("LandscapeTest.testParallelRegionAnalysis "+RegionSampler.THREADS+" threads = "+result[i]);
+				
+				// interrupting the thread cancels the analysis
+				Thread.currentThread().interrupt();
+				stats = landscape.getSampledStatisticsOfRegion(vertex, lowerBound, upperBound, 8, null, null);
+				if (!Thread.interrupted() || (stats != null))
+					return(false);
+			}
+		} finally {
+			RegionSampler.THREADS = threads;
+		}
+		// results must be identical
+		if (!result[0].equals(result[1]))
+			return(false);
+		for (int i=0; i<diff[0].length; ++i) {
+			if (Float.floatToIntBits(diff[0][i]) != Float.floatToIntBits(diff[1][i]))
+				return(false);
+		}
+		return(true);
+	}
+	
+	private boolean testRegionSampler() {
+		// concave, clockwise, with vertices and edges on samples
+		Vector3[] concave = new Vector3[] {new Vector3(-20,-20,0), new Vector3(-20,20,0), new Vector3(0,5,0), new Vector3(20,20,0), new Vector3(20,-20,0), new Vector3(3.3,-7.1,0), new Vector3(-20,-20,0)};
+		// self intersecting star
+		Vector3[] star = new Vector3[6];
+		for (int i=0; i<5; ++i) {
+			double a = Math.PI/2+i*4*Math.PI/5;
+			star[i] = new Vector3(18.5*Math.cos(a), 18.5*Math.sin(a), 0);
+		}
+		star[5] = star[0];
+		Vector3[][] polygon = new Vector3[][] {concave, star};
+		double[] xCoord = RegionSampler.getCoordinates(-25, 0.5, 101, 0, true);
+		double[] yCoord = RegionSampler.getCoordinates(-25, 0.5, 101, 0, false);
+		Vector3 p = new Vector3();
+		for (int k=0; k<polygon.length; ++k) {
+			RegionSampler sampler = new RegionSampler(polygon[k], xCoord, yCoord);
+			int count = 0;
+			for (int r=0; r<yCoord.length; ++r) {
+				for (int c=0; c<xCoord.length; ++c) {
+					p.set(xCoord[c], yCoord[r], 0);
+					boolean inside = MathUtil.isInsidePolygon(p, polygon[k]);
+					if (inside != sampler.isInside(r, c))
+						return(false);
+					if (inside)
+						count ++;
+				}
+			}
+			System.err.println("LandscapeTest.testRegionSampler "+count+" samples inside polygon "+k);
+			if (count != sampler.getSampleCount())
+				return(false);
+		}
+		return(true);
+	}
+	
+	private boolean testBufferPool() {
+		// 2x2 cell tiles have 9 vertices
+		TileBufferPool pool = new TileBufferPool(2, 2, 1000);
+		FloatBuffer vertex = pool.getBuffer(27);
+		FloatBuffer color = pool.getBuffer(36);
+		pool.releaseBuffer(vertex);
+		pool.releaseBuffer(color);
+		// not a tile size
+		pool.releaseBuffer(BufferUtils.createFloatBuffer(12));
+		// shared
+		pool.releaseBuffer(BufferUtils.createFloatBuffer(27).asReadOnlyBuffer());
+		if (pool.getPoolSize() != (27+36)*4)
+			return(false);
+		if ((pool.getBuffer(27) != vertex) || (pool.getBuffer(36) != color))
+			return(false);
+		return((pool.getPoolSize() == 0) && (pool.getReusedCount() == 2));
+	}
+	
+	private boolean testLongLinkedMap() {
+		// access order, the eldest is the least recently read
+		LongLinkedMap<String> map = new LongLinkedMap<String>(4, true);
+		map.put(1, "a");
+		map.put(2, "b");
+		map.put(3, "c");
+		if (!"a".equals(map.get(1)) || (map.get(4) != null))
+			return(false);
+		if (!"b".equals(map.removeEldest()) || !"c".equals(map.removeEldest()) || (map.size() != 1))
+			return(false);
+		
+		// insertion order is not changed by reading or setting again
+		map = new LongLinkedMap<String>(4, false);
+		map.put(1, "a");
+		map.put(2, "b");
+		map.get(1);
+		map.put(1, "A");
+		if (!"A".equals(map.removeEldest()))
+			return(false);
+		
+		// the table grows and removed keys leave no holes in the probe
+		// sequences of the others
+		map.clear();
+		for (long key=0; key<5000; ++key)
+			map.put(key*1024, "x");
+		for (long key=1; key<5000; key+=2)
+			if (map.remove(key*1024) == null)
+				return(false);
+		for (long key=0; key<5000; ++key)
+			if (map.containsKey(key*1024) != (key%2 == 0))
+				return(false);
+		return((map.size() == 2500) && (map.remove(1) == null));
+	}
+	
+	private boolean testQuadTreeCache() {
+		QuadTreeCache cache = new QuadTreeCache(300);
+		CacheTile[] tile = new CacheTile[6];
+		for (int i=0; i<tile.length; ++i) {
+			tile[i] = new CacheTile(i+1);
+			cache.putQuadTree(tile[i].getKey(), tile[i]);
+			if (i < 3)
+				cache.quadTreeLoaded(tile[i].getKey(), tile[i]);
+			else if (i < 5)
+				cache.removeQuadTree(tile[i].getKey(), tile[i]);
+		}
+		// tile 5 was never loaded and holds no bytes
+		if ((cache.getTileCount() != 4) || (cache.getCacheSize() != 300) || (cache.getEvictionCount() != 0))
+			return(false);
+		cache.removeQuadTree(tile[5].getKey(), tile[5]);
+		
+		// access order is now 1, 2, 0
+		if ((cache.getQuadTree(tile[0].getKey()) != tile[0]) || (cache.getQuadTree(99) != null))
+			return(false);
+		if ((cache.getHitCount() != 1) || (cache.getMissCount() != 1))
+			return(false);
+		
+		// tile 1 is least recently used but pinned, tile 2 is evicted instead
+		tile[1].setInUse(true);
+		cache.putQuadTree(tile[3].getKey(), tile[3]);
+		cache.quadTreeLoaded(tile[3].getKey(), tile[3]);
+		if ((cache.peekQuadTree(tile[2].getKey()) != null) || !tile[2].disposed || tile[1].disposed)
+			return(false);
+		if ((cache.getTileCount() != 3) || (cache.getCacheSize() != 300) || (cache.getEvictionCount() != 1))
+			return(false);
+		
+		// released, tile 1 becomes most recently used and tile 0 goes next
+		tile[1].setInUse(false);
+		cache.releaseQuadTree(tile[1].getKey(), tile[1]);
+		cache.putQuadTree(tile[4].getKey(), tile[4]);
+		cache.quadTreeLoaded(tile[4].getKey(), tile[4]);
+		if ((cache.peekQuadTree(tile[0].getKey()) != null) || (cache.peekQuadTree(tile[1].getKey()) != tile[1]))
+			return(false);
+		if ((cache.getCacheSize() != 300) || (cache.getEvictionCount() != 2))
+			return(false);
+		
+		// everything else pinned, only the new tile can go
+		tile[1].setInUse(true);
+		tile[3].setInUse(true);
+		tile[4].setInUse(true);
+		cache.putQuadTree(tile[5].getKey(), tile[5]);
+		cache.quadTreeLoaded(tile[5].getKey(), tile[5]);
+		if (!tile[5].disposed || (cache.getTileCount() != 3) || (cache.getCacheSize() != 300) || (cache.getEvictionCount() != 3))
+			return(false);
+		
+		// a stale tile is not removed
+		cache.removeQuadTree(tile[3].getKey(), new CacheTile(4));
+		cache.removeQuadTree(tile[1].getKey(), tile[1]);
+		if ((cache.getTileCount() != 2) || (cache.getCacheSize() != 200))
+			return(false);
+		// statistics are not changed by peek
+		if ((cache.getHitCount() != 1) || (cache.getMissCount() != 1))
+			return(false);
+		
+		// the table grows and removed keys leave no holes in the probe
+		// sequences of the others
+		cache = new QuadTreeCache(300);
+		tile = new CacheTile[3000];
+		for (int i=0; i<tile.length; ++i) {
+			tile[i] = new CacheTile(i*7+1);
+			cache.putQuadTree(tile[i].getKey(), tile[i]);
+		}
+		for (int i=1; i<tile.length; i+=2)
+			cache.removeQuadTree(tile[i].getKey(), tile[i]);
+		for (int i=0; i<tile.length; ++i)
+			if ((cache.peekQuadTree(tile[i].getKey()) == tile[i]) != (i%2 == 0))
+				return(false);
+		return(cache.getTileCount() == tile.length/2);
+	}
+	
+	private boolean testLoaderPriority(Landscape landscape) {
+		TestLoader loader = new TestLoader(landscape.getFactory());
+		long parent = QuadKey.getChild(QuadKey.ROOT, 0);
+		long[] key = new long[] {QuadKey.getChild(parent, 0), QuadKey.getChild(parent, 1), QuadKey.getChild(QuadKey.ROOT, 1), QuadKey.getChild(QuadKey.ROOT, 2)};
+		double[] x = new double[] {30, 10, 20, 40};
+		QuadTree[] quadTree = new QuadTree[key.length];
+		for (int i=0; i<key.length; ++i) {
+			Vector3 p = new Vector3(x[i], 0, 0);
+			quadTree[i] = new QuadTree(key[i], p, QuadKey.getLevel(key[i]), QuadKey.getQuadrant(key[i]), 1, 1);
+			quadTree[i].createTestPoints(p, 2, 2);
+		}
+		
+		// nearest first
+		loader.setViewpoint(new Vector3());
+		for (int i=0; i<quadTree.length; ++i)
+			loader.load(quadTree[i]);
+		int[] order = new int[] {1, 2, 0, 3};
+		for (int i=0; i<order.length; ++i)
+			if (loader.pollQuadTree() != quadTree[order[i]])
+				return(false);
+		if (loader.pollQuadTree() != null)
+			return(false);
+		
+		// queued requests are re-keyed when the camera moves
+		for (int i=0; i<quadTree.length; ++i)
+			loader.load(quadTree[i]);
+		loader.setViewpoint(new Vector3(45, 0, 0));
+		// merging the parent cancels its children
+		if ((loader.cancel(parent) != 2) || (loader.getCancelCount() != 2))
+			return(false);
+		order = new int[] {3, 2};
+		for (int i=0; i<order.length; ++i)
+			if (loader.pollQuadTree() != quadTree[order[i]])
+				return(false);
+		boolean empty = (loader.pollQuadTree() == null) && (loader.getPendingCount() == 0);
+		loader.dispose();
+		return(empty);
+	}
+	
+	private static class TestLoader extends QuadTreeLoader {
+		
+		public TestLoader(QuadTreeFactory factory) {
+			// no threads, requests are taken by the test
+			super(factory, 0, 0);
+		}
+		
+		@Override
+		public QuadTree pollQuadTree() {
+			return (super.pollQuadTree());
+		}
+	}
+	
+	private static class CacheTile extends QuadTree {
+		
+		private boolean disposed;
+		
+		public CacheTile(long key) {
+			super(key, new Vector3(), 0, 0, 1, 1);
+		}
+		
+		public void setInUse(boolean inUse) {
+			this.inUse = inUse;
+		}
+		
+		@Override
+		public long getMemorySize() {
+			return (100);
+		}
+		
+		@Override
+		public void dispose() {
+			super.dispose();
+			disposed = true;
+		}
+	}
+	
+	private boolean testStreamedLayer(String testLoc) {
+		// build the same layer loading straight into the padded raster
+		String streamLoc = testLoc+"/streamed";
+		new File(streamLoc, "dert").mkdirs();
+		String[] args = new String[] {"-landscape="+streamLoc, "-file="+testLoc+"/testdem.tif", "-tilesize=128", "-type=elevation", "-stream"};
+		LayerFactory lf = new LayerFactory(args);
+		if (!lf.createLayer())
+			return(false);
+		FileSystemTileSource source = new FileSystemTileSource(testLoc);
+		source.getLayerInfo();
+		FileSystemTileSource streamSource = new FileSystemTileSource(streamLoc);
+		streamSource.getLayerInfo();
+		String[] keys = new String[] {"NumberOfLevels", "NumberOfTiles", "MinimumValue", "MaximumValue", "EdgeFillValue"};
+		for (int i=0; i<keys.length; ++i) {
+			String value = source.getProperties("elevation").getProperty(keys[i]);
+			if ((value == null) || !value.equals(streamSource.getProperties("elevation").getProperty(keys[i]))) {
+				System.err.println("LandscapeTest streamed layer "+keys[i]+" does not match");
+				return(false);
+			}
+		}
+		ArrayList<String> idList = new ArrayList<String>();
+		idList.add("");
+		int count = 0;
+		while (!idList.isEmpty()) {
+			String id = idList.remove(idList.size()-1);
+			long key = QuadKey.fromPath(id);
+			QuadTreeTile tile = source.getTile("elevation", key, DataType.Float);
+			QuadTreeTile streamTile = streamSource.getTile("elevation", key, DataType.Float);
+			if ((tile == null) != (streamTile == null)) {
+				System.err.println("LandscapeTest streamed tile "+id+" does not match");
+				return(false);
+			}
+			if (tile == null)
+				continue;
+			if ((tile.width != streamTile.width) || (tile.length != streamTile.length)
+				|| !tile.raster.asFloatBuffer().equals(streamTile.raster.asFloatBuffer())) {
+				System.err.println("LandscapeTest streamed tile "+id+" does not match");
+				return(false);
+			}
+			count ++;
+			for (int i=1; i<=4; ++i)
+				idList.add(id+"/"+i);
+		}
+		System.err.println("LandscapeTest streamed "+count+" tiles");
+		return(count > 1);
+	}
+	
+	private boolean testSampleStatistics(String testLoc) {
+		// statistics gathered while loading must match the loaded raster
+		GTIF gtif = new GTIF(testLoc+"/testdem.tif", new Properties());
+		if (!gtif.open("r"))
+			return(false);
+		try {
+			int width = gtif.getRasterWidth();
+			int length = gtif.getRasterLength();
+			Raster raster = new Raster(width, length, 4, DataType.Float, testLoc);
+			gtif.loadHeightMap(raster);
+			gtif.close();
+			SampleStatistics stats = gtif.getSampleStatistics();
+			long count = 0;
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			byte[] bArray = new byte[width*4];
+			FloatBuffer fBuf = ByteBuffer.wrap(bArray).asFloatBuffer();
+			for (int r=0; r<length; ++r) {
+				raster.get(r, bArray);
+				for (int c=0; c<width; ++c) {
+					float val = fBuf.get(c);
+					if (!Float.isNaN(val)) {
+						count ++;
+						min = Math.min(min, val);
+						max = Math.max(max, val);
+					}
+				}
+			}
+			raster.dispose();
+			long total = 0;
+			long[] histogram = stats.getHistogram();
+			for (int i=0; i<histogram.length; ++i)
+				total += histogram[i];
+			System.err.println("LandscapeTest.testSampleStatistics "+stats+" "+count+" "+min+" "+max);
+			if ((stats.getCount() != count) || (total != count) || (stats.getMinimum() != min) || (stats.getMaximum() != max))
+				return(false);
+			if ((stats.getMinimum() < stats.getBinOrigin())
+				|| (stats.getMaximum() >= stats.getBinOrigin()+histogram.length*stats.getBinWidth()))
+				return(false);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return(false);
+		}
+		
+		// a narrow cluster then a wide range, the bins grow in both directions
+		SampleStatistics stats = new SampleStatistics();
+		Random random = new Random(7);
+		double[] value = new double[10000];
+		for (int i=0; i<value.length; ++i) {
+			value[i] = (i < 1000) ? 5+random.nextDouble() : 2000*random.nextDouble()-1000;
+			stats.add(value[i]);
+		}
+		long[] histogram = stats.getHistogram();
+		long[] expected = new long[histogram.length];
+		for (int i=0; i<value.length; ++i)
+			expected[(int)((value[i]-stats.getBinOrigin())/stats.getBinWidth())] ++;
+		if (!Arrays.equals(histogram, expected) || (stats.getCount() != value.length))
+			return(false);
+		
+		// statistics kept in parts and merged match those kept in one
+		SampleStatistics[] part = new SampleStatistics[] {new SampleStatistics(), new SampleStatistics(), new SampleStatistics()};
+		for (int i=0; i<value.length; ++i)
+			part[(i < 20) ? 2 : i%2].add((i < 20) ? 42 : value[i]);
+		SampleStatistics merged = new SampleStatistics();
+		for (int i=0; i<part.length; ++i)
+			merged.add(part[i]);
+		SampleStatistics single = new SampleStatistics();
+		for (int i=0; i<value.length; ++i)
+			single.add((i < 20) ? 42 : value[i]);
+		System.err.println("LandscapeTest.testSampleStatistics merged "+merged+" "+single);
+		return(Arrays.equals(merged.getHistogram(), single.getHistogram()) && (merged.getCount() == single.getCount())
+			&& (merged.getBinOrigin() == single.getBinOrigin()) && (merged.getBinWidth() == single.getBinWidth()));
+	}
+	
+	private boolean testParallelDecode(String testLoc) {
+		// decoding strips on several threads gives the same raster
+		int threads = RasterFileImpl.DECODE_THREADS;
+		Raster[] raster = new Raster[2];
+		SampleStatistics[] stats = new SampleStatistics[2];
+		try {
+			for (int i=0; i<2; ++i) {
+				RasterFileImpl.DECODE_THREADS = (i == 0) ? 1 : 4;
+				GTIF gtif = new GTIF(testLoc+"/testdem.tif", new Properties());
+				if (!gtif.open("r"))
+					return(false);
+				long t = System.nanoTime();
+				raster[i] = new Raster(gtif.getRasterWidth(), gtif.getRasterLength(), 4, DataType.Float, testLoc);
+				gtif.loadHeightMap(raster[i]);
+				gtif.close();
+				stats[i] = gtif.getSampleStatistics();
+				System.err.println("LandscapeTest.testParallelDecode "+RasterFileImpl.DECODE_THREADS+" threads "
+					+(System.nanoTime()-t)/1000000+" ms");
+			}
+			int width = raster[0].getWidth();
+			byte[] bArray0 = new byte[width*4];
+			byte[] bArray1 = new byte[width*4];
+			for (int r=0; r<raster[0].getLength(); ++r) {
+				raster[0].get(r, bArray0);
+				raster[1].get(r, bArray1);
+				if (!Arrays.equals(bArray0, bArray1)) {
+					System.err.println("LandscapeTest.testParallelDecode row "+r+" does not match");
+					return(false);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			return(false);
+		} finally {
+			RasterFileImpl.DECODE_THREADS = threads;
+			for (int i=0; i<2; ++i)
+				if (raster[i] != null)
+					raster[i].dispose();
+		}
+		return((stats[0].getCount() == stats[1].getCount()) && (stats[0].getMinimum() == stats[1].getMinimum())
+			&& (stats[0].getMaximum() == stats[1].getMaximum())
+			&& Arrays.equals(stats[0].getHistogram(), stats[1].getHistogram()));
+	}
+	
+	private boolean testPDS(String testLoc) {
+		// write the test DEM as a PDS file with the image after a label record
+		Raster raster = null;
+		Raster pdsRaster = null;
+		try {
+			GTIF gtif = new GTIF(testLoc+"/testdem.tif", new Properties());
+			if (!gtif.open("r"))
+				return(false);
+			int width = gtif.getRasterWidth();
+			int length = gtif.getRasterLength();
+			raster = new Raster(width, length, 4, DataType.Float, testLoc);
+			gtif.loadHeightMap(raster);
+			gtif.close();
+			float missing = -32768;
+			int recordBytes = width*4;
+			String label = "PDS_VERSION_ID = PDS3\r\nRECORD_TYPE = FIXED_LENGTH\r\nRECORD_BYTES = "+recordBytes+"\r\n"
+				+"^IMAGE = 2\r\nTARGET_NAME = MARS\r\nOBJECT = IMAGE\r\n  LINES = "+length+"\r\n  LINE_SAMPLES = "+width+"\r\n"
+				+"  SAMPLE_TYPE = PC_REAL\r\n  SAMPLE_BITS = 32\r\n  MISSING_CONSTANT = "+missing+"\r\nEND_OBJECT = IMAGE\r\n"
+				+"OBJECT = IMAGE_MAP_PROJECTION\r\n  MAP_PROJECTION_TYPE = \"EQUIRECTANGULAR\"\r\n  MAP_SCALE = 1.0 <METERS/PIXEL>\r\n"
+				+"  SAMPLE_PROJECTION_OFFSET = "+(width/2)+".0\r\n  LINE_PROJECTION_OFFSET = "+(length/2)+".0\r\n"
+				+"  A_AXIS_RADIUS = 3396.19 <KM>\r\n  C_AXIS_RADIUS = 3396.19 <KM>\r\nEND_OBJECT = IMAGE_MAP_PROJECTION\r\nEND\r\n";
+			byte[] record = new byte[recordBytes];
+			Arrays.fill(record, (byte)' ');
+			System.arraycopy(label.getBytes("US-ASCII"), 0, record, 0, label.length());
+			FileOutputStream out = new FileOutputStream(testLoc+"/testdem.img");
+			out.write(record);
+			ByteBuffer lBuf = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+			FloatBuffer fBuf = ByteBuffer.wrap(record).asFloatBuffer();
+			for (int r=0; r<length; ++r) {
+				raster.get(r, record);
+				float[] row = new float[width];
+				fBuf.get(row);
+				fBuf.rewind();
+				if (r == length/3)
+					Arrays.fill(row, 0, width/2, missing);
+				lBuf.asFloatBuffer().put(row);
+				out.write(record);
+			}
+			out.close();
+			
+			// load it and read a window
+			PDS pds = new PDS(testLoc+"/testdem.img", new Properties());
+			if (!pds.open("r"))
+				return(false);
+			pdsRaster = new Raster(width, length, 4, DataType.Float, testLoc);
+			pds.loadHeightMap(pdsRaster);
+			int top = length/3-5, left = width/2-20, wid = 40, hgt = 30;
+			float[] window = new float[wid*hgt];
+			pds.readWindow(top, left, wid, hgt, window);
+			pds.close();
+			byte[] bArray = new byte[width*4];
+			byte[] pdsArray = new byte[width*4];
+			FloatBuffer pdsBuf = ByteBuffer.wrap(pdsArray).asFloatBuffer();
+			fBuf = ByteBuffer.wrap(bArray).asFloatBuffer();
+			for (int r=0; r<length; ++r) {
+				raster.get(r, bArray);
+				pdsRaster.get(r, pdsArray);
+				for (int c=0; c<width; ++c) {
+					float val = ((r == length/3) && (c < width/2)) ? Float.NaN : fBuf.get(c);
+					if (Float.compare(val, pdsBuf.get(c)) != 0) {
+						System.err.println("LandscapeTest.testPDS sample "+c+","+r+" = "+pdsBuf.get(c)+", expected "+val);
+						return(false);
+					}
+					if ((r >= top) && (r < top+hgt) && (c >= left) && (c < left+wid)
+						&& (Float.compare(val, window[(r-top)*wid+c-left]) != 0)) {
+						System.err.println("LandscapeTest.testPDS window sample "+c+","+r+" = "+window[(r-top)*wid+c-left]+", expected "+val);
+						return(false);
+					}
+				}
+			}
+			System.err.println("LandscapeTest.testPDS "+pds.getSampleStatistics());
+			return(pds.getSampleStatistics().getCount() == (long)width*length-width/2);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return(false);
+		} finally {
+			if (raster != null)
+				raster.dispose();
+			if (pdsRaster != null)
+				pdsRaster.dispose();
+		}
+	}
+	
+	private boolean testJavaGTIF(String testLoc) {
+		// the Java reader gives what libtiff gives for the test DEM and for
+		// copies of it written by libtiff with compression, predictors, and tiles
+		Raster raster = null;
+		try {
+			if (!compareJavaGTIF(testLoc+"/testdem.tif", testLoc))
+				return(false);
+			GTIF gtif = new GTIF(testLoc+"/testdem.tif", new Properties());
+			if (!gtif.open("r"))
+				return(false);
+			int width = gtif.getRasterWidth();
+			int length = gtif.getRasterLength();
+			ProjectionInfo projInfo = gtif.getProjectionInfo();
+			double[] min = gtif.getMinimumSampleValue();
+			double[] max = gtif.getMaximumSampleValue();
+			raster = new Raster(width, length, 4, DataType.Float, testLoc);
+			gtif.loadHeightMap(raster);
+			gtif.close();
+			int[][] layout = {
+				{ JavaGTIF.COMPRESSION_LZW, JavaGTIF.PREDICTOR_FLOATINGPOINT, 0 },
+				{ JavaGTIF.COMPRESSION_ADOBE_DEFLATE, JavaGTIF.PREDICTOR_HORIZONTAL, 256 },
+				{ JavaGTIF.COMPRESSION_PACKBITS, JavaGTIF.PREDICTOR_NONE, 256 } };
+			for (int i=0; i<layout.length; ++i) {
+				String path = testLoc+"/testdem"+layout[i][0]+".tif";
+				int tileSize = layout[i][2];
+				gtif = new GTIF(path, new Properties());
+				if (!gtif.open("w"))
+					return(false);
+				gtif.setTIFFFieldInt(GTIF.TIFFTAG_IMAGEWIDTH, width);
+				gtif.setTIFFFieldInt(GTIF.TIFFTAG_IMAGELENGTH, length);
+				gtif.setTIFFFieldInt(GTIF.TIFFTAG_PLANARCONFIG, GTIF.PLANARCONFIG_CONTIG);
+				gtif.setTIFFFieldInt(GTIF.TIFFTAG_BITSPERSAMPLE, 32);
+				gtif.setTIFFFieldInt(GTIF.TIFFTAG_SAMPLEFORMAT, GTIF.SAMPLEFORMAT_IEEEFP);
+				gtif.setTIFFFieldInt(GTIF.TIFFTAG_SAMPLESPERPIXEL, 1);
+				gtif.setTIFFFieldInt(JavaGTIF.TIFFTAG_COMPRESSION, layout[i][0]);
+				gtif.setTIFFFieldInt(JavaGTIF.TIFFTAG_PREDICTOR, layout[i][1]);
+				gtif.setTIFFFieldDouble(GTIF.TIFFTAG_SMINSAMPLEVALUE, min[0]);
+				gtif.setTIFFFieldDouble(GTIF.TIFFTAG_SMAXSAMPLEVALUE, max[0]);
+				byte[] row = new byte[width*4];
+				if (tileSize == 0) {
+					gtif.setTIFFFieldInt(GTIF.TIFFTAG_ROWSPERSTRIP, 16);
+					gtif.setProjectionInfo(projInfo);
+					ByteBuffer outBuf = ByteBuffer.allocateDirect(width*4*16);
+					for (int s=0; s<length/16; ++s) {
+						outBuf.clear();
+						for (int r=0; r<16; ++r) {
+							raster.get(s*16+r, row);
+							outBuf.put(row);
+						}
+						outBuf.rewind();
+						if (gtif.writeStrip(s, outBuf, outBuf.capacity()) < 0)
+							return(false);
+					}
+				} else {
+					gtif.setTIFFFieldInt(GTIF.TIFFTAG_TILEWIDTH, tileSize);
+					gtif.setTIFFFieldInt(GTIF.TIFFTAG_TILELENGTH, tileSize);
+					gtif.setProjectionInfo(projInfo);
+					ByteBuffer outBuf = ByteBuffer.allocateDirect(tileSize*tileSize*4);
+					int across = width/tileSize;
+					for (int t=0; t<across*(length/tileSize); ++t) {
+						outBuf.clear();
+						for (int r=0; r<tileSize; ++r) {
+							raster.get((t/across)*tileSize+r, row);
+							outBuf.put(row, (t%across)*tileSize*4, tileSize*4);
+						}
+						outBuf.rewind();
+						if (gtif.writeTile(t, outBuf, outBuf.capacity()) < 0)
+							return(false);
+					}
+				}
+				gtif.close();
+				if (!compareJavaGTIF(path, testLoc))
+					return(false);
+			}
+			
+			// a big endian file with 16 bit samples and an overview
+			String path = testLoc+"/overview.tif";
+			ByteBuffer buf = ByteBuffer.allocate(564).order(ByteOrder.BIG_ENDIAN);
+			buf.put((byte)'M').put((byte)'M').putShort((short)42).putInt(264);
+			for (int r=0; r<8; ++r)
+				for (int c=0; c<8; ++c)
+					buf.putShort((short)(r*100-c*7-300));
+			for (int r=0; r<4; ++r)
+				for (int c=0; c<4; ++c)
+					buf.putShort((short)(1000+r*10+c));
+			buf.putDouble(0).putDouble(0).putDouble(0).putDouble(10).putDouble(20).putDouble(0);
+			buf.putDouble(0.5).putDouble(0.5).putDouble(0);
+			buf.putShort((short)1).putShort((short)1).putShort((short)0).putShort((short)2);
+			buf.putShort((short)1024).putShort((short)0).putShort((short)1).putShort((short)2);
+			buf.putShort((short)1025).putShort((short)0).putShort((short)1).putShort((short)1);
+			buf.putShort((short)13);
+			putEntry(buf, 256, 3, 1, 8);
+			putEntry(buf, 257, 3, 1, 8);
+			putEntry(buf, 258, 3, 1, 16);
+			putEntry(buf, 259, 3, 1, 1);
+			putEntry(buf, 262, 3, 1, 1);
+			putEntry(buf, 273, 4, 1, 8);
+			putEntry(buf, 277, 3, 1, 1);
+			putEntry(buf, 278, 3, 1, 8);
+			putEntry(buf, 279, 4, 1, 128);
+			putEntry(buf, 339, 3, 1, 2);
+			putEntry(buf, 33550, 12, 3, 216);
+			putEntry(buf, 33922, 12, 6, 168);
+			putEntry(buf, 34735, 3, 12, 240);
+			buf.putInt(426);
+			buf.putShort((short)11);
+			putEntry(buf, 254, 4, 1, 1);
+			putEntry(buf, 256, 3, 1, 4);
+			putEntry(buf, 257, 3, 1, 4);
+			putEntry(buf, 258, 3, 1, 16);
+			putEntry(buf, 259, 3, 1, 1);
+			putEntry(buf, 262, 3, 1, 1);
+			putEntry(buf, 273, 4, 1, 136);
+			putEntry(buf, 277, 3, 1, 1);
+			putEntry(buf, 278, 3, 1, 4);
+			putEntry(buf, 279, 4, 1, 32);
+			putEntry(buf, 339, 3, 1, 2);
+			buf.putInt(0);
+			FileOutputStream out = new FileOutputStream(path);
+			out.write(buf.array());
+			out.close();
+			if (!compareJavaGTIF(path, testLoc))
+				return(false);
+			JavaGTIF jtif = new JavaGTIF(path, new Properties());
+			if (!jtif.open("r"))
+				return(false);
+			float[] window = new float[16];
+			jtif.readWindow(1, 0, 0, 4, 4, window);
+			jtif.close();
+			if ((jtif.getOverviewCount() != 1) || (jtif.getOverviewWidth(1) != 4) || (jtif.getOverviewLength(1) != 4)) {
+				System.err.println("LandscapeTest.testJavaGTIF found "+jtif.getOverviewCount()+" overviews");
+				return(false);
+			}
+			for (int i=0; i<16; ++i) {
+				if (window[i] != 1000+(i/4)*10+i%4) {
+					System.err.println("LandscapeTest.testJavaGTIF overview sample "+i+" = "+window[i]);
+					return(false);
+				}
+			}
+			return(true);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return(false);
+		} finally {
+			if (raster != null)
+				raster.dispose();
+		}
+	}
+	
+	private void putEntry(ByteBuffer buf, int tag, int type, int count, int value) {
+		buf.putShort((short)tag).putShort((short)type).putInt(count);
+		if ((type == 3) && (count == 1))
+			buf.putShort((short)value).putShort((short)0);
+		else
+			buf.putInt(value);
+	}
+	
+	private boolean compareJavaGTIF(String path, String testLoc) throws Exception {
+		GTIF gtif = new GTIF(path, new Properties());
+		JavaGTIF jtif = new JavaGTIF(path, new Properties());
+		if (!gtif.open("r") || !jtif.open("r"))
+			return(false);
+		int width = gtif.getRasterWidth();
+		int length = gtif.getRasterLength();
+		ProjectionInfo p0 = gtif.getProjectionInfo();
+		ProjectionInfo p1 = jtif.getProjectionInfo();
+		if ((jtif.getRasterWidth() != width) || (jtif.getRasterLength() != length)
+			|| (jtif.getDataType() != gtif.getDataType()) || !Arrays.equals(p0.tiePoint, p1.tiePoint)
+			|| !Arrays.equals(p0.scale, p1.scale) || !p0.globe.equals(p1.globe)) {
+			System.err.println("LandscapeTest.compareJavaGTIF "+path+" tags do not match");
+			return(false);
+		}
+		Raster[] raster = new Raster[2];
+		try {
+			long t = System.nanoTime();
+			raster[0] = new Raster(width, length, 4, DataType.Float, testLoc);
+			gtif.loadHeightMap(raster[0]);
+			long t0 = System.nanoTime()-t;
+			t = System.nanoTime();
+			raster[1] = new Raster(width, length, 4, DataType.Float, testLoc);
+			jtif.loadHeightMap(raster[1]);
+			long t1 = System.nanoTime()-t;
+			System.err.println("LandscapeTest.compareJavaGTIF "+path+" libtiff "+t0/1000000+" ms, Java "+t1/1000000+" ms");
+			int top = length/3, left = width/4, wid = width/2, hgt = Math.max(1, length/4);
+			float[] window = new float[wid*hgt];
+			jtif.readWindow(top, left, wid, hgt, window);
+			byte[] bArray0 = new byte[width*4];
+			byte[] bArray1 = new byte[width*4];
+			FloatBuffer fBuf = ByteBuffer.wrap(bArray0).asFloatBuffer();
+			for (int r=0; r<length; ++r) {
+				raster[0].get(r, bArray0);
+				raster[1].get(r, bArray1);
+				if (!Arrays.equals(bArray0, bArray1)) {
+					System.err.println("LandscapeTest.compareJavaGTIF "+path+" row "+r+" does not match");
+					return(false);
+				}
+				for (int c=left; (r >= top) && (r < top+hgt) && (c < left+wid); ++c) {
+					if (Float.compare(fBuf.get(c), window[(r-top)*wid+c-left]) != 0) {
+						System.err.println("LandscapeTest.compareJavaGTIF "+path+" window sample "+c+","+r+" does not match");
+						return(false);
+					}
+				}
+			}
+		} finally {
+			gtif.close();
+			jtif.close();
+			for (int i=0; i<2; ++i)
+				if (raster[i] != null)
+					raster[i].dispose();
+		}
+		SampleStatistics s0 = gtif.getSampleStatistics();
+		SampleStatistics s1 = jtif.getSampleStatistics();
+		return((s0.getCount() == s1.getCount()) && (s0.getMinimum() == s1.getMinimum())
+			&& (s0.getMaximum() == s1.getMaximum()) && Arrays.equals(s0.getHistogram(), s1.getHistogram()));
+	}
+	
+	private boolean testPackedTiles(String testLoc) {
+		FileSystemTileSource pngSource = new FileSystemTileSource(testLoc);
+		pngSource.getLayerInfo();
+		try {
+			// compressed
+			int n = RasterPyramidLayerFactory.convertToPacked(testLoc+"/elevation", true);
+			if (!comparePackedTiles(testLoc, pngSource, n))
+				return(false);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return(false);
+		}
+		// uncompressed, used by the rest of the tests
+		String[] args = new String[] {"-landscape="+testLoc, "-convert=elevation"};
+		LayerFactory lf = new LayerFactory(args);
+		if (!lf.createLayer())
+			return(false);
+		return(comparePackedTiles(testLoc, pngSource, -1));
+	}
+	
+	private boolean comparePackedTiles(String testLoc, FileSystemTileSource pngSource, int n) {
+		PackedTileSource packedSource = new PackedTileSource(testLoc);
+		packedSource.getLayerInfo();
+		PackedTileFile packedFile = packedSource.getPackedFile("elevation");
+		if (packedFile == null)
+			return(false);
+		System.err.println("LandscapeTest packed "+packedFile.getTileCount()+" tiles, codec "+packedFile.getCodec());
+		if ((n >= 0) && (n != packedFile.getTileCount()))
+			return(false);
+		ArrayList<String> idList = new ArrayList<String>();
+		idList.add("");
+		int count = 0;
+		while (!idList.isEmpty()) {
+			String id = idList.remove(idList.size()-1);
+			long key = QuadKey.fromPath(id);
+			if (!packedFile.contains(key))
+				continue;
+			count ++;
+			if (!QuadKey.toPath(key).equals(id) || ((key != QuadKey.ROOT)
+				&& (QuadKey.getChild(QuadKey.getParent(key), QuadKey.getQuadrant(key)) != key))) {
+				System.err.println("LandscapeTest key "+key+" does not match tile "+id);
+				return(false);
+			}
+			QuadTreeTile pngTile = pngSource.getTile("elevation", key, DataType.Float);
+			QuadTreeTile packedTile = packedSource.getTile("elevation", key, DataType.Float);
+			if ((pngTile == null) != (packedTile == null)) {
+				System.err.println("LandscapeTest packed tile "+id+" does not match PNG tile");
+				return(false);
+			}
+			if (pngTile != null) {
+				if ((pngTile.width != packedTile.width) || (pngTile.length != packedTile.length)
+					|| !pngTile.raster.asFloatBuffer().equals(packedTile.raster.asFloatBuffer())) {
+					System.err.println("LandscapeTest packed tile "+id+" does not match PNG tile");
+					return(false);
+				}
+			}
+			for (int i=1; i<=4; ++i)
+				idList.add(id+"/"+i);
+		}
+		return(count == packedFile.getTileCount());
+	}
+	
 	private boolean testGetVertices(Landscape landscape) {
 		float[] vertex = new float[1024*1024];
 		Vector3 p0 = new Vector3(-511, -511, 0);
@@ -273,18 +1678,32 @@ public class LandscapeTest {
 		Vector3[] vertex = new Vector3[] {new Vector3(0,0,zVal), new Vector3(10,0,zVal), new Vector3(10,10,zVal), new Vector3(0,10,zVal), new Vector3(0,0,zVal)};
 		Vector3 lowerBound = new Vector3(0,0,zVal);
 		Vector3 upperBound = new Vector3(10,10,zVal);
-		float[][] diff = new float[10][10];
+		float[] diff = new float[10*16];
 		float[] minMaxElev = new float[2];
 		double[] planeEq = MathUtil.getPlaneFromPointAndNormal(vertex[0], Vector3.UNIT_Z, null);
-		int[] diffDim = landscape.getSampledDifferenceOfRegion(vertex, lowerBound, upperBound, planeEq, 1, diff, minMaxElev);
+		int[] diffDim = landscape.getSampledDifferenceOfRegion(vertex, lowerBound, upperBound, planeEq, 1, diff, 16, minMaxElev);
 		for (int r=0; r<10; ++r) {
 			for (int c=0; c<10; ++c) {
 				double z = demFactory.getZ(c, r);
-				if ((int)z != (int)diff[r][c])
+				if ((int)z != (int)diff[r*16+c])
 					return(false);
 			}
 		}
-		System.err.println("LandscapeTest.testGetSampledDifferenceOfRegion "+diffDim[0]+" x "+diffDim[1]+" region.");
-		return(true);
+		
+		// a tilted plane, stepped along each row
+		Vector3 normal = new Vector3(0.3, -0.2, 1).normalizeLocal();
+		planeEq = MathUtil.getPlaneFromPointAndNormal(new Vector3(5, 5, 2), normal, null);
+		landscape.getSampledDifferenceOfRegion(vertex, lowerBound, upperBound, planeEq, 1, diff, 16, minMaxElev);
+		double error = 0;
+		for (int r=0; r<10; ++r) {
+			for (int c=0; c<10; ++c) {
+				double z = landscape.getElevationAtHighestLevel(c, r)-landscape.getMinimumElevation()-MathUtil.getPlaneZ(c, r, planeEq);
+				error = Math.max(error, Math.abs(z-diff[r*16+c]));
+				if ((diff[r*16+c] < minMaxElev[0]) || (diff[r*16+c] > minMaxElev[1]))
+					return(false);
+			}
+		}
+		System.err.println("LandscapeTest.testGetSampledDifferenceOfRegion "+diffDim[0]+" x "+diffDim[1]+" region, tilted plane max error = "+error);
+		return(error < 0.0001);
 	}
 }
@@ -0,0 +1,202 @@
+package gov.nasa.arc.dert.test;
+
+import gov.nasa.arc.dert.landscape.TileMeshBuilder;
+import gov.nasa.arc.dert.util.MathUtil;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.ardor3d.math.Vector3;
+import com.ardor3d.util.geom.BufferUtils;
+
+/**
+ * Compares tile mesh construction with TileMeshBuilder to the original
+ * buffer-at-a-time implementation for several tile sizes. Checks that both
+ * produce the same vertices and normals, then reports the time per tile and
+ * the speedup.
+ *
+ * Run with: java gov.nasa.arc.dert.test.MeshBuilderBenchmark [iterations]
+ *
+ */
+public class MeshBuilderBenchmark {
+
+	// Tile sizes in cells
+	private static final int[] TILE_SIZE = { 64, 128, 256, 512 };
+
+	// Surface color
+	private static final float[] RGBA = { 1, 1, 1, 1 };
+
+	public static void main(String[] arg) {
+		int iterations = 50;
+		if (arg.length > 0) {
+			iterations = Integer.parseInt(arg[0]);
+		}
+		System.out.println("MeshBuilderBenchmark " + iterations + " iterations");
+		for (int i = 0; i < TILE_SIZE.length; ++i) {
+			run(TILE_SIZE[i], iterations);
+		}
+	}
+
+	private static void run(int tileSize, int iterations) {
+		int n = tileSize + 1;
+		FloatBuffer data = createTile(n);
+		double pixelWidth = 1;
+
+		// check results
+		TileMeshBuilder builder = new TileMeshBuilder();
+		builder.build(data, n, n, pixelWidth * tileSize, pixelWidth, pixelWidth * tileSize, pixelWidth, 0, 1);
+		Buffer[] legacy = legacyBuild(data, n, n, pixelWidth * tileSize, pixelWidth, pixelWidth * tileSize,
+			pixelWidth, 0, 1);
+		if (!legacy[0].equals(builder.getVertexBuffer()) || !legacy[1].equals(builder.getNormalBuffer())) {
+			System.out.println("MeshBuilderBenchmark " + tileSize + ": results differ");
+			return;
+		}
+
+		// warm up
+		for (int i = 0; i < iterations; ++i) {
+			legacyBuild(data, n, n, pixelWidth * tileSize, pixelWidth, pixelWidth * tileSize, pixelWidth, 0, 1);
+			builder.build(data, n, n, pixelWidth * tileSize, pixelWidth, pixelWidth * tileSize, pixelWidth, 0, 1);
+		}
+
+		long t = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			legacyBuild(data, n, n, pixelWidth * tileSize, pixelWidth, pixelWidth * tileSize, pixelWidth, 0, 1);
+		}
+		double legacyTime = (System.nanoTime() - t) / 1000000.0 / iterations;
+
+		t = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			builder.build(data, n, n, pixelWidth * tileSize, pixelWidth, pixelWidth * tileSize, pixelWidth, 0, 1);
+			builder.getVertexBuffer();
+			builder.getNormalBuffer();
+			builder.getMaskBuffer();
+			TileMeshBuilder.getTopology(tileSize, tileSize).getIndexBuffer();
+			TileMeshBuilder.getTopology(tileSize, tileSize).getTexCoordBuffer();
+		}
+		double builderTime = (System.nanoTime() - t) / 1000000.0 / iterations;
+
+		System.out.printf("MeshBuilderBenchmark %4d: legacy %8.3f ms, builder %8.3f ms, speedup %5.2f%n", tileSize,
+			legacyTime, builderTime, legacyTime / builderTime);
+	}
+
+	// hills with a hole of missing values
+	private static FloatBuffer createTile(int n) {
+		FloatBuffer data = BufferUtils.createFloatBuffer(n * n);
+		for (int r = 0; r < n; ++r) {
+			for (int c = 0; c < n; ++c) {
+				float z = (float) (10 * Math.sin(c * 0.05) * Math.cos(r * 0.07));
+				if ((r > n / 3) && (r < n / 2) && (c > n / 3) && (c < n / 2)) {
+					z = Float.NaN;
+				}
+				data.put(z);
+			}
+		}
+		data.flip();
+		return (data);
+	}
+
+	// the original implementation, returns vertices, normals, colors, indices,
+	// and texture coordinates
+	private static Buffer[] legacyBuild(FloatBuffer data, int cols, int rows, double width, double pixelWidth,
+		double height, double pixelLength, float fillValue, double scale) {
+		int dataSize = cols * rows;
+		FloatBuffer vertex = BufferUtils.createFloatBuffer(dataSize * 3);
+		FloatBuffer colors = BufferUtils.createFloatBuffer(dataSize * 4);
+		int k = 0;
+		float y = (float) height / 2;
+		for (int r = 0; r < rows; ++r) {
+			float x = -(float) width / 2;
+			for (int c = 0; c < cols; ++c) {
+				float z = data.get(k);
+				if (Float.isNaN(z)) {
+					z = fillValue;
+					colors.put(0).put(0).put(0).put(0);
+				} else {
+					colors.put(RGBA[0]).put(RGBA[1]).put(RGBA[2]).put(RGBA[3]);
+				}
+				vertex.put(x).put(y).put((float) (z * scale));
+				k++;
+				x += pixelWidth;
+			}
+			y -= pixelLength;
+		}
+		vertex.flip();
+		colors.flip();
+
+		// normals
+		float[] face = new float[3];
+		float[] nrml = new float[dataSize * 3];
+		byte[] cnt = new byte[dataSize];
+		Vector3 norm = new Vector3();
+		Vector3 v0 = new Vector3();
+		Vector3 v1 = new Vector3();
+		Vector3 v2 = new Vector3();
+		int n = cols * 3;
+		for (int r = 0; r < rows - 1; ++r) {
+			for (int c = 0; c < cols - 1; ++c) {
+				k = r * cols + c;
+				int i = k * 3;
+				v0.set(vertex.get(i), vertex.get(i + 1), vertex.get(i + 2));
+				v1.set(vertex.get(i + n), vertex.get(i + n + 1), vertex.get(i + n + 2));
+				v2.set(vertex.get(i + 3), vertex.get(i + 4), vertex.get(i + 5));
+				MathUtil.createNormal(norm, v0, v1, v2);
+				face[0] = norm.getXf();
+				face[1] = norm.getYf();
+				face[2] = norm.getZf();
+				addFace(k, nrml, face, cnt);
+				addFace(k + 1, nrml, face, cnt);
+				addFace(k + cols, nrml, face, cnt);
+				v0.set(vertex.get(i + n + 3), vertex.get(i + n + 4), vertex.get(i + n + 5));
+				MathUtil.createNormal(norm, v2, v1, v0);
+				face[0] = norm.getXf();
+				face[1] = norm.getYf();
+				face[2] = norm.getZf();
+				addFace(k + 1, nrml, face, cnt);
+				addFace(k + cols, nrml, face, cnt);
+				addFace(k + cols + 1, nrml, face, cnt);
+			}
+		}
+		for (k = 0; k < dataSize; ++k) {
+			for (int j = 0; j < 3; ++j) {
+				nrml[k * 3 + j] /= cnt[k];
+			}
+		}
+		FloatBuffer normal = BufferUtils.createFloatBuffer(nrml);
+
+		// indices
+		int tileSize = cols - 1;
+		int[] index = new int[tileSize * cols * 2];
+		int i = 0;
+		int j = 0;
+		for (int r = 0; r < tileSize; ++r) {
+			for (int c = 0; c < cols; ++c) {
+				index[j++] = i;
+				index[j++] = i + cols;
+				i++;
+			}
+		}
+		IntBuffer indices = BufferUtils.createIntBuffer(index);
+
+		// texture coordinates
+		FloatBuffer texCoords = BufferUtils.createFloatBuffer(dataSize * 2);
+		i = 0;
+		for (int r = 0; r < rows; ++r) {
+			for (int c = 0; c < cols; ++c) {
+				texCoords.put(i * 2, ((float) c) / tileSize);
+				texCoords.put(i * 2 + 1, ((float) r) / tileSize);
+				i++;
+			}
+		}
+
+		return (new Buffer[] { vertex, normal, colors, indices, texCoords });
+	}
+
+	private static void addFace(int index, float[] nrml, float[] face, byte[] cnt) {
+		int i = index * 3;
+		nrml[i] += face[0];
+		nrml[i + 1] += face[1];
+		nrml[i + 2] += face[2];
+		cnt[index]++;
+	}
+}
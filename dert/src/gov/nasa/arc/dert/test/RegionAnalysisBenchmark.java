@@ -0,0 +1,121 @@
+package gov.nasa.arc.dert.test;
+
+import gov.nasa.arc.dert.io.PackedTileSource;
+import gov.nasa.arc.dert.landscape.Landscape;
+import gov.nasa.arc.dert.landscape.LayerManager;
+import gov.nasa.arc.dert.landscape.RegionSampler;
+import gov.nasa.arc.dert.landscape.RegionStatistics;
+import gov.nasa.arc.dert.landscape.factory.LayerFactory;
+
+import java.awt.Color;
+import java.io.File;
+
+import com.ardor3d.math.Vector3;
+
+/**
+ * Measures how the region statistics scale with the number of sampling
+ * threads. Creates a test landscape, computes the statistics of a polygon
+ * covering most of it with 1, 2, 4, ... threads up to the number of
+ * processors, checks that every result is identical to the single thread
+ * result, and reports the time, speedup, and efficiency.
+ *
+ * Run with: java gov.nasa.arc.dert.test.RegionAnalysisBenchmark [size]
+ * [iterations]
+ *
+ */
+public class RegionAnalysisBenchmark {
+
+	// Location of the test landscape
+	private static final String BENCHMARK_LOC = "/tmp/dertbenchmark";
+
+	public static void main(String[] arg) {
+		int size = 2048;
+		int iterations = 5;
+		if (arg.length > 0) {
+			size = Integer.parseInt(arg[0]);
+		}
+		if (arg.length > 1) {
+			iterations = Integer.parseInt(arg[1]);
+		}
+		new DertTest(new String[0]);
+		Landscape landscape = createLandscape(size);
+		if (landscape == null) {
+			System.out.println("RegionAnalysisBenchmark: unable to create landscape");
+			System.exit(1);
+		}
+
+		// an irregular polygon covering most of the landscape
+		double s = size * 0.45;
+		Vector3[] vertex = new Vector3[] { new Vector3(-s, -s, 0), new Vector3(s, -s * 0.9, 0),
+			new Vector3(s * 0.2, 0, 0), new Vector3(s, s, 0), new Vector3(-s * 0.8, s, 0), new Vector3(-s, -s, 0) };
+		Vector3 lowerBound = new Vector3(-s, -s, 0);
+		Vector3 upperBound = new Vector3(s, s, 0);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println("RegionAnalysisBenchmark " + size + "x" + size + " landscape, " + iterations
+			+ " iterations, " + processors + " processors");
+		int threads = RegionSampler.THREADS;
+		String expected = null;
+		double baseTime = 0;
+		try {
+			for (int n = 1; n <= processors; n = (n == processors) ? n + 1 : Math.min(n * 2, processors)) {
+				RegionSampler.THREADS = n;
+				// warm up, this also loads the tiles
+				RegionStatistics stats = landscape.getSampledStatisticsOfRegion(vertex, lowerBound, upperBound, 0,
+					null, null);
+				String result = stats + " " + stats.getVolume()[0] + " " + stats.getVolume()[1];
+				if (expected == null) {
+					expected = result;
+					System.out.println("RegionAnalysisBenchmark " + expected);
+				} else if (!expected.equals(result)) {
+					System.out.println("RegionAnalysisBenchmark " + n + " threads: results differ " + result);
+					System.exit(1);
+				}
+
+				long t = System.nanoTime();
+				for (int i = 0; i < iterations; ++i) {
+					landscape.getSampledStatisticsOfRegion(vertex, lowerBound, upperBound, 0, null, null);
+				}
+				double time = (System.nanoTime() - t) / 1000000.0 / iterations;
+				if (n == 1) {
+					baseTime = time;
+				}
+				System.out.printf("RegionAnalysisBenchmark %3d threads: %10.3f ms, speedup %6.2f, efficiency %5.2f%n",
+					n, time, baseTime / time, baseTime / time / n);
+			}
+		} finally {
+			RegionSampler.THREADS = threads;
+		}
+		System.exit(0);
+	}
+
+	private static Landscape createLandscape(int size) {
+		File dertDir = new File(BENCHMARK_LOC, "dert");
+		if (!dertDir.exists() && !dertDir.mkdirs()) {
+			return (null);
+		}
+		if (!new File(BENCHMARK_LOC, "testdem.tif").exists()) {
+			TestDemFactory demFactory = new TestDemFactory(size);
+			if (!demFactory.createDem(BENCHMARK_LOC + "/testdem.tif")) {
+				return (null);
+			}
+			String[] args = new String[] { "-landscape=" + BENCHMARK_LOC, "-file=" + BENCHMARK_LOC + "/testdem.tif",
+				"-tilesize=128", "-type=elevation" };
+			LayerFactory lf = new LayerFactory(args);
+			if (!lf.createLayer()) {
+				return (null);
+			}
+		}
+		PackedTileSource tileSource = new PackedTileSource(BENCHMARK_LOC);
+		if (!tileSource.connect("dert", "dert")) {
+			return (null);
+		}
+		LayerManager layerManager = new LayerManager();
+		if (!layerManager.initialize(tileSource)) {
+			return (null);
+		}
+		Landscape landscape = Landscape.createInstance(tileSource, layerManager, Color.white);
+		landscape.initialize();
+		return (landscape);
+	}
+}
@@ -0,0 +1,243 @@
+package gov.nasa.arc.dert.util;
+
+/**
+ * A map from primitive long keys to values that keeps its entries in
+ * insertion or access order, like a LinkedHashMap without boxing the keys.
+ * Entries are hashed in an open addressed table and linked in a list whose
+ * head is the eldest entry. Lookups and removals do not allocate. Not
+ * synchronized.
+ *
+ */
+public class LongLinkedMap<V> {
+
+	// Open addressed hash table of keys and their entries, a null entry is an
+	// empty slot
+	private long[] keys;
+	private Entry<V>[] entries;
+
+	// Number of entries
+	private int count;
+
+	// Sentinel of the entry list, head.after is the eldest entry
+	private Entry<V> head;
+
+	// Move an entry to the end of the list when it is read
+	private boolean accessOrder;
+
+	private static class Entry<V> {
+		private long key;
+		private V value;
+
+		// list links
+		private Entry<V> before, after;
+
+		private Entry(long key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            the initial capacity
+	 * @param accessOrder
+	 *            keep the entries in access order rather than insertion order
+	 */
+	public LongLinkedMap(int capacity, boolean accessOrder) {
+		this.accessOrder = accessOrder;
+		int n = 16;
+		while (n < capacity * 2) {
+			n *= 2;
+		}
+		createTable(n);
+		head = new Entry<V>(-1, null);
+		head.before = head;
+		head.after = head;
+	}
+
+	/**
+	 * Get the value for a key. In access order the entry becomes the newest.
+	 *
+	 * @param key
+	 * @return null if the key is not in the map
+	 */
+	public V get(long key) {
+		Entry<V> entry = findEntry(key);
+		if (entry == null) {
+			return (null);
+		}
+		if (accessOrder) {
+			unlink(entry);
+			append(entry);
+		}
+		return (entry.value);
+	}
+
+	/**
+	 * Determine if a key is in the map without changing the order
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(long key) {
+		return (findEntry(key) != null);
+	}
+
+	/**
+	 * Set the value for a key. A new entry becomes the newest, as does an
+	 * existing entry in access order.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value or null
+	 */
+	public V put(long key, V value) {
+		Entry<V> entry = findEntry(key);
+		if (entry != null) {
+			V old = entry.value;
+			entry.value = value;
+			if (accessOrder) {
+				unlink(entry);
+				append(entry);
+			}
+			return (old);
+		}
+		if (count >= entries.length / 2) {
+			resize();
+		}
+		entry = new Entry<V>(key, value);
+		insert(entry);
+		count++;
+		append(entry);
+		return (null);
+	}
+
+	/**
+	 * Remove a key
+	 *
+	 * @param key
+	 * @return the value or null if the key is not in the map
+	 */
+	public V remove(long key) {
+		int mask = entries.length - 1;
+		int i = indexFor(key);
+		while ((entries[i] != null) && (keys[i] != key)) {
+			i = (i + 1) & mask;
+		}
+		Entry<V> entry = entries[i];
+		if (entry == null) {
+			return (null);
+		}
+		entries[i] = null;
+		count--;
+		unlink(entry);
+		// shift later entries of the probe sequence back into the hole
+		for (int j = (i + 1) & mask; entries[j] != null; j = (j + 1) & mask) {
+			int home = indexFor(keys[j]);
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				keys[i] = keys[j];
+				entries[i] = entries[j];
+				entries[j] = null;
+				i = j;
+			}
+		}
+		return (entry.value);
+	}
+
+	/**
+	 * Remove the eldest entry
+	 *
+	 * @return its value or null if the map is empty
+	 */
+	public V removeEldest() {
+		if (count == 0) {
+			return (null);
+		}
+		return (remove(head.after.key));
+	}
+
+	/**
+	 * Get the number of entries
+	 *
+	 * @return
+	 */
+	public int size() {
+		return (count);
+	}
+
+	/**
+	 * Determine if the map is empty
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return (count == 0);
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	public void clear() {
+		for (int i = 0; i < entries.length; ++i) {
+			entries[i] = null;
+		}
+		head.before = head;
+		head.after = head;
+		count = 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void createTable(int n) {
+		keys = new long[n];
+		entries = new Entry[n];
+	}
+
+	private int indexFor(long key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return ((int) (h ^ (h >>> 32)) & (entries.length - 1));
+	}
+
+	private Entry<V> findEntry(long key) {
+		int mask = entries.length - 1;
+		for (int i = indexFor(key); entries[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return (entries[i]);
+			}
+		}
+		return (null);
+	}
+
+	private void insert(Entry<V> entry) {
+		int mask = entries.length - 1;
+		int i = indexFor(entry.key);
+		while (entries[i] != null) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = entry.key;
+		entries[i] = entry;
+	}
+
+	private void resize() {
+		Entry<V>[] oldEntries = entries;
+		createTable(oldEntries.length * 2);
+		for (int i = 0; i < oldEntries.length; ++i) {
+			if (oldEntries[i] != null) {
+				insert(oldEntries[i]);
+			}
+		}
+	}
+
+	private void append(Entry<V> entry) {
+		entry.after = head;
+		entry.before = head.before;
+		head.before.after = entry;
+		head.before = entry;
+	}
+
+	private static <V> void unlink(Entry<V> entry) {
+		entry.before.after = entry.after;
+		entry.after.before = entry.before;
+	}
+}
@@ -75,7 +75,7 @@ public class ContourScene extends BasicScene implements ColorMapListener {
 	// Texture
 	private TextureState textureState;
 	private Image textureImage, colorTableImage;
-	private float[][] diff;
+	private float[] diff;
 
 	/**
 	 * Constructor
@@ -103,6 +103,7 @@ public class ContourScene extends BasicScene implements ColorMapListener {
 
 		// Allocate memory
 		byteBuffer = ByteBuffer.allocateDirect(imageSize * imageSize);
+		diff = new float[imageSize * imageSize];
 		table = ByteBuffer.allocateDirect(lutSize * 4);
 		table.order(ByteOrder.nativeOrder());
 
@@ -174,7 +175,6 @@ public class ContourScene extends BasicScene implements ColorMapListener {
 	 * Get the elevation difference data and update the contours
 	 */
 	public void updateContour() {
-		diff = new float[imageSize][imageSize];
 		int[] dim = plane.getElevationDifference(imageSize, diff, minMaxElev);
 		rows = dim[0];
 		columns = dim[1];
@@ -182,37 +182,32 @@ public class ContourScene extends BasicScene implements ColorMapListener {
 		offY = (imageSize - rows) / 2;
 		double min = Math.floor(minMaxElev[0]);
 		double max = Math.ceil(minMaxElev[1]);
-		byteBuffer.clear();
-		for (int i = 0; i < offY; ++i) {
-			for (int j = 0; j < imageSize; ++j) {
-				byteBuffer.put((byte) 0);
-			}
-		}
+		double scale = (lutSize - 2) / (max - min);
+
+		// write each row of differences into its place in the texture, only
+		// the border around them is cleared
+		clearTexture(0, offY * imageSize);
 		for (int i = 0; i < rows; ++i) {
-			for (int j = 0; j < offX; ++j) {
-				byteBuffer.put((byte) 0);
-			}
+			int k = (i + offY) * imageSize;
+			clearTexture(k, k + offX);
+			k += offX;
+			int d = i * imageSize;
 			for (int j = 0; j < columns; ++j) {
-				if (Float.isNaN(diff[i][j])) {
-					byteBuffer.put((byte) 0);
+				float value = diff[d++];
+				if (Float.isNaN(value)) {
+					byteBuffer.put(k++, (byte) 0);
 				} else {
-					int b = (int) (1 + (lutSize - 2) * (diff[i][j] - min) / (max - min));
+					int b = (int) (1 + scale * (value - min));
 					if ((b < 1) || (b > 255)) {
-						System.err.println("ContourScene.updateContour " + b + " " + i + " " + j + " " + diff[i][j]
-							+ " " + minMaxElev[0] + " " + minMaxElev[1]);
+						System.err.println("ContourScene.updateContour " + b + " " + i + " " + j + " " + value + " "
+							+ minMaxElev[0] + " " + minMaxElev[1]);
 					}
-					byteBuffer.put((byte) b);
+					byteBuffer.put(k++, (byte) b);
 				}
 			}
-			for (int j = columns + offX; j < imageSize; ++j) {
-				byteBuffer.put((byte) 0);
-			}
-		}
-		for (int i = rows + offY; i < imageSize; ++i) {
-			for (int j = 0; j < imageSize; ++j) {
-				byteBuffer.put((byte) 0);
-			}
+			clearTexture(k, (i + offY + 1) * imageSize);
 		}
+		clearTexture((rows + offY) * imageSize, imageSize * imageSize);
 		byteBuffer.rewind();
 		texture.setImage(textureImage);
 		colorMap.setBaseMinimum(min);
@@ -220,6 +215,12 @@ public class ContourScene extends BasicScene implements ColorMapListener {
 		colorMap.setRange(min, max);
 	}
 
+	private void clearTexture(int first, int last) {
+		for (int i = first; i < last; ++i) {
+			byteBuffer.put(i, (byte) 0);
+		}
+	}
+
 	@Override
 	public void render(Renderer renderer) {
 //		camera.update();
@@ -335,13 +336,13 @@ public class ContourScene extends BasicScene implements ColorMapListener {
 		ReadOnlyVector3 pos = camera.getWorldCoordinates(mousePos, 0);
 		double pX = pos.getX() + (imageSize / 2) - offX;
 		double pY = pos.getY() + (imageSize / 2) - offY;
-		if ((pX < 0) || (pX > columns)) {
+		if ((pX < 0) || (pX >= columns)) {
 			return (null);
 		}
-		if ((pY < 0) || (pY > rows)) {
+		if ((pY < 0) || (pY >= rows)) {
 			return (null);
 		}
-		double pZ = diff[(int) pY][(int) pX];
+		double pZ = diff[(int) pY * imageSize + (int) pX];
 		pX /= columns;
 		pY /= rows;
 		ReadOnlyVector3 lowerBound = plane.getLowerBound();
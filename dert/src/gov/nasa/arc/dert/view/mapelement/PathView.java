@@ -2,6 +2,8 @@ package gov.nasa.arc.dert.view.mapelement;
 
 import gov.nasa.arc.dert.icon.Icons;
 import gov.nasa.arc.dert.landscape.Landscape;
+import gov.nasa.arc.dert.landscape.RegionSampler;
+import gov.nasa.arc.dert.landscape.RegionStatistics;
 import gov.nasa.arc.dert.scene.tool.Path;
 import gov.nasa.arc.dert.state.MapElementState;
 import gov.nasa.arc.dert.state.State;
@@ -165,44 +167,24 @@ public class PathView extends JPanelView {
 				
 				Vector3[] vertex = path.getPolygonVertices();
 				if (vertex != null) {
-					messageLabel.setText("Calculating mean elevation ...");
-					Thread.yield();
-					String str = getMeanElevation(vertex);
-					if (str == null) {
-						doCancel();
-						return;
-					}
-					textArea.append(str);
+					String str;
 					if (vertex.length > 3) {
-						messageLabel.setText("Calculating surface area ...");
+						messageLabel.setText("Calculating statistics ...");
 						Thread.yield();
-						str = getSurfaceArea(vertex);
+						str = getStatistics(path);
 						if (str == null) {
 							doCancel();
 							return;
 						}
 						textArea.append(str);
-						messageLabel.setText("Calculating mean slope ...");
-						Thread.yield();
-						str = getMeanSlope(vertex);
+					}
+					else {
+						str = getMeanElevation(vertex);
 						if (str == null) {
 							doCancel();
 							return;
 						}
-						textArea.append(str);
-						if (volumeCheck.isSelected()) {
-							messageLabel.setText("Calculating volume ...");
-							Thread.yield();
-							str = getVolume(getVolElevation(), path);
-							if (str == null) {
-								doCancel();
-								return;
-							}
-							textArea.append(str);
-						}
-					}
-					else {
-						str = "Surface Area: N/A\n";
+						str += "Surface Area: N/A\n";
 						str += "Mean Slope: N/A\n";
 						if (volumeCheck.isSelected())
 							str += "Volume: N/A\n";
@@ -253,13 +235,6 @@ public class PathView extends JPanelView {
 		return(str);
 	}
 	
-	private String getSurfaceArea(Vector3[] vertex) {
-		double sampledVal = Landscape.getInstance().getSampledSurfaceAreaOfRegion(vertex, lowerBound, upperBound);
-		if (Double.isNaN(sampledVal))
-			return(null);
-		return("Surface Area: "+String.format(Landscape.stringFormat, sampledVal)+"\n");
-	}
-	
 	private String getMeanElevation(Vector3[] vertex) {
 		String str = "";
 		if (vertex.length < 3) {
@@ -279,25 +254,33 @@ public class PathView extends JPanelView {
 		return(str);
 	}
 	
-	private String getMeanSlope(Vector3[] vertex) {
-		double sampledVal = Landscape.getInstance().getSampledMeanSlopeOfRegion(vertex, lowerBound, upperBound);
-		if (Double.isNaN(sampledVal))
+	private String getStatistics(Path path) {
+		final double volElev = getVolElevation();
+		boolean doVolume = volumeCheck.isSelected();
+		RegionStatistics stats = path.getStatistics(doVolume, volElev, new RegionSampler.Listener() {
+			@Override
+			public void progress(double fraction) {
+				messageLabel.setText("Calculating statistics ... " + (int) Math.round(fraction * 100) + "%");
+			}
+		});
+		if (stats == null)
 			return(null);
-		return("Mean Slope: "+String.format(Landscape.stringFormat, sampledVal)+"\n");
-	}
-	
-	private String getVolume(double volElev, Path path) {
-		String str = null;
-		double[] vol = path.getVolume(volElev);
-		if (vol == null)
-			return(str);
-		if (!Double.isNaN(volElev)) {
-			str = "Volume Above "+"Elevation "+volElev+": " + String.format(Landscape.stringFormat, vol[0]) + "\n";
-			str += "Volume Below "+"Elevation "+volElev+": " + String.format(Landscape.stringFormat, vol[1]) + "\n";
-		}
-		else {
-			str = "Volume Above Polygon: " + String.format(Landscape.stringFormat, vol[0]) + "\n";
-			str += "Volume Below Polygon: " + String.format(Landscape.stringFormat, vol[1]) + "\n";
+		String str = "Mean Elevation: "+String.format(Landscape.stringFormat, stats.getMeanElevation())+"\n";
+		str += "Minimum Elevation: "+String.format(Landscape.stringFormat, stats.getMinimumElevation())+"\n";
+		str += "Maximum Elevation: "+String.format(Landscape.stringFormat, stats.getMaximumElevation())+"\n";
+		str += "Elevation Standard Deviation: "+String.format(Landscape.stringFormat, stats.getStandardDeviation())+"\n";
+		str += "Surface Area: "+String.format(Landscape.stringFormat, stats.getSurfaceArea())+"\n";
+		str += "Mean Slope: "+String.format(Landscape.stringFormat, stats.getMeanSlope())+"\n";
+		if (doVolume) {
+			double[] vol = stats.getVolume();
+			if (!Double.isNaN(volElev)) {
+				str += "Volume Above "+"Elevation "+volElev+": " + String.format(Landscape.stringFormat, vol[0]) + "\n";
+				str += "Volume Below "+"Elevation "+volElev+": " + String.format(Landscape.stringFormat, vol[1]) + "\n";
+			}
+			else {
+				str += "Volume Above Polygon: " + String.format(Landscape.stringFormat, vol[0]) + "\n";
+				str += "Volume Below Polygon: " + String.format(Landscape.stringFormat, vol[1]) + "\n";
+			}
 		}
 		return(str);
 	}
@@ -110,6 +110,8 @@ public class WorldScene extends BasicScene implements DirtyEventListener {
 	public void update(ReadOnlyTimer timer) {
 		// update the landscape quad tree
 		Landscape.getInstance().update(viewpointNode.getCamera());
+		// drape the feature sets on the tiles that changed in this frame
+		World.getInstance().getFeatureSets().updateElevation();
 		// has the viewpoint changed?
 		boolean viewpointChanged = viewpointNode.changed.getAndSet(false);
 		// if either the viewpoint or landscape changed, update the other view dependent objects
@@ -1,11 +1,14 @@
 package gov.nasa.arc.dert.viewpoint;
 
 import gov.nasa.arc.dert.Dert;
+import gov.nasa.arc.dert.landscape.Landscape;
+import gov.nasa.arc.dert.landscape.QuadTreePrefetcher;
 import gov.nasa.arc.dert.render.SceneFramework;
 import gov.nasa.arc.dert.scene.World;
 import gov.nasa.arc.dert.scene.tool.Path;
 import gov.nasa.arc.dert.scenegraph.Ray3WithLine;
 import gov.nasa.arc.dert.state.PathState;
+import gov.nasa.arc.dert.view.Console;
 import gov.nasa.arc.dert.view.viewpoint.FlyThroughDialog;
 import gov.nasa.arc.dert.viewpoint.ViewpointNode.ViewpointMode;
 
@@ -417,6 +420,9 @@ public class ViewpointController {
 			return;
 		flyThroughTimer.stop();
 		flyIndex = 0;
+		QuadTreePrefetcher prefetcher = getPrefetcher();
+		if (prefetcher != null)
+			Console.println(prefetcher.toString());
 		Dert.getWorldView().getScenePanel().enableFrameGrab(null);
 		// start the rendering framework again
 		SceneFramework.getInstance().suspend(false);
@@ -427,6 +433,13 @@ public class ViewpointController {
 		flyThroughDialog.enableParameters(true);
 	}
 
+	private QuadTreePrefetcher getPrefetcher() {
+		Landscape landscape = Landscape.getInstance();
+		if ((landscape == null) || (landscape.getFactory() == null))
+			return (null);
+		return (landscape.getFactory().getPrefetcher());
+	}
+
 	/**
 	 * Pause flight
 	 */
@@ -451,10 +464,25 @@ public class ViewpointController {
 			final int millis = (flyParams.grab && (flyParams.millisPerFrame < 1000)) ? 1000 : flyParams.millisPerFrame;
 			flyIndex = 0;
 			oldViewpoint = viewpointNode.getViewpoint(oldViewpoint);
+			// warm the tile cache with the first frames of the flight
+			final QuadTreePrefetcher prefetcher = getPrefetcher();
+			if (prefetcher != null) {
+				prefetcher.resetStatistics();
+				for (int i = 0; (i < QuadTreePrefetcher.LOOKAHEAD_FRAMES) && (i < flyList.size()); ++i)
+					prefetcher.prefetch(viewpointNode.getCamera(), flyList.get(i));
+			}
 			flyThroughTimer = new Timer(millis, new ActionListener() {
 				@Override
 				public void actionPerformed(ActionEvent event) {
 					viewpointNode.setViewpoint(flyList.get(flyIndex), true, false);
+					// load the tiles for a frame ahead
+					if (prefetcher != null) {
+						int index = flyIndex + QuadTreePrefetcher.LOOKAHEAD_FRAMES;
+						if (flyParams.loop)
+							index %= flyList.size();
+						if (index < flyList.size())
+							prefetcher.prefetch(viewpointNode.getCamera(), flyList.get(index));
+					}
 					SceneFramework.getInstance().getFrameHandler().updateFrame();
 					double t = (flyIndex * millis) / 1000.0;
 					int hr = (int) (t / 3600);